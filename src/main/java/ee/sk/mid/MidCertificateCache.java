@@ -0,0 +1,248 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of certificate choice responses and the certificates parsed from them,
+ * keyed by phone number and national identity number.
+ * <p>
+ * Only responses with result OK are cached. An entry expires after the time to live
+ * or when the certificate expires, whichever comes first. When the cache is full the least recently used
+ * entry is evicted. Entries can be removed explicitly, e.g. after the person has renewed their certificates.
+ *
+ * @see ee.sk.mid.rest.MidCertificateCachingConnector
+ * @see MidClient.MobileIdClientBuilder#withCertificateCache(MidCertificateCache)
+ */
+public class MidCertificateCache {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidCertificateCache.class);
+
+    private final int maxSize;
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<Key, CacheEntry> entries;
+    private final Map<String, CacheEntry> entriesByCertificate = new HashMap<>();
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private MidCertificateCache(MidCertificateCacheBuilder builder) {
+        this.maxSize = builder.maxSize;
+        this.timeToLiveMillis = builder.timeToLive.toMillis();
+        this.entries = new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+                if (size() > MidCertificateCache.this.maxSize) {
+                    evictions++;
+                    removeByCertificate(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return cached response or null if there is none or it has expired
+     */
+    public synchronized MidCertificateChoiceResponse getResponse(String phoneNumber, String nationalIdentityNumber) {
+        Key key = new Key(phoneNumber, nationalIdentityNumber);
+        CacheEntry entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            removeByCertificate(entry);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.response;
+    }
+
+    /**
+     * Parses and caches the certificate from the response. Responses that are not OK,
+     * have no certificate or have an expired certificate are not cached.
+     */
+    public void put(String phoneNumber, String nationalIdentityNumber, MidCertificateChoiceResponse response) {
+        if (!"OK".equalsIgnoreCase(response.getResult()) || isBlank(response.getCert())) {
+            return;
+        }
+        X509Certificate certificate = MidCertificateParser.parseX509Certificate(response.getCert());
+        long expiresAt = Math.min(System.currentTimeMillis() + timeToLiveMillis, certificate.getNotAfter().getTime());
+        if (expiresAt <= System.currentTimeMillis()) {
+            logger.debug("Not caching expired certificate");
+            return;
+        }
+        CacheEntry entry = new CacheEntry(response, certificate, expiresAt);
+        synchronized (this) {
+            CacheEntry previous = entries.put(new Key(phoneNumber, nationalIdentityNumber), entry);
+            if (previous != null) {
+                removeByCertificate(previous);
+            }
+            entriesByCertificate.put(response.getCert(), entry);
+        }
+    }
+
+    /**
+     * @return certificate parsed earlier from a cached response with the same certificate value, or null
+     */
+    public synchronized X509Certificate getParsedCertificate(MidCertificateChoiceResponse response) {
+        CacheEntry entry = entriesByCertificate.get(response.getCert());
+        return entry == null || entry.expiresAt <= System.currentTimeMillis() ? null : entry.certificate;
+    }
+
+    public synchronized void invalidate(String phoneNumber, String nationalIdentityNumber) {
+        CacheEntry entry = entries.remove(new Key(phoneNumber, nationalIdentityNumber));
+        if (entry != null) {
+            removeByCertificate(entry);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        entriesByCertificate.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of entries removed to stay within the max size
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void removeByCertificate(CacheEntry entry) {
+        entriesByCertificate.remove(entry.response.getCert(), entry);
+    }
+
+    private static class CacheEntry {
+        private final MidCertificateChoiceResponse response;
+        private final X509Certificate certificate;
+        private final long expiresAt;
+
+        CacheEntry(MidCertificateChoiceResponse response, X509Certificate certificate, long expiresAt) {
+            this.response = response;
+            this.certificate = certificate;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Key {
+        private final String phoneNumber;
+        private final String nationalIdentityNumber;
+
+        Key(String phoneNumber, String nationalIdentityNumber) {
+            this.phoneNumber = phoneNumber;
+            this.nationalIdentityNumber = nationalIdentityNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return Objects.equals(phoneNumber, that.phoneNumber)
+                && Objects.equals(nationalIdentityNumber, that.nationalIdentityNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(phoneNumber, nationalIdentityNumber);
+        }
+    }
+
+    public static MidCertificateCacheBuilder newBuilder() {
+        return new MidCertificateCacheBuilder();
+    }
+
+    public static class MidCertificateCacheBuilder {
+        private int maxSize = 10000;
+        private Duration timeToLive = Duration.ofHours(1);
+
+        private MidCertificateCacheBuilder() {}
+
+        public MidCertificateCacheBuilder withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Entries expire after this time, or earlier if the certificate expires.
+         */
+        public MidCertificateCacheBuilder withTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public MidCertificateCache build() {
+            validateFields();
+            return new MidCertificateCache(this);
+        }
+
+        private void validateFields() {
+            if (maxSize <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxSize must be a positive number");
+            }
+            if (timeToLive == null || timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new MidMissingOrInvalidParameterException("timeToLive must be positive");
+            }
+        }
+    }
+}
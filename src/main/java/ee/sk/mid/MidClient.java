@@ -28,9 +28,14 @@ package ee.sk.mid;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
+import java.io.Closeable;
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 
 import javax.net.ssl.SSLContext;
 
@@ -38,18 +43,31 @@ import ee.sk.mid.exception.MidException;
 import ee.sk.mid.exception.MidInternalErrorException;
 import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
 import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.MidAdaptivePollingSchedule;
+import ee.sk.mid.rest.MidAsyncSessionStatusPoller;
+import ee.sk.mid.rest.MidCertificateCachingConnector;
+import ee.sk.mid.rest.MidConnectionPoolConfig;
 import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.MidNotMidClientCachingConnector;
+import ee.sk.mid.rest.MidPollRateGovernor;
 import ee.sk.mid.rest.MidRestConnector;
+import ee.sk.mid.rest.MidRetryPolicy;
+import ee.sk.mid.rest.MidSessionStatusHub;
 import ee.sk.mid.rest.MidSessionStatusPoller;
+import ee.sk.mid.rest.MidWarmUpConnector;
+import ee.sk.mid.rest.MidWarmUpResult;
 import ee.sk.mid.rest.dao.MidSessionSignature;
 import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAbstractRequest;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
 import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.core.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MidClient {
+public class MidClient implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger( MidClient.class);
 
@@ -58,46 +76,278 @@ public class MidClient {
     private String hostUrl;
     private Configuration networkConnectionConfig;
     private Client configuredClient;
+    private MidConnectionPoolConfig connectionPoolConfig;
+    private MidRetryPolicy retryPolicy;
     private MidConnector connector;
     private MidSessionStatusPoller sessionStatusPoller;
+    private MidAsyncSessionStatusPoller asyncSessionStatusPoller;
+    private MidSessionStatusHub sessionStatusHub;
     private SSLContext trustSslContext;
     private KeyStore trustStore;
+    private MidTlsHandshakeStatistics tlsHandshakeStatistics;
+    private MidCertificateCache certificateCache;
+    private MidNotMidClientCache notMidClientCache;
+    private MidPendingSessionRegistry pendingSessionRegistry;
+    private Executor executor;
+    // created by this client and shut down by close()
+    private ExecutorService ownedExecutor;
+    private MidRestConnector ownedConnector;
 
     private MidClient(MobileIdClientBuilder builder) {
+        Duration longPollingTimeout = getLongPollingTimeout(builder);
         this.relyingPartyUUID = builder.relyingPartyUUID;
         this.relyingPartyName = builder.relyingPartyName;
         this.hostUrl = builder.hostUrl;
         this.networkConnectionConfig = builder.networkConnectionConfig;
         this.configuredClient = builder.configuredClient;
-        this.connector = builder.connector;
-        this.trustSslContext = builder.trustSslContext;
+        this.connectionPoolConfig = builder.connectionPoolConfig;
+        this.retryPolicy = builder.retryPolicy;
+        this.certificateCache = builder.certificateCache;
+        this.notMidClientCache = builder.notMidClientCache;
+        this.pendingSessionRegistry = builder.pendingSessionRegistry;
+        if (builder.executor == null) {
+            this.ownedExecutor = MidDefaultExecutor.create();
+            this.executor = ownedExecutor;
+        }
+        else {
+            this.executor = builder.executor;
+        }
+        this.connector = builder.connector == null ? null : decorate(builder.connector);
         this.trustStore = builder.trustStore;
+        this.tlsHandshakeStatistics = new MidTlsHandshakeStatistics();
+        this.trustSslContext = createTrustSslContext(builder, tlsHandshakeStatistics);
 
         this.sessionStatusPoller = MidSessionStatusPoller.newBuilder()
             .withConnector(this.getMobileIdConnector())
-            .withPollingSleepTimeoutSeconds(builder.pollingSleepTimeoutSeconds)
-            .withLongPollingTimeoutSeconds(builder.longPollingTimeoutSeconds)
+            .withPollingSleepTimeout(builder.pollingSleepTimeout)
+            .withLongPollingTimeout(longPollingTimeout)
+            .withAdaptivePollingSchedule(builder.pollingSchedule)
+            .withSessionStatusListener(builder.sessionStatusListener)
+            .withPollRateGovernor(builder.pollRateGovernor)
+            .build();
+        this.asyncSessionStatusPoller = MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(this.getMobileIdConnector())
+            .withPollingSleepTimeout(builder.pollingSleepTimeout)
+            .withLongPollingTimeout(longPollingTimeout)
+            .withAdaptivePollingSchedule(builder.pollingSchedule)
+            .withSessionStatusListener(builder.sessionStatusListener)
+            .withPollRateGovernor(builder.pollRateGovernor)
             .build();
+        this.sessionStatusHub = MidSessionStatusHub.newBuilder()
+            .withPoller(asyncSessionStatusPoller)
+            .build();
+    }
+
+    private static Duration getLongPollingTimeout(MobileIdClientBuilder builder) {
+        if (builder.longPollingTimeout != null) {
+            return builder.longPollingTimeout;
+        }
+        if (builder.connectionPoolConfig != null && builder.connectionPoolConfig.getLongPollingTimeout() != null) {
+            logger.debug("Using long polling timeout " + builder.connectionPoolConfig.getLongPollingTimeout() + " derived from read timeout");
+            return builder.connectionPoolConfig.getLongPollingTimeout();
+        }
+        return Duration.ZERO;
     }
 
     public MidConnector getMobileIdConnector() {
         if (null == connector) {
-            this.connector = MidRestConnector.newBuilder()
+            this.ownedConnector = MidRestConnector.newBuilder()
                 .withEndpointUrl(hostUrl)
                 .withConfiguredClient(configuredClient)
                 .withClientConfig(networkConnectionConfig)
+                .withConnectionPoolConfig(connectionPoolConfig)
+                .withRetryPolicy(retryPolicy)
                 .withRelyingPartyUUID(relyingPartyUUID)
                 .withRelyingPartyName(relyingPartyName)
                 .withSslContext(getTrustSslContext())
                 .build();
+            this.connector = decorate(ownedConnector);
         }
         return connector;
     }
 
+    private MidConnector decorate(MidConnector midConnector) {
+        MidConnector decorated = midConnector;
+        if (certificateCache != null) {
+            decorated = MidCertificateCachingConnector.newBuilder()
+                .withConnector(decorated)
+                .withCertificateCache(certificateCache)
+                .build();
+        }
+        if (notMidClientCache != null) {
+            decorated = MidNotMidClientCachingConnector.newBuilder()
+                .withConnector(decorated)
+                .withNotMidClientCache(notMidClientCache)
+                .build();
+        }
+        return decorated;
+    }
+
+    /**
+     * Opt-in warm-up to be called at application startup so that the first authentications do not pay for
+     * client bootstrap, DNS lookup, TLS handshake and JSON mapper initialization. No Mobile-ID transaction is started.
+     *
+     * Connectors that implement {@link MidWarmUpConnector}, like {@link MidRestConnector} and the decorators around it,
+     * are warmed up, others return {@link MidWarmUpResult#skipped()}.
+     *
+     * @param connections number of connections to open to the host
+     * @return time spent in each warm-up phase
+     */
+    public MidWarmUpResult warmUp(int connections) {
+        MidWarmUpResult result = MidWarmUpConnector.warmUpIfSupported(getMobileIdConnector(), connections);
+        if (result.isSkipped()) {
+            logger.info("Mobile-ID client warm-up skipped, connector " + getMobileIdConnector().getClass().getSimpleName() + " has no warm-up");
+        }
+        else {
+            logger.info("Mobile-ID client warm-up: " + result);
+        }
+        return result;
+    }
+
+    public MidWarmUpResult warmUp() {
+        return warmUp(1);
+    }
+
+    /**
+     * Starts authentication, polls for the final session status and creates the authentication on the client's executor.
+     * The returned authentication still needs to be validated with {@link MidAuthenticationResponseValidator}.
+     *
+     * @return future completed with the authentication or exceptionally with the same exceptions as the blocking calls
+     */
+    public CompletableFuture<MidAuthentication> authenticateAsync(MidAuthenticationRequest request, MidAuthenticationHashToSign authenticationHash) {
+        return CompletableFuture.supplyAsync(() -> {
+            String sessionId = getMobileIdConnector().authenticate(request).getSessionID();
+            MidSessionStatus sessionStatus = fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH,
+                authenticationHash, relyingPartyUUIDOf(request), relyingPartyNameOf(request));
+            return createMobileIdAuthentication(sessionStatus, authenticationHash);
+        }, executor);
+    }
+
+    /**
+     * Starts signing, polls for the final session status and creates the signature on the client's executor.
+     *
+     * @return future completed with the signature or exceptionally with the same exceptions as the blocking calls
+     */
+    public CompletableFuture<MidSignature> signAsync(MidSignatureRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            String sessionId = getMobileIdConnector().sign(request).getSessionID();
+            MidHashToSign hashToSign = pendingSessionRegistry == null ? null : MidHashToSign.newBuilder()
+                .withHashInBase64(request.getHash())
+                .withHashType(request.getHashType())
+                .build();
+            MidSessionStatus sessionStatus = fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH,
+                hashToSign, relyingPartyUUIDOf(request), relyingPartyNameOf(request));
+            return createMobileIdSignature(sessionStatus);
+        }, executor);
+    }
+
+    /**
+     * Polls for the final status of an authentication session started with {@code getMobileIdConnector().authenticate(request)}.
+     * Unlike polling with {@link #getSessionStatusPoller()}, the session is kept in the pending session registry,
+     * if there is one, until its final status is fetched.
+     */
+    public MidSessionStatus fetchFinalAuthenticationSessionStatus(String sessionId, MidAuthenticationHashToSign authenticationHash) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH, authenticationHash,
+            relyingPartyUUID, relyingPartyName);
+    }
+
+    /**
+     * Polls for the final status of a signing session started with {@code getMobileIdConnector().sign(request)}.
+     * Unlike polling with {@link #getSessionStatusPoller()}, the session is kept in the pending session registry,
+     * if there is one, until its final status is fetched.
+     */
+    public MidSessionStatus fetchFinalSignatureSessionStatus(String sessionId, MidHashToSign hashToSign) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH, hashToSign,
+            relyingPartyUUID, relyingPartyName);
+    }
+
+    /**
+     * Keeps the session in the pending session registry, if there is one, until its final status is fetched,
+     * and polls no longer than the deadline the session is journaled with.
+     * Registration is not waited for, a failed journal write is logged by the registry.
+     * After a transport error ({@link MidInternalErrorException} and its subtypes or a non-MID exception)
+     * the session stays in the registry to be resumed, any other outcome removes it.
+     */
+    private MidSessionStatus fetchFinalSessionStatus(String sessionId, String path, MidHashToSign hashToSign,
+                                                     String relyingPartyUUID, String relyingPartyName) {
+        if (pendingSessionRegistry == null) {
+            return sessionStatusPoller.fetchFinalSessionStatus(sessionId, path);
+        }
+        MidPendingSession session = pendingSessionRegistry.newSession(sessionId, path, hashToSign, relyingPartyUUID, relyingPartyName);
+        pendingSessionRegistry.register(session);
+        MidSessionStatus sessionStatus;
+        try {
+            sessionStatus = sessionStatusPoller.fetchFinalSessionStatus(sessionId, path, session.getDeadline(), null);
+        }
+        catch (RuntimeException e) {
+            if (e instanceof MidException && !(e instanceof MidInternalErrorException)) {
+                pendingSessionRegistry.complete(sessionId);
+            }
+            else {
+                logger.info("Session " + sessionId + " is left pending to be resumed after error: " + e.getMessage());
+            }
+            throw e;
+        }
+        pendingSessionRegistry.complete(sessionId);
+        return sessionStatus;
+    }
+
+    private String relyingPartyUUIDOf(MidAbstractRequest request) {
+        return request.getRelyingPartyUUID() != null ? request.getRelyingPartyUUID() : relyingPartyUUID;
+    }
+
+    private String relyingPartyNameOf(MidAbstractRequest request) {
+        return request.getRelyingPartyName() != null ? request.getRelyingPartyName() : relyingPartyName;
+    }
+
+    /**
+     * @return executor that runs {@link #authenticateAsync} and {@link #signAsync}
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Releases what this client created itself: the session status poller threads, the default executor
+     * and the connector built when none was given. Executors and connectors passed to the builder are left open.
+     * Sessions still polled by {@link #getAsyncSessionStatusPoller()} fail with {@link MidInternalErrorException}.
+     */
+    @Override
+    public void close() {
+        asyncSessionStatusPoller.close();
+        if (ownedConnector != null) {
+            ownedConnector.close();
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
     public MidSessionStatusPoller getSessionStatusPoller() {
         return sessionStatusPoller;
     }
 
+    /**
+     * @return poller that returns a future instead of blocking the caller until the session is complete
+     */
+    public MidAsyncSessionStatusPoller getAsyncSessionStatusPoller() {
+        return asyncSessionStatusPoller;
+    }
+
+    /**
+     * @return hub that polls every session once, however many callers wait for it
+     */
+    public MidSessionStatusHub getSessionStatusHub() {
+        return sessionStatusHub;
+    }
+
+    /**
+     * @return registry of the sessions started by {@link #authenticateAsync} and {@link #signAsync}, null if not set
+     */
+    public MidPendingSessionRegistry getPendingSessionRegistry() {
+        return pendingSessionRegistry;
+    }
+
     public String getRelyingPartyUUID() {
         return relyingPartyUUID;
     }
@@ -106,17 +356,54 @@ public class MidClient {
         return relyingPartyName;
     }
 
+    /**
+     * Only a context created here is tuned and instrumented, a context given by the caller is used as it is.
+     */
+    private static SSLContext createTrustSslContext(MobileIdClientBuilder builder, MidTlsHandshakeStatistics tlsHandshakeStatistics) {
+        if (builder.trustSslContext != null) {
+            return builder.trustSslContext;
+        }
+        return tlsHandshakeStatistics.instrument(
+            MidTrustUtil.createSslContext(builder.trustStore, builder.tlsSessionCacheSize, builder.tlsSessionTimeoutSeconds));
+    }
+
+    /**
+     * @return SSL context created once per client, so that TLS sessions can be resumed across connections,
+     * or the context passed to {@link MobileIdClientBuilder#withTrustSslContext} unchanged
+     */
     public SSLContext getTrustSslContext() {
-        return trustSslContext != null ? trustSslContext : MidTrustUtil.createSslContext(trustStore);
+        return trustSslContext;
+    }
+
+    /**
+     * @return handshakes made through the SSL context created by the client, always zero with a context
+     * passed to {@link MobileIdClientBuilder#withTrustSslContext} (instrument it with {@link MidTlsHandshakeStatistics#instrument} instead)
+     */
+    public MidTlsHandshakeStatistics getTlsHandshakeStatistics() {
+        return tlsHandshakeStatistics;
     }
 
     public KeyStore getTrustStore() {
         return trustStore;
     }
 
+    public MidCertificateCache getCertificateCache() {
+        return certificateCache;
+    }
+
+    public MidNotMidClientCache getNotMidClientCache() {
+        return notMidClientCache;
+    }
+
     public X509Certificate createMobileIdCertificate(MidCertificateChoiceResponse certificateChoiceResponse) {
         validateCertificateResult(certificateChoiceResponse.getResult());
         validateCertificateResponse(certificateChoiceResponse);
+        if (certificateCache != null) {
+            X509Certificate certificate = certificateCache.getParsedCertificate(certificateChoiceResponse);
+            if (certificate != null) {
+                return certificate;
+            }
+        }
         return MidCertificateParser.parseX509Certificate(certificateChoiceResponse.getCert());
     }
 
@@ -179,11 +466,22 @@ public class MidClient {
         private String hostUrl;
         private Configuration networkConnectionConfig;
         private Client configuredClient;
-        private int pollingSleepTimeoutSeconds;
-        private int longPollingTimeoutSeconds;
+        private MidConnectionPoolConfig connectionPoolConfig;
+        private MidRetryPolicy retryPolicy;
+        private Duration pollingSleepTimeout = Duration.ZERO;
+        private Duration longPollingTimeout;
         private MidConnector connector;
         private SSLContext trustSslContext;
         private KeyStore trustStore;
+        private int tlsSessionCacheSize = -1;
+        private int tlsSessionTimeoutSeconds = -1;
+        private MidCertificateCache certificateCache;
+        private MidNotMidClientCache notMidClientCache;
+        private MidPendingSessionRegistry pendingSessionRegistry;
+        private Executor executor;
+        private MidAdaptivePollingSchedule pollingSchedule;
+        private MidSessionStatusPoller.SessionStatusListener sessionStatusListener;
+        private MidPollRateGovernor pollRateGovernor;
 
 
         private MobileIdClientBuilder() {}
@@ -213,13 +511,39 @@ public class MidClient {
             return this;
         }
 
-        public MobileIdClientBuilder withPollingSleepTimeoutSeconds(int pollingSleepTimeoutSeconds) {
-            this.pollingSleepTimeoutSeconds = pollingSleepTimeoutSeconds;
+        public MobileIdClientBuilder withConnectionPoolConfig(MidConnectionPoolConfig connectionPoolConfig) {
+            this.connectionPoolConfig = connectionPoolConfig;
             return this;
         }
 
+        public MobileIdClientBuilder withRetryPolicy(MidRetryPolicy retryPolicy) {
+            this.retryPolicy = retryPolicy;
+            return this;
+        }
+
+        public MobileIdClientBuilder withPollingSleepTimeoutSeconds(int pollingSleepTimeoutSeconds) {
+            return withPollingSleepTimeout(Duration.ofSeconds(pollingSleepTimeoutSeconds));
+        }
+
         public MobileIdClientBuilder withLongPollingTimeoutSeconds(int longPollingTimeoutSeconds) {
-            this.longPollingTimeoutSeconds = longPollingTimeoutSeconds;
+            return withLongPollingTimeout(Duration.ofSeconds(longPollingTimeoutSeconds));
+        }
+
+        /**
+         * Pause between a RUNNING session status response and the next request.
+         * There is no pause after a long poll that lasted the whole long polling timeout.
+         */
+        public MobileIdClientBuilder withPollingSleepTimeout(Duration pollingSleepTimeout) {
+            this.pollingSleepTimeout = pollingSleepTimeout;
+            return this;
+        }
+
+        /**
+         * How long the server may hold a session status request while the session is running.
+         * If not set and a connection pool config with a read timeout is given, it is derived from the read timeout.
+         */
+        public MobileIdClientBuilder withLongPollingTimeout(Duration longPollingTimeout) {
+            this.longPollingTimeout = longPollingTimeout;
             return this;
         }
 
@@ -263,21 +587,117 @@ public class MidClient {
             return this;
         }
 
+        /**
+         * Applies to the SSL context created from the trust store, not to one passed to {@link #withTrustSslContext}.
+         *
+         * @param tlsSessionCacheSize max number of TLS sessions kept for resumption, 0 for no limit. JVM default is used if not set.
+         */
+        public MobileIdClientBuilder withTlsSessionCacheSize(int tlsSessionCacheSize) {
+            this.tlsSessionCacheSize = tlsSessionCacheSize;
+            return this;
+        }
+
+        /**
+         * Applies to the SSL context created from the trust store, not to one passed to {@link #withTrustSslContext}.
+         *
+         * @param tlsSessionTimeoutSeconds how long a TLS session can be resumed, 0 for no limit. JVM default is used if not set.
+         */
+        public MobileIdClientBuilder withTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+            this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+            return this;
+        }
+
+        /**
+         * Answer certificate requests from the cache when possible and reuse the parsed certificates.
+         * Disabled by default.
+         */
+        public MobileIdClientBuilder withCertificateCache(MidCertificateCache certificateCache) {
+            this.certificateCache = certificateCache;
+            return this;
+        }
+
+        /**
+         * Fail authentication and signing requests of persons recently found not to be Mobile-ID clients
+         * without calling the MID service. Disabled by default.
+         */
+        public MobileIdClientBuilder withNotMidClientCache(MidNotMidClientCache notMidClientCache) {
+            this.notMidClientCache = notMidClientCache;
+            return this;
+        }
+
+        /**
+         * Journal the sessions started by {@link MidClient#authenticateAsync} and {@link MidClient#signAsync}
+         * or polled with {@link MidClient#fetchFinalAuthenticationSessionStatus} and {@link MidClient#fetchFinalSignatureSessionStatus}
+         * until their final status is fetched, so that they can be resumed with
+         * {@link MidPendingSessionRegistry#resume} after a restart. Disabled by default.
+         */
+        public MobileIdClientBuilder withPendingSessionRegistry(MidPendingSessionRegistry pendingSessionRegistry) {
+            this.pendingSessionRegistry = pendingSessionRegistry;
+            return this;
+        }
+
+        /**
+         * Executor for {@link MidClient#authenticateAsync} and {@link MidClient#signAsync}.
+         * Defaults to virtual threads on Java 21+ and to a cached thread pool on older Java versions.
+         * An executor given here is not shut down by {@link MidClient#close()}.
+         */
+        public MobileIdClientBuilder withExecutor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Poll sessions on a schedule learned from observed completion times instead of the fixed polling sleep timeout.
+         */
+        public MobileIdClientBuilder withAdaptivePollingSchedule(MidAdaptivePollingSchedule pollingSchedule) {
+            this.pollingSchedule = pollingSchedule;
+            return this;
+        }
+
+        /**
+         * Receives every session status the client's pollers get and the final result of every session.
+         */
+        public MobileIdClientBuilder withSessionStatusListener(MidSessionStatusPoller.SessionStatusListener sessionStatusListener) {
+            this.sessionStatusListener = sessionStatusListener;
+            return this;
+        }
+
+        /**
+         * Limits the rate of session status requests. Share one governor between all clients of the process.
+         */
+        public MobileIdClientBuilder withPollRateGovernor(MidPollRateGovernor pollRateGovernor) {
+            this.pollRateGovernor = pollRateGovernor;
+            return this;
+        }
+
         public MidClient build() {
             validateFields();
             return new MidClient(this);
         }
 
         private void validateFields() {
-            if (this.pollingSleepTimeoutSeconds < 0) {
+            if (this.pollingSleepTimeout == null || this.pollingSleepTimeout.isNegative()) {
                 throw new MidMissingOrInvalidParameterException("pollingSleepTimeoutSeconds must be non-negative number");
             }
-            if (this.longPollingTimeoutSeconds < 0) {
+            if (this.longPollingTimeout != null && this.longPollingTimeout.isNegative()) {
                 throw new MidMissingOrInvalidParameterException("longPollingTimeoutSeconds must be non-negative number");
             }
+            if (this.longPollingTimeout != null && this.connectionPoolConfig != null) {
+                Duration statusReadTimeout = connectionPoolConfig.getSessionStatusReadTimeout() != null
+                    ? connectionPoolConfig.getSessionStatusReadTimeout() : connectionPoolConfig.getReadTimeout();
+                if (statusReadTimeout != null && !statusReadTimeout.isZero() && longPollingTimeout.compareTo(statusReadTimeout) >= 0) {
+                    throw new MidMissingOrInvalidParameterException("longPollingTimeout must be shorter than the session status read timeout");
+                }
+            }
+            if (this.connectionPoolConfig != null && this.configuredClient != null) {
+                throw new MidMissingOrInvalidParameterException("Connection pool config cannot be combined with withConfiguredClient()");
+            }
             if ( this.trustSslContext == null && this.trustStore == null || this.trustSslContext != null && this.trustStore != null) {
                 throw new MidMissingOrInvalidParameterException("Provide certificates of servers that are trusted by calling exactly one of 'withTrustSslContext()', 'withTrustStore()' or 'withTrustedCertificates()'");
             }
+            if (this.trustSslContext != null && (this.tlsSessionCacheSize != -1 || this.tlsSessionTimeoutSeconds != -1)) {
+                throw new MidMissingOrInvalidParameterException("TLS session cache settings cannot be combined with withTrustSslContext(), configure the given SSL context instead");
+            }
         }
     }
 }
@@ -0,0 +1,171 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+
+/**
+ * Bounded short-lived cache of persons found not to be Mobile-ID clients, keyed by phone number and
+ * national identity number. Used by {@link ee.sk.mid.rest.MidNotMidClientCachingConnector} to fail
+ * authentication and signing requests for these persons without calling the MID service.
+ * <p>
+ * Entries expire after the time to live, so a person who has just signed a Mobile-ID contract
+ * gets through again soon. When the cache is full the oldest entry is evicted.
+ *
+ * @see MidClient.MobileIdClientBuilder#withNotMidClientCache(MidNotMidClientCache)
+ */
+public class MidNotMidClientCache {
+
+    private final int maxSize;
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<Key, Long> expiryTimes;
+
+    private long hits;
+
+    private MidNotMidClientCache(MidNotMidClientCacheBuilder builder) {
+        this.maxSize = builder.maxSize;
+        this.timeToLiveMillis = builder.timeToLive.toMillis();
+        this.expiryTimes = new LinkedHashMap<Key, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > MidNotMidClientCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return true if the person was recently found not to be a Mobile-ID client
+     */
+    public synchronized boolean isNotMidClient(String phoneNumber, String nationalIdentityNumber) {
+        Key key = new Key(phoneNumber, nationalIdentityNumber);
+        Long expiresAt = expiryTimes.get(key);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (expiresAt <= System.currentTimeMillis()) {
+            expiryTimes.remove(key);
+            return false;
+        }
+        hits++;
+        return true;
+    }
+
+    public synchronized void put(String phoneNumber, String nationalIdentityNumber) {
+        Key key = new Key(phoneNumber, nationalIdentityNumber);
+        expiryTimes.remove(key);
+        expiryTimes.put(key, System.currentTimeMillis() + timeToLiveMillis);
+    }
+
+    public synchronized void invalidate(String phoneNumber, String nationalIdentityNumber) {
+        expiryTimes.remove(new Key(phoneNumber, nationalIdentityNumber));
+    }
+
+    public synchronized void invalidateAll() {
+        expiryTimes.clear();
+    }
+
+    public synchronized int size() {
+        return expiryTimes.size();
+    }
+
+    /**
+     * @return number of requests that were failed from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    private static class Key {
+        private final String phoneNumber;
+        private final String nationalIdentityNumber;
+
+        Key(String phoneNumber, String nationalIdentityNumber) {
+            this.phoneNumber = phoneNumber;
+            this.nationalIdentityNumber = nationalIdentityNumber;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return Objects.equals(phoneNumber, that.phoneNumber)
+                && Objects.equals(nationalIdentityNumber, that.nationalIdentityNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(phoneNumber, nationalIdentityNumber);
+        }
+    }
+
+    public static MidNotMidClientCacheBuilder newBuilder() {
+        return new MidNotMidClientCacheBuilder();
+    }
+
+    public static class MidNotMidClientCacheBuilder {
+        private int maxSize = 10000;
+        private Duration timeToLive = Duration.ofMinutes(5);
+
+        private MidNotMidClientCacheBuilder() {}
+
+        public MidNotMidClientCacheBuilder withMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public MidNotMidClientCacheBuilder withTimeToLive(Duration timeToLive) {
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        public MidNotMidClientCache build() {
+            validateFields();
+            return new MidNotMidClientCache(this);
+        }
+
+        private void validateFields() {
+            if (maxSize <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxSize must be a positive number");
+            }
+            if (timeToLive == null || timeToLive.isNegative() || timeToLive.isZero()) {
+                throw new MidMissingOrInvalidParameterException("timeToLive must be positive");
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Instant;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+
+/**
+ * Context of a started authentication or signing session that is needed to finish it
+ * after the application has been restarted.
+ *
+ * @see MidPendingSessionRegistry
+ */
+public class MidPendingSession {
+
+    private final String sessionId;
+    private final String path;
+    private final MidHashToSign hashToSign;
+    private final String relyingPartyUUID;
+    private final String relyingPartyName;
+    private final Instant deadline;
+
+    private MidPendingSession(MidPendingSessionBuilder builder) {
+        this.sessionId = builder.sessionId;
+        this.path = builder.path;
+        this.hashToSign = builder.hashToSign;
+        this.relyingPartyUUID = builder.relyingPartyUUID;
+        this.relyingPartyName = builder.relyingPartyName;
+        this.deadline = builder.deadline;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return session status path, {@link ee.sk.mid.rest.MidSessionStatusPoller#AUTHENTICATION_SESSION_PATH}
+     * or {@link ee.sk.mid.rest.MidSessionStatusPoller#SIGNATURE_SESSION_PATH}
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return hash sent to the phone, a {@link MidAuthenticationHashToSign} for authentication sessions
+     */
+    public MidHashToSign getHashToSign() {
+        return hashToSign;
+    }
+
+    public String getRelyingPartyUUID() {
+        return relyingPartyUUID;
+    }
+
+    public String getRelyingPartyName() {
+        return relyingPartyName;
+    }
+
+    /**
+     * @return time after which the session is not polled any more
+     */
+    public Instant getDeadline() {
+        return deadline;
+    }
+
+    public boolean isExpired() {
+        return !Instant.now().isBefore(deadline);
+    }
+
+    @Override
+    public String toString() {
+        return "MidPendingSession{" +
+            "sessionId='" + sessionId + '\'' +
+            ", path='" + path + '\'' +
+            ", deadline=" + deadline +
+            '}';
+    }
+
+    public static MidPendingSessionBuilder newBuilder() {
+        return new MidPendingSessionBuilder();
+    }
+
+    public static class MidPendingSessionBuilder {
+        private String sessionId;
+        private String path;
+        private MidHashToSign hashToSign;
+        private String relyingPartyUUID;
+        private String relyingPartyName;
+        private Instant deadline;
+
+        private MidPendingSessionBuilder() {}
+
+        public MidPendingSessionBuilder withSessionId(String sessionId) {
+            this.sessionId = sessionId;
+            return this;
+        }
+
+        public MidPendingSessionBuilder withPath(String path) {
+            this.path = path;
+            return this;
+        }
+
+        public MidPendingSessionBuilder withHashToSign(MidHashToSign hashToSign) {
+            this.hashToSign = hashToSign;
+            return this;
+        }
+
+        public MidPendingSessionBuilder withRelyingPartyUUID(String relyingPartyUUID) {
+            this.relyingPartyUUID = relyingPartyUUID;
+            return this;
+        }
+
+        public MidPendingSessionBuilder withRelyingPartyName(String relyingPartyName) {
+            this.relyingPartyName = relyingPartyName;
+            return this;
+        }
+
+        public MidPendingSessionBuilder withDeadline(Instant deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        public MidPendingSession build() {
+            validateFields();
+            return new MidPendingSession(this);
+        }
+
+        private void validateFields() {
+            if (sessionId == null || sessionId.isEmpty()) {
+                throw new MidMissingOrInvalidParameterException("sessionId must be set");
+            }
+            if (path == null || path.isEmpty()) {
+                throw new MidMissingOrInvalidParameterException("path must be set");
+            }
+            if (hashToSign == null) {
+                throw new MidMissingOrInvalidParameterException("hashToSign must be set");
+            }
+            if (deadline == null) {
+                throw new MidMissingOrInvalidParameterException("deadline must be set");
+            }
+        }
+    }
+}
@@ -0,0 +1,518 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
+import ee.sk.mid.rest.MidAsyncSessionStatusPoller;
+import ee.sk.mid.rest.MidSessionStatusPoller;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pending authentication and signing sessions kept in a local append-only journal, so that the sessions
+ * started before a restart can be polled to the end after it.
+ * <p>
+ * Registering a session only adds it to memory and queues a journal record. A single writer thread
+ * appends all records queued meanwhile with one write and one sync to disk (group commit), so registration
+ * does not wait for the disk however many sessions are started. The future returned by
+ * {@link #register(MidPendingSession)} completes when the record is on disk.
+ * <p>
+ * When the journal holds more completed than pending sessions, the writer rewrites it with the pending sessions only.
+ *
+ * @see MidClient.MobileIdClientBuilder#withPendingSessionRegistry(MidPendingSessionRegistry)
+ */
+public class MidPendingSessionRegistry implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidPendingSessionRegistry.class);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String ADD = "add";
+    private static final String REMOVE = "remove";
+
+    /**
+     * Receives the outcome of a session resumed after restart.
+     */
+    public interface ResumedSessionHandler {
+        /**
+         * @param sessionStatus final session status, null if polling failed
+         * @param error why polling failed, {@link MidPollingDeadlineExceededException} for a session that
+         *              expired while the application was down
+         */
+        void onFinalSessionStatus(MidPendingSession session, MidSessionStatus sessionStatus, Throwable error);
+    }
+
+    private final Path journalFile;
+    private final Path compactionFile;
+    private final Duration sessionTimeout;
+    private final int compactionThreshold;
+    private final boolean syncWrites;
+    private final Thread writer;
+
+    // guarded by this
+    private final Map<String, MidPendingSession> sessions = new LinkedHashMap<>();
+    private List<QueuedRecord> queuedRecords = new ArrayList<>();
+    private int obsoleteRecords;
+    private boolean closed;
+    private long commits;
+    private long compactions;
+
+    // used by the writer thread only after construction
+    private FileChannel journal;
+
+    private MidPendingSessionRegistry(MidPendingSessionRegistryBuilder builder) {
+        this.journalFile = builder.journalFile;
+        this.compactionFile = journalFile.resolveSibling(journalFile.getFileName() + ".compact");
+        this.sessionTimeout = builder.sessionTimeout;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.syncWrites = builder.syncWrites;
+        try {
+            replay();
+            rewrite(sessions.values());
+        }
+        catch (IOException e) {
+            throw new MidInternalErrorException("Failed to open pending session journal " + journalFile, e);
+        }
+        logger.debug("Loaded " + sessions.size() + " pending sessions from " + journalFile);
+
+        this.writer = new Thread(this::writeQueuedRecords, "mid-pending-session-registry");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates the context of a session started now, expiring after the session timeout of the registry.
+     */
+    public MidPendingSession newSession(String sessionId, String path, MidHashToSign hashToSign, String relyingPartyUUID, String relyingPartyName) {
+        return MidPendingSession.newBuilder()
+            .withSessionId(sessionId)
+            .withPath(path)
+            .withHashToSign(hashToSign)
+            .withRelyingPartyUUID(relyingPartyUUID)
+            .withRelyingPartyName(relyingPartyName)
+            .withDeadline(Instant.now().plus(sessionTimeout))
+            .build();
+    }
+
+    /**
+     * @return future completed when the session is written to disk
+     * or exceptionally with {@link MidInternalErrorException} if writing failed
+     */
+    public CompletableFuture<Void> register(MidPendingSession session) {
+        if (session == null) {
+            throw new MidMissingOrInvalidParameterException("session must be set");
+        }
+        byte[] record = toRecord(ADD, session);
+        synchronized (this) {
+            if (closed) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new MidInternalErrorException("Pending session registry was closed"));
+                return failed;
+            }
+            if (sessions.put(session.getSessionId(), session) != null) {
+                obsoleteRecords++;
+            }
+            return queue(record);
+        }
+    }
+
+    /**
+     * Removes a session that has reached its final status. Does nothing after the registry is closed,
+     * so that sessions interrupted by shutdown are resumed on the next start.
+     */
+    public void complete(String sessionId) {
+        byte[] record = toRecord(REMOVE, sessionId);
+        synchronized (this) {
+            if (closed || sessions.remove(sessionId) == null) {
+                return;
+            }
+            obsoleteRecords += 2;
+            queue(record);
+        }
+    }
+
+    /**
+     * Resumes polling of the sessions left pending by the previous run. A session is removed from the registry
+     * before its outcome is passed to the handler. The result is validated the same way as in {@link MidSessionStatusPoller}.
+     * Sessions past their deadline are not polled but passed to the handler with {@link MidPollingDeadlineExceededException}.
+     *
+     * @return number of sessions whose polling was resumed
+     */
+    public int resume(MidAsyncSessionStatusPoller poller, ResumedSessionHandler handler) {
+        if (poller == null || handler == null) {
+            throw new MidMissingOrInvalidParameterException("poller and handler must be set");
+        }
+        int resumed = 0;
+        for (MidPendingSession session : getPendingSessions()) {
+            if (session.isExpired()) {
+                complete(session.getSessionId());
+                notifyHandler(handler, session, null, new MidPollingDeadlineExceededException(session.getSessionId()));
+                continue;
+            }
+            poller.fetchFinalSessionStatus(session.getSessionId(), session.getPath(), session.getDeadline())
+                .whenComplete((sessionStatus, error) -> {
+                    complete(session.getSessionId());
+                    notifyHandler(handler, session, sessionStatus, error);
+                });
+            resumed++;
+        }
+        logger.info("Resumed polling of " + resumed + " pending sessions");
+        return resumed;
+    }
+
+    private static void notifyHandler(ResumedSessionHandler handler, MidPendingSession session, MidSessionStatus sessionStatus, Throwable error) {
+        try {
+            handler.onFinalSessionStatus(session, sessionStatus, error);
+        }
+        catch (RuntimeException e) {
+            logger.error("Resumed session handler failed", e);
+        }
+    }
+
+    public synchronized List<MidPendingSession> getPendingSessions() {
+        return new ArrayList<>(sessions.values());
+    }
+
+    public synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return number of writes to the journal, each of them carrying all records queued since the previous one
+     */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getCompactions() {
+        return compactions;
+    }
+
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    public Duration getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Writes the queued records and closes the journal. Sessions still pending stay in the journal;
+     * close the registry before the poller so that sessions interrupted by shutdown are resumed on the next start.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+        }
+        catch (IOException e) {
+            logger.warn("Failed to close pending session journal " + journalFile, e);
+        }
+    }
+
+    // guarded by this
+    private CompletableFuture<Void> queue(byte[] record) {
+        QueuedRecord queuedRecord = new QueuedRecord(record);
+        queuedRecords.add(queuedRecord);
+        if (queuedRecords.size() == 1) {
+            notifyAll();
+        }
+        return queuedRecord.written;
+    }
+
+    private void writeQueuedRecords() {
+        while (true) {
+            List<QueuedRecord> batch;
+            List<MidPendingSession> compacted = null;
+            synchronized (this) {
+                while (queuedRecords.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        closed = true;
+                    }
+                }
+                if (queuedRecords.isEmpty()) {
+                    return;
+                }
+                batch = queuedRecords;
+                queuedRecords = new ArrayList<>();
+                if (obsoleteRecords >= compactionThreshold && obsoleteRecords > sessions.size()) {
+                    // sessions already contain the changes of the batch
+                    compacted = new ArrayList<>(sessions.values());
+                    obsoleteRecords = 0;
+                }
+            }
+            try {
+                if (compacted != null) {
+                    rewrite(compacted);
+                }
+                else {
+                    List<byte[]> records = new ArrayList<>(batch.size());
+                    for (QueuedRecord queuedRecord : batch) {
+                        records.add(queuedRecord.record);
+                    }
+                    write(journal, records);
+                }
+                synchronized (this) {
+                    commits++;
+                    if (compacted != null) {
+                        compactions++;
+                    }
+                }
+                for (QueuedRecord queuedRecord : batch) {
+                    queuedRecord.written.complete(null);
+                }
+            }
+            catch (IOException | RuntimeException e) {
+                logger.error("Failed to write pending session journal " + journalFile, e);
+                MidInternalErrorException error = new MidInternalErrorException("Failed to write pending session journal " + journalFile, e);
+                for (QueuedRecord queuedRecord : batch) {
+                    queuedRecord.written.completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    apply(MAPPER.readTree(line));
+                }
+                catch (IOException | RuntimeException e) {
+                    // a crash in the middle of a write leaves the last record incomplete
+                    logger.warn("Skipping unreadable record on line " + lineNumber + " of pending session journal " + journalFile + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void apply(JsonNode record) {
+        String sessionId = record.get("sessionId").asText();
+        if (REMOVE.equals(record.get("op").asText())) {
+            sessions.remove(sessionId);
+            return;
+        }
+        String path = record.get("path").asText();
+        MidHashToSign.HashToSignBuilder hashToSign = MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH.equals(path)
+            ? MidAuthenticationHashToSign.newBuilder()
+            : MidHashToSign.newBuilder();
+        MidPendingSession session = MidPendingSession.newBuilder()
+            .withSessionId(sessionId)
+            .withPath(path)
+            .withHashToSign(hashToSign
+                .withHashInBase64(record.get("hash").asText())
+                .withHashType(MidHashType.valueOf(record.get("hashType").asText()))
+                .build())
+            .withRelyingPartyUUID(textOrNull(record, "relyingPartyUUID"))
+            .withRelyingPartyName(textOrNull(record, "relyingPartyName"))
+            .withDeadline(Instant.ofEpochMilli(record.get("deadline").asLong()))
+            .build();
+        sessions.put(sessionId, session);
+    }
+
+    private static String textOrNull(JsonNode record, String field) {
+        return record.hasNonNull(field) ? record.get(field).asText() : null;
+    }
+
+    private static byte[] toRecord(String op, MidPendingSession session) {
+        ObjectNode record = MAPPER.createObjectNode()
+            .put("op", op)
+            .put("sessionId", session.getSessionId())
+            .put("path", session.getPath())
+            .put("hash", session.getHashToSign().getHashInBase64())
+            .put("hashType", session.getHashToSign().getHashType().name())
+            .put("relyingPartyUUID", session.getRelyingPartyUUID())
+            .put("relyingPartyName", session.getRelyingPartyName())
+            .put("deadline", session.getDeadline().toEpochMilli());
+        return (record.toString() + "\n").getBytes(UTF_8);
+    }
+
+    private static byte[] toRecord(String op, String sessionId) {
+        return (MAPPER.createObjectNode()
+            .put("op", op)
+            .put("sessionId", sessionId)
+            .toString() + "\n").getBytes(UTF_8);
+    }
+
+    /**
+     * Replaces the journal with one holding only the given sessions.
+     */
+    private void rewrite(Collection<MidPendingSession> liveSessions) throws IOException {
+        List<byte[]> records = new ArrayList<>(liveSessions.size());
+        for (MidPendingSession session : liveSessions) {
+            records.add(toRecord(ADD, session));
+        }
+        try (FileChannel compactedJournal = FileChannel.open(compactionFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(compactedJournal, records);
+        }
+        Files.move(compactionFile, journalFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        if (journal != null) {
+            journal.close();
+        }
+        journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void write(FileChannel channel, List<byte[]> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            bytes.write(record);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (syncWrites) {
+            channel.force(false);
+        }
+    }
+
+    private static class QueuedRecord {
+        private final byte[] record;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        QueuedRecord(byte[] record) {
+            this.record = record;
+        }
+    }
+
+    public static MidPendingSessionRegistryBuilder newBuilder() {
+        return new MidPendingSessionRegistryBuilder();
+    }
+
+    public static class MidPendingSessionRegistryBuilder {
+        private Path journalFile;
+        private Duration sessionTimeout = Duration.ofMinutes(5);
+        private int compactionThreshold = 1000;
+        private boolean syncWrites = true;
+
+        private MidPendingSessionRegistryBuilder() {}
+
+        /**
+         * File to keep the journal in, created if missing. Must not be shared with another registry.
+         */
+        public MidPendingSessionRegistryBuilder withJournalFile(Path journalFile) {
+            this.journalFile = journalFile;
+            return this;
+        }
+
+        /**
+         * How long a session registered with {@link #newSession} is polled, also after a restart. Defaults to 5 minutes.
+         */
+        public MidPendingSessionRegistryBuilder withSessionTimeout(Duration sessionTimeout) {
+            this.sessionTimeout = sessionTimeout;
+            return this;
+        }
+
+        /**
+         * Minimum number of records of completed sessions before the journal is compacted. Defaults to 1000.
+         */
+        public MidPendingSessionRegistryBuilder withCompactionThreshold(int compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        /**
+         * Sync every write to disk so that registered sessions survive a crash of the machine and not only
+         * of the application. Enabled by default.
+         */
+        public MidPendingSessionRegistryBuilder withSyncWrites(boolean syncWrites) {
+            this.syncWrites = syncWrites;
+            return this;
+        }
+
+        public MidPendingSessionRegistry build() {
+            validateFields();
+            return new MidPendingSessionRegistry(this);
+        }
+
+        private void validateFields() {
+            if (journalFile == null) {
+                throw new MidMissingOrInvalidParameterException("journalFile must be set");
+            }
+            if (sessionTimeout == null || sessionTimeout.isNegative() || sessionTimeout.isZero()) {
+                throw new MidMissingOrInvalidParameterException("sessionTimeout must be positive");
+            }
+            if (compactionThreshold <= 0) {
+                throw new MidMissingOrInvalidParameterException("compactionThreshold must be a positive number");
+            }
+        }
+    }
+}
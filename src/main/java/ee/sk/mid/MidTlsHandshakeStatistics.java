@@ -0,0 +1,225 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyManagementException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * Counts full and resumed TLS handshakes made through an instrumented {@link SSLContext}.
+ * Only socket based connections (Jersey connectors) are counted, handshakes done with an
+ * {@link SSLEngine} are not seen.
+ */
+public class MidTlsHandshakeStatistics {
+
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+
+    public long getFullHandshakes() {
+        return fullHandshakes.get();
+    }
+
+    public long getResumedHandshakes() {
+        return resumedHandshakes.get();
+    }
+
+    /**
+     * @return context that shares sessions and trust settings with the given one and reports its handshakes here
+     */
+    public SSLContext instrument(SSLContext sslContext) {
+        return new InstrumentedSslContext(sslContext, this);
+    }
+
+    void handshakeCompleted(HandshakeCompletedEvent event, long socketCreatedMillis) {
+        if (event.getSession().getCreationTime() < socketCreatedMillis) {
+            resumedHandshakes.incrementAndGet();
+        }
+        else {
+            fullHandshakes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MidTlsHandshakeStatistics{" +
+            "fullHandshakes=" + fullHandshakes +
+            ", resumedHandshakes=" + resumedHandshakes +
+            '}';
+    }
+
+    private static class InstrumentedSslContext extends SSLContext {
+        InstrumentedSslContext(SSLContext delegate, MidTlsHandshakeStatistics statistics) {
+            super(new InstrumentedSslContextSpi(delegate, statistics), delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+    private static class InstrumentedSslContextSpi extends SSLContextSpi {
+
+        private final SSLContext delegate;
+        private final MidTlsHandshakeStatistics statistics;
+        private volatile SSLSocketFactory socketFactory;
+
+        InstrumentedSslContextSpi(SSLContext delegate, MidTlsHandshakeStatistics statistics) {
+            this.delegate = delegate;
+            this.statistics = statistics;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            delegate.init(km, tm, sr);
+            socketFactory = null;
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            SSLSocketFactory result = socketFactory;
+            if (result == null) {
+                result = new InstrumentedSocketFactory(delegate.getSocketFactory(), statistics);
+                socketFactory = result;
+            }
+            return result;
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+
+    private static class InstrumentedSocketFactory extends SSLSocketFactory {
+
+        private final SSLSocketFactory delegate;
+        private final MidTlsHandshakeStatistics statistics;
+
+        InstrumentedSocketFactory(SSLSocketFactory delegate, MidTlsHandshakeStatistics statistics) {
+            this.delegate = delegate;
+            this.statistics = statistics;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return track(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, InputStream consumed, boolean autoClose) throws IOException {
+            return track(delegate.createSocket(socket, consumed, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return track(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return track(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return track(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket track(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                long createdMillis = System.currentTimeMillis();
+                ((SSLSocket) socket).addHandshakeCompletedListener(event -> statistics.handshakeCompleted(event, createdMillis));
+            }
+            return socket;
+        }
+    }
+
+}
@@ -14,12 +14,17 @@ import java.security.cert.CertificateFactory;
 import java.util.List;
 
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.TrustManagerFactory;
 
 import ee.sk.mid.exception.MidSslException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class MidTrustUtil {
 
+    private static final Logger logger = LoggerFactory.getLogger( MidTrustUtil.class);
+
     public static KeyStore createTrustStore(List<String> trustedCertificates) {
         try {
             KeyStore trustStore = KeyStore.getInstance("JKS");
@@ -36,10 +41,15 @@ public class MidTrustUtil {
         }
     }
 
+    /**
+     * Creates an SSL context that trusts the given certificates. TLS 1.3 is used when the JVM supports it,
+     * otherwise TLS 1.2. The context keeps client sessions in the JVM default cache so that new connections
+     * can resume an earlier session instead of doing a full handshake.
+     */
     public static SSLContext createSslContext(KeyStore trustStore) {
 
         try {
-            SSLContext sslTrustContext = SSLContext.getInstance("TLSv1.2");
+            SSLContext sslTrustContext = createTlsContext();
             TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance("X509");
             trustManagerFactory.init(trustStore);
             sslTrustContext.init(null, trustManagerFactory.getTrustManagers(), null);
@@ -51,4 +61,39 @@ public class MidTrustUtil {
 
     }
 
+    /**
+     * Same as {@link #createSslContext(KeyStore)} with the client session cache tuned for session resumption.
+     *
+     * @param sessionCacheSize max number of cached client sessions, 0 for no limit, negative to keep the JVM default
+     * @param sessionTimeoutSeconds how long a cached session can be resumed, 0 for no limit, negative to keep the JVM default
+     */
+    public static SSLContext createSslContext(KeyStore trustStore, int sessionCacheSize, int sessionTimeoutSeconds) {
+        SSLContext sslTrustContext = createSslContext(trustStore);
+        configureSessionCache(sslTrustContext, sessionCacheSize, sessionTimeoutSeconds);
+        return sslTrustContext;
+    }
+
+    public static void configureSessionCache(SSLContext sslContext, int sessionCacheSize, int sessionTimeoutSeconds) {
+        SSLSessionContext clientSessionContext = sslContext.getClientSessionContext();
+        if (clientSessionContext == null) {
+            return;
+        }
+        if (sessionCacheSize >= 0) {
+            clientSessionContext.setSessionCacheSize(sessionCacheSize);
+        }
+        if (sessionTimeoutSeconds >= 0) {
+            clientSessionContext.setSessionTimeout(sessionTimeoutSeconds);
+        }
+    }
+
+    private static SSLContext createTlsContext() throws NoSuchAlgorithmException {
+        try {
+            return SSLContext.getInstance("TLSv1.3");
+        }
+        catch (NoSuchAlgorithmException e) {
+            logger.info("TLSv1.3 is not supported by this JVM, falling back to TLSv1.2");
+            return SSLContext.getInstance("TLSv1.2");
+        }
+    }
+
 }
@@ -0,0 +1,267 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+
+/**
+ * Poll schedule learned from how long sessions have taken to complete.
+ * <p>
+ * A histogram of time to COMPLETE is kept per session type (session status path, i.e. signature or authentication).
+ * Once there are enough samples the first poll is delayed until the first percentile of completion times,
+ * then polls are made at the dense interval until the second percentile has passed and at the fixed interval after that.
+ * Until then the fixed interval is used from the start.
+ * <p>
+ * Completion times are estimated as the middle of the last time the session was known to be running and the COMPLETE response.
+ * A long poll is answered as soon as the session completes, so then the COMPLETE response itself is taken. Saved polls and latency
+ * are estimated against polling at the fixed interval from the start without long polling.
+ * Old samples lose weight as new ones arrive, so the schedule follows changes in user behaviour.
+ */
+public class MidAdaptivePollingSchedule {
+
+    private static final long BUCKET_MILLIS = 250;
+    private static final int BUCKETS = 480;
+
+    private final long fixedIntervalMillis;
+    private final long denseIntervalMillis;
+    private final double firstPollPercentile;
+    private final double densePollingPercentile;
+    private final int minSamples;
+    private final int maxSamples;
+
+    private final ConcurrentMap<String, CompletionTimeHistogram> histograms = new ConcurrentHashMap<>();
+
+    private final AtomicLong completedSessions = new AtomicLong();
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong pollsSaved = new AtomicLong();
+    private final AtomicLong latencySavedMillis = new AtomicLong();
+
+    private MidAdaptivePollingSchedule(MidAdaptivePollingScheduleBuilder builder) {
+        this.fixedIntervalMillis = builder.fixedInterval.toMillis();
+        this.denseIntervalMillis = builder.denseInterval.toMillis();
+        this.firstPollPercentile = builder.firstPollPercentile;
+        this.densePollingPercentile = builder.densePollingPercentile;
+        this.minSamples = builder.minSamples;
+        this.maxSamples = builder.maxSamples;
+    }
+
+    /**
+     * @param path session status path of the session type
+     * @return how long to wait after starting the session before the first poll
+     */
+    public long getFirstPollDelayMillis(String path) {
+        CompletionTimeHistogram histogram = histograms.get(path);
+        if (histogram == null) {
+            return 0;
+        }
+        synchronized (histogram) {
+            return histogram.samples < minSamples ? 0 : histogram.percentile(firstPollPercentile);
+        }
+    }
+
+    /**
+     * @param path session status path of the session type
+     * @param elapsedMillis time since the session was started
+     * @return how long to wait before the next poll after a RUNNING response
+     */
+    public long getNextPollDelayMillis(String path, long elapsedMillis) {
+        CompletionTimeHistogram histogram = histograms.get(path);
+        if (histogram == null) {
+            return fixedIntervalMillis;
+        }
+        synchronized (histogram) {
+            // dense polling lasts until the end of the percentile's bucket
+            if (histogram.samples < minSamples || elapsedMillis >= histogram.percentile(densePollingPercentile) + BUCKET_MILLIS) {
+                return fixedIntervalMillis;
+            }
+            return denseIntervalMillis;
+        }
+    }
+
+    /**
+     * @param path session status path of the session type
+     * @param runningMillis time since the session was started until which it was known to be running: when the last RUNNING
+     * response was received, when the first poll was sent if there was none, or completeMillis if COMPLETE was the answer to a long poll
+     * @param completeMillis time since the session was started when the COMPLETE response was received
+     * @param sessionPolls number of session status requests made
+     */
+    public void recordCompletion(String path, long runningMillis, long completeMillis, int sessionPolls) {
+        long completionMillis = (runningMillis + completeMillis) / 2;
+        CompletionTimeHistogram histogram = histograms.computeIfAbsent(path, key -> new CompletionTimeHistogram());
+        synchronized (histogram) {
+            histogram.add(completionMillis, maxSamples);
+        }
+
+        long fixedIntervals = (completionMillis + fixedIntervalMillis - 1) / fixedIntervalMillis;
+        long fixedPolls = fixedIntervals + 1;
+        long fixedLatencyMillis = fixedIntervals * fixedIntervalMillis - completionMillis;
+
+        completedSessions.incrementAndGet();
+        polls.addAndGet(sessionPolls);
+        pollsSaved.addAndGet(fixedPolls - sessionPolls);
+        latencySavedMillis.addAndGet(fixedLatencyMillis - (completeMillis - completionMillis));
+    }
+
+    public long getCompletedSessions() {
+        return completedSessions.get();
+    }
+
+    public long getPolls() {
+        return polls.get();
+    }
+
+    /**
+     * @return estimated number of polls saved compared to the fixed interval, negative if more polls were made
+     */
+    public long getPollsSaved() {
+        return pollsSaved.get();
+    }
+
+    /**
+     * @return estimated total time saved between session completion and noticing it, compared to the fixed interval
+     */
+    public long getLatencySavedMillis() {
+        return latencySavedMillis.get();
+    }
+
+    public long getFixedIntervalMillis() {
+        return fixedIntervalMillis;
+    }
+
+    private static class CompletionTimeHistogram {
+        private final long[] counts = new long[BUCKETS];
+        private long samples;
+
+        void add(long completionMillis, int maxSamples) {
+            if (samples >= maxSamples) {
+                samples = 0;
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] /= 2;
+                    samples += counts[i];
+                }
+            }
+            counts[(int) Math.min(BUCKETS - 1, completionMillis / BUCKET_MILLIS)]++;
+            samples++;
+        }
+
+        long percentile(double percentile) {
+            long rank = (long) Math.ceil(samples * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return i * BUCKET_MILLIS;
+                }
+            }
+            return (BUCKETS - 1) * BUCKET_MILLIS;
+        }
+    }
+
+    public static MidAdaptivePollingScheduleBuilder newBuilder() {
+        return new MidAdaptivePollingScheduleBuilder();
+    }
+
+    public static class MidAdaptivePollingScheduleBuilder {
+        private Duration fixedInterval = Duration.ofSeconds(MidSessionStatusPoller.DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS);
+        private Duration denseInterval = Duration.ofMillis(500);
+        private double firstPollPercentile = 10;
+        private double densePollingPercentile = 90;
+        private int minSamples = 20;
+        private int maxSamples = 1000;
+
+        private MidAdaptivePollingScheduleBuilder() {}
+
+        /**
+         * Interval used until enough samples have been collected and after the dense polling window.
+         * Also the baseline for the saved polls and latency.
+         */
+        public MidAdaptivePollingScheduleBuilder withFixedInterval(Duration fixedInterval) {
+            this.fixedInterval = fixedInterval;
+            return this;
+        }
+
+        public MidAdaptivePollingScheduleBuilder withDenseInterval(Duration denseInterval) {
+            this.denseInterval = denseInterval;
+            return this;
+        }
+
+        /**
+         * Percentile of completion times to delay the first poll to.
+         */
+        public MidAdaptivePollingScheduleBuilder withFirstPollPercentile(double firstPollPercentile) {
+            this.firstPollPercentile = firstPollPercentile;
+            return this;
+        }
+
+        /**
+         * Percentile of completion times until which polls are made at the dense interval.
+         */
+        public MidAdaptivePollingScheduleBuilder withDensePollingPercentile(double densePollingPercentile) {
+            this.densePollingPercentile = densePollingPercentile;
+            return this;
+        }
+
+        public MidAdaptivePollingScheduleBuilder withMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Number of samples per session type after which the weight of old samples is halved.
+         */
+        public MidAdaptivePollingScheduleBuilder withMaxSamples(int maxSamples) {
+            this.maxSamples = maxSamples;
+            return this;
+        }
+
+        public MidAdaptivePollingSchedule build() {
+            validateFields();
+            return new MidAdaptivePollingSchedule(this);
+        }
+
+        private void validateFields() {
+            if (fixedInterval == null || fixedInterval.isNegative() || fixedInterval.isZero()) {
+                throw new MidMissingOrInvalidParameterException("fixedInterval must be positive");
+            }
+            if (denseInterval == null || denseInterval.isNegative() || denseInterval.isZero()) {
+                throw new MidMissingOrInvalidParameterException("denseInterval must be positive");
+            }
+            if (firstPollPercentile < 0 || densePollingPercentile > 100 || firstPollPercentile > densePollingPercentile) {
+                throw new MidMissingOrInvalidParameterException("Percentiles must satisfy 0 <= firstPollPercentile <= densePollingPercentile <= 100");
+            }
+            if (minSamples <= 0 || maxSamples < minSamples) {
+                throw new MidMissingOrInvalidParameterException("Sample counts must satisfy 0 < minSamples <= maxSamples");
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.concurrent.CompletionStage;
+
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+
+/**
+ * Non-blocking counterpart of {@link MidConnector}.
+ * <p>
+ * Every method returns immediately. Errors are reported by completing the returned stage exceptionally
+ * with the same {@link ee.sk.mid.exception.MidException} subtypes that the blocking methods throw.
+ * <p>
+ * Returning immediately does not mean that no thread is held while the request is in flight.
+ * {@link MidRestConnector} uses the JAX-RS {@code rx()} invoker, which runs the request as a blocking call
+ * on the client's async executor, one thread per request in flight. {@code MidHttpClientConnector} (Java 11+)
+ * uses the non-blocking {@code java.net.http.HttpClient} and does not hold a thread per request.
+ */
+public interface MidAsyncConnector {
+
+    CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request);
+
+    CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request);
+
+    CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request);
+
+    CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path);
+
+    CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request);
+
+    CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request);
+}
@@ -0,0 +1,512 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidPollingCancelledException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Session status poller that does not block the caller or hold a thread per pending session.
+ * <p>
+ * Every pending session is kept as a small state object. Its next status request is issued on a shared
+ * scheduler when due, and the returned future is completed when the session is COMPLETE: normally for result OK,
+ * exceptionally with the same exceptions that {@link MidSessionStatusPoller} throws for other results.
+ * <p>
+ * With a connector that implements {@link MidAsyncConnector} scheduler threads only dispatch requests.
+ * Sessions that wait between polls hold no thread, but what a request in flight holds depends on the connector:
+ * {@link MidRestConnector} runs every request as a blocking call on a thread of the JAX-RS client's async executor,
+ * so each long poll in flight still holds one thread there. Only a non-blocking transport like
+ * {@code MidHttpClientConnector} (Java 11+) serves many long polls in flight on a few threads.
+ * With connectors that do not implement {@link MidAsyncConnector} the blocking call runs on a scheduler thread
+ * and the thread count limits the number of concurrent polls.
+ * <p>
+ * Cancelling the returned future stops polling of the session at once: a scheduled poll is removed from the scheduler
+ * and the response of a request in flight is ignored. The request in flight itself is cancelled as well, which
+ * {@code MidHttpClientConnector} turns into an abort of the exchange on JDK 16 and later. A JAX-RS request of
+ * {@link MidRestConnector} cannot be aborted and keeps its connection and thread until MID answers, which is at most
+ * the long polling timeout of the request (shortened to fit the deadline) after it was sent.
+ * A session can also be given a deadline, after which the future completes with {@link MidPollingDeadlineExceededException}.
+ */
+public class MidAsyncSessionStatusPoller implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidAsyncSessionStatusPoller.class);
+
+    private final MidConnector connector;
+    private final MidAsyncConnector asyncConnector;
+    private final Duration pollingSleepTimeout;
+    private final Duration longPollingTimeout;
+    private final MidAdaptivePollingSchedule pollingSchedule;
+    private final MidSessionStatusPoller.SessionStatusListener sessionStatusListener;
+    private final MidPollRateGovernor pollRateGovernor;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownedScheduler;
+
+    private final Set<PendingSession> pendingSessions = ConcurrentHashMap.newKeySet();
+    private final AtomicLong cancelledSessions = new AtomicLong();
+    private final AtomicLong expiredSessions = new AtomicLong();
+
+    private MidAsyncSessionStatusPoller(MidAsyncSessionStatusPollerBuilder builder) {
+        this.connector = builder.connector;
+        this.asyncConnector = builder.connector instanceof MidAsyncConnector ? (MidAsyncConnector) builder.connector : null;
+        this.longPollingTimeout = builder.longPollingTimeout;
+        this.pollingSchedule = builder.pollingSchedule;
+        this.sessionStatusListener = builder.sessionStatusListener;
+        this.pollRateGovernor = builder.pollRateGovernor;
+        if (builder.longPollingTimeout.isZero() && builder.pollingSleepTimeout.isZero()) {
+            logger.info("Both longPollingTimeout and pollingSleepTimeout are set to 0. Setting pollingSleepTimeoutSeconds="
+                + MidSessionStatusPoller.DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS + ".");
+            this.pollingSleepTimeout = Duration.ofSeconds(MidSessionStatusPoller.DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS);
+        }
+        else {
+            this.pollingSleepTimeout = builder.pollingSleepTimeout;
+        }
+        this.ownedScheduler = builder.scheduler == null;
+        this.scheduler = ownedScheduler ? createScheduler(builder.threadCount) : builder.scheduler;
+    }
+
+    private static ScheduledExecutorService createScheduler(int threadCount) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newScheduledThreadPool(threadCount, runnable -> {
+            Thread thread = new Thread(runnable, "mid-session-status-poller-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatus(String sessionId) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatus(String sessionId) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalSessionStatus(String sessionId, String path) {
+        return fetchFinalSessionStatus(sessionId, path, null);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatus(String sessionId, Instant deadline) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH, deadline);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatus(String sessionId, Instant deadline) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH, deadline);
+    }
+
+    /**
+     * @param deadline when to complete the future with {@link MidPollingDeadlineExceededException}, null for no deadline.
+     *                 Long polling timeout of every request is shortened to fit into the time that is left.
+     */
+    public CompletableFuture<MidSessionStatus> fetchFinalSessionStatus(String sessionId, String path, Instant deadline) {
+        logger.debug("Starting to poll session status for session " + sessionId);
+        PendingSession session = new PendingSession(sessionId, path, deadline);
+        pendingSessions.add(session);
+        // sessions cancelled by the caller
+        session.result.whenComplete((status, error) -> {
+            pendingSessions.remove(session);
+            if (session.result.isCancelled()) {
+                session.cancelled();
+            }
+        });
+        schedule(session, (pollingSchedule == null ? 0 : pollingSchedule.getFirstPollDelayMillis(path))
+            + (pollRateGovernor == null ? 0 : pollRateGovernor.nextPhaseOffsetMillis()));
+        return session.result;
+    }
+
+    /**
+     * @return number of sessions that are being polled
+     */
+    public int getPendingSessions() {
+        return pendingSessions.size();
+    }
+
+    /**
+     * @return number of sessions whose future was cancelled by the caller
+     */
+    public long getCancelledSessions() {
+        return cancelledSessions.get();
+    }
+
+    /**
+     * @return number of sessions that ran past their deadline
+     */
+    public long getExpiredSessions() {
+        return expiredSessions.get();
+    }
+
+    /**
+     * Stops polling. Futures of sessions still pending are completed exceptionally.
+     * A scheduler given with {@link MidAsyncSessionStatusPollerBuilder#withScheduler(ScheduledExecutorService)} is not shut down.
+     */
+    @Override
+    public void close() {
+        if (ownedScheduler) {
+            scheduler.shutdownNow();
+        }
+        for (PendingSession session : pendingSessions) {
+            session.fail(new MidInternalErrorException("Session status poller was closed"));
+        }
+    }
+
+    private void schedule(PendingSession session, long delayMillis) {
+        try {
+            if (session.deadline != null) {
+                delayMillis = Math.min(delayMillis, MidSessionStatusPoller.millisUntil(session.deadline));
+            }
+            if (delayMillis == 0) {
+                session.scheduledPoll = scheduler.submit(session.pollTask);
+            }
+            else {
+                session.scheduledPoll = scheduler.schedule(session.pollTask, delayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        catch (RejectedExecutionException e) {
+            session.fail(new MidInternalErrorException("Session status poller was closed", e));
+        }
+    }
+
+    private class PendingSession {
+        private final String sessionId;
+        private final String path;
+        private final Instant deadline;
+        private final CompletableFuture<MidSessionStatus> result = new CompletableFuture<>();
+        private volatile Future<?> scheduledPoll;
+        private volatile CompletableFuture<MidSessionStatus> inFlight;
+        private final long startTime = System.nanoTime();
+        private long runningMillis;
+        private int polls;
+        private long requestStartTime = startTime;
+        private long requestEndTime = startTime;
+        private int requestTimeoutMs;
+        private MidSessionStatus finalStatus;
+        // created once instead of on every poll
+        private final Runnable pollTask = this::poll;
+        private final BiConsumer<MidSessionStatus, Throwable> onResponse = this::onResponse;
+        private final BiConsumer<Void, Throwable> onPermit = this::onPermit;
+        private final Runnable sendTask = this::sendRequest;
+        private volatile CompletableFuture<Void> pendingPermit;
+        private MidPollingSessionStatusRequest request;
+
+        PendingSession(String sessionId, String path, Instant deadline) {
+            this.sessionId = sessionId;
+            this.path = path;
+            this.deadline = deadline;
+            this.request = new MidPollingSessionStatusRequest(sessionId, longPollingTimeout, deadline, null);
+        }
+
+        void poll() {
+            if (result.isDone() || expired()) {
+                return;
+            }
+            if (pollRateGovernor == null) {
+                sendRequest();
+                return;
+            }
+            CompletableFuture<Void> permit = pollRateGovernor.acquire(deadline);
+            if (permit.isDone() && !permit.isCompletedExceptionally()) {
+                sendRequest();
+                return;
+            }
+            pendingPermit = permit;
+            permit.whenComplete(onPermit);
+        }
+
+        private void onPermit(Void ignored, Throwable error) {
+            pendingPermit = null;
+            if (result.isDone()) {
+                return;
+            }
+            if (error != null) {
+                fail(error);
+                return;
+            }
+            // the governor's thread must not run blocking connector calls
+            try {
+                scheduler.execute(sendTask);
+            }
+            catch (RejectedExecutionException e) {
+                fail(new MidInternalErrorException("Session status poller was closed", e));
+            }
+        }
+
+        private void sendRequest() {
+            // the deadline may have passed while waiting for a permit
+            if (result.isDone() || expired()) {
+                return;
+            }
+            requestStartTime = System.nanoTime();
+            if (polls == 0) {
+                // a session that is COMPLETE on the first poll was at least running until it was sent
+                runningMillis = TimeUnit.NANOSECONDS.toMillis(requestStartTime - startTime);
+            }
+            polls++;
+            if (deadline != null) {
+                request = MidSessionStatusPoller.fitToDeadline(request, longPollingTimeout, deadline);
+            }
+            requestTimeoutMs = request.getTimeoutMs();
+            CompletionStage<MidSessionStatus> response;
+            if (asyncConnector != null) {
+                response = asyncConnector.getSessionStatusAsync(request, path);
+            }
+            else {
+                CompletableFuture<MidSessionStatus> blockingResponse = new CompletableFuture<>();
+                try {
+                    blockingResponse.complete(connector.getSessionStatus(request, path));
+                }
+                catch (RuntimeException e) {
+                    blockingResponse.completeExceptionally(e);
+                }
+                response = blockingResponse;
+            }
+            inFlight = response.toCompletableFuture();
+            response.whenComplete(onResponse);
+        }
+
+        private boolean expired() {
+            if (deadline == null || Instant.now().isBefore(deadline)) {
+                return false;
+            }
+            MidPollingDeadlineExceededException e = new MidPollingDeadlineExceededException(sessionId);
+            logger.info(e.getMessage());
+            expiredSessions.incrementAndGet();
+            fail(e);
+            return true;
+        }
+
+        void cancelled() {
+            logger.info("Polling of session " + sessionId + " was cancelled");
+            cancelledSessions.incrementAndGet();
+            fire(null, new MidPollingCancelledException(sessionId), true);
+            Future<?> poll = scheduledPoll;
+            if (poll != null) {
+                poll.cancel(false);
+            }
+            CompletableFuture<Void> permit = pendingPermit;
+            if (permit != null) {
+                permit.cancel(false);
+            }
+            CompletableFuture<MidSessionStatus> request = inFlight;
+            if (request != null) {
+                request.cancel(false);
+            }
+        }
+
+        private void onResponse(MidSessionStatus sessionStatus, Throwable error) {
+            inFlight = null;
+            requestEndTime = System.nanoTime();
+            if (result.isDone()) {
+                return;
+            }
+            if (error != null) {
+                fail(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+            if (sessionStatus != null && equalsIgnoreCase("COMPLETE", sessionStatus.getState())) {
+                logger.debug("Got final session status response for session " + sessionId);
+                if (pollingSchedule != null) {
+                    // a long poll is answered as soon as the session completes
+                    pollingSchedule.recordCompletion(path, requestTimeoutMs != 0 ? elapsedMillis : runningMillis, elapsedMillis, polls);
+                }
+                finalStatus = sessionStatus;
+                try {
+                    MidSessionStatusPoller.validateResult(sessionStatus);
+                    fire(sessionStatus, null, true);
+                    pendingSessions.remove(this);
+                    result.complete(sessionStatus);
+                }
+                catch (RuntimeException e) {
+                    fail(e);
+                }
+                return;
+            }
+            fire(sessionStatus, null, false);
+            runningMillis = elapsedMillis;
+            if (ranFullLongPoll()) {
+                schedule(this, 0);
+            }
+            else if (requestTimeoutMs == 0 && !longPollingTimeout.isZero()) {
+                // too little time was left for a long poll, wait for the deadline instead of polling in a loop
+                schedule(this, Long.MAX_VALUE);
+            }
+            else {
+                schedule(this, pollingSchedule == null
+                    ? pollingSleepTimeout.toMillis()
+                    : pollingSchedule.getNextPollDelayMillis(path, elapsedMillis));
+            }
+        }
+
+        private boolean ranFullLongPoll() {
+            return requestTimeoutMs != 0
+                && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStartTime) >= requestTimeoutMs;
+        }
+
+        void fail(Throwable error) {
+            fire(finalStatus, error instanceof RuntimeException
+                ? (RuntimeException) error
+                : new MidInternalErrorException("Failed to poll session status: " + error, error), true);
+            pendingSessions.remove(this);
+            result.completeExceptionally(error);
+        }
+
+        private void fire(MidSessionStatus sessionStatus, RuntimeException error, boolean finalEvent) {
+            MidSessionStatusPoller.fireSessionStatus(sessionStatusListener, sessionId, path, sessionStatus, error, polls,
+                startTime, requestStartTime, requestEndTime, finalEvent);
+        }
+    }
+
+    public static MidAsyncSessionStatusPollerBuilder newBuilder() {
+        return new MidAsyncSessionStatusPollerBuilder();
+    }
+
+    public static class MidAsyncSessionStatusPollerBuilder {
+        private MidConnector connector;
+        private Duration pollingSleepTimeout = Duration.ZERO;
+        private Duration longPollingTimeout = Duration.ZERO;
+        private int threadCount = 2;
+        private ScheduledExecutorService scheduler;
+        private MidAdaptivePollingSchedule pollingSchedule;
+        private MidSessionStatusPoller.SessionStatusListener sessionStatusListener;
+        private MidPollRateGovernor pollRateGovernor;
+
+        private MidAsyncSessionStatusPollerBuilder() {}
+
+        public MidAsyncSessionStatusPollerBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        public MidAsyncSessionStatusPollerBuilder withPollingSleepTimeoutSeconds(int pollingSleepTimeoutSeconds) {
+            return withPollingSleepTimeout(Duration.ofSeconds(pollingSleepTimeoutSeconds));
+        }
+
+        public MidAsyncSessionStatusPollerBuilder withLongPollingTimeoutSeconds(int longPollingTimeoutSeconds) {
+            return withLongPollingTimeout(Duration.ofSeconds(longPollingTimeoutSeconds));
+        }
+
+        /**
+         * Pause between a RUNNING response and the next request. There is no pause after a long poll that lasted the whole long polling timeout.
+         */
+        public MidAsyncSessionStatusPollerBuilder withPollingSleepTimeout(Duration pollingSleepTimeout) {
+            this.pollingSleepTimeout = pollingSleepTimeout;
+            return this;
+        }
+
+        /**
+         * Either 0 for no long polling or at least 1 second, the shortest long poll the MID API accepts.
+         */
+        public MidAsyncSessionStatusPollerBuilder withLongPollingTimeout(Duration longPollingTimeout) {
+            this.longPollingTimeout = longPollingTimeout;
+            return this;
+        }
+
+        /**
+         * Number of threads of the scheduler created by the poller. Ignored if a scheduler is given.
+         */
+        public MidAsyncSessionStatusPollerBuilder withThreadCount(int threadCount) {
+            this.threadCount = threadCount;
+            return this;
+        }
+
+        /**
+         * Scheduler to share with other components. It is not shut down when the poller is closed.
+         */
+        public MidAsyncSessionStatusPollerBuilder withScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * Learn the poll schedule from observed completion times instead of waiting pollingSleepTimeout between polls.
+         */
+        public MidAsyncSessionStatusPollerBuilder withAdaptivePollingSchedule(MidAdaptivePollingSchedule pollingSchedule) {
+            this.pollingSchedule = pollingSchedule;
+            return this;
+        }
+
+        /**
+         * Called after every RUNNING status and once when polling of a session ends, from the thread that received the
+         * response (or cancelled the future).
+         */
+        public MidAsyncSessionStatusPollerBuilder withSessionStatusListener(MidSessionStatusPoller.SessionStatusListener sessionStatusListener) {
+            this.sessionStatusListener = sessionStatusListener;
+            return this;
+        }
+
+        /**
+         * Governor shared by all pollers of the process that limits the rate of session status requests.
+         */
+        public MidAsyncSessionStatusPollerBuilder withPollRateGovernor(MidPollRateGovernor pollRateGovernor) {
+            this.pollRateGovernor = pollRateGovernor;
+            return this;
+        }
+
+        public MidAsyncSessionStatusPoller build() {
+            validateFields();
+            return new MidAsyncSessionStatusPoller(this);
+        }
+
+        private void validateFields() {
+            if (connector == null) {
+                throw new MidMissingOrInvalidParameterException("connector must be set");
+            }
+            if (pollingSleepTimeout == null || pollingSleepTimeout.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("pollingSleepTimeout must be non-negative");
+            }
+            MidSessionStatusPoller.validateLongPollingTimeout(longPollingTimeout);
+            if (threadCount <= 0) {
+                throw new MidMissingOrInvalidParameterException("threadCount must be a positive number");
+            }
+        }
+    }
+}
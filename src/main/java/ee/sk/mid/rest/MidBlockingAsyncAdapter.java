@@ -0,0 +1,99 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+
+/**
+ * {@link MidAsyncConnector} view of a blocking connector, for decorators whose decorated connector is not asynchronous.
+ * The call is made on the calling thread and the returned stage is already complete.
+ */
+class MidBlockingAsyncAdapter implements MidAsyncConnector {
+
+    private final MidConnector connector;
+
+    MidBlockingAsyncAdapter(MidConnector connector) {
+        this.connector = connector;
+    }
+
+    static MidAsyncConnector of(MidConnector connector) {
+        return connector instanceof MidAsyncConnector ? (MidAsyncConnector) connector : new MidBlockingAsyncAdapter(connector);
+    }
+
+    @Override
+    public CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request) {
+        return call(() -> connector.getCertificate(request));
+    }
+
+    @Override
+    public CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request) {
+        return call(() -> connector.sign(request));
+    }
+
+    @Override
+    public CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request) {
+        return call(() -> connector.authenticate(request));
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path) {
+        return call(() -> connector.getSessionStatus(request, path));
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request) {
+        return call(() -> connector.getAuthenticationSessionStatus(request));
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request) {
+        return call(() -> connector.getSignatureSessionStatus(request));
+    }
+
+    private static <T> CompletionStage<T> call(Supplier<T> blockingCall) {
+        CompletableFuture<T> response = new CompletableFuture<>();
+        try {
+            response.complete(blockingCall.get());
+        }
+        catch (RuntimeException e) {
+            response.completeExceptionally(e);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,92 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lets one thread stop session status polling that runs on another thread.
+ * <p>
+ * A poller that is given the token checks it before every request, wakes up from its pause between requests as soon
+ * as the token is cancelled and stops waiting for a request that is in flight, if the connector supports
+ * asynchronous requests. Polling then ends with {@link ee.sk.mid.exception.MidPollingCancelledException}.
+ * <p>
+ * A token can be shared by several polls, for example to cancel everything that belongs to one user request.
+ */
+public class MidCancellationToken {
+
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private final List<Runnable> callbacks = new ArrayList<>();
+
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (callbacks) {
+            if (isCancelled()) {
+                return;
+            }
+            cancelled.countDown();
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        toRun.forEach(Runnable::run);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.getCount() == 0;
+    }
+
+    /**
+     * @return true if the token was cancelled before the time ran out
+     */
+    boolean await(long millis) throws InterruptedException {
+        return cancelled.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs the callback when the token is cancelled, immediately if it already is.
+     *
+     * @return action that unregisters the callback
+     */
+    Runnable onCancel(Runnable callback) {
+        synchronized (callbacks) {
+            if (!isCancelled()) {
+                callbacks.add(callback);
+                return () -> {
+                    synchronized (callbacks) {
+                        callbacks.remove(callback);
+                    }
+                };
+            }
+        }
+        callback.run();
+        return () -> {};
+    }
+}
@@ -0,0 +1,191 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.MidCertificateCache;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+
+/**
+ * {@link MidConnector} decorator that answers certificate requests from a {@link MidCertificateCache}
+ * and caches the responses of the MID service. All other calls are passed through, the asynchronous ones
+ * asynchronously when the decorated connector implements {@link MidAsyncConnector}.
+ */
+public class MidCertificateCachingConnector implements MidConnector, MidAsyncConnector, MidWarmUpConnector {
+
+    private final MidConnector connector;
+    private final MidAsyncConnector asyncConnector;
+    private final MidCertificateCache certificateCache;
+
+    private MidCertificateCachingConnector(MidCertificateCachingConnectorBuilder builder) {
+        this.connector = builder.connector;
+        this.asyncConnector = MidBlockingAsyncAdapter.of(builder.connector);
+        this.certificateCache = builder.certificateCache;
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        MidCertificateChoiceResponse response = certificateCache.getResponse(request.getPhoneNumber(), request.getNationalIdentityNumber());
+        if (response != null) {
+            return response;
+        }
+        response = connector.getCertificate(request);
+        certificateCache.put(request.getPhoneNumber(), request.getNationalIdentityNumber(), response);
+        return response;
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return connector.sign(request);
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return connector.authenticate(request);
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return connector.getSessionStatus(request, path);
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return connector.getAuthenticationSessionStatus(request);
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return connector.getSignatureSessionStatus(request);
+    }
+
+    @Override
+    public CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request) {
+        MidCertificateChoiceResponse response = certificateCache.getResponse(request.getPhoneNumber(), request.getNationalIdentityNumber());
+        if (response != null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        return asyncConnector.getCertificateAsync(request).thenApply(certificateResponse -> {
+            certificateCache.put(request.getPhoneNumber(), request.getNationalIdentityNumber(), certificateResponse);
+            return certificateResponse;
+        });
+    }
+
+    @Override
+    public CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request) {
+        return asyncConnector.signAsync(request);
+    }
+
+    @Override
+    public CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request) {
+        return asyncConnector.authenticateAsync(request);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path) {
+        return asyncConnector.getSessionStatusAsync(request, path);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request) {
+        return asyncConnector.getAuthenticationSessionStatusAsync(request);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request) {
+        return asyncConnector.getSignatureSessionStatusAsync(request);
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        connector.setSslTrustContext(sslContext);
+    }
+
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return MidWarmUpConnector.warmUpIfSupported(connector, connections);
+    }
+
+    /**
+     * @return the decorated connector
+     */
+    public MidConnector getConnector() {
+        return connector;
+    }
+
+    public MidCertificateCache getCertificateCache() {
+        return certificateCache;
+    }
+
+    public static MidCertificateCachingConnectorBuilder newBuilder() {
+        return new MidCertificateCachingConnectorBuilder();
+    }
+
+    public static class MidCertificateCachingConnectorBuilder {
+        private MidConnector connector;
+        private MidCertificateCache certificateCache;
+
+        private MidCertificateCachingConnectorBuilder() {}
+
+        public MidCertificateCachingConnectorBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        public MidCertificateCachingConnectorBuilder withCertificateCache(MidCertificateCache certificateCache) {
+            this.certificateCache = certificateCache;
+            return this;
+        }
+
+        public MidCertificateCachingConnector build() {
+            validateFields();
+            return new MidCertificateCachingConnector(this);
+        }
+
+        private void validateFields() {
+            if (connector == null) {
+                throw new MidMissingOrInvalidParameterException("connector must be set");
+            }
+            if (certificateCache == null) {
+                throw new MidMissingOrInvalidParameterException("certificateCache must be set");
+            }
+        }
+    }
+}
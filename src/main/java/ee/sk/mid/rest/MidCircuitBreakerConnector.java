@@ -0,0 +1,441 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} decorator that stops calling the MID service while it is failing.
+ * <p>
+ * Outcomes of the last calls are kept in a sliding window. When the share of failed calls or of slow calls
+ * reaches its threshold the circuit opens and all calls fail fast with {@link MidServiceUnavailableException}
+ * without touching the network. After the wait duration a few trial calls are let through (half-open state):
+ * if they succeed the circuit closes again, otherwise it opens for another wait duration.
+ * <p>
+ * Connection errors, 5xx responses and {@link MidInternalErrorException} count as failures.
+ * Errors caused by the request or the user (invalid parameters, session not found, not a MID client etc)
+ * show that the service is working and count as successful calls.
+ * A session status call is slow if it takes longer than the slow call threshold on top of the requested long polling timeout.
+ */
+public class MidCircuitBreakerConnector implements MidConnector, MidWarmUpConnector {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidCircuitBreakerConnector.class);
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public interface StateChangeListener {
+        void onStateChange(State fromState, State toState);
+    }
+
+    private final MidConnector connector;
+    private final int slidingWindowSize;
+    private final int minimumNumberOfCalls;
+    private final float failureRateThreshold;
+    private final float slowCallRateThreshold;
+    private final Duration slowCallDurationThreshold;
+    private final Duration waitDurationInOpenState;
+    private final int permittedCallsInHalfOpenState;
+    private final StateChangeListener stateChangeListener;
+
+    private final boolean[] failedCalls;
+    private final boolean[] slowCalls;
+    private int windowIndex;
+    private int windowCount;
+    private int windowFailures;
+    private int windowSlowCalls;
+
+    private State state = State.CLOSED;
+    // changes with every state change, so that calls finishing in a later state are not counted there
+    private long generation;
+    private long openedAtNanos;
+    private int halfOpenStartedCalls;
+    private int halfOpenCompletedCalls;
+    private int halfOpenBadCalls;
+
+    private final AtomicLong rejectedCalls = new AtomicLong();
+
+    private MidCircuitBreakerConnector(MidCircuitBreakerConnectorBuilder builder) {
+        this.connector = builder.connector;
+        this.slidingWindowSize = builder.slidingWindowSize;
+        this.minimumNumberOfCalls = Math.min(builder.minimumNumberOfCalls, builder.slidingWindowSize);
+        this.failureRateThreshold = builder.failureRateThreshold;
+        this.slowCallRateThreshold = builder.slowCallRateThreshold;
+        this.slowCallDurationThreshold = builder.slowCallDurationThreshold;
+        this.waitDurationInOpenState = builder.waitDurationInOpenState;
+        this.permittedCallsInHalfOpenState = builder.permittedCallsInHalfOpenState;
+        this.stateChangeListener = builder.stateChangeListener;
+        this.failedCalls = new boolean[slidingWindowSize];
+        this.slowCalls = new boolean[slidingWindowSize];
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        return execute(() -> connector.getCertificate(request), 0);
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return execute(() -> connector.sign(request), 0);
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return execute(() -> connector.authenticate(request), 0);
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return execute(() -> connector.getSessionStatus(request, path), request.getTimeoutMs());
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return execute(() -> connector.getAuthenticationSessionStatus(request), request.getTimeoutMs());
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return execute(() -> connector.getSignatureSessionStatus(request), request.getTimeoutMs());
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        connector.setSslTrustContext(sslContext);
+    }
+
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return MidWarmUpConnector.warmUpIfSupported(connector, connections);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return percentage of failed calls in the sliding window
+     */
+    public synchronized float getFailureRate() {
+        return windowCount == 0 ? 0 : windowFailures * 100f / windowCount;
+    }
+
+    /**
+     * @return percentage of slow calls in the sliding window
+     */
+    public synchronized float getSlowCallRate() {
+        return windowCount == 0 ? 0 : windowSlowCalls * 100f / windowCount;
+    }
+
+    /**
+     * @return number of calls that were not made because the circuit was open
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.get();
+    }
+
+    private <T> T execute(Supplier<T> call, long longPollMillis) {
+        long callGeneration = acquirePermission();
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            recordOutcome(callGeneration, false, isSlow(start, longPollMillis));
+            return result;
+        }
+        catch (RuntimeException e) {
+            recordOutcome(callGeneration, isFailure(e), isSlow(start, longPollMillis));
+            throw e;
+        }
+    }
+
+    private boolean isSlow(long startNanos, long longPollMillis) {
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        return elapsedMillis > slowCallDurationThreshold.toMillis() + longPollMillis;
+    }
+
+    static boolean isFailure(RuntimeException e) {
+        if (e instanceof WebApplicationException) {
+            return ((WebApplicationException) e).getResponse().getStatus() >= 500;
+        }
+        return e instanceof MidInternalErrorException || e instanceof ProcessingException;
+    }
+
+    /**
+     * @return generation the call was admitted in
+     */
+    private long acquirePermission() {
+        boolean permitted;
+        boolean halfOpened = false;
+        long callGeneration;
+        synchronized (this) {
+            if (state == State.OPEN && System.nanoTime() - openedAtNanos >= waitDurationInOpenState.toNanos()) {
+                state = State.HALF_OPEN;
+                generation++;
+                halfOpenStartedCalls = 0;
+                halfOpenCompletedCalls = 0;
+                halfOpenBadCalls = 0;
+                halfOpened = true;
+            }
+            permitted = state == State.CLOSED || state == State.HALF_OPEN && halfOpenStartedCalls < permittedCallsInHalfOpenState;
+            if (permitted && state == State.HALF_OPEN) {
+                halfOpenStartedCalls++;
+            }
+            callGeneration = generation;
+        }
+        if (halfOpened) {
+            fireStateChange(State.OPEN, State.HALF_OPEN);
+        }
+        if (!permitted) {
+            rejectedCalls.incrementAndGet();
+            throw new MidServiceUnavailableException("MID service calls are suspended by the circuit breaker, try again later");
+        }
+        return callGeneration;
+    }
+
+    private void recordOutcome(long callGeneration, boolean failure, boolean slow) {
+        State fromState;
+        State toState;
+        synchronized (this) {
+            fromState = state;
+            if (callGeneration != generation) {
+                // admitted before the last state change, e.g. a long poll started while closed finishing in half-open state
+                return;
+            }
+            if (state == State.CLOSED) {
+                addToWindow(failure, slow);
+                if (windowCount >= minimumNumberOfCalls
+                    && (getFailureRate() >= failureRateThreshold || getSlowCallRate() >= slowCallRateThreshold)) {
+                    open();
+                }
+            }
+            else if (state == State.HALF_OPEN) {
+                halfOpenCompletedCalls++;
+                if (failure || slow) {
+                    halfOpenBadCalls++;
+                }
+                if (halfOpenCompletedCalls >= permittedCallsInHalfOpenState) {
+                    if (halfOpenBadCalls * 100f / halfOpenCompletedCalls >= failureRateThreshold) {
+                        open();
+                    }
+                    else {
+                        state = State.CLOSED;
+                        generation++;
+                        resetWindow();
+                    }
+                }
+            }
+            toState = state;
+        }
+        if (fromState != toState) {
+            fireStateChange(fromState, toState);
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        generation++;
+        openedAtNanos = System.nanoTime();
+    }
+
+    private void addToWindow(boolean failure, boolean slow) {
+        if (windowCount == slidingWindowSize) {
+            if (failedCalls[windowIndex]) {
+                windowFailures--;
+            }
+            if (slowCalls[windowIndex]) {
+                windowSlowCalls--;
+            }
+        }
+        else {
+            windowCount++;
+        }
+        failedCalls[windowIndex] = failure;
+        slowCalls[windowIndex] = slow;
+        if (failure) {
+            windowFailures++;
+        }
+        if (slow) {
+            windowSlowCalls++;
+        }
+        windowIndex = (windowIndex + 1) % slidingWindowSize;
+    }
+
+    private void resetWindow() {
+        windowIndex = 0;
+        windowCount = 0;
+        windowFailures = 0;
+        windowSlowCalls = 0;
+    }
+
+    private void fireStateChange(State fromState, State toState) {
+        logger.info("MID circuit breaker state changed from " + fromState + " to " + toState);
+        if (stateChangeListener != null) {
+            try {
+                stateChangeListener.onStateChange(fromState, toState);
+            }
+            catch (RuntimeException e) {
+                logger.error("Circuit breaker state change listener failed", e);
+            }
+        }
+    }
+
+    public static MidCircuitBreakerConnectorBuilder newBuilder() {
+        return new MidCircuitBreakerConnectorBuilder();
+    }
+
+    public static class MidCircuitBreakerConnectorBuilder {
+        private MidConnector connector;
+        private int slidingWindowSize = 20;
+        private int minimumNumberOfCalls = 10;
+        private float failureRateThreshold = 50;
+        private float slowCallRateThreshold = 100;
+        private Duration slowCallDurationThreshold = Duration.ofSeconds(10);
+        private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+        private int permittedCallsInHalfOpenState = 3;
+        private StateChangeListener stateChangeListener;
+
+        private MidCircuitBreakerConnectorBuilder() {}
+
+        public MidCircuitBreakerConnectorBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        /**
+         * Number of last calls that failure and slow call rates are calculated from.
+         */
+        public MidCircuitBreakerConnectorBuilder withSlidingWindowSize(int slidingWindowSize) {
+            this.slidingWindowSize = slidingWindowSize;
+            return this;
+        }
+
+        /**
+         * Number of calls needed in the sliding window before the circuit can open.
+         */
+        public MidCircuitBreakerConnectorBuilder withMinimumNumberOfCalls(int minimumNumberOfCalls) {
+            this.minimumNumberOfCalls = minimumNumberOfCalls;
+            return this;
+        }
+
+        /**
+         * Percentage (1...100) of failed calls that opens the circuit.
+         */
+        public MidCircuitBreakerConnectorBuilder withFailureRateThreshold(float failureRateThreshold) {
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Percentage (1...100) of slow calls that opens the circuit.
+         */
+        public MidCircuitBreakerConnectorBuilder withSlowCallRateThreshold(float slowCallRateThreshold) {
+            this.slowCallRateThreshold = slowCallRateThreshold;
+            return this;
+        }
+
+        /**
+         * Calls that take longer than this (session status calls: longer than this plus the long polling timeout) are slow.
+         */
+        public MidCircuitBreakerConnectorBuilder withSlowCallDurationThreshold(Duration slowCallDurationThreshold) {
+            this.slowCallDurationThreshold = slowCallDurationThreshold;
+            return this;
+        }
+
+        public MidCircuitBreakerConnectorBuilder withWaitDurationInOpenState(Duration waitDurationInOpenState) {
+            this.waitDurationInOpenState = waitDurationInOpenState;
+            return this;
+        }
+
+        public MidCircuitBreakerConnectorBuilder withPermittedCallsInHalfOpenState(int permittedCallsInHalfOpenState) {
+            this.permittedCallsInHalfOpenState = permittedCallsInHalfOpenState;
+            return this;
+        }
+
+        /**
+         * Called after every state change, from the thread whose call caused it.
+         */
+        public MidCircuitBreakerConnectorBuilder withStateChangeListener(StateChangeListener stateChangeListener) {
+            this.stateChangeListener = stateChangeListener;
+            return this;
+        }
+
+        public MidCircuitBreakerConnector build() {
+            validateFields();
+            return new MidCircuitBreakerConnector(this);
+        }
+
+        private void validateFields() {
+            if (connector == null) {
+                throw new MidMissingOrInvalidParameterException("connector must be set");
+            }
+            if (slidingWindowSize <= 0) {
+                throw new MidMissingOrInvalidParameterException("slidingWindowSize must be a positive number");
+            }
+            if (minimumNumberOfCalls <= 0) {
+                throw new MidMissingOrInvalidParameterException("minimumNumberOfCalls must be a positive number");
+            }
+            if (permittedCallsInHalfOpenState <= 0) {
+                throw new MidMissingOrInvalidParameterException("permittedCallsInHalfOpenState must be a positive number");
+            }
+            if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+                throw new MidMissingOrInvalidParameterException("failureRateThreshold must be between 1 and 100");
+            }
+            if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 100) {
+                throw new MidMissingOrInvalidParameterException("slowCallRateThreshold must be between 1 and 100");
+            }
+            if (slowCallDurationThreshold == null || slowCallDurationThreshold.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("slowCallDurationThreshold must be non-negative");
+            }
+            if (waitDurationInOpenState == null || waitDurationInOpenState.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("waitDurationInOpenState must be non-negative");
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.mid.rest.dao.MidSessionStatus;
+
+/**
+ * Asks the node owning a session for its final status. The receiving node answers with
+ * {@link MidShardedSessionStatusPoller#fetchOwnedSessionStatus(String, String)}.
+ * <p>
+ * The returned future must complete exceptionally with the same exception type as on the owner,
+ * so that for example {@link ee.sk.mid.exception.MidUserCancellationException} reaches the caller.
+ * Cancelling the future should cancel the request on the owner.
+ */
+public interface MidClusterTransport {
+
+    CompletableFuture<MidSessionStatus> fetchFinalSessionStatus(String nodeId, String sessionId, String path);
+}
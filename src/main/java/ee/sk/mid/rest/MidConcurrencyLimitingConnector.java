@@ -0,0 +1,367 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} decorator that limits the number of calls in flight with an adaptive limit.
+ * <p>
+ * The limit follows AIMD (additive increase, multiplicative decrease): every call that succeeds in time while the
+ * limit is in use raises the limit by about one per limit's worth of calls, and every failed or slow call
+ * multiplies it by the backoff ratio. Session status polls and initiation calls (certificate, signature, authentication)
+ * have separate limits as long polls stay in flight much longer.
+ * <p>
+ * When the limit is reached a call waits up to the configured max wait for a free slot and then fails
+ * with {@link MidServiceUnavailableException} without calling the MID service.
+ */
+public class MidConcurrencyLimitingConnector implements MidConnector, MidWarmUpConnector {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidConcurrencyLimitingConnector.class);
+
+    private final MidConnector connector;
+    private final Duration latencyThreshold;
+    private final Duration maxWait;
+    private final AimdLimit initiationLimit;
+    private final AimdLimit sessionStatusLimit;
+
+    private MidConcurrencyLimitingConnector(MidConcurrencyLimitingConnectorBuilder builder) {
+        this.connector = builder.connector;
+        this.latencyThreshold = builder.latencyThreshold;
+        this.maxWait = builder.maxWait;
+        this.initiationLimit = new AimdLimit("initiation", builder.initialInitiationLimit, builder.minLimit, builder.maxInitiationLimit, builder.backoffRatio);
+        this.sessionStatusLimit = new AimdLimit("session status", builder.initialSessionStatusLimit, builder.minLimit, builder.maxSessionStatusLimit, builder.backoffRatio);
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        return execute(initiationLimit, () -> connector.getCertificate(request), 0);
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return execute(initiationLimit, () -> connector.sign(request), 0);
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return execute(initiationLimit, () -> connector.authenticate(request), 0);
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return execute(sessionStatusLimit, () -> connector.getSessionStatus(request, path), request.getTimeoutMs());
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return execute(sessionStatusLimit, () -> connector.getAuthenticationSessionStatus(request), request.getTimeoutMs());
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return execute(sessionStatusLimit, () -> connector.getSignatureSessionStatus(request), request.getTimeoutMs());
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        connector.setSslTrustContext(sslContext);
+    }
+
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return MidWarmUpConnector.warmUpIfSupported(connector, connections);
+    }
+
+    public LimitStatistics getInitiationStatistics() {
+        return initiationLimit.statistics();
+    }
+
+    public LimitStatistics getSessionStatusStatistics() {
+        return sessionStatusLimit.statistics();
+    }
+
+    private <T> T execute(AimdLimit limit, Supplier<T> call, long longPollMillis) {
+        int inFlightAtStart = limit.acquire(maxWait);
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            T result = call.get();
+            dropped = isSlow(start, longPollMillis);
+            return result;
+        }
+        catch (RuntimeException e) {
+            dropped = MidCircuitBreakerConnector.isFailure(e) || isSlow(start, longPollMillis);
+            throw e;
+        }
+        finally {
+            limit.release(inFlightAtStart, dropped);
+        }
+    }
+
+    private boolean isSlow(long startNanos, long longPollMillis) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) > latencyThreshold.toMillis() + longPollMillis;
+    }
+
+    private static class AimdLimit {
+        private final String name;
+        private final int minLimit;
+        private final int maxLimit;
+        private final double backoffRatio;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition released = lock.newCondition();
+        private double limit;
+        private int inFlight;
+        private long rejected;
+
+        AimdLimit(String name, int initialLimit, int minLimit, int maxLimit, double backoffRatio) {
+            this.name = name;
+            this.limit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.backoffRatio = backoffRatio;
+        }
+
+        int acquire(Duration maxWait) {
+            long remainingNanos = maxWait.toNanos();
+            lock.lock();
+            try {
+                while (inFlight >= (int) limit) {
+                    if (remainingNanos <= 0) {
+                        rejected++;
+                        logger.warn("MID " + name + " concurrency limit " + (int) limit + " reached, rejecting call");
+                        throw new MidServiceUnavailableException("Too many concurrent MID " + name + " calls, try again later");
+                    }
+                    try {
+                        remainingNanos = released.awaitNanos(remainingNanos);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new MidInternalErrorException("Interrupted while waiting for a free MID " + name + " call slot", e);
+                    }
+                }
+                return ++inFlight;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void release(int inFlightAtStart, boolean dropped) {
+            lock.lock();
+            try {
+                inFlight--;
+                if (dropped) {
+                    limit = Math.max(minLimit, limit * backoffRatio);
+                }
+                else if (inFlightAtStart * 2 >= limit) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+                released.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        LimitStatistics statistics() {
+            lock.lock();
+            try {
+                return new LimitStatistics((int) limit, inFlight, rejected);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public static class LimitStatistics {
+        private final int limit;
+        private final int inFlight;
+        private final long rejected;
+
+        LimitStatistics(int limit, int inFlight, long rejected) {
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.rejected = rejected;
+        }
+
+        /**
+         * @return current number of calls allowed in flight
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return number of calls rejected because the limit was reached
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public String toString() {
+            return "LimitStatistics{" +
+                "limit=" + limit +
+                ", inFlight=" + inFlight +
+                ", rejected=" + rejected +
+                '}';
+        }
+    }
+
+    public static MidConcurrencyLimitingConnectorBuilder newBuilder() {
+        return new MidConcurrencyLimitingConnectorBuilder();
+    }
+
+    public static class MidConcurrencyLimitingConnectorBuilder {
+        private MidConnector connector;
+        private int initialInitiationLimit = 10;
+        private int maxInitiationLimit = 100;
+        private int initialSessionStatusLimit = 50;
+        private int maxSessionStatusLimit = 500;
+        private int minLimit = 1;
+        private double backoffRatio = 0.9;
+        private Duration latencyThreshold = Duration.ofSeconds(5);
+        private Duration maxWait = Duration.ZERO;
+
+        private MidConcurrencyLimitingConnectorBuilder() {}
+
+        public MidConcurrencyLimitingConnectorBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        public MidConcurrencyLimitingConnectorBuilder withInitialInitiationLimit(int initialInitiationLimit) {
+            this.initialInitiationLimit = initialInitiationLimit;
+            return this;
+        }
+
+        public MidConcurrencyLimitingConnectorBuilder withMaxInitiationLimit(int maxInitiationLimit) {
+            this.maxInitiationLimit = maxInitiationLimit;
+            return this;
+        }
+
+        public MidConcurrencyLimitingConnectorBuilder withInitialSessionStatusLimit(int initialSessionStatusLimit) {
+            this.initialSessionStatusLimit = initialSessionStatusLimit;
+            return this;
+        }
+
+        public MidConcurrencyLimitingConnectorBuilder withMaxSessionStatusLimit(int maxSessionStatusLimit) {
+            this.maxSessionStatusLimit = maxSessionStatusLimit;
+            return this;
+        }
+
+        /**
+         * Lowest value the limits can drop to.
+         */
+        public MidConcurrencyLimitingConnectorBuilder withMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Factor (between 0 and 1) that a limit is multiplied with after a failed or slow call.
+         */
+        public MidConcurrencyLimitingConnectorBuilder withBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        /**
+         * Calls that take longer than this (session status calls: longer than this plus the long polling timeout)
+         * are treated as a sign of overload.
+         */
+        public MidConcurrencyLimitingConnectorBuilder withLatencyThreshold(Duration latencyThreshold) {
+            this.latencyThreshold = latencyThreshold;
+            return this;
+        }
+
+        /**
+         * How long a call waits for a free slot before it is rejected. Zero (default) rejects right away.
+         */
+        public MidConcurrencyLimitingConnectorBuilder withMaxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public MidConcurrencyLimitingConnector build() {
+            validateFields();
+            return new MidConcurrencyLimitingConnector(this);
+        }
+
+        private void validateFields() {
+            if (connector == null) {
+                throw new MidMissingOrInvalidParameterException("connector must be set");
+            }
+            if (minLimit <= 0) {
+                throw new MidMissingOrInvalidParameterException("minLimit must be a positive number");
+            }
+            if (initialInitiationLimit < minLimit || maxInitiationLimit < initialInitiationLimit) {
+                throw new MidMissingOrInvalidParameterException("Initiation limits must satisfy minLimit <= initialInitiationLimit <= maxInitiationLimit");
+            }
+            if (initialSessionStatusLimit < minLimit || maxSessionStatusLimit < initialSessionStatusLimit) {
+                throw new MidMissingOrInvalidParameterException("Session status limits must satisfy minLimit <= initialSessionStatusLimit <= maxSessionStatusLimit");
+            }
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new MidMissingOrInvalidParameterException("backoffRatio must be between 0 and 1");
+            }
+            if (latencyThreshold == null || latencyThreshold.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("latencyThreshold must be non-negative");
+            }
+            if (maxWait == null || maxWait.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("maxWait must be non-negative");
+            }
+        }
+    }
+}
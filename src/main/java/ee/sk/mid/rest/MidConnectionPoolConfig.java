@@ -0,0 +1,289 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import jakarta.ws.rs.core.Configuration;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.apache.connector.ApacheHttpClientBuilderConfigurator;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+
+/**
+ * Connection pooling and timeout settings for the JAX-RS client that {@link MidRestConnector} creates.
+ * <p>
+ * Connections are pooled with the Jersey Apache connector. All connections go to the same MID host,
+ * so the per route limit is normally the one that matters.
+ */
+public class MidConnectionPoolConfig {
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    public static final Duration DEFAULT_VALIDATE_AFTER_INACTIVITY = Duration.ofSeconds(2);
+
+    static final Duration MIN_LONG_POLLING_TIMEOUT = Duration.ofSeconds(1);
+    static final Duration MAX_LONG_POLLING_TIMEOUT = Duration.ofMillis(MidSessionStatusRequest.MAX_TIMEOUT_MS);
+    private static final Duration MIN_READ_TIMEOUT_MARGIN = Duration.ofSeconds(1);
+
+    private final int maxTotalConnections;
+    private final int maxConnectionsPerRoute;
+    private final Duration keepAliveDuration;
+    private final Duration idleConnectionEvictionTime;
+    private final Duration validateAfterInactivity;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final Duration sessionStatusReadTimeout;
+
+    private MidConnectionPoolConfig(MidConnectionPoolConfigBuilder builder) {
+        this.maxTotalConnections = builder.maxTotalConnections;
+        this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+        this.keepAliveDuration = builder.keepAliveDuration;
+        this.idleConnectionEvictionTime = builder.idleConnectionEvictionTime;
+        this.validateAfterInactivity = builder.validateAfterInactivity;
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.sessionStatusReadTimeout = builder.sessionStatusReadTimeout;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public Duration getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    public Duration getIdleConnectionEvictionTime() {
+        return idleConnectionEvictionTime;
+    }
+
+    public Duration getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Duration getReadTimeout() {
+        return readTimeout;
+    }
+
+    public Duration getSessionStatusReadTimeout() {
+        return sessionStatusReadTimeout;
+    }
+
+    /**
+     * Long polling timeout derived from the read timeout of session status requests, leaving a margin of 10%
+     * (at least one second) so that the server answers before the client gives up.
+     *
+     * @return derived timeout (at most the 120 seconds that the MID API allows, zero if it would be under one second),
+     * null if no read timeout is set
+     */
+    public Duration getLongPollingTimeout() {
+        Duration statusReadTimeout = sessionStatusReadTimeout != null ? sessionStatusReadTimeout : readTimeout;
+        if (statusReadTimeout == null || statusReadTimeout.isZero()) {
+            return null;
+        }
+        Duration margin = statusReadTimeout.dividedBy(10);
+        Duration longPollingTimeout = statusReadTimeout.minus(margin.compareTo(MIN_READ_TIMEOUT_MARGIN) < 0 ? MIN_READ_TIMEOUT_MARGIN : margin);
+        if (longPollingTimeout.compareTo(MIN_LONG_POLLING_TIMEOUT) < 0) {
+            return Duration.ZERO;
+        }
+        return longPollingTimeout.compareTo(MAX_LONG_POLLING_TIMEOUT) > 0 ? MAX_LONG_POLLING_TIMEOUT : longPollingTimeout;
+    }
+
+    ClientConfig createClientConfig(Configuration baseConfig, SSLContext sslContext) {
+        ClientConfig clientConfig = new ClientConfig();
+        if (baseConfig != null) {
+            clientConfig.loadFrom(baseConfig);
+        }
+        clientConfig.connectorProvider(new ApacheConnectorProvider());
+        clientConfig.property(ApacheClientProperties.CONNECTION_MANAGER, createConnectionManager(sslContext));
+        clientConfig.register((ApacheHttpClientBuilderConfigurator) httpClientBuilder -> {
+            if (keepAliveDuration != null) {
+                httpClientBuilder.setKeepAliveStrategy(createKeepAliveStrategy());
+            }
+            if (idleConnectionEvictionTime != null) {
+                httpClientBuilder.evictExpiredConnections();
+                httpClientBuilder.evictIdleConnections(idleConnectionEvictionTime.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            return httpClientBuilder;
+        });
+        if (connectTimeout != null) {
+            clientConfig.property(ClientProperties.CONNECT_TIMEOUT, toIntMillis(connectTimeout));
+        }
+        if (readTimeout != null) {
+            clientConfig.property(ClientProperties.READ_TIMEOUT, toIntMillis(readTimeout));
+        }
+        return clientConfig;
+    }
+
+    private PoolingHttpClientConnectionManager createConnectionManager(SSLContext sslContext) {
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", sslContext != null ? new SSLConnectionSocketFactory(sslContext) : SSLConnectionSocketFactory.getSocketFactory())
+            .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        if (validateAfterInactivity != null) {
+            connectionManager.setValidateAfterInactivity(toIntMillis(validateAfterInactivity));
+        }
+        return connectionManager;
+    }
+
+    private ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        long maxKeepAliveMillis = keepAliveDuration.toMillis();
+        return (response, context) -> {
+            long serverKeepAliveMillis = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverKeepAliveMillis > 0 ? Math.min(serverKeepAliveMillis, maxKeepAliveMillis) : maxKeepAliveMillis;
+        };
+    }
+
+    static int toIntMillis(Duration duration) {
+        return (int) Math.min(Integer.MAX_VALUE, duration.toMillis());
+    }
+
+    public static MidConnectionPoolConfigBuilder newBuilder() {
+        return new MidConnectionPoolConfigBuilder();
+    }
+
+    public static class MidConnectionPoolConfigBuilder {
+        private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+        private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        private Duration keepAliveDuration;
+        private Duration idleConnectionEvictionTime;
+        private Duration validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+        private Duration connectTimeout;
+        private Duration readTimeout;
+        private Duration sessionStatusReadTimeout;
+
+        private MidConnectionPoolConfigBuilder() {}
+
+        public MidConnectionPoolConfigBuilder withMaxTotalConnections(int maxTotalConnections) {
+            this.maxTotalConnections = maxTotalConnections;
+            return this;
+        }
+
+        public MidConnectionPoolConfigBuilder withMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * Upper limit for keeping an idle connection alive. A shorter Keep-Alive timeout sent by the server wins.
+         */
+        public MidConnectionPoolConfigBuilder withKeepAliveDuration(Duration keepAliveDuration) {
+            this.keepAliveDuration = keepAliveDuration;
+            return this;
+        }
+
+        /**
+         * Close pooled connections that have been idle for longer than this in a background thread.
+         */
+        public MidConnectionPoolConfigBuilder withIdleConnectionEvictionTime(Duration idleConnectionEvictionTime) {
+            this.idleConnectionEvictionTime = idleConnectionEvictionTime;
+            return this;
+        }
+
+        /**
+         * Check that a pooled connection is not stale before reusing it if it has been idle for longer than this.
+         */
+        public MidConnectionPoolConfigBuilder withValidateAfterInactivity(Duration validateAfterInactivity) {
+            this.validateAfterInactivity = validateAfterInactivity;
+            return this;
+        }
+
+        public MidConnectionPoolConfigBuilder withConnectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Read timeout of certificate, signature and authentication initiation requests.
+         */
+        public MidConnectionPoolConfigBuilder withReadTimeout(Duration readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * Read timeout of session status requests. Must be longer than the long polling timeout.
+         */
+        public MidConnectionPoolConfigBuilder withSessionStatusReadTimeout(Duration sessionStatusReadTimeout) {
+            this.sessionStatusReadTimeout = sessionStatusReadTimeout;
+            return this;
+        }
+
+        public MidConnectionPoolConfig build() {
+            validateFields();
+            return new MidConnectionPoolConfig(this);
+        }
+
+        private void validateFields() {
+            if (maxTotalConnections <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxTotalConnections must be a positive number");
+            }
+            if (maxConnectionsPerRoute <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxConnectionsPerRoute must be a positive number");
+            }
+            validateNotNegative(keepAliveDuration, "keepAliveDuration");
+            validateNotNegative(idleConnectionEvictionTime, "idleConnectionEvictionTime");
+            validateNotNegative(validateAfterInactivity, "validateAfterInactivity");
+            validateNotNegative(connectTimeout, "connectTimeout");
+            validateNotNegative(readTimeout, "readTimeout");
+            validateNotNegative(sessionStatusReadTimeout, "sessionStatusReadTimeout");
+        }
+
+        private static void validateNotNegative(Duration duration, String name) {
+            if (duration != null && duration.isNegative()) {
+                throw new MidMissingOrInvalidParameterException(name + " must be non-negative");
+            }
+        }
+    }
+}
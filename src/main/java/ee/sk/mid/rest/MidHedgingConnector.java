@@ -0,0 +1,428 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} decorator that hedges session status requests: if a request has not been answered
+ * within the configured percentile of recent response times, the same request is sent once more
+ * and whichever answers first is used. The slower one is cancelled (as far as the underlying client allows)
+ * and its answer is ignored.
+ * <p>
+ * With long polling the server holds the request for the requested timeout while the session is running,
+ * so response times are measured on top of the requested long polling timeout. A request is hedged
+ * only when the server is late compared to how it has usually answered.
+ * <p>
+ * Hedging needs a connector that also implements {@link MidAsyncConnector}, such as {@link MidRestConnector}.
+ * Certificate, signature and authentication requests start a transaction and are never hedged.
+ * The share of hedged requests is capped by a budget.
+ */
+public class MidHedgingConnector implements MidConnector, MidAsyncConnector, MidWarmUpConnector, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidHedgingConnector.class);
+
+    private static final double MAX_BUDGET_TOKENS = 10;
+
+    private final MidConnector connector;
+    private final MidAsyncConnector asyncConnector;
+    private final double latencyPercentile;
+    private final Duration minHedgeDelay;
+    private final int minSamples;
+    private final double maxHedgeRatio;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownedScheduler;
+
+    private final long[] latencySamples;
+    private int sampleIndex;
+    private int sampleCount;
+
+    private double budgetTokens;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong hedgesDeniedByBudget = new AtomicLong();
+
+    private MidHedgingConnector(MidHedgingConnectorBuilder builder) {
+        this.connector = builder.connector;
+        this.asyncConnector = (MidAsyncConnector) builder.connector;
+        this.latencyPercentile = builder.latencyPercentile;
+        this.minHedgeDelay = builder.minHedgeDelay;
+        this.minSamples = builder.minSamples;
+        this.maxHedgeRatio = builder.maxHedgePercentage / 100;
+        this.latencySamples = new long[builder.sampleWindowSize];
+        this.ownedScheduler = builder.scheduler == null;
+        this.scheduler = ownedScheduler ? createScheduler() : builder.scheduler;
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mid-hedging-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        return connector.getCertificate(request);
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return connector.sign(request);
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return connector.authenticate(request);
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return join(getSessionStatusAsync(request, path));
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return getSessionStatus(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return getSessionStatus(request, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request) {
+        return asyncConnector.getCertificateAsync(request);
+    }
+
+    @Override
+    public CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request) {
+        return asyncConnector.signAsync(request);
+    }
+
+    @Override
+    public CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request) {
+        return asyncConnector.authenticateAsync(request);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request) {
+        return getSessionStatusAsync(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request) {
+        return getSessionStatusAsync(request, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path) {
+        requests.incrementAndGet();
+        long hedgeDelayMillis = earnBudgetAndGetHedgeDelay(request.getTimeoutMs());
+
+        CompletableFuture<MidSessionStatus> result = new CompletableFuture<>();
+        AtomicInteger inFlight = new AtomicInteger(1);
+        AtomicBoolean hedgeStarted = new AtomicBoolean();
+        AtomicBoolean answered = new AtomicBoolean();
+
+        CompletableFuture<MidSessionStatus> primary = send(request, path, result, answered, inFlight, false);
+        if (hedgeDelayMillis < 0) {
+            return result;
+        }
+
+        ScheduledFuture<?> hedgeTimer = scheduler.schedule(() -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (!tryAcquireBudget()) {
+                hedgesDeniedByBudget.incrementAndGet();
+                return;
+            }
+            hedgedRequests.incrementAndGet();
+            hedgeStarted.set(true);
+            inFlight.incrementAndGet();
+            logger.debug("Session " + request.getSessionID() + " has not answered in " + hedgeDelayMillis + " ms, sending hedged request");
+            CompletableFuture<MidSessionStatus> hedge = send(request, path, result, answered, inFlight, true);
+            result.whenComplete((status, error) -> hedge.cancel(true));
+        }, hedgeDelayMillis, TimeUnit.MILLISECONDS);
+
+        result.whenComplete((status, error) -> {
+            hedgeTimer.cancel(false);
+            if (hedgeStarted.get()) {
+                primary.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<MidSessionStatus> send(MidSessionStatusRequest request, String path, CompletableFuture<MidSessionStatus> result,
+                                                     AtomicBoolean answered, AtomicInteger inFlight, boolean hedge) {
+        long start = System.nanoTime();
+        CompletableFuture<MidSessionStatus> response = asyncConnector.getSessionStatusAsync(request, path).toCompletableFuture();
+        response.whenComplete((status, error) -> {
+            if (error == null) {
+                recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) - request.getTimeoutMs());
+                if (answered.compareAndSet(false, true)) {
+                    if (hedge) {
+                        hedgeWins.incrementAndGet();
+                    }
+                    result.complete(status);
+                }
+            }
+            else if (inFlight.decrementAndGet() == 0) {
+                result.completeExceptionally(unwrap(error));
+            }
+        });
+        return response;
+    }
+
+    private synchronized long earnBudgetAndGetHedgeDelay(long longPollMillis) {
+        budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + maxHedgeRatio);
+        if (sampleCount < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(latencySamples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(latencyPercentile / 100 * sorted.length) - 1;
+        long percentileMillis = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        return longPollMillis + Math.max(minHedgeDelay.toMillis(), percentileMillis);
+    }
+
+    private synchronized boolean tryAcquireBudget() {
+        if (budgetTokens < 1) {
+            return false;
+        }
+        budgetTokens--;
+        return true;
+    }
+
+    private synchronized void recordLatency(long latencyMillis) {
+        latencySamples[sampleIndex] = Math.max(0, latencyMillis);
+        sampleIndex = (sampleIndex + 1) % latencySamples.length;
+        if (sampleCount < latencySamples.length) {
+            sampleCount++;
+        }
+    }
+
+    /**
+     * @return number of session status requests made through this connector
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return number of extra session status requests sent because the first one was slow
+     */
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    /**
+     * @return number of hedged requests that answered before the original one
+     */
+    public long getHedgeWins() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * @return number of hedged requests that were not sent because the budget was used up
+     */
+    public long getHedgesDeniedByBudget() {
+        return hedgesDeniedByBudget.get();
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        connector.setSslTrustContext(sslContext);
+    }
+
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return MidWarmUpConnector.warmUpIfSupported(connector, connections);
+    }
+
+    /**
+     * Stops the scheduler if it was created by this connector. The wrapped connector is not closed.
+     */
+    @Override
+    public void close() {
+        if (ownedScheduler) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static <T> T join(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MidInternalErrorException("Unknown error when connecting to Host", cause);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    public static MidHedgingConnectorBuilder newBuilder() {
+        return new MidHedgingConnectorBuilder();
+    }
+
+    public static class MidHedgingConnectorBuilder {
+        private MidConnector connector;
+        private double latencyPercentile = 95;
+        private Duration minHedgeDelay = Duration.ofMillis(50);
+        private int minSamples = 20;
+        private int sampleWindowSize = 200;
+        private double maxHedgePercentage = 5;
+        private ScheduledExecutorService scheduler;
+
+        private MidHedgingConnectorBuilder() {}
+
+        /**
+         * @param connector connector that also implements {@link MidAsyncConnector}
+         */
+        public MidHedgingConnectorBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        /**
+         * Percentile (1...100) of recent response times after which a hedged request is sent.
+         */
+        public MidHedgingConnectorBuilder withLatencyPercentile(double latencyPercentile) {
+            this.latencyPercentile = latencyPercentile;
+            return this;
+        }
+
+        /**
+         * Never hedge a request sooner than this (on top of the long polling timeout).
+         */
+        public MidHedgingConnectorBuilder withMinHedgeDelay(Duration minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        /**
+         * Number of measured responses needed before hedging starts.
+         */
+        public MidHedgingConnectorBuilder withMinSamples(int minSamples) {
+            this.minSamples = minSamples;
+            return this;
+        }
+
+        /**
+         * Number of most recent response times that the percentile is calculated from.
+         */
+        public MidHedgingConnectorBuilder withSampleWindowSize(int sampleWindowSize) {
+            this.sampleWindowSize = sampleWindowSize;
+            return this;
+        }
+
+        /**
+         * Upper limit for hedged requests as percentage of all session status requests.
+         */
+        public MidHedgingConnectorBuilder withMaxHedgePercentage(double maxHedgePercentage) {
+            this.maxHedgePercentage = maxHedgePercentage;
+            return this;
+        }
+
+        /**
+         * Scheduler for starting hedged requests. If not set a single daemon thread is created and stopped on close().
+         */
+        public MidHedgingConnectorBuilder withScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public MidHedgingConnector build() {
+            validateFields();
+            return new MidHedgingConnector(this);
+        }
+
+        private void validateFields() {
+            if (!(connector instanceof MidAsyncConnector)) {
+                throw new MidMissingOrInvalidParameterException("connector must be set and implement MidAsyncConnector");
+            }
+            if (latencyPercentile <= 0 || latencyPercentile > 100) {
+                throw new MidMissingOrInvalidParameterException("latencyPercentile must be between 1 and 100");
+            }
+            if (minHedgeDelay == null || minHedgeDelay.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("minHedgeDelay must be non-negative");
+            }
+            if (minSamples <= 0 || sampleWindowSize < minSamples) {
+                throw new MidMissingOrInvalidParameterException("minSamples must be a positive number not greater than sampleWindowSize");
+            }
+            if (maxHedgePercentage < 0 || maxHedgePercentage > 100) {
+                throw new MidMissingOrInvalidParameterException("maxHedgePercentage must be between 0 and 100");
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Membership and transport for nodes running in the same JVM, for tests and local development.
+ * Nodes are added with {@link #join} and removed with {@link #leave}; requests to a node are direct method calls.
+ */
+public class MidInMemoryClusterMembership implements MidClusterMembership, MidClusterTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidInMemoryClusterMembership.class);
+
+    private final Map<String, MidShardedSessionStatusPoller> nodes = new ConcurrentHashMap<>();
+    private final List<MembershipListener> listeners = new CopyOnWriteArrayList<>();
+
+    public void join(String nodeId, MidShardedSessionStatusPoller node) {
+        nodes.put(nodeId, node);
+        notifyListeners();
+    }
+
+    public void leave(String nodeId) {
+        if (nodes.remove(nodeId) != null) {
+            notifyListeners();
+        }
+    }
+
+    @Override
+    public Set<String> getNodes() {
+        return new TreeSet<>(nodes.keySet());
+    }
+
+    @Override
+    public void addMembershipListener(MembershipListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeMembershipListener(MembershipListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public CompletableFuture<MidSessionStatus> fetchFinalSessionStatus(String nodeId, String sessionId, String path) {
+        MidShardedSessionStatusPoller node = nodes.get(nodeId);
+        if (node == null) {
+            CompletableFuture<MidSessionStatus> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new MidInternalErrorException("Cluster node " + nodeId + " is not available"));
+            return failed;
+        }
+        return node.fetchOwnedSessionStatus(sessionId, path);
+    }
+
+    private void notifyListeners() {
+        Set<String> members = getNodes();
+        for (MembershipListener listener : listeners) {
+            try {
+                listener.onMembershipChange(members);
+            }
+            catch (RuntimeException e) {
+                logger.error("Cluster membership listener failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,500 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAbstractResponse;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} that spreads calls over several MID API endpoints (for example primary and DR site).
+ * <p>
+ * Each call picks two random available endpoints and uses the one with the lower load, where load is the
+ * exponentially weighted moving average of response time multiplied by the number of calls in flight
+ * ("power of two choices"). An endpoint that fails several calls in a row is ejected for a while;
+ * after that the next call routed to it serves as a probe and either brings it back or ejects it again for longer.
+ * If all endpoints are ejected the one that will be available soonest is used.
+ * <p>
+ * Session status requests go to the endpoint that created the session. Initiation requests fail over to
+ * another endpoint only if the connection could not be opened, so a transaction is never started twice.
+ */
+public class MidMultiEndpointConnector implements MidConnector, MidWarmUpConnector {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidMultiEndpointConnector.class);
+
+    private final List<Endpoint> endpoints;
+    private final int failuresBeforeEjection;
+    private final Duration ejectionDuration;
+    private final Duration maxEjectionDuration;
+    private final double ewmaWeight;
+    private final Map<String, Endpoint> sessionEndpoints;
+
+    private MidMultiEndpointConnector(MidMultiEndpointConnectorBuilder builder) {
+        List<Endpoint> endpointList = new ArrayList<>();
+        for (Map.Entry<String, MidConnector> entry : builder.endpoints.entrySet()) {
+            endpointList.add(new Endpoint(entry.getKey(), entry.getValue()));
+        }
+        this.endpoints = Collections.unmodifiableList(endpointList);
+        this.failuresBeforeEjection = builder.failuresBeforeEjection;
+        this.ejectionDuration = builder.ejectionDuration;
+        this.maxEjectionDuration = builder.maxEjectionDuration;
+        this.ewmaWeight = builder.ewmaWeight;
+        int maxTrackedSessions = builder.maxTrackedSessions;
+        this.sessionEndpoints = new LinkedHashMap<String, Endpoint>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Endpoint> eldest) {
+                return size() > maxTrackedSessions;
+            }
+        };
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        return initiate(endpoint -> endpoint.connector.getCertificate(request));
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return initiate(endpoint -> endpoint.connector.sign(request));
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return initiate(endpoint -> endpoint.connector.authenticate(request));
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return pollSession(request, endpoint -> endpoint.connector.getSessionStatus(request, path));
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return pollSession(request, endpoint -> endpoint.connector.getAuthenticationSessionStatus(request));
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return pollSession(request, endpoint -> endpoint.connector.getSignatureSessionStatus(request));
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        for (Endpoint endpoint : endpoints) {
+            endpoint.connector.setSslTrustContext(sslContext);
+        }
+    }
+
+    /**
+     * Warms up the connector of every endpoint in turn, the result adds up their phases.
+     */
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        MidWarmUpResult result = MidWarmUpResult.skipped();
+        for (Endpoint endpoint : endpoints) {
+            result = result.plus(MidWarmUpConnector.warmUpIfSupported(endpoint.connector, connections));
+        }
+        return result;
+    }
+
+    /**
+     * @return current state of every endpoint, in the order they were added
+     */
+    public List<EndpointStatistics> getEndpointStatistics() {
+        List<EndpointStatistics> statistics = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            statistics.add(endpoint.statistics());
+        }
+        return statistics;
+    }
+
+    private <T> T initiate(EndpointCall<T> call) {
+        List<Endpoint> tried = new ArrayList<>();
+        while (true) {
+            Endpoint endpoint = choose(tried);
+            try {
+                T response = execute(endpoint, call, 0);
+                if (response instanceof MidAbstractResponse && ((MidAbstractResponse) response).getSessionID() != null) {
+                    rememberSession(((MidAbstractResponse) response).getSessionID(), endpoint);
+                }
+                return response;
+            }
+            catch (RuntimeException e) {
+                tried.add(endpoint);
+                if (!MidRetryPolicy.isConnectFailure(e) || tried.size() == endpoints.size()) {
+                    throw e;
+                }
+                logger.info("Could not connect to " + endpoint.name + ", failing over to another endpoint");
+            }
+        }
+    }
+
+    private MidSessionStatus pollSession(MidSessionStatusRequest request, EndpointCall<MidSessionStatus> call) {
+        Endpoint endpoint;
+        synchronized (sessionEndpoints) {
+            endpoint = sessionEndpoints.get(request.getSessionID());
+        }
+        MidSessionStatus sessionStatus = endpoint == null
+            ? findSession(request, call)
+            : execute(endpoint, call, request.getTimeoutMs());
+        if (sessionStatus != null && "COMPLETE".equalsIgnoreCase(sessionStatus.getState())) {
+            synchronized (sessionEndpoints) {
+                sessionEndpoints.remove(request.getSessionID());
+            }
+        }
+        return sessionStatus;
+    }
+
+    /**
+     * Polls a session whose endpoint is not known (for example after a restart) on one endpoint after another
+     * until one of them knows the session, and remembers that endpoint for the next polls.
+     */
+    private MidSessionStatus findSession(MidSessionStatusRequest request, EndpointCall<MidSessionStatus> call) {
+        logger.debug("Endpoint of session " + request.getSessionID() + " is not known, choosing one");
+        List<Endpoint> tried = new ArrayList<>();
+        while (true) {
+            Endpoint endpoint = choose(tried);
+            try {
+                MidSessionStatus sessionStatus = execute(endpoint, call, request.getTimeoutMs());
+                rememberSession(request.getSessionID(), endpoint);
+                return sessionStatus;
+            }
+            catch (MidSessionNotFoundException e) {
+                tried.add(endpoint);
+                if (tried.size() == endpoints.size()) {
+                    throw e;
+                }
+                logger.info("Session " + request.getSessionID() + " not found on " + endpoint.name + ", trying another endpoint");
+            }
+        }
+    }
+
+    private void rememberSession(String sessionId, Endpoint endpoint) {
+        synchronized (sessionEndpoints) {
+            sessionEndpoints.put(sessionId, endpoint);
+        }
+    }
+
+    private <T> T execute(Endpoint endpoint, EndpointCall<T> call, long longPollMillis) {
+        endpoint.startCall();
+        long start = System.nanoTime();
+        try {
+            T result = call.call(endpoint);
+            endpoint.recordSuccess((System.nanoTime() - start) / 1_000_000 - longPollMillis);
+            return result;
+        }
+        catch (RuntimeException e) {
+            if (MidCircuitBreakerConnector.isFailure(e)) {
+                endpoint.recordFailure();
+            }
+            else {
+                endpoint.recordSuccess((System.nanoTime() - start) / 1_000_000 - longPollMillis);
+            }
+            throw e;
+        }
+        finally {
+            endpoint.inFlight.decrementAndGet();
+        }
+    }
+
+    private Endpoint choose(List<Endpoint> excluded) {
+        long now = System.nanoTime();
+        List<Endpoint> available = new ArrayList<>(endpoints.size());
+        for (Endpoint endpoint : endpoints) {
+            if (!excluded.contains(endpoint) && endpoint.isAvailable(now)) {
+                available.add(endpoint);
+            }
+        }
+        if (available.isEmpty()) {
+            Endpoint soonest = null;
+            for (Endpoint endpoint : endpoints) {
+                if (!excluded.contains(endpoint) && (soonest == null || endpoint.ejectedUntilNanos < soonest.ejectedUntilNanos)) {
+                    soonest = endpoint;
+                }
+            }
+            if (soonest == null) {
+                throw new MidServiceUnavailableException("No MID endpoint is available");
+            }
+            logger.debug("All MID endpoints are ejected, using " + soonest.name);
+            return soonest;
+        }
+        if (available.size() == 1) {
+            return available.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(available.size());
+        int second = random.nextInt(available.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Endpoint a = available.get(first);
+        Endpoint b = available.get(second);
+        Endpoint chosen = a.load() <= b.load() ? a : b;
+        if (logger.isDebugEnabled()) {
+            logger.debug("Routing to " + chosen.name + " (" + a.name + " load " + a.load() + ", " + b.name + " load " + b.load() + ")");
+        }
+        return chosen;
+    }
+
+    private interface EndpointCall<T> {
+        T call(Endpoint endpoint);
+    }
+
+    private class Endpoint {
+        private final String name;
+        private final MidConnector connector;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong selected = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private double ewmaLatencyMillis;
+        private int consecutiveFailures;
+        private int ejections;
+        private long ejectedUntilNanos;
+        private boolean probing;
+
+        Endpoint(String name, MidConnector connector) {
+            this.name = name;
+            this.connector = connector;
+        }
+
+        synchronized boolean isAvailable(long nowNanos) {
+            return ejectedUntilNanos == 0 || nowNanos - ejectedUntilNanos >= 0 && !probing;
+        }
+
+        synchronized void startCall() {
+            inFlight.incrementAndGet();
+            selected.incrementAndGet();
+            if (ejectedUntilNanos != 0 && !probing) {
+                probing = true;
+                logger.info("Probing ejected MID endpoint " + name);
+            }
+        }
+
+        synchronized double load() {
+            return (ewmaLatencyMillis + 1) * (inFlight.get() + 1);
+        }
+
+        synchronized void recordSuccess(long latencyMillis) {
+            double latency = Math.max(0, latencyMillis);
+            ewmaLatencyMillis = ewmaLatencyMillis == 0 ? latency : ewmaWeight * latency + (1 - ewmaWeight) * ewmaLatencyMillis;
+            consecutiveFailures = 0;
+            if (ejectedUntilNanos != 0) {
+                logger.info("MID endpoint " + name + " is available again");
+            }
+            ejectedUntilNanos = 0;
+            ejections = 0;
+            probing = false;
+        }
+
+        synchronized void recordFailure() {
+            failures.incrementAndGet();
+            consecutiveFailures++;
+            if (probing || consecutiveFailures >= failuresBeforeEjection) {
+                long ejectionMillis = Math.min(maxEjectionDuration.toMillis(), ejectionDuration.toMillis() << Math.min(ejections, 20));
+                ejections++;
+                ejectedUntilNanos = System.nanoTime() + ejectionMillis * 1_000_000;
+                probing = false;
+                logger.warn("Ejecting MID endpoint " + name + " for " + ejectionMillis + " ms after " + consecutiveFailures + " failures");
+            }
+        }
+
+        synchronized EndpointStatistics statistics() {
+            boolean ejected = ejectedUntilNanos != 0 && System.nanoTime() - ejectedUntilNanos < 0;
+            return new EndpointStatistics(name, ewmaLatencyMillis, inFlight.get(), selected.get(), failures.get(), ejected);
+        }
+    }
+
+    public static class EndpointStatistics {
+        private final String name;
+        private final double averageLatencyMillis;
+        private final int inFlight;
+        private final long selected;
+        private final long failures;
+        private final boolean ejected;
+
+        EndpointStatistics(String name, double averageLatencyMillis, int inFlight, long selected, long failures, boolean ejected) {
+            this.name = name;
+            this.averageLatencyMillis = averageLatencyMillis;
+            this.inFlight = inFlight;
+            this.selected = selected;
+            this.failures = failures;
+            this.ejected = ejected;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return exponentially weighted moving average of response time (not including long polling time)
+         */
+        public double getAverageLatencyMillis() {
+            return averageLatencyMillis;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * @return number of calls routed to this endpoint
+         */
+        public long getSelected() {
+            return selected;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        public boolean isEjected() {
+            return ejected;
+        }
+
+        @Override
+        public String toString() {
+            return "EndpointStatistics{" +
+                "name='" + name + '\'' +
+                ", averageLatencyMillis=" + averageLatencyMillis +
+                ", inFlight=" + inFlight +
+                ", selected=" + selected +
+                ", failures=" + failures +
+                ", ejected=" + ejected +
+                '}';
+        }
+    }
+
+    public static MidMultiEndpointConnectorBuilder newBuilder() {
+        return new MidMultiEndpointConnectorBuilder();
+    }
+
+    public static class MidMultiEndpointConnectorBuilder {
+        private final Map<String, MidConnector> endpoints = new LinkedHashMap<>();
+        private int failuresBeforeEjection = 3;
+        private Duration ejectionDuration = Duration.ofSeconds(10);
+        private Duration maxEjectionDuration = Duration.ofMinutes(5);
+        private double ewmaWeight = 0.3;
+        private int maxTrackedSessions = 10_000;
+
+        private MidMultiEndpointConnectorBuilder() {}
+
+        /**
+         * @param name name of the endpoint used in logs and statistics, for example its URL
+         * @param connector connector that calls this endpoint
+         */
+        public MidMultiEndpointConnectorBuilder withEndpoint(String name, MidConnector connector) {
+            this.endpoints.put(name, connector);
+            return this;
+        }
+
+        public MidMultiEndpointConnectorBuilder withFailuresBeforeEjection(int failuresBeforeEjection) {
+            this.failuresBeforeEjection = failuresBeforeEjection;
+            return this;
+        }
+
+        /**
+         * How long an endpoint is ejected for the first time. Doubles with every failed probe.
+         */
+        public MidMultiEndpointConnectorBuilder withEjectionDuration(Duration ejectionDuration) {
+            this.ejectionDuration = ejectionDuration;
+            return this;
+        }
+
+        public MidMultiEndpointConnectorBuilder withMaxEjectionDuration(Duration maxEjectionDuration) {
+            this.maxEjectionDuration = maxEjectionDuration;
+            return this;
+        }
+
+        /**
+         * Weight (0...1) of the latest response time in the moving average.
+         */
+        public MidMultiEndpointConnectorBuilder withEwmaWeight(double ewmaWeight) {
+            this.ewmaWeight = ewmaWeight;
+            return this;
+        }
+
+        /**
+         * Number of running sessions whose endpoint is remembered. Older entries are forgotten first.
+         */
+        public MidMultiEndpointConnectorBuilder withMaxTrackedSessions(int maxTrackedSessions) {
+            this.maxTrackedSessions = maxTrackedSessions;
+            return this;
+        }
+
+        public MidMultiEndpointConnector build() {
+            validateFields();
+            return new MidMultiEndpointConnector(this);
+        }
+
+        private void validateFields() {
+            if (endpoints.isEmpty()) {
+                throw new MidMissingOrInvalidParameterException("At least one endpoint must be added");
+            }
+            if (endpoints.containsValue(null)) {
+                throw new MidMissingOrInvalidParameterException("Endpoint connector must not be null");
+            }
+            if (failuresBeforeEjection <= 0) {
+                throw new MidMissingOrInvalidParameterException("failuresBeforeEjection must be a positive number");
+            }
+            if (ejectionDuration == null || ejectionDuration.isNegative()
+                || maxEjectionDuration == null || maxEjectionDuration.compareTo(ejectionDuration) < 0) {
+                throw new MidMissingOrInvalidParameterException("ejectionDuration must be non-negative and not longer than maxEjectionDuration");
+            }
+            if (ewmaWeight <= 0 || ewmaWeight > 1) {
+                throw new MidMissingOrInvalidParameterException("ewmaWeight must be between 0 and 1");
+            }
+            if (maxTrackedSessions <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxTrackedSessions must be a positive number");
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.MidNotMidClientCache;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} decorator that remembers persons who are not Mobile-ID clients in a {@link MidNotMidClientCache}
+ * and throws {@link MidNotMidClientException} for their authentication and signing requests without calling the MID service.
+ * <p>
+ * A person is remembered when a certificate request returns NOT_FOUND or NOT_ACTIVE,
+ * or when an authentication or signing session started through this connector ends with NOT_MID_CLIENT.
+ * <p>
+ * The asynchronous calls stay asynchronous when the decorated connector implements {@link MidAsyncConnector}.
+ */
+public class MidNotMidClientCachingConnector implements MidConnector, MidAsyncConnector, MidWarmUpConnector {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidNotMidClientCachingConnector.class);
+
+    private final MidConnector connector;
+    private final MidAsyncConnector asyncConnector;
+    private final MidNotMidClientCache notMidClientCache;
+
+    private final Map<String, String[]> sessionPersons;
+
+    private MidNotMidClientCachingConnector(MidNotMidClientCachingConnectorBuilder builder) {
+        this.connector = builder.connector;
+        this.asyncConnector = MidBlockingAsyncAdapter.of(builder.connector);
+        this.notMidClientCache = builder.notMidClientCache;
+        int maxTrackedSessions = builder.maxTrackedSessions;
+        this.sessionPersons = new LinkedHashMap<String, String[]>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > maxTrackedSessions;
+            }
+        };
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        MidCertificateChoiceResponse response = connector.getCertificate(request);
+        if ("NOT_FOUND".equalsIgnoreCase(response.getResult()) || "NOT_ACTIVE".equalsIgnoreCase(response.getResult())) {
+            notMidClientCache.put(request.getPhoneNumber(), request.getNationalIdentityNumber());
+        }
+        return response;
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        failIfNotMidClient(request.getPhoneNumber(), request.getNationalIdentityNumber());
+        MidSignatureResponse response = connector.sign(request);
+        rememberSession(response.getSessionID(), request.getPhoneNumber(), request.getNationalIdentityNumber());
+        return response;
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        failIfNotMidClient(request.getPhoneNumber(), request.getNationalIdentityNumber());
+        MidAuthenticationResponse response = connector.authenticate(request);
+        rememberSession(response.getSessionID(), request.getPhoneNumber(), request.getNationalIdentityNumber());
+        return response;
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return checkResult(request, connector.getSessionStatus(request, path));
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return checkResult(request, connector.getAuthenticationSessionStatus(request));
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return checkResult(request, connector.getSignatureSessionStatus(request));
+    }
+
+    @Override
+    public CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request) {
+        return asyncConnector.getCertificateAsync(request).thenApply(response -> {
+            if ("NOT_FOUND".equalsIgnoreCase(response.getResult()) || "NOT_ACTIVE".equalsIgnoreCase(response.getResult())) {
+                notMidClientCache.put(request.getPhoneNumber(), request.getNationalIdentityNumber());
+            }
+            return response;
+        });
+    }
+
+    @Override
+    public CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request) {
+        if (notMidClientCache.isNotMidClient(request.getPhoneNumber(), request.getNationalIdentityNumber())) {
+            return notMidClientFailure();
+        }
+        return asyncConnector.signAsync(request).thenApply(response -> {
+            rememberSession(response.getSessionID(), request.getPhoneNumber(), request.getNationalIdentityNumber());
+            return response;
+        });
+    }
+
+    @Override
+    public CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request) {
+        if (notMidClientCache.isNotMidClient(request.getPhoneNumber(), request.getNationalIdentityNumber())) {
+            return notMidClientFailure();
+        }
+        return asyncConnector.authenticateAsync(request).thenApply(response -> {
+            rememberSession(response.getSessionID(), request.getPhoneNumber(), request.getNationalIdentityNumber());
+            return response;
+        });
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path) {
+        return checkResultAsync(request, asyncConnector.getSessionStatusAsync(request, path));
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request) {
+        return checkResultAsync(request, asyncConnector.getAuthenticationSessionStatusAsync(request));
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request) {
+        return checkResultAsync(request, asyncConnector.getSignatureSessionStatusAsync(request));
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        connector.setSslTrustContext(sslContext);
+    }
+
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return MidWarmUpConnector.warmUpIfSupported(connector, connections);
+    }
+
+    /**
+     * @return the decorated connector
+     */
+    public MidConnector getConnector() {
+        return connector;
+    }
+
+    public MidNotMidClientCache getNotMidClientCache() {
+        return notMidClientCache;
+    }
+
+    private void failIfNotMidClient(String phoneNumber, String nationalIdentityNumber) {
+        if (notMidClientCache.isNotMidClient(phoneNumber, nationalIdentityNumber)) {
+            logger.debug("Person was recently found not to be a Mobile-ID client, not calling MID service");
+            throw new MidNotMidClientException();
+        }
+    }
+
+    private static <T> CompletionStage<T> notMidClientFailure() {
+        logger.debug("Person was recently found not to be a Mobile-ID client, not calling MID service");
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new MidNotMidClientException());
+        return failed;
+    }
+
+    /**
+     * Cancelling the returned stage cancels the session status request, so that pollers can still abort long polls.
+     */
+    private CompletionStage<MidSessionStatus> checkResultAsync(MidSessionStatusRequest request, CompletionStage<MidSessionStatus> response) {
+        CompletableFuture<MidSessionStatus> responseFuture = response.toCompletableFuture();
+        CompletableFuture<MidSessionStatus> checked = responseFuture.thenApply(sessionStatus -> checkResult(request, sessionStatus));
+        checked.whenComplete((sessionStatus, error) -> {
+            if (checked.isCancelled()) {
+                responseFuture.cancel(true);
+            }
+        });
+        return checked;
+    }
+
+    private void rememberSession(String sessionId, String phoneNumber, String nationalIdentityNumber) {
+        if (sessionId != null) {
+            synchronized (sessionPersons) {
+                sessionPersons.put(sessionId, new String[] {phoneNumber, nationalIdentityNumber});
+            }
+        }
+    }
+
+    private MidSessionStatus checkResult(MidSessionStatusRequest request, MidSessionStatus sessionStatus) {
+        if (sessionStatus == null || !"COMPLETE".equalsIgnoreCase(sessionStatus.getState())) {
+            return sessionStatus;
+        }
+        String[] person;
+        synchronized (sessionPersons) {
+            person = sessionPersons.remove(request.getSessionID());
+        }
+        if (person != null && "NOT_MID_CLIENT".equalsIgnoreCase(sessionStatus.getResult())) {
+            notMidClientCache.put(person[0], person[1]);
+        }
+        return sessionStatus;
+    }
+
+    public static MidNotMidClientCachingConnectorBuilder newBuilder() {
+        return new MidNotMidClientCachingConnectorBuilder();
+    }
+
+    public static class MidNotMidClientCachingConnectorBuilder {
+        private MidConnector connector;
+        private MidNotMidClientCache notMidClientCache;
+        private int maxTrackedSessions = 10000;
+
+        private MidNotMidClientCachingConnectorBuilder() {}
+
+        public MidNotMidClientCachingConnectorBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        public MidNotMidClientCachingConnectorBuilder withNotMidClientCache(MidNotMidClientCache notMidClientCache) {
+            this.notMidClientCache = notMidClientCache;
+            return this;
+        }
+
+        /**
+         * Max number of running sessions whose person is remembered for checking the session result.
+         */
+        public MidNotMidClientCachingConnectorBuilder withMaxTrackedSessions(int maxTrackedSessions) {
+            this.maxTrackedSessions = maxTrackedSessions;
+            return this;
+        }
+
+        public MidNotMidClientCachingConnector build() {
+            validateFields();
+            return new MidNotMidClientCachingConnector(this);
+        }
+
+        private void validateFields() {
+            if (connector == null) {
+                throw new MidMissingOrInvalidParameterException("connector must be set");
+            }
+            if (notMidClientCache == null) {
+                throw new MidMissingOrInvalidParameterException("notMidClientCache must be set");
+            }
+            if (maxTrackedSessions <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxTrackedSessions must be a positive number");
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+
+/**
+ * Process-wide token bucket for session status requests, shared by all pollers given it.
+ * <p>
+ * Without it every poller loop fires on its own fixed cadence, so sessions started together (a login spike)
+ * poll together and the bursts trigger rate limiting of the MID service. With a governor a poll waits for a token:
+ * tokens are added evenly at the configured rate and up to burst tokens can be saved up. When polls have to wait,
+ * the ones whose deadline is nearest get the tokens first. Polls without a deadline get the tokens in arrival order,
+ * at least every fourth one while both kinds are waiting, so that a steady stream of polls with a deadline does not starve them.
+ * <p>
+ * The governor also gives every session a random phase offset, by which its first poll is delayed,
+ * so that sessions started at the same moment do not keep polling in step.
+ */
+public class MidPollRateGovernor implements Closeable {
+
+    private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+    private static final int NO_DEADLINE_TURN = 4;
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final long maxPhaseOffsetMillis;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownedScheduler;
+
+    // guarded by this
+    private final PriorityQueue<Waiter> deadlineWaiters = new PriorityQueue<>();
+    private final ArrayDeque<Waiter> noDeadlineWaiters = new ArrayDeque<>();
+    private int deadlineGrantsInRow;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+    private long sequence;
+    private boolean dispatchScheduled;
+    private long granted;
+    private long delayed;
+
+    private MidPollRateGovernor(MidPollRateGovernorBuilder builder) {
+        this.permitsPerSecond = builder.permitsPerSecond;
+        this.burst = builder.burst;
+        this.tokens = builder.burst;
+        this.maxPhaseOffsetMillis = builder.maxPhaseOffset.toMillis();
+        this.ownedScheduler = builder.scheduler == null;
+        this.scheduler = ownedScheduler ? createScheduler() : builder.scheduler;
+    }
+
+    private static ScheduledExecutorService createScheduler() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "mid-poll-rate-governor-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param deadline deadline of the session, null if it has none
+     * @return future that completes when the poll may be sent. Cancel it to give up waiting.
+     */
+    public CompletableFuture<Void> acquire(Instant deadline) {
+        long deadlineNanos = deadline == null
+            ? 0
+            : System.nanoTime() + Math.max(0, Duration.between(Instant.now(), deadline).toNanos());
+        Waiter waiter;
+        synchronized (this) {
+            refill();
+            if (deadlineWaiters.isEmpty() && noDeadlineWaiters.isEmpty() && tokens >= 1) {
+                tokens--;
+                granted++;
+                return GRANTED;
+            }
+            waiter = new Waiter(deadline != null, deadlineNanos, sequence++);
+            queueOf(waiter).add(waiter);
+            delayed++;
+            scheduleDispatch();
+        }
+        // a waiter that gave up must not stay queued in front of new polls
+        waiter.permit.whenComplete((ignored, error) -> {
+            if (waiter.permit.isCancelled()) {
+                remove(waiter);
+            }
+        });
+        return waiter.permit;
+    }
+
+    private Queue<Waiter> queueOf(Waiter waiter) {
+        return waiter.hasDeadline ? deadlineWaiters : noDeadlineWaiters;
+    }
+
+    private synchronized void remove(Waiter waiter) {
+        queueOf(waiter).remove(waiter);
+    }
+
+    /**
+     * @return random delay for the first poll of a session, between zero and the maximum phase offset
+     */
+    public long nextPhaseOffsetMillis() {
+        return maxPhaseOffsetMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(maxPhaseOffsetMillis + 1);
+    }
+
+    /**
+     * @return number of polls let through, with or without waiting
+     */
+    public synchronized long getGranted() {
+        return granted;
+    }
+
+    /**
+     * @return number of polls that had to wait for a token
+     */
+    public synchronized long getDelayed() {
+        return delayed;
+    }
+
+    /**
+     * @return number of polls waiting for a token
+     */
+    public synchronized int getWaiting() {
+        return deadlineWaiters.size() + noDeadlineWaiters.size();
+    }
+
+    /**
+     * Stops the governor. Polls still waiting fail with {@link MidInternalErrorException}.
+     * A scheduler given with {@link MidPollRateGovernorBuilder#withScheduler(ScheduledExecutorService)} is not shut down.
+     */
+    @Override
+    public void close() {
+        if (ownedScheduler) {
+            scheduler.shutdownNow();
+        }
+        List<Waiter> waiting;
+        synchronized (this) {
+            waiting = new ArrayList<>(deadlineWaiters);
+            waiting.addAll(noDeadlineWaiters);
+            deadlineWaiters.clear();
+            noDeadlineWaiters.clear();
+        }
+        for (Waiter waiter : waiting) {
+            waiter.permit.completeExceptionally(new MidInternalErrorException("Poll rate governor was closed"));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefillNanos = now;
+    }
+
+    private void scheduleDispatch() {
+        if (dispatchScheduled) {
+            return;
+        }
+        long delayNanos = (long) Math.ceil((1 - tokens) * TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        try {
+            scheduler.schedule(this::dispatch, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+            dispatchScheduled = true;
+        }
+        catch (RejectedExecutionException e) {
+            // closed, close() fails the waiters
+        }
+    }
+
+    private void dispatch() {
+        List<Waiter> permitted = new ArrayList<>();
+        synchronized (this) {
+            dispatchScheduled = false;
+            refill();
+            while (getWaiting() > 0 && tokens >= 1) {
+                Waiter waiter = nextWaiter();
+                // waiters that gave up do not use a token
+                if (!waiter.permit.isDone()) {
+                    tokens--;
+                    granted++;
+                    permitted.add(waiter);
+                }
+            }
+            if (getWaiting() > 0) {
+                scheduleDispatch();
+            }
+        }
+        for (Waiter waiter : permitted) {
+            waiter.permit.complete(null);
+        }
+    }
+
+    /**
+     * Nearest deadline first, but every {@link #NO_DEADLINE_TURN}th waiter is taken from the polls without a deadline.
+     */
+    private Waiter nextWaiter() {
+        if (noDeadlineWaiters.isEmpty()) {
+            return deadlineWaiters.poll();
+        }
+        if (deadlineWaiters.isEmpty() || deadlineGrantsInRow >= NO_DEADLINE_TURN - 1) {
+            deadlineGrantsInRow = 0;
+            return noDeadlineWaiters.poll();
+        }
+        deadlineGrantsInRow++;
+        return deadlineWaiters.poll();
+    }
+
+    private static class Waiter implements Comparable<Waiter> {
+        private final boolean hasDeadline;
+        private final long deadlineNanos;
+        private final long sequence;
+        private final CompletableFuture<Void> permit = new CompletableFuture<>();
+
+        Waiter(boolean hasDeadline, long deadlineNanos, long sequence) {
+            this.hasDeadline = hasDeadline;
+            this.deadlineNanos = deadlineNanos;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Orders waiters with a deadline, the ones without a deadline are kept in arrival order.
+         */
+        @Override
+        public int compareTo(Waiter other) {
+            // System.nanoTime() values are compared by difference, as they may overflow
+            if (deadlineNanos != other.deadlineNanos) {
+                return deadlineNanos - other.deadlineNanos < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public static MidPollRateGovernorBuilder newBuilder() {
+        return new MidPollRateGovernorBuilder();
+    }
+
+    public static class MidPollRateGovernorBuilder {
+        private double permitsPerSecond = 50;
+        private double burst = 50;
+        private Duration maxPhaseOffset = Duration.ofSeconds(1);
+        private ScheduledExecutorService scheduler;
+
+        private MidPollRateGovernorBuilder() {}
+
+        /**
+         * Session status requests per second allowed over time. Default is 50.
+         */
+        public MidPollRateGovernorBuilder withPermitsPerSecond(double permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+            return this;
+        }
+
+        /**
+         * Requests that can be sent at once after a quiet period. Default is 50.
+         */
+        public MidPollRateGovernorBuilder withBurst(int burst) {
+            this.burst = burst;
+            return this;
+        }
+
+        /**
+         * Upper bound of the random delay of the first poll of a session. Default is 1 second, zero disables it.
+         */
+        public MidPollRateGovernorBuilder withMaxPhaseOffset(Duration maxPhaseOffset) {
+            this.maxPhaseOffset = maxPhaseOffset;
+            return this;
+        }
+
+        /**
+         * Scheduler to share with other components. It is not shut down when the governor is closed.
+         */
+        public MidPollRateGovernorBuilder withScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public MidPollRateGovernor build() {
+            validateFields();
+            return new MidPollRateGovernor(this);
+        }
+
+        private void validateFields() {
+            if (!(permitsPerSecond > 0)) {
+                throw new MidMissingOrInvalidParameterException("permitsPerSecond must be a positive number");
+            }
+            if (burst < 1) {
+                throw new MidMissingOrInvalidParameterException("burst must be at least 1");
+            }
+            if (maxPhaseOffset == null || maxPhaseOffset.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("maxPhaseOffset must be non-negative");
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.time.Instant;
+
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+
+/**
+ * Session status request sent by the pollers of this package, one per polled session.
+ * <p>
+ * Besides the request it carries the deadline and cancellation token of the poll, so that a connector retrying
+ * a failed poll does not wait past them, and the target a connector prepared for the session, so that it is not
+ * built again on every poll. Requests created elsewhere carry none of these and connectors treat them as before.
+ */
+final class MidPollingSessionStatusRequest extends MidSessionStatusRequest {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Instant deadline;
+    private final transient MidCancellationToken cancellationToken;
+    private transient volatile PreparedTarget preparedTarget;
+
+    /**
+     * @param deadline when polling gives up, null for no deadline
+     * @param cancellationToken token that stops polling, may be null
+     */
+    MidPollingSessionStatusRequest(String sessionId, Duration timeout, Instant deadline, MidCancellationToken cancellationToken) {
+        super(sessionId, timeout);
+        this.deadline = deadline;
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @return request of the same poll with another long polling timeout, without the prepared target
+     */
+    MidPollingSessionStatusRequest withTimeout(Duration timeout) {
+        return new MidPollingSessionStatusRequest(getSessionID(), timeout, deadline, cancellationToken);
+    }
+
+    static Instant deadlineOf(MidSessionStatusRequest request) {
+        return request instanceof MidPollingSessionStatusRequest ? ((MidPollingSessionStatusRequest) request).deadline : null;
+    }
+
+    static MidCancellationToken cancellationTokenOf(MidSessionStatusRequest request) {
+        return request instanceof MidPollingSessionStatusRequest ? ((MidPollingSessionStatusRequest) request).cancellationToken : null;
+    }
+
+    /**
+     * @param owner connector specific object the target belongs to, so that connectors sharing the request do not mix up their targets
+     * @return target stored with {@link #storeTarget} for the same owner and path, otherwise null
+     */
+    static Object preparedTargetOf(MidSessionStatusRequest request, Object owner, String path) {
+        if (!(request instanceof MidPollingSessionStatusRequest)) {
+            return null;
+        }
+        PreparedTarget target = ((MidPollingSessionStatusRequest) request).preparedTarget;
+        return target != null && target.owner == owner && target.path.equals(path) ? target.target : null;
+    }
+
+    static void storeTarget(MidSessionStatusRequest request, Object owner, String path, Object target) {
+        if (request instanceof MidPollingSessionStatusRequest) {
+            ((MidPollingSessionStatusRequest) request).preparedTarget = new PreparedTarget(owner, path, target);
+        }
+    }
+
+    private static final class PreparedTarget {
+        private final Object owner;
+        private final String path;
+        private final Object target;
+
+        PreparedTarget(Object owner, String path, Object target) {
+            this.owner = owner;
+            this.path = path;
+            this.target = target;
+        }
+    }
+}
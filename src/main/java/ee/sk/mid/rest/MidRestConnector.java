@@ -29,14 +29,36 @@ package ee.sk.mid.rest;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
-import java.net.URI;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.net.ssl.SSLContext;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import ee.sk.mid.MidHashType;
+import ee.sk.mid.MidLanguage;
 import ee.sk.mid.exception.MidException;
 import ee.sk.mid.exception.MidInternalErrorException;
 import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidPollingCancelledException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
 import ee.sk.mid.exception.MidServiceUnavailableException;
 import ee.sk.mid.exception.MidSessionNotFoundException;
 import ee.sk.mid.exception.MidSslException;
@@ -58,29 +80,48 @@ import jakarta.ws.rs.ProcessingException;
 import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.client.ClientRequestContext;
+import jakarta.ws.rs.client.ClientRequestFilter;
 import jakarta.ws.rs.client.Entity;
 import jakarta.ws.rs.client.Invocation;
+import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Configuration;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
-import jakarta.ws.rs.core.UriBuilder;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.MessageBodyWriter;
+import jakarta.ws.rs.ext.Providers;
+import org.glassfish.jersey.client.ClientProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MidRestConnector implements MidConnector {
+public class MidRestConnector implements MidConnector, MidAsyncConnector, MidWarmUpConnector, Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger( MidRestConnector.class);
     private static final String CERTIFICATE_PATH = "/certificate";
     private static final String SIGNATURE_PATH = "/signature";
     private static final String AUTHENTICATION_PATH = "/authentication";
+    private static final String SESSION_ID_TEMPLATE = "sessionId";
+    public static final Duration DEFAULT_WARM_UP_TIMEOUT = Duration.ofSeconds(10);
+    private static final String WARM_UP_SESSION_STATUS =
+        "{\"state\":\"COMPLETE\",\"result\":\"OK\",\"signature\":{\"value\":\"AAAA\",\"algorithm\":\"SHA256WithECEncryption\"},\"cert\":\"AAAA\"}";
 
     private String endpointUrl;
     private Configuration clientConfig;
     private Client configuredClient;
+    private MidConnectionPoolConfig connectionPoolConfig;
 
     private String relyingPartyUUID;
     private String relyingPartyName;
 
     private SSLContext trustSslContext;
+    private MidRetryPolicy retryPolicy;
+    private final MidRetryMetrics retryMetrics = new MidRetryMetrics();
+
+    private volatile MidRestTargets targets;
+    private boolean closed;
+    // created with the first asynchronous retry, guarded by this
+    private ScheduledExecutorService retryScheduler;
 
     public MidRestConnector(String endpointUrl) {
         this.endpointUrl = endpointUrl;
@@ -105,6 +146,8 @@ public class MidRestConnector implements MidConnector {
         this.relyingPartyName = mobileIdRestConnectorBuilder.relyingPartyName;
         this.relyingPartyUUID = mobileIdRestConnectorBuilder.relyingPartyUUID;
         this.trustSslContext = mobileIdRestConnectorBuilder.sslContext;
+        this.connectionPoolConfig = mobileIdRestConnectorBuilder.connectionPoolConfig;
+        this.retryPolicy = mobileIdRestConnectorBuilder.retryPolicy;
     }
 
     @Override
@@ -113,11 +156,7 @@ public class MidRestConnector implements MidConnector {
 
         logger.debug("Getting certificate for phone number: " + request.getPhoneNumber());
 
-        URI uri = UriBuilder
-            .fromUri(endpointUrl)
-            .path(CERTIFICATE_PATH)
-            .build();
-        return postCertificateRequest(uri, request);
+        return postCertificateRequest(getTargets().certificate, request);
     }
 
     @Override
@@ -126,11 +165,7 @@ public class MidRestConnector implements MidConnector {
 
         logger.debug("Signing for phone number: " + request.getPhoneNumber());
 
-        URI uri = UriBuilder
-            .fromUri(endpointUrl)
-            .path(SIGNATURE_PATH)
-            .build();
-        return postSignatureRequest(uri, request);
+        return postSignatureRequest(getTargets().signature, request);
     }
 
     @Override
@@ -139,11 +174,58 @@ public class MidRestConnector implements MidConnector {
 
         logger.debug("Authenticating for phone number " + request.getPhoneNumber());
 
-        URI uri = UriBuilder
-            .fromUri(endpointUrl)
-            .path(AUTHENTICATION_PATH)
-            .build();
-        return postAuthenticationRequest(uri, request);
+        return postAuthenticationRequest(getTargets().authentication, request);
+    }
+
+    @Override
+    public CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request) {
+        WebTarget target;
+        try {
+            setRequestRelyingPartyDetailsIfMissing(request);
+            // a closed connector fails the stage instead of throwing
+            target = getTargets().certificate;
+        }
+        catch (RuntimeException e) {
+            return failedStage(e);
+        }
+
+        logger.debug("Getting certificate asynchronously for phone number: " + request.getPhoneNumber());
+
+        return postRequestAsync(target, request, MidCertificateChoiceResponse.class);
+    }
+
+    @Override
+    public CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request) {
+        WebTarget target;
+        try {
+            setRequestRelyingPartyDetailsIfMissing(request);
+            // a closed connector fails the stage instead of throwing
+            target = getTargets().signature;
+        }
+        catch (RuntimeException e) {
+            return failedStage(e);
+        }
+
+        logger.debug("Signing asynchronously for phone number: " + request.getPhoneNumber());
+
+        return postRequestAsync(target, request, MidSignatureResponse.class);
+    }
+
+    @Override
+    public CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request) {
+        WebTarget target;
+        try {
+            setRequestRelyingPartyDetailsIfMissing(request);
+            // a closed connector fails the stage instead of throwing
+            target = getTargets().authentication;
+        }
+        catch (RuntimeException e) {
+            return failedStage(e);
+        }
+
+        logger.debug("Authenticating asynchronously for phone number " + request.getPhoneNumber());
+
+        return postRequestAsync(target, request, MidAuthenticationResponse.class);
     }
 
     private void setRequestRelyingPartyDetailsIfMissing(MidAbstractRequest request) {
@@ -174,71 +256,317 @@ public class MidRestConnector implements MidConnector {
 
     @Override
     public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
-        logger.debug("Getting session status for " + request.getSessionID());
-        UriBuilder uriBuilder = UriBuilder
-            .fromUri(endpointUrl)
-            .path(path);
-
-        if (request.getTimeoutMs() != 0) {
-            uriBuilder.queryParam("timeoutMs", request.getTimeoutMs());
+        if (logger.isDebugEnabled()) {
+            logger.debug("Getting session status for " + request.getSessionID());
         }
+        WebTarget target = sessionStatusTarget(request, path);
 
-        URI uri = uriBuilder.build(request.getSessionID());
         try {
-            return prepareClient(uri).get( MidSessionStatus.class);
+            return callWithRetry(() -> prepareRequest(target).get( MidSessionStatus.class), request);
         } catch (NotFoundException e) {
-            logger.error("Session " + request + " not found: " + e.getMessage());
-            throw new MidSessionNotFoundException();
+            throw sessionNotFound(request, e);
+        }
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request) {
+        return getSessionStatusAsync(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request) {
+        return getSessionStatusAsync(request, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Getting session status asynchronously for " + request.getSessionID());
+        }
+        WebTarget target;
+        try {
+            target = sessionStatusTarget(request, path);
+        }
+        catch (RuntimeException e) {
+            return failedStage(e);
+        }
+
+        return translateFailure(callWithRetryAsync(() -> prepareRequest(target).rx().get(MidSessionStatus.class), request),
+            e -> e instanceof NotFoundException ? sessionNotFound(request, (NotFoundException) e) : e);
+    }
+
+    WebTarget sessionStatusTarget(MidSessionStatusRequest request, String path) {
+        MidRestTargets targets = getTargets();
+        WebTarget target = (WebTarget) MidPollingSessionStatusRequest.preparedTargetOf(request, targets, path);
+        if (target != null) {
+            return target;
+        }
+        target = targets.sessionStatus(path)
+            .resolveTemplate(SESSION_ID_TEMPLATE, request.getSessionID());
+
+        if (request.getTimeoutMs() != 0) {
+            target = target.queryParam("timeoutMs", request.getTimeoutMs());
         }
+        MidPollingSessionStatusRequest.storeTarget(request, targets, path, target);
+        return target;
     }
 
-    private MidCertificateChoiceResponse postCertificateRequest(URI uri, MidCertificateRequest request) {
-        return postRequest(uri, request, MidCertificateChoiceResponse.class);
+    private MidSessionNotFoundException sessionNotFound(MidSessionStatusRequest request, NotFoundException e) {
+        logger.error("Session " + request + " not found: " + e.getMessage());
+        return new MidSessionNotFoundException();
     }
 
-    private MidSignatureResponse postSignatureRequest(URI uri, MidSignatureRequest request) {
-        return postRequest(uri, request, MidSignatureResponse.class);
+    private MidCertificateChoiceResponse postCertificateRequest(WebTarget target, MidCertificateRequest request) {
+        return postRequest(target, request, MidCertificateChoiceResponse.class);
     }
 
-    private MidAuthenticationResponse postAuthenticationRequest(URI uri, MidAuthenticationRequest request) {
-        return postRequest(uri, request, MidAuthenticationResponse.class);
+    private MidSignatureResponse postSignatureRequest(WebTarget target, MidSignatureRequest request) {
+        return postRequest(target, request, MidSignatureResponse.class);
     }
 
-    private <T, V> T postRequest(URI uri, V request, Class<T> responseType) throws MidException {
+    private MidAuthenticationResponse postAuthenticationRequest(WebTarget target, MidAuthenticationRequest request) {
+        return postRequest(target, request, MidAuthenticationResponse.class);
+    }
+
+    private <T, V> T postRequest(WebTarget target, V request, Class<T> responseType) throws MidException {
         try {
             Entity<V> requestEntity = Entity.entity(request, MediaType.APPLICATION_JSON);
-            return prepareClient(uri).post(requestEntity, responseType);
+            return callWithRetry(() -> prepareRequest(target).post(requestEntity, responseType), null);
+        }
+        catch (RuntimeException e) {
+            throw translatePostException(target, e);
         }
-        catch (InternalServerErrorException e) {
-            logger.error("Error getting response from cert-store/MSSP for URI " + uri + ": " + e.getMessage());
-            throw new MidInternalErrorException("Error getting response from cert-store/MSSP for URI " + uri + ": " + e.getMessage());
+    }
+
+    /**
+     * @param sessionStatusRequest request of a session status call, null for requests that start a session
+     */
+    private <T> T callWithRetry(Supplier<T> call, MidSessionStatusRequest sessionStatusRequest) {
+        if (retryPolicy == null) {
+            return call.get();
         }
-        catch (NotFoundException e) {
-            logger.error("Response not found for URI " + uri + ": " + e.getMessage());
-            throw new MidInternalErrorException("MID internal error");
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = call.get();
+                if (attempt > 1) {
+                    retryMetrics.recordRecovered();
+                }
+                return result;
+            }
+            catch (RuntimeException e) {
+                Long delayMillis = retryDelayMillis(e, attempt, sessionStatusRequest);
+                if (delayMillis == null) {
+                    throw e;
+                }
+                try {
+                    awaitRetry(delayMillis, sessionStatusRequest);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits before the next attempt, stopping when the token of the poll is cancelled.
+     */
+    private static void awaitRetry(long delayMillis, MidSessionStatusRequest sessionStatusRequest) throws InterruptedException {
+        Instant deadline = MidPollingSessionStatusRequest.deadlineOf(sessionStatusRequest);
+        MidCancellationToken cancellationToken = MidPollingSessionStatusRequest.cancellationTokenOf(sessionStatusRequest);
+        if (cancellationToken == null) {
+            Thread.sleep(delayMillis);
+        }
+        else if (cancellationToken.await(delayMillis)) {
+            throw new MidPollingCancelledException(sessionStatusRequest.getSessionID());
+        }
+        if (deadline != null && !Instant.now().isBefore(deadline)) {
+            throw new MidPollingDeadlineExceededException(sessionStatusRequest.getSessionID());
+        }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #callWithRetry}: a failed attempt is issued again on a scheduler
+     * after the same backoff, which ends at the deadline of the poll or when its token is cancelled.
+     */
+    private <T> CompletionStage<T> callWithRetryAsync(Supplier<CompletionStage<T>> call, MidSessionStatusRequest sessionStatusRequest) {
+        if (retryPolicy == null) {
+            return call.get();
         }
-        catch (BadRequestException e) {
-            String errorMessage = readErrorMessageFromBody(e);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        MidCancellationToken cancellationToken = MidPollingSessionStatusRequest.cancellationTokenOf(sessionStatusRequest);
+        if (cancellationToken != null) {
+            Runnable unregister = cancellationToken.onCancel(
+                () -> result.completeExceptionally(new MidPollingCancelledException(sessionStatusRequest.getSessionID())));
+            result.whenComplete((value, error) -> unregister.run());
+        }
+        attemptAsync(call, sessionStatusRequest, 1, result);
+        return result;
+    }
+
+    private <T> void attemptAsync(Supplier<CompletionStage<T>> call, MidSessionStatusRequest sessionStatusRequest, int attempt,
+                                  CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletionStage<T> response;
+        try {
+            response = call.get();
+        }
+        catch (RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        response.whenComplete((value, error) -> {
+            if (error == null) {
+                if (attempt > 1) {
+                    retryMetrics.recordRecovered();
+                }
+                result.complete(value);
+                return;
+            }
+            Throwable failure = unwrap(error);
+            Long delayMillis = failure instanceof RuntimeException
+                ? retryDelayMillis((RuntimeException) failure, attempt, sessionStatusRequest)
+                : null;
+            if (delayMillis == null) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            try {
+                ScheduledFuture<?> retry = getRetryScheduler().schedule(() -> {
+                    Instant deadline = MidPollingSessionStatusRequest.deadlineOf(sessionStatusRequest);
+                    if (deadline != null && !Instant.now().isBefore(deadline)) {
+                        result.completeExceptionally(new MidPollingDeadlineExceededException(sessionStatusRequest.getSessionID()));
+                        return;
+                    }
+                    attemptAsync(call, sessionStatusRequest, attempt + 1, result);
+                }, delayMillis, TimeUnit.MILLISECONDS);
+                result.whenComplete((ignored, cancelled) -> retry.cancel(false));
+            }
+            catch (RejectedExecutionException | IllegalStateException e) {
+                // connector was closed
+                result.completeExceptionally(failure);
+            }
+        });
+    }
+
+    /**
+     * @return delay before the next attempt, capped at the deadline of the poll, or null if the failure is not retried
+     */
+    private Long retryDelayMillis(RuntimeException e, int attempt, MidSessionStatusRequest sessionStatusRequest) {
+        boolean sessionStatus = sessionStatusRequest != null;
+        boolean retryable = sessionStatus
+            ? retryPolicy.isRetryableSessionStatusFailure(e)
+            : retryPolicy.isRetryableInitiationFailure(e);
+        if (!retryable) {
+            return null;
+        }
+        Duration delay = retryPolicy.backoff(attempt, MidRetryPolicy.retryAfter(e));
+        if (delay == null) {
+            retryMetrics.recordExhausted();
+            return null;
+        }
+        logger.info("Attempt " + attempt + " failed with " + e.getMessage() + ", retrying in " + delay.toMillis() + " ms");
+        retryMetrics.recordRetry(sessionStatus);
+        long delayMillis = delay.toMillis();
+        Instant deadline = MidPollingSessionStatusRequest.deadlineOf(sessionStatusRequest);
+        return deadline == null ? delayMillis : Math.min(delayMillis, MidSessionStatusPoller.millisUntil(deadline));
+    }
+
+    private synchronized ScheduledExecutorService getRetryScheduler() {
+        if (closed) {
+            throw new IllegalStateException("MidRestConnector is closed");
+        }
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mid-rest-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return retryScheduler;
+    }
+
+    /**
+     * @return retry counters, all zero if no retry policy was configured
+     */
+    public MidRetryMetrics getRetryMetrics() {
+        return retryMetrics;
+    }
+
+    private <T, V> CompletionStage<T> postRequestAsync(WebTarget target, V request, Class<T> responseType) {
+        Entity<V> requestEntity = Entity.entity(request, MediaType.APPLICATION_JSON);
+        return translateFailure(callWithRetryAsync(() -> prepareRequest(target).rx().post(requestEntity, responseType), null),
+            e -> e instanceof RuntimeException ? translatePostException(target, (RuntimeException) e) : e);
+    }
+
+    private RuntimeException translatePostException(WebTarget target, RuntimeException e) {
+        if (e instanceof InternalServerErrorException) {
+            logger.error("Error getting response from cert-store/MSSP for URI " + target.getUri() + ": " + e.getMessage());
+            return new MidInternalErrorException("Error getting response from cert-store/MSSP for URI " + target.getUri() + ": " + e.getMessage());
+        }
+        else if (e instanceof NotFoundException) {
+            logger.error("Response not found for URI " + target.getUri() + ": " + e.getMessage());
+            return new MidInternalErrorException("MID internal error");
+        }
+        else if (e instanceof BadRequestException) {
+            String errorMessage = readErrorMessageFromBody((BadRequestException) e);
             logger.error("MID rejected our input with message: " + errorMessage);
-            throw new MidMissingOrInvalidParameterException(errorMessage);
+            return new MidMissingOrInvalidParameterException(errorMessage);
         }
-        catch (NotAuthorizedException e) {
-            logger.error("Request is unauthorized for URI " + uri + ": " + e.getMessage());
-            throw new MidUnauthorizedException("Request is unauthorized for URI " + uri + ": " + e.getMessage());
+        else if (e instanceof NotAuthorizedException) {
+            logger.error("Request is unauthorized for URI " + target.getUri() + ": " + e.getMessage());
+            return new MidUnauthorizedException("Request is unauthorized for URI " + target.getUri() + ": " + e.getMessage());
         }
-        catch (ServiceUnavailableException e) {
+        else if (e instanceof ServiceUnavailableException) {
             logger.error("MID server returned 503 - service unavailable", e);
-            throw new MidServiceUnavailableException("MID service is currently unavailable. Please try again later.");
+            return new MidServiceUnavailableException("MID service is currently unavailable. Please try again later.");
         }
-        catch (ProcessingException p) {
-            if (p.getCause() != null &&
-                 p.getCause().getMessage() != null
-                 && p.getCause().getMessage().contains("unable to find valid certification path to requested target")) {
+        else if (e instanceof ProcessingException) {
+            if (e.getCause() != null &&
+                 e.getCause().getMessage() != null
+                 && e.getCause().getMessage().contains("unable to find valid certification path to requested target")) {
                 logger.error("SSL certificate not trusted");
-                throw new MidSslException("MID-REST client is not configured to trust SSL certificate of MID API host");
+                return new MidSslException("MID-REST client is not configured to trust SSL certificate of MID API host");
             }
-            throw new MidInternalErrorException("Unknown error when connecting to Host", p);
+            return new MidInternalErrorException("Unknown error when connecting to Host", e);
         }
+        return e;
+    }
+
+    private static <T> CompletionStage<T> translateFailure(CompletionStage<T> stage, Function<Throwable, Throwable> translator) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        // a caller that gives up also stops the retries behind the stage
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled()) {
+                stage.toCompletableFuture().cancel(false);
+            }
+        });
+        stage.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            }
+            else {
+                result.completeExceptionally(translator.apply(unwrap(error)));
+            }
+        });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static <T> CompletionStage<T> failedStage(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
     }
 
     private String readErrorMessageFromBody(BadRequestException e) {
@@ -250,11 +578,37 @@ public class MidRestConnector implements MidConnector {
         }
     }
 
-    private Invocation.Builder prepareClient(URI uri) {
+    private Invocation.Builder prepareRequest(WebTarget target) {
+        return target
+            .request()
+            .accept(APPLICATION_JSON_TYPE);
+    }
+
+    private MidRestTargets getTargets() {
+        MidRestTargets result = targets;
+        if (result == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("MidRestConnector is closed");
+                }
+                result = targets;
+                if (result == null) {
+                    result = new MidRestTargets(createClient(), this.configuredClient == null);
+                    targets = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Client createClient() {
         Client client;
         if (this.configuredClient == null) {
             ClientBuilder clientBuilder = ClientBuilder.newBuilder();
-            if (null != this.clientConfig) {
+            if (null != this.connectionPoolConfig) {
+                clientBuilder.withConfig(this.connectionPoolConfig.createClientConfig(this.clientConfig, this.trustSslContext));
+            }
+            else if (null != this.clientConfig) {
                 clientBuilder.withConfig(this.clientConfig);
             }
             if (null != this.trustSslContext) {
@@ -265,11 +619,159 @@ public class MidRestConnector implements MidConnector {
         else {
             client = this.configuredClient;
         }
-        return client
-            .register(new MidLoggingFilter())
-            .target(uri)
-            .request()
-            .accept(APPLICATION_JSON_TYPE);
+        if (!client.getConfiguration().isRegistered(MidLoggingFilter.class)) {
+            client.register(new MidLoggingFilter());
+        }
+        return client;
+    }
+
+    /**
+     * Releases the underlying JAX-RS client if it was created by this connector.
+     * A client passed in with {@link MidRestConnectorBuilder#withConfiguredClient(Client)} is left open
+     * as its lifecycle is managed by the caller.
+     * <p>
+     * Closing is terminal: later calls throw {@link IllegalStateException}.
+     * Calls that are still running when the connector is closed fail, as the client they use gets closed.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (retryScheduler != null) {
+            retryScheduler.shutdownNow();
+        }
+        releaseTargets();
+    }
+
+    private synchronized void releaseTargets() {
+        MidRestTargets current = targets;
+        targets = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Prepares the connector for its first real requests: builds the JAX-RS client, opens up to the given number
+     * of connections to the endpoint with HEAD requests (no Mobile-ID transaction is started) and runs the
+     * JSON mapping of an authentication request and a session status once.
+     * Connections that cannot be opened within {@link #DEFAULT_WARM_UP_TIMEOUT} are counted in the result and logged, not thrown.
+     */
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return warmUp(connections, DEFAULT_WARM_UP_TIMEOUT);
+    }
+
+    /**
+     * @param timeout how long to wait for all the connections to open, connections still opening after that count as failed
+     * @see #warmUp(int)
+     */
+    public MidWarmUpResult warmUp(int connections, Duration timeout) {
+        if (connections < 0) {
+            throw new MidMissingOrInvalidParameterException("connections must be non-negative number");
+        }
+        if (timeout == null || timeout.isNegative()) {
+            throw new MidMissingOrInvalidParameterException("warm-up timeout must be non-negative duration");
+        }
+
+        long start = System.nanoTime();
+        MidRestTargets restTargets = getTargets();
+        prepareRequest(restTargets.root).buildGet();
+        Duration clientBootstrap = Duration.ofNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        List<CompletableFuture<Boolean>> requests = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            requests.add(restTargets.root.request().rx().head()
+                .handle((response, error) -> {
+                    if (error != null) {
+                        logger.info("Could not open connection to " + endpointUrl + " during warm-up: " + unwrap(error).getMessage());
+                        return false;
+                    }
+                    response.close();
+                    return true;
+                })
+                .toCompletableFuture());
+        }
+        long deadline = start + timeout.toNanos();
+        int connectionsOpened = 0;
+        for (CompletableFuture<Boolean> request : requests) {
+            if (awaitWarmUpConnection(request, deadline)) {
+                connectionsOpened++;
+            }
+        }
+        Duration connectionsTime = Duration.ofNanos(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        warmUpJsonMapping(restTargets.client);
+        Duration jsonSerialization = Duration.ofNanos(System.nanoTime() - start);
+
+        MidWarmUpResult result = new MidWarmUpResult(clientBootstrap, connectionsTime, jsonSerialization,
+            connectionsOpened, connections - connectionsOpened);
+        logger.debug("Warm-up finished: " + result);
+        return result;
+    }
+
+    private boolean awaitWarmUpConnection(CompletableFuture<Boolean> request, long deadlineNanos) {
+        try {
+            return request.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        catch (TimeoutException e) {
+            logger.info("Could not open connection to " + endpointUrl + " during warm-up: timed out");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            logger.info("Could not open connection to " + endpointUrl + " during warm-up: " + e.getCause().getMessage());
+        }
+        request.cancel(false);
+        return false;
+    }
+
+    /**
+     * Maps the JSON through the providers registered in the client, so that a custom ObjectMapper
+     * or a different JSON provider is what gets initialized. The request is answered by a filter and never sent.
+     */
+    private void warmUpJsonMapping(Client client) {
+        MidAuthenticationRequest request = new MidAuthenticationRequest();
+        request.setPhoneNumber("+37200000000");
+        request.setNationalIdentityNumber("00000000000");
+        request.setHash("AAAA");
+        request.setHashType(MidHashType.SHA256);
+        request.setLanguage(MidLanguage.ENG);
+        try {
+            client.target(endpointUrl)
+                .register(JsonWarmUpFilter.class)
+                .request(APPLICATION_JSON_TYPE)
+                .post(Entity.entity(request, APPLICATION_JSON_TYPE), MidSessionStatus.class);
+        }
+        catch (RuntimeException e) {
+            throw new MidInternalErrorException("Could not map JSON during warm-up: " + unwrap(e).getMessage());
+        }
+    }
+
+    private static class JsonWarmUpFilter implements ClientRequestFilter {
+
+        @Context
+        private Providers providers;
+
+        @Override
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        public void filter(ClientRequestContext context) throws IOException {
+            if (providers == null) {
+                logger.debug("JAX-RS client did not inject Providers, skipping JSON serialization warm-up");
+                context.abortWith(Response.ok(WARM_UP_SESSION_STATUS, APPLICATION_JSON_TYPE).build());
+                return;
+            }
+            MessageBodyWriter writer = providers.getMessageBodyWriter(context.getEntityClass(),
+                context.getEntityType(), context.getEntityAnnotations(), context.getMediaType());
+            if (writer == null) {
+                throw new ProcessingException("No JSON writer registered for " + context.getEntityClass().getName());
+            }
+            writer.writeTo(context.getEntity(), context.getEntityClass(), context.getEntityType(), context.getEntityAnnotations(),
+                context.getMediaType(), context.getHeaders(), new ByteArrayOutputStream());
+            context.abortWith(Response.ok(WARM_UP_SESSION_STATUS, APPLICATION_JSON_TYPE).build());
+        }
     }
 
     public static MidRestConnectorBuilder newBuilder() {
@@ -279,5 +781,53 @@ public class MidRestConnector implements MidConnector {
     @Override
     public void setSslTrustContext(SSLContext trustSslContext) {
         this.trustSslContext = trustSslContext;
+        // the next call builds a client with the new context
+        releaseTargets();
+    }
+
+    private class MidRestTargets {
+        private final Client client;
+        private final boolean ownedClient;
+        private final WebTarget root;
+        private final WebTarget certificate;
+        private final WebTarget signature;
+        private final WebTarget authentication;
+        private final WebTarget authenticationSession;
+        private final WebTarget signatureSession;
+
+        MidRestTargets(Client client, boolean ownedClient) {
+            this.client = client;
+            this.ownedClient = ownedClient;
+            this.root = client.target(endpointUrl);
+            this.certificate = root.path(CERTIFICATE_PATH);
+            this.signature = root.path(SIGNATURE_PATH);
+            this.authentication = root.path(AUTHENTICATION_PATH);
+            this.authenticationSession = sessionStatusTarget(MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+            this.signatureSession = sessionStatusTarget(MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+        }
+
+        private WebTarget sessionStatusTarget(String path) {
+            WebTarget target = client.target(endpointUrl).path(path);
+            if (connectionPoolConfig != null && connectionPoolConfig.getSessionStatusReadTimeout() != null) {
+                target.property(ClientProperties.READ_TIMEOUT, MidConnectionPoolConfig.toIntMillis(connectionPoolConfig.getSessionStatusReadTimeout()));
+            }
+            return target;
+        }
+
+        WebTarget sessionStatus(String path) {
+            if (MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH.equals(path)) {
+                return authenticationSession;
+            }
+            if (MidSessionStatusPoller.SIGNATURE_SESSION_PATH.equals(path)) {
+                return signatureSession;
+            }
+            return sessionStatusTarget(path);
+        }
+
+        void close() {
+            if (ownedClient) {
+                client.close();
+            }
+        }
     }
 }
@@ -28,6 +28,7 @@ package ee.sk.mid.rest;
 
 import javax.net.ssl.SSLContext;
 
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.core.Configuration;
 
@@ -39,6 +40,8 @@ public class MidRestConnectorBuilder {
   String relyingPartyUUID;
   String relyingPartyName;
   SSLContext sslContext;
+  MidConnectionPoolConfig connectionPoolConfig;
+  MidRetryPolicy retryPolicy;
 
   public MidRestConnectorBuilder withEndpointUrl(String endpointUrl) {
     this.endpointUrl = endpointUrl;
@@ -70,7 +73,23 @@ public class MidRestConnectorBuilder {
     return this;
   }
 
+  public MidRestConnectorBuilder withConnectionPoolConfig(MidConnectionPoolConfig connectionPoolConfig) {
+    this.connectionPoolConfig = connectionPoolConfig;
+    return this;
+  }
+
+  /**
+   * Retry transient failures of synchronous calls. Without a policy every failure is thrown right away.
+   */
+  public MidRestConnectorBuilder withRetryPolicy(MidRetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+    return this;
+  }
+
   public MidRestConnector build() {
+    if (configuredClient != null && connectionPoolConfig != null) {
+      throw new MidMissingOrInvalidParameterException("Connection pool config cannot be combined with a configured client");
+    }
     return new MidRestConnector(this);
   }
 }
@@ -0,0 +1,91 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of retries made by {@link MidRestConnector} according to its {@link MidRetryPolicy}.
+ */
+public class MidRetryMetrics {
+
+    private final AtomicLong sessionStatusRetries = new AtomicLong();
+    private final AtomicLong initiationRetries = new AtomicLong();
+    private final AtomicLong recoveredCalls = new AtomicLong();
+    private final AtomicLong exhaustedCalls = new AtomicLong();
+
+    /**
+     * @return number of repeated session status requests
+     */
+    public long getSessionStatusRetries() {
+        return sessionStatusRetries.get();
+    }
+
+    /**
+     * @return number of repeated certificate, signature and authentication requests
+     */
+    public long getInitiationRetries() {
+        return initiationRetries.get();
+    }
+
+    /**
+     * @return number of calls that succeeded after at least one retry
+     */
+    public long getRecoveredCalls() {
+        return recoveredCalls.get();
+    }
+
+    /**
+     * @return number of calls that failed with a retryable error after retries were used up
+     */
+    public long getExhaustedCalls() {
+        return exhaustedCalls.get();
+    }
+
+    void recordRetry(boolean sessionStatus) {
+        (sessionStatus ? sessionStatusRetries : initiationRetries).incrementAndGet();
+    }
+
+    void recordRecovered() {
+        recoveredCalls.incrementAndGet();
+    }
+
+    void recordExhausted() {
+        exhaustedCalls.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return "MidRetryMetrics{" +
+            "sessionStatusRetries=" + sessionStatusRetries +
+            ", initiationRetries=" + initiationRetries +
+            ", recoveredCalls=" + recoveredCalls +
+            ", exhaustedCalls=" + exhaustedCalls +
+            '}';
+    }
+}
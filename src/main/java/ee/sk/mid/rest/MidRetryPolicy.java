@@ -0,0 +1,245 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.core.Response;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Retry settings for transient failures of {@link MidRestConnector}.
+ * <p>
+ * Session status requests are idempotent and are retried on connection errors and on
+ * 429, 502, 503 and 504 responses. Certificate, signature and authentication requests start a transaction,
+ * so they are retried only when the connection to the host could not be opened and the request was never sent.
+ * <p>
+ * Delays grow exponentially from the base backoff up to the max backoff, with full jitter
+ * (a random delay between zero and the exponential value). A Retry-After header is honored as the minimum delay,
+ * and if it asks to wait longer than the max backoff the call is not retried.
+ */
+public class MidRetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final Duration DEFAULT_BASE_BACKOFF = Duration.ofMillis(200);
+    public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(5);
+
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+    private final boolean retryAfterHonored;
+
+    private MidRetryPolicy(MidRetryPolicyBuilder builder) {
+        this.maxAttempts = builder.maxAttempts;
+        this.baseBackoff = builder.baseBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.retryAfterHonored = builder.retryAfterHonored;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getBaseBackoff() {
+        return baseBackoff;
+    }
+
+    public Duration getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public boolean isRetryAfterHonored() {
+        return retryAfterHonored;
+    }
+
+    boolean isRetryableSessionStatusFailure(RuntimeException e) {
+        if (e instanceof WebApplicationException) {
+            int status = ((WebApplicationException) e).getResponse().getStatus();
+            return status == 429 || status == 502 || status == 503 || status == 504;
+        }
+        return e instanceof ProcessingException && !isCertificateNotTrusted(e);
+    }
+
+    boolean isRetryableInitiationFailure(RuntimeException e) {
+        return e instanceof ProcessingException && isConnectFailure(e);
+    }
+
+    /**
+     * @return true if the error (or any of its causes) shows that the connection could not be opened,
+     * so the request was never sent
+     */
+    static boolean isConnectFailure(Throwable e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                || cause instanceof ConnectTimeoutException
+                || cause instanceof NoRouteToHostException
+                || cause instanceof UnknownHostException
+                || isConnectTimeout(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HttpURLConnection (the default Jersey connector) reports a connect timeout with a plain
+     * SocketTimeoutException, told apart from a read timeout only by its message.
+     */
+    private static boolean isConnectTimeout(Throwable e) {
+        return e instanceof SocketTimeoutException
+            && e.getMessage() != null
+            && e.getMessage().toLowerCase(Locale.ROOT).contains("connect timed out");
+    }
+
+    /**
+     * @param attempt number of the attempt that failed, starting from 1
+     * @param retryAfter delay requested by the server or null
+     * @return delay before the next attempt or null if the call should not be retried
+     */
+    Duration backoff(int attempt, Duration retryAfter) {
+        if (attempt >= maxAttempts) {
+            return null;
+        }
+        long capMillis = baseBackoff.toMillis();
+        for (int i = 1; i < attempt && capMillis < maxBackoff.toMillis(); i++) {
+            capMillis *= 2;
+        }
+        capMillis = Math.min(capMillis, maxBackoff.toMillis());
+        Duration delay = Duration.ofMillis(ThreadLocalRandom.current().nextLong(capMillis + 1));
+
+        if (retryAfterHonored && retryAfter != null) {
+            if (retryAfter.compareTo(maxBackoff) > 0) {
+                return null;
+            }
+            if (retryAfter.compareTo(delay) > 0) {
+                delay = retryAfter;
+            }
+        }
+        return delay;
+    }
+
+    static Duration retryAfter(RuntimeException e) {
+        if (!(e instanceof WebApplicationException)) {
+            return null;
+        }
+        Response response = ((WebApplicationException) e).getResponse();
+        String value = response == null ? null : response.getHeaderString(HttpHeaders.RETRY_AFTER);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        value = value.trim();
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value)));
+        }
+        catch (NumberFormatException ignored) {
+            // not delay-seconds, try HTTP-date
+        }
+        try {
+            Duration untilDate = Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME));
+            return untilDate.isNegative() ? Duration.ZERO : untilDate;
+        }
+        catch (DateTimeParseException ignored) {
+            return null;
+        }
+    }
+
+    private static boolean isCertificateNotTrusted(RuntimeException e) {
+        return e.getCause() != null
+            && e.getCause().getMessage() != null
+            && e.getCause().getMessage().contains("unable to find valid certification path to requested target");
+    }
+
+    public static MidRetryPolicyBuilder newBuilder() {
+        return new MidRetryPolicyBuilder();
+    }
+
+    public static class MidRetryPolicyBuilder {
+        private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+        private Duration baseBackoff = DEFAULT_BASE_BACKOFF;
+        private Duration maxBackoff = DEFAULT_MAX_BACKOFF;
+        private boolean retryAfterHonored = true;
+
+        private MidRetryPolicyBuilder() {}
+
+        /**
+         * Total number of attempts including the first one. 1 disables retrying.
+         */
+        public MidRetryPolicyBuilder withMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        public MidRetryPolicyBuilder withBaseBackoff(Duration baseBackoff) {
+            this.baseBackoff = baseBackoff;
+            return this;
+        }
+
+        /**
+         * Upper limit of a single delay between attempts. Also the longest Retry-After that is waited for.
+         */
+        public MidRetryPolicyBuilder withMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public MidRetryPolicyBuilder withRetryAfterHonored(boolean retryAfterHonored) {
+            this.retryAfterHonored = retryAfterHonored;
+            return this;
+        }
+
+        public MidRetryPolicy build() {
+            validateFields();
+            return new MidRetryPolicy(this);
+        }
+
+        private void validateFields() {
+            if (maxAttempts <= 0) {
+                throw new MidMissingOrInvalidParameterException("maxAttempts must be a positive number");
+            }
+            if (baseBackoff == null || baseBackoff.isNegative()) {
+                throw new MidMissingOrInvalidParameterException("baseBackoff must be non-negative");
+            }
+            if (maxBackoff == null || maxBackoff.compareTo(baseBackoff) < 0) {
+                throw new MidMissingOrInvalidParameterException("maxBackoff must not be shorter than baseBackoff");
+            }
+        }
+    }
+}
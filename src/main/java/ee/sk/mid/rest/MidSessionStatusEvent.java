@@ -0,0 +1,133 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+
+import ee.sk.mid.rest.dao.MidSessionStatus;
+
+/**
+ * Progress of one session, reported by the session status pollers to a
+ * {@link MidSessionStatusPoller.SessionStatusListener}.
+ * <p>
+ * There is an event for every RUNNING status received and exactly one final event per session.
+ * The final event carries the final status and, if polling failed or the result was not OK, the exception
+ * that the poller throws (or completes its future with).
+ */
+public class MidSessionStatusEvent {
+
+    private final String sessionId;
+    private final String path;
+    private final MidSessionStatus sessionStatus;
+    private final RuntimeException error;
+    private final int polls;
+    private final Duration elapsed;
+    private final Duration requestDuration;
+    private final boolean finalEvent;
+
+    MidSessionStatusEvent(String sessionId, String path, MidSessionStatus sessionStatus, RuntimeException error,
+                          int polls, Duration elapsed, Duration requestDuration, boolean finalEvent) {
+        this.sessionId = sessionId;
+        this.path = path;
+        this.sessionStatus = sessionStatus;
+        this.error = error;
+        this.polls = polls;
+        this.elapsed = elapsed;
+        this.requestDuration = requestDuration;
+        this.finalEvent = finalEvent;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return {@link MidSessionStatusPoller#AUTHENTICATION_SESSION_PATH} or {@link MidSessionStatusPoller#SIGNATURE_SESSION_PATH}
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return status received, null if polling failed before MID completed the session
+     */
+    public MidSessionStatus getSessionStatus() {
+        return sessionStatus;
+    }
+
+    /**
+     * @return exception that ended polling, null unless this is the final event of a failed session
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * @return number of session status requests made for the session so far. Retries of a failed request
+     * are made by the connector (see {@link MidRetryPolicy}) and are not counted separately.
+     */
+    public int getPolls() {
+        return polls;
+    }
+
+    /**
+     * @return time since polling of the session started
+     */
+    public Duration getElapsed() {
+        return elapsed;
+    }
+
+    /**
+     * @return duration of the last session status request, including the time MID held it while long polling
+     */
+    public Duration getRequestDuration() {
+        return requestDuration;
+    }
+
+    public boolean isFinal() {
+        return finalEvent;
+    }
+
+    public boolean isSuccessful() {
+        return finalEvent && error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "MidSessionStatusEvent{" +
+            "sessionId=" + sessionId +
+            ", state=" + (sessionStatus == null ? null : sessionStatus.getState()) +
+            ", result=" + (sessionStatus == null ? null : sessionStatus.getResult()) +
+            ", error=" + (error == null ? null : error.getClass().getSimpleName()) +
+            ", polls=" + polls +
+            ", elapsed=" + elapsed.toMillis() + "ms" +
+            ", requestDuration=" + requestDuration.toMillis() + "ms" +
+            ", final=" + finalEvent +
+            '}';
+    }
+}
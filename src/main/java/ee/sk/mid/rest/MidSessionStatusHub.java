@@ -0,0 +1,281 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+
+/**
+ * Keeps at most one poll per session no matter how many callers wait for it.
+ * <p>
+ * The first caller for a session id starts polling with a {@link MidAsyncSessionStatusPoller}. Callers that come
+ * while it is running join it, and all of them get the same final status or exception.
+ * Every caller gets its own future. Cancelling it (or interrupting a blocking caller) only removes that caller.
+ * Polling is stopped and the session forgotten when the last caller leaves or the session completes.
+ * <p>
+ * Callers are coalesced within one JVM; {@link MidShardedSessionStatusPoller} shares the polls between nodes.
+ */
+public class MidSessionStatusHub {
+
+    private final MidAsyncSessionStatusPoller poller;
+
+    private final Map<SessionKey, SharedPoll> polls = new HashMap<>();
+
+    private final AtomicLong pollsStarted = new AtomicLong();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    private MidSessionStatusHub(MidSessionStatusHubBuilder builder) {
+        this.poller = builder.poller;
+    }
+
+    public MidSessionStatus fetchFinalSignatureSessionStatus(String sessionId) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    public MidSessionStatus fetchFinalAuthenticationSessionStatus(String sessionId) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    /**
+     * Blocks until the session is completed. Throws the same exceptions as {@link MidSessionStatusPoller}.
+     */
+    public MidSessionStatus fetchFinalSessionStatus(String sessionId, String path) {
+        CompletableFuture<MidSessionStatus> waiter = fetchFinalSessionStatusAsync(sessionId, path);
+        try {
+            return waiter.get();
+        }
+        catch (InterruptedException e) {
+            waiter.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new MidInternalErrorException("Interrupted while waiting for session status", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MidInternalErrorException("Failed to poll session status: " + e.getCause(), e.getCause());
+        }
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatusAsync(String sessionId) {
+        return fetchFinalSessionStatusAsync(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatusAsync(String sessionId) {
+        return fetchFinalSessionStatusAsync(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalSessionStatusAsync(String sessionId, String path) {
+        SessionKey key = new SessionKey(sessionId, path);
+        SharedPoll shared;
+        boolean first = false;
+        synchronized (polls) {
+            shared = polls.get(key);
+            if (shared == null) {
+                shared = new SharedPoll(key);
+                polls.put(key, shared);
+                first = true;
+            }
+            shared.waiters++;
+        }
+        if (first) {
+            pollsStarted.incrementAndGet();
+            shared.start();
+        }
+        else {
+            coalescedCalls.incrementAndGet();
+        }
+
+        CompletableFuture<MidSessionStatus> waiter = new CompletableFuture<>();
+        SharedPoll joined = shared;
+        shared.result.whenComplete((sessionStatus, error) -> {
+            if (error != null) {
+                waiter.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            }
+            else {
+                waiter.complete(sessionStatus);
+            }
+        });
+        waiter.whenComplete((sessionStatus, error) -> {
+            if (waiter.isCancelled()) {
+                joined.leave();
+            }
+        });
+        return waiter;
+    }
+
+    /**
+     * @return number of sessions being polled
+     */
+    public int getActivePolls() {
+        synchronized (polls) {
+            return polls.size();
+        }
+    }
+
+    /**
+     * @return number of callers waiting for any session
+     */
+    public int getWaiters() {
+        synchronized (polls) {
+            int waiters = 0;
+            for (SharedPoll shared : polls.values()) {
+                waiters += shared.waiters;
+            }
+            return waiters;
+        }
+    }
+
+    /**
+     * @return number of polls started
+     */
+    public long getPollsStarted() {
+        return pollsStarted.get();
+    }
+
+    /**
+     * @return number of callers that joined a poll already running
+     */
+    public long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    private class SharedPoll {
+        private final SessionKey key;
+        private final CompletableFuture<MidSessionStatus> result = new CompletableFuture<>();
+        private volatile CompletableFuture<MidSessionStatus> poll;
+        private int waiters;
+
+        SharedPoll(SessionKey key) {
+            this.key = key;
+        }
+
+        void start() {
+            CompletableFuture<MidSessionStatus> started = poller.fetchFinalSessionStatus(key.sessionId, key.path);
+            poll = started;
+            started.whenComplete((sessionStatus, error) -> {
+                remove();
+                if (error != null) {
+                    result.completeExceptionally(error);
+                }
+                else {
+                    result.complete(sessionStatus);
+                }
+            });
+            // all callers left before polling started
+            if (result.isCancelled()) {
+                started.cancel(false);
+            }
+        }
+
+        void leave() {
+            synchronized (polls) {
+                if (--waiters > 0 || polls.get(key) != this) {
+                    return;
+                }
+                polls.remove(key);
+            }
+            result.cancel(false);
+            CompletableFuture<MidSessionStatus> started = poll;
+            if (started != null) {
+                started.cancel(false);
+            }
+        }
+
+        private void remove() {
+            synchronized (polls) {
+                if (polls.get(key) == this) {
+                    polls.remove(key);
+                }
+            }
+        }
+    }
+
+    private static class SessionKey {
+        private final String sessionId;
+        private final String path;
+
+        SessionKey(String sessionId, String path) {
+            this.sessionId = sessionId;
+            this.path = path;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SessionKey)) {
+                return false;
+            }
+            SessionKey that = (SessionKey) o;
+            return Objects.equals(sessionId, that.sessionId) && Objects.equals(path, that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(sessionId, path);
+        }
+    }
+
+    public static MidSessionStatusHubBuilder newBuilder() {
+        return new MidSessionStatusHubBuilder();
+    }
+
+    public static class MidSessionStatusHubBuilder {
+        private MidAsyncSessionStatusPoller poller;
+
+        private MidSessionStatusHubBuilder() {}
+
+        public MidSessionStatusHubBuilder withPoller(MidAsyncSessionStatusPoller poller) {
+            this.poller = poller;
+            return this;
+        }
+
+        public MidSessionStatusHub build() {
+            validateFields();
+            return new MidSessionStatusHub(this);
+        }
+
+        private void validateFields() {
+            if (poller == null) {
+                throw new MidMissingOrInvalidParameterException("poller must be set");
+            }
+        }
+    }
+}
@@ -28,14 +28,24 @@ package ee.sk.mid.rest;
 
 import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ee.sk.mid.exception.MidDeliveryException;
 import ee.sk.mid.exception.MidException;
 import ee.sk.mid.exception.MidInternalErrorException;
 import ee.sk.mid.exception.MidInvalidUserConfigurationException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
 import ee.sk.mid.exception.MidNotMidClientException;
 import ee.sk.mid.exception.MidPhoneNotAvailableException;
+import ee.sk.mid.exception.MidPollingCancelledException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
 import ee.sk.mid.exception.MidSessionTimeoutException;
 import ee.sk.mid.exception.MidUserCancellationException;
 import ee.sk.mid.rest.dao.MidSessionStatus;
@@ -50,21 +60,36 @@ public class MidSessionStatusPoller {
 
     public static final int DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS = 3;
 
+    /**
+     * Receives progress of every session polled, for example to push it to a browser over WebSocket or SSE.
+     */
+    public interface SessionStatusListener {
+        void onSessionStatus(MidSessionStatusEvent event);
+    }
+
     private static final Logger logger = LoggerFactory.getLogger( MidSessionStatusPoller.class);
 
     private MidConnector connector;
-    private int pollingSleepTimeoutSeconds;
-    private int longPollingTimeoutSeconds;
+    private Duration pollingSleepTimeout;
+    private Duration longPollingTimeout;
+    private MidAdaptivePollingSchedule pollingSchedule;
+    private SessionStatusListener sessionStatusListener;
+    private MidPollRateGovernor pollRateGovernor;
 
+    private final AtomicLong cancelledSessions = new AtomicLong();
+    private final AtomicLong expiredSessions = new AtomicLong();
 
     public MidSessionStatusPoller(SessionStatusPollerBuilder builder) {
         this.connector = builder.connector;
-        this.pollingSleepTimeoutSeconds = builder.pollingSleepTimeoutSeconds;
-        this.longPollingTimeoutSeconds = builder.longPollingTimeoutSeconds;
+        this.pollingSleepTimeout = builder.pollingSleepTimeout;
+        this.longPollingTimeout = builder.longPollingTimeout;
+        this.pollingSchedule = builder.pollingSchedule;
+        this.sessionStatusListener = builder.sessionStatusListener;
+        this.pollRateGovernor = builder.pollRateGovernor;
 
-        if (longPollingTimeoutSeconds == 0 && this.pollingSleepTimeoutSeconds == 0) {
-            logger.info("Both longPollingTimeoutSeconds and pollingSleepTimeoutSeconds are set to 0. Setting pollingSleepTimeoutSeconds=2.");
-            this.pollingSleepTimeoutSeconds = DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS;
+        if (longPollingTimeout.isZero() && this.pollingSleepTimeout.isZero()) {
+            logger.info("Both longPollingTimeout and pollingSleepTimeout are set to 0. Setting pollingSleepTimeoutSeconds=" + DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS + ".");
+            this.pollingSleepTimeout = Duration.ofSeconds(DEFAULT_POLLING_SLEEP_TIMEOUT_SECONDS);
         }
 
     }
@@ -78,36 +103,260 @@ public class MidSessionStatusPoller {
     }
 
     public MidSessionStatus fetchFinalSessionStatus(String sessionId, String path) {
+        return fetchFinalSessionStatus(sessionId, path, null, null);
+    }
+
+    public MidSessionStatus fetchFinalSignatureSessionStatus(String sessionId, Instant deadline, MidCancellationToken cancellationToken) {
+        return fetchFinalSessionStatus(sessionId, SIGNATURE_SESSION_PATH, deadline, cancellationToken);
+    }
+
+    public MidSessionStatus fetchFinalAuthenticationSessionStatus(String sessionId, Instant deadline, MidCancellationToken cancellationToken) {
+        return fetchFinalSessionStatus(sessionId, AUTHENTICATION_SESSION_PATH, deadline, cancellationToken);
+    }
+
+    /**
+     * Polls until MID completes the session, the deadline passes or the token is cancelled.
+     * <p>
+     * Long polling timeout of every request is shortened to fit into the time that is left before the deadline.
+     * The token is checked between polls and wakes the poller up from its pause, but a request in flight
+     * is not aborted: polling stops once it returns, at most the long polling timeout later.
+     *
+     * @param deadline when to give up with {@link MidPollingDeadlineExceededException}, null for no deadline
+     * @param cancellationToken token that stops polling with {@link MidPollingCancelledException}, may be null
+     */
+    public MidSessionStatus fetchFinalSessionStatus(String sessionId, String path, Instant deadline, MidCancellationToken cancellationToken) {
         logger.debug("Starting to poll session status for session " + sessionId);
+        PollProgress progress = new PollProgress();
         try {
-            MidSessionStatus sessionStatus = pollForFinalSessionStatus(sessionId, path);
+            MidSessionStatus sessionStatus = pollForFinalSessionStatus(sessionId, path, deadline, cancellationToken, progress);
             validateResult(sessionStatus);
+            fireSessionStatus(sessionId, path, sessionStatus, null, progress, true);
             return sessionStatus;
+        } catch (MidPollingCancelledException e) {
+            cancelledSessions.incrementAndGet();
+            logger.info(e.getMessage());
+            fireSessionStatus(sessionId, path, null, e, progress, true);
+            throw e;
+        } catch (MidPollingDeadlineExceededException e) {
+            expiredSessions.incrementAndGet();
+            logger.info(e.getMessage());
+            fireSessionStatus(sessionId, path, null, e, progress, true);
+            throw e;
         } catch (InterruptedException e) {
             logger.error("Failed to poll session status: " + e.getMessage());
-            throw new MidInternalErrorException("Failed to poll session status: " + e.getMessage(), e);
+            MidInternalErrorException error = new MidInternalErrorException("Failed to poll session status: " + e.getMessage(), e);
+            fireSessionStatus(sessionId, path, null, error, progress, true);
+            throw error;
+        } catch (RuntimeException e) {
+            fireSessionStatus(sessionId, path, progress.finalStatus, e, progress, true);
+            throw e;
+        }
+    }
+
+    private void fireSessionStatus(String sessionId, String path, MidSessionStatus sessionStatus, RuntimeException error,
+                                   PollProgress progress, boolean finalEvent) {
+        fireSessionStatus(sessionStatusListener, sessionId, path, sessionStatus, error, progress.polls,
+            progress.startTime, progress.requestStartTime, progress.requestEndTime, finalEvent);
+    }
+
+    static void fireSessionStatus(SessionStatusListener listener, String sessionId, String path, MidSessionStatus sessionStatus,
+                                  RuntimeException error, int polls, long startNanos, long requestStartNanos, long requestEndNanos,
+                                  boolean finalEvent) {
+        if (listener == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        // a request that failed has not recorded its end
+        long requestEnd = requestEndNanos < requestStartNanos ? now : requestEndNanos;
+        try {
+            listener.onSessionStatus(new MidSessionStatusEvent(sessionId, path, sessionStatus, error, polls,
+                Duration.ofNanos(now - startNanos), Duration.ofNanos(requestEnd - requestStartNanos), finalEvent));
         }
+        catch (RuntimeException e) {
+            logger.error("Session status listener failed", e);
+        }
+    }
+
+    /**
+     * @return number of polls that were stopped with a cancellation token
+     */
+    public long getCancelledSessions() {
+        return cancelledSessions.get();
+    }
+
+    /**
+     * @return number of polls that ran past their deadline
+     */
+    public long getExpiredSessions() {
+        return expiredSessions.get();
     }
 
-    private MidSessionStatus pollForFinalSessionStatus(String sessionId, String path) throws InterruptedException {
-        MidSessionStatus sessionStatus = null;
-        while (sessionStatus == null || equalsIgnoreCase("RUNNING", sessionStatus.getState())) {
+    private MidSessionStatus pollForFinalSessionStatus(String sessionId, String path, Instant deadline,
+                                                       MidCancellationToken cancellationToken, PollProgress progress) throws InterruptedException {
+        long firstPollDelayMillis = (pollingSchedule == null ? 0 : pollingSchedule.getFirstPollDelayMillis(path))
+            + (pollRateGovernor == null ? 0 : pollRateGovernor.nextPhaseOffsetMillis());
+        if (firstPollDelayMillis > 0) {
+            logger.debug("Sleeping for " + firstPollDelayMillis + " ms before the first poll");
+            pause(sessionId, firstPollDelayMillis, deadline, cancellationToken);
+        }
 
+        // the same request is sent on every poll, so connectors can keep the target they resolve from it
+        MidPollingSessionStatusRequest request = new MidPollingSessionStatusRequest(sessionId, longPollingTimeout, deadline, cancellationToken);
+        long runningMillis = 0;
+        while (true) {
+            checkNotStopped(sessionId, deadline, cancellationToken);
+            if (pollRateGovernor != null) {
+                awaitPermit(sessionId, deadline, cancellationToken);
+            }
             logger.debug("Polling session status");
-            MidSessionStatusRequest request = new MidSessionStatusRequest(sessionId, this.longPollingTimeoutSeconds);
-            sessionStatus = connector.getSessionStatus(request, path);
+            long requestStartTime = System.nanoTime();
+            progress.requestStartTime = requestStartTime;
+            if (progress.polls == 0) {
+                // a session that is COMPLETE on the first poll was at least running until it was sent
+                runningMillis = TimeUnit.NANOSECONDS.toMillis(requestStartTime - progress.startTime);
+            }
+            if (deadline != null) {
+                request = fitToDeadline(request, longPollingTimeout, deadline);
+            }
+            progress.polls++;
+            MidSessionStatus sessionStatus = connector.getSessionStatus(request, path);
+            progress.requestEndTime = System.nanoTime();
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(progress.requestEndTime - progress.startTime);
+
+            if (sessionStatus != null && !equalsIgnoreCase("RUNNING", sessionStatus.getState())) {
+                if (pollingSchedule != null && equalsIgnoreCase("COMPLETE", sessionStatus.getState())) {
+                    // a long poll is answered as soon as the session completes
+                    pollingSchedule.recordCompletion(path, request.getTimeoutMs() != 0 ? elapsedMillis : runningMillis,
+                        elapsedMillis, progress.polls);
+                }
+                logger.debug("Got session final session status response");
+                progress.finalStatus = sessionStatus;
+                return sessionStatus;
+            }
+            fireSessionStatus(sessionId, path, sessionStatus, null, progress, false);
+            runningMillis = elapsedMillis;
+            if (ranFullLongPoll(requestStartTime, request)) {
+                continue;
+            }
+            long nextPollDelayMillis = pollingSchedule == null
+                ? pollingSleepTimeout.toMillis()
+                : pollingSchedule.getNextPollDelayMillis(path, elapsedMillis);
+            if (request.getTimeoutMs() == 0 && !longPollingTimeout.isZero()) {
+                // too little time was left for a long poll, wait for the deadline instead of polling in a loop
+                nextPollDelayMillis = millisUntil(deadline);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Sleeping for " + nextPollDelayMillis + " ms");
+            }
+            pause(sessionId, nextPollDelayMillis, deadline, cancellationToken);
+        }
+    }
 
-            if (sessionStatus != null && equalsIgnoreCase("COMPLETE", sessionStatus.getState())) {
-                break;
+    private void awaitPermit(String sessionId, Instant deadline, MidCancellationToken cancellationToken) throws InterruptedException {
+        CompletableFuture<Void> permit = pollRateGovernor.acquire(deadline);
+        if (permit.isDone() && !permit.isCompletedExceptionally()) {
+            return;
+        }
+        Runnable unregister = cancellationToken == null ? null : cancellationToken.onCancel(() -> permit.cancel(false));
+        try {
+            if (deadline == null) {
+                permit.get();
+            }
+            else {
+                permit.get(millisUntil(deadline), TimeUnit.MILLISECONDS);
+            }
+        } catch (CancellationException e) {
+            throw new MidPollingCancelledException(sessionId);
+        } catch (TimeoutException e) {
+            permit.cancel(false);
+            throw new MidPollingDeadlineExceededException(sessionId);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            logger.debug("Sleeping for " + pollingSleepTimeoutSeconds + " seconds");
-            TimeUnit.SECONDS.sleep(pollingSleepTimeoutSeconds);
+            throw new MidInternalErrorException("Failed to poll session status: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            permit.cancel(false);
+            throw e;
+        } finally {
+            if (unregister != null) {
+                unregister.run();
+            }
+        }
+    }
+
+    private static void pause(String sessionId, long millis, Instant deadline, MidCancellationToken cancellationToken) throws InterruptedException {
+        if (deadline != null) {
+            millis = Math.min(millis, millisUntil(deadline));
         }
-        logger.debug("Got session final session status response");
-        return sessionStatus;
+        if (cancellationToken == null) {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }
+        else if (cancellationToken.await(millis)) {
+            throw new MidPollingCancelledException(sessionId);
+        }
+    }
+
+    private static void checkNotStopped(String sessionId, Instant deadline, MidCancellationToken cancellationToken) {
+        if (cancellationToken != null && cancellationToken.isCancelled()) {
+            throw new MidPollingCancelledException(sessionId);
+        }
+        if (deadline != null && !Instant.now().isBefore(deadline)) {
+            throw new MidPollingDeadlineExceededException(sessionId);
+        }
+    }
+
+    /**
+     * Rounded up, so that waking up after this many milliseconds finds the deadline passed.
+     */
+    static long millisUntil(Instant deadline) {
+        return Math.max(0, Duration.between(Instant.now(), deadline).plusNanos(999_999).toMillis());
+    }
+
+    /**
+     * Long polling timeout that lets the request return before the deadline.
+     * MID does not hold a request for less than a second, so a shorter remainder turns into an ordinary poll.
+     */
+    static Duration longPollingTimeoutBefore(Duration longPollingTimeout, Instant deadline) {
+        if (deadline == null || longPollingTimeout.isZero()) {
+            return longPollingTimeout;
+        }
+        Duration remaining = Duration.between(Instant.now(), deadline);
+        if (remaining.compareTo(longPollingTimeout) >= 0) {
+            return longPollingTimeout;
+        }
+        return remaining.compareTo(MidConnectionPoolConfig.MIN_LONG_POLLING_TIMEOUT) < 0 ? Duration.ZERO : remaining;
+    }
+
+    /**
+     * @return the request, or a new one if its long polling timeout has to be shortened to end before the deadline
+     */
+    static MidPollingSessionStatusRequest fitToDeadline(MidPollingSessionStatusRequest request, Duration longPollingTimeout, Instant deadline) {
+        Duration timeout = longPollingTimeoutBefore(longPollingTimeout, deadline);
+        return timeout.toMillis() == request.getTimeoutMs() ? request : request.withTimeout(timeout);
+    }
+
+    /**
+     * The server answers RUNNING after holding the request for the whole long polling timeout,
+     * so there is no need to wait before the next request.
+     */
+    private static boolean ranFullLongPoll(long requestStartNanos, MidSessionStatusRequest request) {
+        return request.getTimeoutMs() != 0
+            && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - requestStartNanos) >= request.getTimeoutMs();
+    }
+
+    /**
+     * State of one session, kept for the session status listener.
+     */
+    private static final class PollProgress {
+        private final long startTime = System.nanoTime();
+        private long requestStartTime = startTime;
+        private long requestEndTime = startTime;
+        private int polls;
+        private MidSessionStatus finalStatus;
     }
 
-    private void validateResult(MidSessionStatus sessionStatus) {
+    static void validateResult(MidSessionStatus sessionStatus) {
         String result = sessionStatus.getResult();
         if (result == null) {
             logger.error("Result is missing in the session status response");
@@ -116,7 +365,7 @@ public class MidSessionStatusPoller {
         validateResult(result);
     }
 
-    private void validateResult(String result) throws MidException {
+    private static void validateResult(String result) throws MidException {
         switch (result) {
             case "OK":
                 return;
@@ -141,14 +390,31 @@ public class MidSessionStatusPoller {
 
     }
 
+    static void validateLongPollingTimeout(Duration longPollingTimeout) {
+        if (longPollingTimeout == null || longPollingTimeout.isNegative()) {
+            throw new MidMissingOrInvalidParameterException("longPollingTimeout must be non-negative");
+        }
+        if (!longPollingTimeout.isZero() && longPollingTimeout.compareTo(MidConnectionPoolConfig.MIN_LONG_POLLING_TIMEOUT) < 0) {
+            throw new MidMissingOrInvalidParameterException("longPollingTimeout must be 0 or at least "
+                + MidConnectionPoolConfig.MIN_LONG_POLLING_TIMEOUT.getSeconds() + " second");
+        }
+        if (longPollingTimeout.compareTo(MidConnectionPoolConfig.MAX_LONG_POLLING_TIMEOUT) > 0) {
+            throw new MidMissingOrInvalidParameterException("longPollingTimeout must not be longer than "
+                + MidConnectionPoolConfig.MAX_LONG_POLLING_TIMEOUT.getSeconds() + " seconds allowed by MID API");
+        }
+    }
+
     public static SessionStatusPollerBuilder newBuilder() {
         return new SessionStatusPollerBuilder();
     }
 
     public static class SessionStatusPollerBuilder {
         private MidConnector connector;
-        private int pollingSleepTimeoutSeconds = 0;
-        private int longPollingTimeoutSeconds = 0;
+        private Duration pollingSleepTimeout = Duration.ZERO;
+        private Duration longPollingTimeout = Duration.ZERO;
+        private MidAdaptivePollingSchedule pollingSchedule;
+        private SessionStatusListener sessionStatusListener;
+        private MidPollRateGovernor pollRateGovernor;
 
 
         public SessionStatusPollerBuilder withConnector(MidConnector connector) {
@@ -156,18 +422,62 @@ public class MidSessionStatusPoller {
             return this;
         }
         public SessionStatusPollerBuilder withPollingSleepTimeoutSeconds(int pollingSleepTimeoutSeconds) {
-            this.pollingSleepTimeoutSeconds = pollingSleepTimeoutSeconds;
-            return this;
+            return withPollingSleepTimeout(Duration.ofSeconds(pollingSleepTimeoutSeconds));
         }
         public SessionStatusPollerBuilder withLongPollingTimeoutSeconds(int longPollingTimeoutSeconds) {
-            this.longPollingTimeoutSeconds = longPollingTimeoutSeconds;
+            return withLongPollingTimeout(Duration.ofSeconds(longPollingTimeoutSeconds));
+        }
+
+        /**
+         * Pause between a RUNNING response and the next request. There is no pause after a long poll that lasted the whole long polling timeout.
+         */
+        public SessionStatusPollerBuilder withPollingSleepTimeout(Duration pollingSleepTimeout) {
+            this.pollingSleepTimeout = pollingSleepTimeout;
+            return this;
+        }
+
+        /**
+         * How long the server may hold a session status request while the session is running. Must be shorter than the read timeout.
+         * Either 0 for no long polling or at least 1 second, the shortest long poll the MID API accepts.
+         */
+        public SessionStatusPollerBuilder withLongPollingTimeout(Duration longPollingTimeout) {
+            this.longPollingTimeout = longPollingTimeout;
+            return this;
+        }
+
+        /**
+         * Learn the poll schedule from observed completion times instead of sleeping pollingSleepTimeoutSeconds between polls.
+         */
+        public SessionStatusPollerBuilder withAdaptivePollingSchedule(MidAdaptivePollingSchedule pollingSchedule) {
+            this.pollingSchedule = pollingSchedule;
+            return this;
+        }
+
+        /**
+         * Called from the polling thread after every RUNNING status and once when polling of a session ends.
+         */
+        public SessionStatusPollerBuilder withSessionStatusListener(SessionStatusListener sessionStatusListener) {
+            this.sessionStatusListener = sessionStatusListener;
+            return this;
+        }
+
+        /**
+         * Governor shared by all pollers of the process that limits the rate of session status requests.
+         */
+        public SessionStatusPollerBuilder withPollRateGovernor(MidPollRateGovernor pollRateGovernor) {
+            this.pollRateGovernor = pollRateGovernor;
             return this;
         }
 
         public MidSessionStatusPoller build() {
+            validateFields();
             return new MidSessionStatusPoller(this);
         }
 
+        private void validateFields() {
+            validateLongPollingTimeout(longPollingTimeout);
+        }
+
 
     }
 }
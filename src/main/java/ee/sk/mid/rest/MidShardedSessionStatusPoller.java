@@ -0,0 +1,383 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares polling of session statuses between the nodes of an application cluster, so that any node can be
+ * asked for the result of a session without sticky sessions and without every node polling MID.
+ * <p>
+ * Every session id is owned by exactly one node, chosen by consistent hashing over the current cluster members.
+ * The owner polls the session with its {@link MidSessionStatusHub}, other nodes ask the owner for the result
+ * over the {@link MidClusterTransport}. When nodes join or leave, the sessions whose owner changed are handed
+ * over: calls waiting on this node are sent to the new owner and the local poll stops when nobody waits for it.
+ * <p>
+ * Until the membership lists any node, sessions are polled locally.
+ */
+public class MidShardedSessionStatusPoller implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidShardedSessionStatusPoller.class);
+
+    private final String nodeId;
+    private final MidSessionStatusHub sessionStatusHub;
+    private final MidClusterMembership membership;
+    private final MidClusterTransport transport;
+    private final int virtualNodes;
+    private final MidClusterMembership.MembershipListener membershipListener = this::onMembershipChange;
+
+    private final Set<Call> calls = ConcurrentHashMap.newKeySet();
+    private volatile MidConsistentHashRing ring;
+    private volatile boolean closed;
+
+    private final AtomicLong localPolls = new AtomicLong();
+    private final AtomicLong forwardedCalls = new AtomicLong();
+    private final AtomicLong reroutedCalls = new AtomicLong();
+
+    private MidShardedSessionStatusPoller(MidShardedSessionStatusPollerBuilder builder) {
+        this.nodeId = builder.nodeId;
+        this.sessionStatusHub = builder.sessionStatusHub;
+        this.membership = builder.membership;
+        this.transport = builder.transport;
+        this.virtualNodes = builder.virtualNodes;
+        this.ring = new MidConsistentHashRing(membership.getNodes(), virtualNodes);
+        membership.addMembershipListener(membershipListener);
+    }
+
+    public MidSessionStatus fetchFinalSignatureSessionStatus(String sessionId) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    public MidSessionStatus fetchFinalAuthenticationSessionStatus(String sessionId) {
+        return fetchFinalSessionStatus(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    /**
+     * Blocks until the session is completed. Throws the same exceptions as {@link MidSessionStatusPoller}.
+     */
+    public MidSessionStatus fetchFinalSessionStatus(String sessionId, String path) {
+        CompletableFuture<MidSessionStatus> result = fetchFinalSessionStatusAsync(sessionId, path);
+        try {
+            return result.get();
+        }
+        catch (InterruptedException e) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new MidInternalErrorException("Interrupted while waiting for session status", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new MidInternalErrorException("Failed to poll session status: " + e.getCause(), e.getCause());
+        }
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalSignatureSessionStatusAsync(String sessionId) {
+        return fetchFinalSessionStatusAsync(sessionId, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    public CompletableFuture<MidSessionStatus> fetchFinalAuthenticationSessionStatusAsync(String sessionId) {
+        return fetchFinalSessionStatusAsync(sessionId, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    /**
+     * Polls the session if this node owns it, otherwise gets the result from the owner.
+     * Cancelling the returned future only removes this caller.
+     */
+    public CompletableFuture<MidSessionStatus> fetchFinalSessionStatusAsync(String sessionId, String path) {
+        return start(sessionId, path, false);
+    }
+
+    /**
+     * Answers a request of another node. The session is polled here even if this node's view of the membership
+     * names another owner, so that nodes with different views do not pass a request back and forth.
+     */
+    public CompletableFuture<MidSessionStatus> fetchOwnedSessionStatus(String sessionId, String path) {
+        return start(sessionId, path, true);
+    }
+
+    /**
+     * @return node that polls the session
+     */
+    public String getOwner(String sessionId) {
+        String owner = ring.getOwner(sessionId);
+        return owner != null ? owner : nodeId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * @return number of calls whose session was polled on this node
+     */
+    public long getLocalPolls() {
+        return localPolls.get();
+    }
+
+    /**
+     * @return number of calls sent to the owner on another node
+     */
+    public long getForwardedCalls() {
+        return forwardedCalls.get();
+    }
+
+    /**
+     * @return number of times a waiting call was moved to a new owner
+     */
+    public long getReroutedCalls() {
+        return reroutedCalls.get();
+    }
+
+    /**
+     * Stops following the membership. Requests of other nodes are cancelled, so that they go to the new owner,
+     * and local callers get {@link MidInternalErrorException}. Remove the node from the membership first
+     * to have its sessions handed over instead.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        membership.removeMembershipListener(membershipListener);
+        for (Call call : calls) {
+            if (call.ownedRequest) {
+                call.result.cancel(false);
+            }
+            else {
+                call.result.completeExceptionally(new MidInternalErrorException("Sharded session status poller was closed"));
+            }
+        }
+    }
+
+    private CompletableFuture<MidSessionStatus> start(String sessionId, String path, boolean ownedRequest) {
+        if (closed) {
+            CompletableFuture<MidSessionStatus> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new MidInternalErrorException("Sharded session status poller was closed"));
+            return failed;
+        }
+        Call call = new Call(sessionId, path, ownedRequest);
+        calls.add(call);
+        call.result.whenComplete((sessionStatus, error) -> {
+            calls.remove(call);
+            call.cancelAttempt();
+        });
+        call.route();
+        return call.result;
+    }
+
+    private void onMembershipChange(Set<String> nodes) {
+        ring = new MidConsistentHashRing(nodes, virtualNodes);
+        logger.info("Cluster membership of node " + nodeId + " changed to " + nodes);
+        for (Call call : calls) {
+            if (!call.ownedRequest) {
+                call.route();
+            }
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * One caller waiting for a session, routed to the current owner.
+     */
+    private class Call {
+        private final String sessionId;
+        private final String path;
+        private final boolean ownedRequest;
+        private final CompletableFuture<MidSessionStatus> result = new CompletableFuture<>();
+
+        // guarded by this
+        private String node;
+        private CompletableFuture<MidSessionStatus> attempt;
+        private int attempts;
+
+        Call(String sessionId, String path, boolean ownedRequest) {
+            this.sessionId = sessionId;
+            this.path = path;
+            this.ownedRequest = ownedRequest;
+        }
+
+        /**
+         * Sends the call to the owner unless it is already waiting there.
+         */
+        void route() {
+            String owner = ownedRequest ? nodeId : getOwner(sessionId);
+            CompletableFuture<MidSessionStatus> previous;
+            int generation;
+            synchronized (this) {
+                if (result.isDone() || owner.equals(node)) {
+                    return;
+                }
+                if (node != null) {
+                    reroutedCalls.incrementAndGet();
+                    logger.debug("Moving call for session " + sessionId + " from node " + node + " to " + owner);
+                }
+                node = owner;
+                previous = attempt;
+                attempt = null;
+                generation = ++attempts;
+            }
+            if (previous != null) {
+                previous.cancel(false);
+            }
+
+            CompletableFuture<MidSessionStatus> next;
+            if (owner.equals(nodeId)) {
+                localPolls.incrementAndGet();
+                next = sessionStatusHub.fetchFinalSessionStatusAsync(sessionId, path);
+            }
+            else {
+                forwardedCalls.incrementAndGet();
+                next = transport.fetchFinalSessionStatus(owner, sessionId, path);
+            }
+
+            synchronized (this) {
+                if (generation != attempts || result.isDone()) {
+                    next.cancel(false);
+                    return;
+                }
+                attempt = next;
+            }
+            next.whenComplete((sessionStatus, error) -> onAttemptComplete(generation, owner, sessionStatus, error));
+        }
+
+        private void onAttemptComplete(int generation, String owner, MidSessionStatus sessionStatus, Throwable error) {
+            synchronized (this) {
+                if (generation != attempts) {
+                    return;
+                }
+            }
+            if (error == null) {
+                result.complete(sessionStatus);
+            }
+            else if (!ownedRequest && !owner.equals(getOwner(sessionId))) {
+                // the owner left before answering
+                route();
+            }
+            else {
+                result.completeExceptionally(unwrap(error));
+            }
+        }
+
+        void cancelAttempt() {
+            CompletableFuture<MidSessionStatus> current;
+            synchronized (this) {
+                current = attempt;
+            }
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+    }
+
+    public static MidShardedSessionStatusPollerBuilder newBuilder() {
+        return new MidShardedSessionStatusPollerBuilder();
+    }
+
+    public static class MidShardedSessionStatusPollerBuilder {
+        private String nodeId;
+        private MidSessionStatusHub sessionStatusHub;
+        private MidClusterMembership membership;
+        private MidClusterTransport transport;
+        private int virtualNodes = 100;
+
+        private MidShardedSessionStatusPollerBuilder() {}
+
+        /**
+         * Id of this node as listed by the membership.
+         */
+        public MidShardedSessionStatusPollerBuilder withNodeId(String nodeId) {
+            this.nodeId = nodeId;
+            return this;
+        }
+
+        /**
+         * Hub that polls the sessions owned by this node, see {@link ee.sk.mid.MidClient#getSessionStatusHub()}.
+         */
+        public MidShardedSessionStatusPollerBuilder withSessionStatusHub(MidSessionStatusHub sessionStatusHub) {
+            this.sessionStatusHub = sessionStatusHub;
+            return this;
+        }
+
+        public MidShardedSessionStatusPollerBuilder withMembership(MidClusterMembership membership) {
+            this.membership = membership;
+            return this;
+        }
+
+        public MidShardedSessionStatusPollerBuilder withTransport(MidClusterTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * Points per node on the hash ring. More points spread sessions more evenly. Defaults to 100.
+         * Must be the same on all nodes.
+         */
+        public MidShardedSessionStatusPollerBuilder withVirtualNodes(int virtualNodes) {
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        public MidShardedSessionStatusPoller build() {
+            validateFields();
+            return new MidShardedSessionStatusPoller(this);
+        }
+
+        private void validateFields() {
+            if (nodeId == null || nodeId.isEmpty()) {
+                throw new MidMissingOrInvalidParameterException("nodeId must be set");
+            }
+            if (sessionStatusHub == null) {
+                throw new MidMissingOrInvalidParameterException("sessionStatusHub must be set");
+            }
+            if (membership == null) {
+                throw new MidMissingOrInvalidParameterException("membership must be set");
+            }
+            if (transport == null) {
+                throw new MidMissingOrInvalidParameterException("transport must be set");
+            }
+            if (virtualNodes <= 0) {
+                throw new MidMissingOrInvalidParameterException("virtualNodes must be a positive number");
+            }
+        }
+    }
+}
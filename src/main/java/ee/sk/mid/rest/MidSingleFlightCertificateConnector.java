@@ -0,0 +1,223 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+
+/**
+ * {@link MidConnector} decorator that coalesces concurrent identical certificate requests.
+ * <p>
+ * While a certificate request for a relying party, phone number and national identity number is in flight,
+ * further requests with the same values do not call the MID service but wait for the first one
+ * and get the same response or exception. Nothing is kept after the call has finished.
+ * All other calls are passed through.
+ */
+public class MidSingleFlightCertificateConnector implements MidConnector, MidWarmUpConnector {
+
+    private final MidConnector connector;
+
+    private final ConcurrentMap<CertificateKey, CompletableFuture<MidCertificateChoiceResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong certificateCalls = new AtomicLong();
+    private final AtomicLong coalescedCalls = new AtomicLong();
+
+    private MidSingleFlightCertificateConnector(MidSingleFlightCertificateConnectorBuilder builder) {
+        this.connector = builder.connector;
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        CertificateKey key = new CertificateKey(request);
+        CompletableFuture<MidCertificateChoiceResponse> call = new CompletableFuture<>();
+        CompletableFuture<MidCertificateChoiceResponse> existing = inFlight.putIfAbsent(key, call);
+        if (existing != null) {
+            coalescedCalls.incrementAndGet();
+            return await(existing);
+        }
+
+        certificateCalls.incrementAndGet();
+        try {
+            MidCertificateChoiceResponse response = connector.getCertificate(request);
+            inFlight.remove(key, call);
+            call.complete(response);
+            return response;
+        }
+        catch (RuntimeException | Error e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return connector.sign(request);
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return connector.authenticate(request);
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return connector.getSessionStatus(request, path);
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return connector.getAuthenticationSessionStatus(request);
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return connector.getSignatureSessionStatus(request);
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext sslContext) {
+        connector.setSslTrustContext(sslContext);
+    }
+
+    @Override
+    public MidWarmUpResult warmUp(int connections) {
+        return MidWarmUpConnector.warmUpIfSupported(connector, connections);
+    }
+
+    /**
+     * @return number of certificate requests sent to the MID service
+     */
+    public long getCertificateCalls() {
+        return certificateCalls.get();
+    }
+
+    /**
+     * @return number of certificate requests that were answered by joining a request already in flight
+     */
+    public long getCoalescedCalls() {
+        return coalescedCalls.get();
+    }
+
+    private static MidCertificateChoiceResponse await(CompletableFuture<MidCertificateChoiceResponse> call) {
+        try {
+            return call.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MidInternalErrorException("Interrupted while waiting for certificate request in flight", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new MidInternalErrorException("Unknown error when connecting to Host", e.getCause());
+        }
+    }
+
+    private static class CertificateKey {
+        private final String relyingPartyUUID;
+        private final String relyingPartyName;
+        private final String phoneNumber;
+        private final String nationalIdentityNumber;
+
+        CertificateKey(MidCertificateRequest request) {
+            this.relyingPartyUUID = request.getRelyingPartyUUID();
+            this.relyingPartyName = request.getRelyingPartyName();
+            this.phoneNumber = request.getPhoneNumber();
+            this.nationalIdentityNumber = request.getNationalIdentityNumber();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CertificateKey)) {
+                return false;
+            }
+            CertificateKey that = (CertificateKey) o;
+            return Objects.equals(relyingPartyUUID, that.relyingPartyUUID)
+                && Objects.equals(relyingPartyName, that.relyingPartyName)
+                && Objects.equals(phoneNumber, that.phoneNumber)
+                && Objects.equals(nationalIdentityNumber, that.nationalIdentityNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(relyingPartyUUID, relyingPartyName, phoneNumber, nationalIdentityNumber);
+        }
+    }
+
+    public static MidSingleFlightCertificateConnectorBuilder newBuilder() {
+        return new MidSingleFlightCertificateConnectorBuilder();
+    }
+
+    public static class MidSingleFlightCertificateConnectorBuilder {
+        private MidConnector connector;
+
+        private MidSingleFlightCertificateConnectorBuilder() {}
+
+        public MidSingleFlightCertificateConnectorBuilder withConnector(MidConnector connector) {
+            this.connector = connector;
+            return this;
+        }
+
+        public MidSingleFlightCertificateConnector build() {
+            validateFields();
+            return new MidSingleFlightCertificateConnector(this);
+        }
+
+        private void validateFields() {
+            if (connector == null) {
+                throw new MidMissingOrInvalidParameterException("connector must be set");
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+/**
+ * Connector that can prepare itself for its first real requests, see {@link MidRestConnector#warmUp(int)}.
+ * <p>
+ * Decorators implement it by delegating to the connector they wrap, so that warm-up reaches the transport
+ * underneath. Connectors without a warm-up are skipped.
+ */
+public interface MidWarmUpConnector {
+
+    /**
+     * @param connections number of connections to open to the host
+     * @return time spent in each warm-up phase
+     */
+    MidWarmUpResult warmUp(int connections);
+
+    /**
+     * Warms up the connector if it supports warm-up.
+     *
+     * @return time spent in each warm-up phase, or {@link MidWarmUpResult#skipped()} for connectors without warm-up
+     */
+    static MidWarmUpResult warmUpIfSupported(MidConnector connector, int connections) {
+        if (connector instanceof MidWarmUpConnector) {
+            return ((MidWarmUpConnector) connector).warmUp(connections);
+        }
+        return MidWarmUpResult.skipped();
+    }
+}
@@ -0,0 +1,135 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+
+/**
+ * Time spent in each phase of {@link MidRestConnector#warmUp(int)}.
+ */
+public class MidWarmUpResult {
+
+    private static final MidWarmUpResult SKIPPED = new MidWarmUpResult(Duration.ZERO, Duration.ZERO, Duration.ZERO, 0, 0, true);
+
+    private final Duration clientBootstrap;
+    private final Duration connections;
+    private final Duration jsonSerialization;
+    private final int connectionsOpened;
+    private final int connectionsFailed;
+    private final boolean skipped;
+
+    MidWarmUpResult(Duration clientBootstrap, Duration connections, Duration jsonSerialization, int connectionsOpened, int connectionsFailed) {
+        this(clientBootstrap, connections, jsonSerialization, connectionsOpened, connectionsFailed, false);
+    }
+
+    private MidWarmUpResult(Duration clientBootstrap, Duration connections, Duration jsonSerialization,
+                            int connectionsOpened, int connectionsFailed, boolean skipped) {
+        this.clientBootstrap = clientBootstrap;
+        this.connections = connections;
+        this.jsonSerialization = jsonSerialization;
+        this.connectionsOpened = connectionsOpened;
+        this.connectionsFailed = connectionsFailed;
+        this.skipped = skipped;
+    }
+
+    /**
+     * @return result of a connector that has no warm-up, all phases took no time
+     */
+    public static MidWarmUpResult skipped() {
+        return SKIPPED;
+    }
+
+    /**
+     * Adds up the phases of connectors warmed up one after another.
+     */
+    MidWarmUpResult plus(MidWarmUpResult other) {
+        if (other.skipped) {
+            return this;
+        }
+        if (skipped) {
+            return other;
+        }
+        return new MidWarmUpResult(clientBootstrap.plus(other.clientBootstrap), connections.plus(other.connections),
+            jsonSerialization.plus(other.jsonSerialization), connectionsOpened + other.connectionsOpened,
+            connectionsFailed + other.connectionsFailed);
+    }
+
+    /**
+     * @return time taken to create the JAX-RS client and its endpoint targets
+     */
+    public Duration getClientBootstrap() {
+        return clientBootstrap;
+    }
+
+    /**
+     * @return time taken to resolve the host and open (including TLS handshake) the requested connections
+     */
+    public Duration getConnections() {
+        return connections;
+    }
+
+    /**
+     * @return time taken to serialize an authentication request and parse a session status once
+     */
+    public Duration getJsonSerialization() {
+        return jsonSerialization;
+    }
+
+    public int getConnectionsOpened() {
+        return connectionsOpened;
+    }
+
+    public int getConnectionsFailed() {
+        return connectionsFailed;
+    }
+
+    /**
+     * @return true if the connector has no warm-up and nothing was done
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    public Duration getTotal() {
+        return clientBootstrap.plus(connections).plus(jsonSerialization);
+    }
+
+    @Override
+    public String toString() {
+        if (skipped) {
+            return "MidWarmUpResult{skipped}";
+        }
+        return "MidWarmUpResult{" +
+            "clientBootstrap=" + clientBootstrap.toMillis() + "ms" +
+            ", connections=" + connections.toMillis() + "ms" +
+            ", jsonSerialization=" + jsonSerialization.toMillis() + "ms" +
+            ", connectionsOpened=" + connectionsOpened +
+            ", connectionsFailed=" + connectionsFailed +
+            '}';
+    }
+}
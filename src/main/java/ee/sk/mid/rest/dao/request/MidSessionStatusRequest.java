@@ -27,11 +27,18 @@ package ee.sk.mid.rest.dao.request;
  */
 
 import java.io.Serializable;
+import java.time.Duration;
 
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 public class MidSessionStatusRequest implements Serializable {
 
+    /**
+     * Longest long polling timeout accepted by the MID API.
+     */
+    public static final int MAX_TIMEOUT_MS = 120000;
+
     private static final Long serialVersionUID = 1L;
 
     private String sessionID;
@@ -43,8 +50,18 @@ public class MidSessionStatusRequest implements Serializable {
     }
 
     public MidSessionStatusRequest(String sessionID, int timeoutSeconds) {
+        this(sessionID, Duration.ofSeconds(timeoutSeconds));
+    }
+
+    /**
+     * @param timeout long polling timeout, from 0 up to {@link #MAX_TIMEOUT_MS}
+     */
+    public MidSessionStatusRequest(String sessionID, Duration timeout) {
+        if (timeout == null || timeout.isNegative() || timeout.compareTo(Duration.ofMillis(MAX_TIMEOUT_MS)) > 0) {
+            throw new MidMissingOrInvalidParameterException("Long polling timeout must be between 0 and " + MAX_TIMEOUT_MS + " ms");
+        }
         this.sessionID = sessionID;
-        this.timeoutMs = timeoutSeconds * 1000;
+        this.timeoutMs = (int) timeout.toMillis();
     }
 
     public String getSessionID() {
@@ -0,0 +1,404 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ee.sk.mid.exception.MidException;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.exception.MidSslException;
+import ee.sk.mid.exception.MidUnauthorizedException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAbstractRequest;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MidConnector} that talks to the MID API with the JDK {@link HttpClient} instead of JAX-RS.
+ * <p>
+ * Requires Java 11 or newer. The client prefers HTTP/2, so concurrent session status long polls
+ * are multiplexed over a small number of connections to the MID host and no thread is held
+ * while a request is in flight.
+ */
+public class MidHttpClientConnector implements MidConnector, MidAsyncConnector {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidHttpClientConnector.class);
+    private static final String CERTIFICATE_PATH = "/certificate";
+    private static final String SIGNATURE_PATH = "/signature";
+    private static final String AUTHENTICATION_PATH = "/authentication";
+    private static final String SESSION_ID_TEMPLATE = "{sessionId}";
+    private static final String APPLICATION_JSON = "application/json";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String endpointUrl;
+    private final String relyingPartyUUID;
+    private final String relyingPartyName;
+    private final HttpClient configuredHttpClient;
+    private final Duration connectTimeout;
+    private final Duration requestTimeout;
+    private final Executor executor;
+    private final URI certificateUri;
+    private final URI signatureUri;
+    private final URI authenticationUri;
+
+    private volatile SSLContext trustSslContext;
+    private volatile HttpClient httpClient;
+
+    MidHttpClientConnector(MidHttpClientConnectorBuilder builder) {
+        this.endpointUrl = builder.endpointUrl;
+        this.relyingPartyUUID = builder.relyingPartyUUID;
+        this.relyingPartyName = builder.relyingPartyName;
+        this.configuredHttpClient = builder.httpClient;
+        this.connectTimeout = builder.connectTimeout;
+        this.requestTimeout = builder.requestTimeout;
+        this.executor = builder.executor;
+        this.trustSslContext = builder.sslContext;
+        this.certificateUri = URI.create(endpointUrl + CERTIFICATE_PATH);
+        this.signatureUri = URI.create(endpointUrl + SIGNATURE_PATH);
+        this.authenticationUri = URI.create(endpointUrl + AUTHENTICATION_PATH);
+    }
+
+    @Override
+    public MidCertificateChoiceResponse getCertificate(MidCertificateRequest request) {
+        return join(getCertificateAsync(request));
+    }
+
+    @Override
+    public MidSignatureResponse sign(MidSignatureRequest request) {
+        return join(signAsync(request));
+    }
+
+    @Override
+    public MidAuthenticationResponse authenticate(MidAuthenticationRequest request) {
+        return join(authenticateAsync(request));
+    }
+
+    @Override
+    public MidSessionStatus getSessionStatus(MidSessionStatusRequest request, String path) throws MidSessionNotFoundException {
+        return join(getSessionStatusAsync(request, path));
+    }
+
+    @Override
+    public MidSessionStatus getAuthenticationSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return getSessionStatus(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    @Override
+    public MidSessionStatus getSignatureSessionStatus(MidSessionStatusRequest request) throws MidSessionNotFoundException {
+        return getSessionStatus(request, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidCertificateChoiceResponse> getCertificateAsync(MidCertificateRequest request) {
+        logger.debug("Getting certificate for phone number: " + request.getPhoneNumber());
+        return postRequest(certificateUri, request, MidCertificateChoiceResponse.class);
+    }
+
+    @Override
+    public CompletionStage<MidSignatureResponse> signAsync(MidSignatureRequest request) {
+        logger.debug("Signing for phone number: " + request.getPhoneNumber());
+        return postRequest(signatureUri, request, MidSignatureResponse.class);
+    }
+
+    @Override
+    public CompletionStage<MidAuthenticationResponse> authenticateAsync(MidAuthenticationRequest request) {
+        logger.debug("Authenticating for phone number " + request.getPhoneNumber());
+        return postRequest(authenticationUri, request, MidAuthenticationResponse.class);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getAuthenticationSessionStatusAsync(MidSessionStatusRequest request) {
+        return getSessionStatusAsync(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSignatureSessionStatusAsync(MidSessionStatusRequest request) {
+        return getSessionStatusAsync(request, MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+    }
+
+    @Override
+    public CompletionStage<MidSessionStatus> getSessionStatusAsync(MidSessionStatusRequest request, String path) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Getting session status for " + request.getSessionID());
+        }
+        HttpRequest httpRequest = (HttpRequest) MidPollingSessionStatusRequest.preparedTargetOf(request, this, path);
+        if (httpRequest == null) {
+            String uri = endpointUrl + path.replace(SESSION_ID_TEMPLATE, URLEncoder.encode(request.getSessionID(), StandardCharsets.UTF_8));
+            if (request.getTimeoutMs() != 0) {
+                uri += "?timeoutMs=" + request.getTimeoutMs();
+            }
+
+            httpRequest = newRequest(URI.create(uri), Duration.ofMillis(request.getTimeoutMs()))
+                .GET()
+                .build();
+            MidPollingSessionStatusRequest.storeTarget(request, this, path, httpRequest);
+        }
+
+        CompletableFuture<HttpResponse<String>> exchange = send(httpRequest);
+        CompletableFuture<MidSessionStatus> sessionStatus = exchange.thenApply(response -> {
+            if (response.statusCode() == 404) {
+                logger.error("Session " + request + " not found: HTTP 404 Not Found");
+                throw new MidSessionNotFoundException();
+            }
+            return readResponse(response, MidSessionStatus.class);
+        });
+        // cancelling a long poll aborts the exchange on JDK 16 and later instead of holding the connection until timeoutMs
+        sessionStatus.whenComplete((status, error) -> {
+            if (sessionStatus.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        return sessionStatus;
+    }
+
+    @Override
+    public void setSslTrustContext(SSLContext trustSslContext) {
+        this.trustSslContext = trustSslContext;
+        this.httpClient = null;
+    }
+
+    private <T> CompletionStage<T> postRequest(URI uri, MidAbstractRequest request, Class<T> responseType) {
+        HttpRequest httpRequest;
+        try {
+            setRequestRelyingPartyDetailsIfMissing(request);
+            httpRequest = newRequest(uri, Duration.ZERO)
+                .header("Content-Type", APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(request)))
+                .build();
+        }
+        catch (JsonProcessingException e) {
+            return failedStage(new MidInternalErrorException("Could not serialize request to " + uri, e));
+        }
+        catch (MidException e) {
+            return failedStage(e);
+        }
+        return send(httpRequest).thenApply(response -> readResponse(response, responseType));
+    }
+
+    private HttpRequest.Builder newRequest(URI uri, Duration longPollTimeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+            .header("Accept", APPLICATION_JSON);
+        if (requestTimeout != null) {
+            builder.timeout(requestTimeout.plus(longPollTimeout));
+        }
+        return builder;
+    }
+
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest httpRequest) {
+        if (logger.isDebugEnabled()) {
+            logger.debug(httpRequest.method() + " " + httpRequest.uri());
+        }
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        CompletableFuture<HttpResponse<String>> exchange = getHttpClient()
+            .sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                exchange.cancel(true);
+            }
+        });
+        exchange
+            .whenComplete((response, error) -> {
+                if (error == null) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Response status: " + response.statusCode());
+                    }
+                    result.complete(response);
+                }
+                else {
+                    result.completeExceptionally(translateConnectionError(unwrap(error)));
+                }
+            });
+        return result;
+    }
+
+    private <T> T readResponse(HttpResponse<String> response, Class<T> responseType) {
+        int status = response.statusCode();
+        if (status >= 200 && status < 300) {
+            try {
+                return objectMapper.readValue(response.body(), responseType);
+            }
+            catch (JsonProcessingException e) {
+                throw new MidInternalErrorException("Could not parse response from " + response.uri(), e);
+            }
+        }
+        throw translateErrorStatus(response.uri(), status, response.body());
+    }
+
+    private RuntimeException translateErrorStatus(URI uri, int status, String body) {
+        switch (status) {
+            case 500:
+                logger.error("Error getting response from cert-store/MSSP for URI " + uri + ": HTTP 500 Internal Server Error");
+                return new MidInternalErrorException("Error getting response from cert-store/MSSP for URI " + uri + ": HTTP 500 Internal Server Error");
+            case 404:
+                logger.error("Response not found for URI " + uri + ": HTTP 404 Not Found");
+                return new MidInternalErrorException("MID internal error");
+            case 400:
+                String errorMessage = readErrorMessageFromBody(body);
+                logger.error("MID rejected our input with message: " + errorMessage);
+                return new MidMissingOrInvalidParameterException(errorMessage);
+            case 401:
+                logger.error("Request is unauthorized for URI " + uri + ": HTTP 401 Unauthorized");
+                return new MidUnauthorizedException("Request is unauthorized for URI " + uri + ": HTTP 401 Unauthorized");
+            case 503:
+                logger.error("MID server returned 503 - service unavailable");
+                return new MidServiceUnavailableException("MID service is currently unavailable. Please try again later.");
+            default:
+                logger.error("MID returned HTTP status " + status + " for URI " + uri);
+                return new MidInternalErrorException("MID returned HTTP status " + status + " for URI " + uri);
+        }
+    }
+
+    private String readErrorMessageFromBody(String body) {
+        try {
+            return objectMapper.readTree(body).get("error").asText();
+        } catch (Exception ex) {
+            logger.info("Could not read error from body. Most likely it didn't contain any");
+            return "HTTP 400 Bad Request";
+        }
+    }
+
+    private Throwable translateConnectionError(Throwable error) {
+        if (error instanceof MidException) {
+            return error;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("unable to find valid certification path to requested target")) {
+                logger.error("SSL certificate not trusted");
+                return new MidSslException("MID-REST client is not configured to trust SSL certificate of MID API host");
+            }
+        }
+        return new MidInternalErrorException("Unknown error when connecting to Host", error);
+    }
+
+    private void setRequestRelyingPartyDetailsIfMissing(MidAbstractRequest request) {
+        if (request.getRelyingPartyUUID() == null) {
+            request.setRelyingPartyUUID(this.relyingPartyUUID);
+        }
+        if (request.getRelyingPartyName() == null) {
+            request.setRelyingPartyName(this.relyingPartyName);
+        }
+
+        if (isBlank(request.getRelyingPartyUUID())) {
+            throw new MidMissingOrInvalidParameterException("Relying Party UUID parameter must be set in client or request");
+        }
+        if (isBlank(request.getRelyingPartyName())) {
+            throw new MidMissingOrInvalidParameterException("Relying Party Name parameter must be set in client or request");
+        }
+    }
+
+    private HttpClient getHttpClient() {
+        if (configuredHttpClient != null) {
+            return configuredHttpClient;
+        }
+        HttpClient result = httpClient;
+        if (result == null) {
+            synchronized (this) {
+                result = httpClient;
+                if (result == null) {
+                    result = createHttpClient();
+                    httpClient = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private HttpClient createHttpClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2);
+        if (trustSslContext != null) {
+            builder.sslContext(trustSslContext);
+        }
+        if (connectTimeout != null) {
+            builder.connectTimeout(connectTimeout);
+        }
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    private static <T> T join(CompletionStage<T> stage) {
+        try {
+            return stage.toCompletableFuture().join();
+        }
+        catch (CompletionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MidInternalErrorException("Unknown error when connecting to Host", cause);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static <T> CompletionStage<T> failedStage(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    public static MidHttpClientConnectorBuilder newBuilder() {
+        return new MidHttpClientConnectorBuilder();
+    }
+}
@@ -0,0 +1,94 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+
+import javax.net.ssl.SSLContext;
+
+public class MidHttpClientConnectorBuilder {
+  String endpointUrl;
+  String relyingPartyUUID;
+  String relyingPartyName;
+  SSLContext sslContext;
+  HttpClient httpClient;
+  Duration connectTimeout;
+  Duration requestTimeout;
+  Executor executor;
+
+  public MidHttpClientConnectorBuilder withEndpointUrl(String endpointUrl) {
+    this.endpointUrl = endpointUrl;
+    return this;
+  }
+
+  public MidHttpClientConnectorBuilder withRelyingPartyUUID(String relyingPartyUUID) {
+    this.relyingPartyUUID = relyingPartyUUID;
+    return this;
+  }
+
+  public MidHttpClientConnectorBuilder withRelyingPartyName(String relyingPartyName) {
+    this.relyingPartyName = relyingPartyName;
+    return this;
+  }
+
+  public MidHttpClientConnectorBuilder withSslContext(SSLContext sslContext) {
+    this.sslContext = sslContext;
+    return this;
+  }
+
+  /**
+   * Use a preconfigured client. SSL context, connect timeout and executor set on this builder are then ignored.
+   */
+  public MidHttpClientConnectorBuilder withHttpClient(HttpClient httpClient) {
+    this.httpClient = httpClient;
+    return this;
+  }
+
+  public MidHttpClientConnectorBuilder withConnectTimeout(Duration connectTimeout) {
+    this.connectTimeout = connectTimeout;
+    return this;
+  }
+
+  /**
+   * Timeout of a single request. For session status requests the long polling timeout is added on top of it.
+   */
+  public MidHttpClientConnectorBuilder withRequestTimeout(Duration requestTimeout) {
+    this.requestTimeout = requestTimeout;
+    return this;
+  }
+
+  public MidHttpClientConnectorBuilder withExecutor(Executor executor) {
+    this.executor = executor;
+    return this;
+  }
+
+  public MidHttpClientConnector build() {
+    return new MidHttpClientConnector(this);
+  }
+}
@@ -0,0 +1,112 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link Flow.Publisher} of session status events, available on Java 11+ from the multi-release jar.
+ * <p>
+ * Set it as the session status listener of a poller and subscribe any number of consumers, for example one per
+ * WebSocket or SSE connection, each filtering the events of its own session. Events are delivered on the executor;
+ * a subscriber whose buffer is full misses progress events instead of slowing down polling.
+ * For the final event of a session the poller waits up to the final event timeout (1 second by default) for buffer space,
+ * so only a subscriber that stays stuck for longer than that can miss it. Such drops are counted in {@link #getDroppedFinalEvents()}.
+ */
+public class MidSessionStatusPublisher extends SubmissionPublisher<MidSessionStatusEvent>
+    implements MidSessionStatusPoller.SessionStatusListener {
+
+    private static final Logger logger = LoggerFactory.getLogger( MidSessionStatusPublisher.class);
+
+    private static final Duration DEFAULT_FINAL_EVENT_TIMEOUT = Duration.ofSeconds(1);
+
+    private final long finalEventTimeoutMillis;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong droppedFinalEvents = new AtomicLong();
+
+    public MidSessionStatusPublisher() {
+        this(ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    public MidSessionStatusPublisher(Executor executor, int maxBufferCapacity) {
+        this(executor, maxBufferCapacity, DEFAULT_FINAL_EVENT_TIMEOUT);
+    }
+
+    /**
+     * @param finalEventTimeout how long the poller waits for a full subscriber buffer before dropping the final event of a session
+     */
+    public MidSessionStatusPublisher(Executor executor, int maxBufferCapacity, Duration finalEventTimeout) {
+        super(executor, maxBufferCapacity);
+        if (finalEventTimeout == null || finalEventTimeout.isNegative()) {
+            throw new MidMissingOrInvalidParameterException("finalEventTimeout must be non-negative duration");
+        }
+        this.finalEventTimeoutMillis = finalEventTimeout.toMillis();
+    }
+
+    @Override
+    public void onSessionStatus(MidSessionStatusEvent event) {
+        if (!event.isFinal()) {
+            offer(event, (subscriber, dropped) -> {
+                droppedEvents.incrementAndGet();
+                logger.debug("Session status subscriber is too slow, dropped " + dropped);
+                return false;
+            });
+            return;
+        }
+        offer(event, finalEventTimeoutMillis, TimeUnit.MILLISECONDS, (subscriber, dropped) -> {
+            droppedEvents.incrementAndGet();
+            droppedFinalEvents.incrementAndGet();
+            logger.warn("Session status subscriber is stuck, dropped final event of session " + dropped.getSessionId());
+            return false;
+        });
+    }
+
+    /**
+     * @return number of events that were not delivered to a subscriber because its buffer was full
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * @return number of final events that were not delivered to a subscriber within the final event timeout
+     */
+    public long getDroppedFinalEvents() {
+        return droppedFinalEvents.get();
+    }
+}
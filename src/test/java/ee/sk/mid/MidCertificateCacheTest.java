@@ -0,0 +1,166 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.AuthenticationRequestBuilderTest.SERVER_SSL_CERTIFICATE;
+import static ee.sk.mid.mock.TestData.AUTH_CERTIFICATE_EE;
+import static ee.sk.mid.mock.TestData.AUTH_CERTIFICATE_LV;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_NAME;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_UUID;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import org.junit.Test;
+
+public class MidCertificateCacheTest {
+
+    private static final String PHONE_NUMBER = "+37200000766";
+    private static final String NATIONAL_IDENTITY_NUMBER = "60001019906";
+
+    @Test
+    public void getResponse_shouldCountHitsAndMisses() {
+        MidCertificateCache cache = MidCertificateCache.newBuilder().build();
+        MidCertificateChoiceResponse response = createResponse("OK", AUTH_CERTIFICATE_EE);
+
+        assertThat(cache.getResponse(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER), is(nullValue()));
+        cache.put(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER, response);
+
+        assertThat(cache.getResponse(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER), is(sameInstance(response)));
+        assertThat(cache.getResponse(PHONE_NUMBER, "60001019939"), is(nullValue()));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.getParsedCertificate(response), is(notNullValue()));
+    }
+
+    @Test
+    public void getResponse_afterTimeToLive_shouldMiss() throws InterruptedException {
+        MidCertificateCache cache = MidCertificateCache.newBuilder()
+            .withTimeToLive(Duration.ofMillis(50))
+            .build();
+        cache.put(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER, createResponse("OK", AUTH_CERTIFICATE_EE));
+
+        Thread.sleep(100);
+
+        assertThat(cache.getResponse(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER), is(nullValue()));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void put_withExpiredCertificateOrNotOkResult_shouldNotCache() {
+        MidCertificateCache cache = MidCertificateCache.newBuilder().build();
+
+        cache.put(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER, createResponse("OK", AUTH_CERTIFICATE_LV));
+        cache.put(PHONE_NUMBER, "60001019939", createResponse("NOT_FOUND", null));
+
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void put_whenFull_shouldEvictLeastRecentlyUsed() {
+        MidCertificateCache cache = MidCertificateCache.newBuilder()
+            .withMaxSize(2)
+            .build();
+        cache.put(PHONE_NUMBER, "1", createResponse("OK", AUTH_CERTIFICATE_EE));
+        cache.put(PHONE_NUMBER, "2", createResponse("OK", AUTH_CERTIFICATE_EE));
+        cache.getResponse(PHONE_NUMBER, "1");
+
+        cache.put(PHONE_NUMBER, "3", createResponse("OK", AUTH_CERTIFICATE_EE));
+
+        assertThat(cache.getResponse(PHONE_NUMBER, "1"), is(notNullValue()));
+        assertThat(cache.getResponse(PHONE_NUMBER, "2"), is(nullValue()));
+        assertThat(cache.getResponse(PHONE_NUMBER, "3"), is(notNullValue()));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+
+    @Test
+    public void invalidate_shouldRemoveEntry() {
+        MidCertificateCache cache = MidCertificateCache.newBuilder().build();
+        MidCertificateChoiceResponse response = createResponse("OK", AUTH_CERTIFICATE_EE);
+        cache.put(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER, response);
+
+        cache.invalidate(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER);
+
+        assertThat(cache.getResponse(PHONE_NUMBER, NATIONAL_IDENTITY_NUMBER), is(nullValue()));
+        assertThat(cache.getParsedCertificate(response), is(nullValue()));
+    }
+
+    @Test
+    public void midClient_withCertificateCache_shouldSkipRepeatedCallsAndParsing() {
+        MidConnector connector = mock(MidConnector.class);
+        when(connector.getCertificate(any(MidCertificateRequest.class))).thenReturn(createResponse("OK", AUTH_CERTIFICATE_EE));
+        MidClient client = MidClient.newBuilder()
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withHostUrl(LOCALHOST_URL)
+            .withMobileIdConnector(connector)
+            .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+            .withCertificateCache(MidCertificateCache.newBuilder().build())
+            .build();
+        MidCertificateRequest request = MidCertificateRequest.newBuilder()
+            .withPhoneNumber(PHONE_NUMBER)
+            .withNationalIdentityNumber(NATIONAL_IDENTITY_NUMBER)
+            .build();
+
+        X509Certificate first = client.createMobileIdCertificate(client.getMobileIdConnector().getCertificate(request));
+        X509Certificate second = client.createMobileIdCertificate(client.getMobileIdConnector().getCertificate(request));
+
+        assertThat(second, is(sameInstance(first)));
+        verify(connector, times(1)).getCertificate(any(MidCertificateRequest.class));
+        assertThat(client.getCertificateCache().getHits(), is(1L));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withZeroMaxSize_shouldThrowException() {
+        MidCertificateCache.newBuilder()
+            .withMaxSize(0)
+            .build();
+    }
+
+    private static MidCertificateChoiceResponse createResponse(String result, String cert) {
+        MidCertificateChoiceResponse response = new MidCertificateChoiceResponse();
+        response.setResult(result);
+        response.setCert(cert);
+        return response;
+    }
+}
@@ -0,0 +1,394 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.AuthenticationRequestBuilderTest.SERVER_SSL_CERTIFICATE;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidSignatureRequest;
+import static ee.sk.mid.mock.SessionStatusDummy.createNotMIDClientStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.TestData.AUTH_CERTIFICATE_EE;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_NAME;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_UUID;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
+import ee.sk.mid.rest.MidAsyncConnector;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.MidRestConnector;
+import ee.sk.mid.rest.MidSessionStatusPoller;
+import ee.sk.mid.rest.dao.MidSessionSignature;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidSignatureResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MidClientAsyncTest {
+
+    private MidConnector connector;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidConnector.class);
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenReturn(new MidAuthenticationResponse(SESSION_ID));
+        when(connector.sign(any(MidSignatureRequest.class))).thenReturn(new MidSignatureResponse(SESSION_ID));
+    }
+
+    @Test
+    public void signAsync_shouldRunOnInjectedExecutor() throws Exception {
+        when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenReturn(createSignedSessionStatus());
+        AtomicInteger tasks = new AtomicInteger();
+        Executor executor = command -> {
+            tasks.incrementAndGet();
+            new Thread(command).start();
+        };
+
+        MidSignature signature = createClient(executor).signAsync(createValidSignatureRequest()).get(5, TimeUnit.SECONDS);
+
+        assertThat(signature.getValueInBase64(), is("c2lnbmF0dXJl"));
+        assertThat(tasks.get(), is(1));
+    }
+
+    @Test
+    public void authenticateAsync_shouldNotBlockCallingThread() throws Exception {
+        AtomicReference<Thread> pollingThread = new AtomicReference<>();
+        when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            pollingThread.set(Thread.currentThread());
+            return createSignedSessionStatus();
+        });
+
+        MidAuthentication authentication = createClient(null)
+            .authenticateAsync(createValidAuthenticationRequest(), MidAuthenticationHashToSign.generateRandomHashOfDefaultType())
+            .get(5, TimeUnit.SECONDS);
+
+        assertThat(authentication.getResult(), is("OK"));
+        assertThat(pollingThread.get(), is(not(Thread.currentThread())));
+    }
+
+    @Test
+    public void authenticateAsync_whenNotMidClient_shouldCompleteExceptionally() throws Exception {
+        when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenReturn(createNotMIDClientStatus());
+
+        try {
+            createClient(null)
+                .authenticateAsync(createValidAuthenticationRequest(), MidAuthenticationHashToSign.generateRandomHashOfDefaultType())
+                .get(5, TimeUnit.SECONDS);
+            fail("MidNotMidClientException expected");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(MidNotMidClientException.class)));
+        }
+    }
+
+    @Test
+    public void authenticateAsync_withPendingSessionRegistry_shouldKeepSessionRegisteredWhilePolling() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        AtomicReference<MidPendingSession> registeredWhilePolling = new AtomicReference<>();
+        try (MidPendingSessionRegistry registry = MidPendingSessionRegistry.newBuilder()
+                .withJournalFile(folder.getRoot().toPath().resolve("pending-sessions.journal"))
+                .build()) {
+            when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+                registeredWhilePolling.set(registry.getPendingSessions().get(0));
+                return createSignedSessionStatus();
+            });
+            MidAuthenticationHashToSign authenticationHash = MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+
+            MidClient client = MidClient.newBuilder()
+                .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+                .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+                .withHostUrl(LOCALHOST_URL)
+                .withMobileIdConnector(connector)
+                .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+                .withPendingSessionRegistry(registry)
+                .build();
+            client.authenticateAsync(createValidAuthenticationRequest(), authenticationHash).get(5, TimeUnit.SECONDS);
+
+            assertThat(registeredWhilePolling.get().getSessionId(), is(SESSION_ID));
+            assertThat(registeredWhilePolling.get().getPath(), is(MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH));
+            assertThat(registeredWhilePolling.get().getHashToSign().getHashInBase64(), is(authenticationHash.getHashInBase64()));
+            assertThat(registeredWhilePolling.get().getRelyingPartyUUID(), is(DEMO_RELYING_PARTY_UUID));
+            assertThat(registry.size(), is(0));
+        }
+        finally {
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void fetchFinalSignatureSessionStatus_withPendingSessionRegistry_shouldJournalSession() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        AtomicReference<MidPendingSession> registeredWhilePolling = new AtomicReference<>();
+        try (MidPendingSessionRegistry registry = MidPendingSessionRegistry.newBuilder()
+                .withJournalFile(folder.getRoot().toPath().resolve("pending-sessions.journal"))
+                .build()) {
+            when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+                registeredWhilePolling.set(registry.getPendingSessions().get(0));
+                return createSignedSessionStatus();
+            });
+            MidHashToSign hashToSign = MidHashToSign.newBuilder()
+                .withHashInBase64("AE7S1QxYjqtVv+Tgukv2bMMi9gDCbc9ca2vy/iIG6ug=")
+                .withHashType(MidHashType.SHA256)
+                .build();
+
+            MidClient client = MidClient.newBuilder()
+                .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+                .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+                .withHostUrl(LOCALHOST_URL)
+                .withMobileIdConnector(connector)
+                .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+                .withPendingSessionRegistry(registry)
+                .build();
+            MidSessionStatus sessionStatus = client.fetchFinalSignatureSessionStatus(SESSION_ID, hashToSign);
+
+            assertThat(sessionStatus.getResult(), is("OK"));
+            assertThat(registeredWhilePolling.get().getSessionId(), is(SESSION_ID));
+            assertThat(registeredWhilePolling.get().getPath(), is(MidSessionStatusPoller.SIGNATURE_SESSION_PATH));
+            assertThat(registeredWhilePolling.get().getHashToSign().getHashInBase64(), is(hashToSign.getHashInBase64()));
+            assertThat(registeredWhilePolling.get().getRelyingPartyName(), is(DEMO_RELYING_PARTY_NAME));
+            assertThat(registry.size(), is(0));
+        }
+        finally {
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void fetchFinalAuthenticationSessionStatus_withPendingSessionRegistry_shouldKeepSessionAfterTransportError() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        try (MidPendingSessionRegistry registry = MidPendingSessionRegistry.newBuilder()
+                .withJournalFile(folder.getRoot().toPath().resolve("pending-sessions.journal"))
+                .build()) {
+            when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString()))
+                .thenThrow(new MidInternalErrorException("Unknown error when connecting to Host"));
+            MidClient client = createClientWithRegistry(registry);
+
+            try {
+                client.fetchFinalAuthenticationSessionStatus(SESSION_ID, MidAuthenticationHashToSign.generateRandomHashOfDefaultType());
+                fail("MidInternalErrorException expected");
+            } catch (MidInternalErrorException expected) {
+            }
+
+            assertThat(registry.size(), is(1));
+            assertThat(registry.getPendingSessions().get(0).getSessionId(), is(SESSION_ID));
+        }
+        finally {
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void fetchFinalAuthenticationSessionStatus_withPendingSessionRegistry_shouldRemoveSessionAfterFinalError() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        try (MidPendingSessionRegistry registry = MidPendingSessionRegistry.newBuilder()
+                .withJournalFile(folder.getRoot().toPath().resolve("pending-sessions.journal"))
+                .build()) {
+            when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenReturn(createNotMIDClientStatus());
+            MidClient client = createClientWithRegistry(registry);
+
+            try {
+                client.fetchFinalAuthenticationSessionStatus(SESSION_ID, MidAuthenticationHashToSign.generateRandomHashOfDefaultType());
+                fail("MidNotMidClientException expected");
+            } catch (MidNotMidClientException expected) {
+            }
+
+            assertThat(registry.size(), is(0));
+        }
+        finally {
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void fetchFinalAuthenticationSessionStatus_withPendingSessionRegistry_shouldStopAtDeadlineOfSession() throws Exception {
+        TemporaryFolder folder = new TemporaryFolder();
+        folder.create();
+        try (MidPendingSessionRegistry registry = MidPendingSessionRegistry.newBuilder()
+                .withJournalFile(folder.getRoot().toPath().resolve("pending-sessions.journal"))
+                .withSessionTimeout(Duration.ofSeconds(1))
+                .build()) {
+            when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenReturn(createRunningSessionStatus());
+            MidClient client = MidClient.newBuilder()
+                .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+                .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+                .withHostUrl(LOCALHOST_URL)
+                .withMobileIdConnector(connector)
+                .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+                .withLongPollingTimeoutSeconds(1)
+                .withPendingSessionRegistry(registry)
+                .build();
+
+            long start = System.currentTimeMillis();
+            try {
+                client.fetchFinalAuthenticationSessionStatus(SESSION_ID, MidAuthenticationHashToSign.generateRandomHashOfDefaultType());
+                fail("MidPollingDeadlineExceededException expected");
+            }
+            catch (MidPollingDeadlineExceededException expected) {
+                assertThat(System.currentTimeMillis() - start < 3000L, is(true));
+            }
+        }
+        finally {
+            folder.delete();
+        }
+    }
+
+    @Test
+    public void asyncSessionStatusPoller_withCaches_shouldPollAsynchronously() throws Exception {
+        MidRestConnector restConnector = mock(MidRestConnector.class);
+        when(restConnector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(createSignedSessionStatus()));
+        MidClient client = MidClient.newBuilder()
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withHostUrl(LOCALHOST_URL)
+            .withMobileIdConnector(restConnector)
+            .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+            .withCertificateCache(MidCertificateCache.newBuilder().build())
+            .withNotMidClientCache(MidNotMidClientCache.newBuilder().build())
+            .build();
+
+        MidSessionStatus sessionStatus = client.getAsyncSessionStatusPoller()
+            .fetchFinalAuthenticationSessionStatus(SESSION_ID)
+            .get(5, TimeUnit.SECONDS);
+
+        assertThat(client.getMobileIdConnector(), is(instanceOf(MidAsyncConnector.class)));
+        assertThat(sessionStatus.getResult(), is("OK"));
+        verify(restConnector).getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString());
+        verify(restConnector, never()).getSessionStatus(any(MidSessionStatusRequest.class), anyString());
+    }
+
+    @Test
+    public void close_shouldShutDownExecutorAndConnectorCreatedByClient() {
+        MidClient client = MidClient.newBuilder()
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withHostUrl(LOCALHOST_URL)
+            .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+            .build();
+
+        client.close();
+
+        assertThat(((ExecutorService) client.getExecutor()).isShutdown(), is(true));
+        try {
+            client.getMobileIdConnector().getSessionStatus(new MidSessionStatusRequest(SESSION_ID), MidSessionStatusPoller.SIGNATURE_SESSION_PATH);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void close_shouldLeaveGivenExecutorAndConnectorOpen() throws Exception {
+        when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenReturn(createSignedSessionStatus());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MidClient client = createClient(executor);
+
+            client.close();
+
+            assertThat(executor.isShutdown(), is(false));
+            assertThat(client.getMobileIdConnector().getSessionStatus(new MidSessionStatusRequest(SESSION_ID), MidSessionStatusPoller.SIGNATURE_SESSION_PATH).getState(),
+                is("COMPLETE"));
+            try {
+                client.getAsyncSessionStatusPoller().fetchFinalSignatureSessionStatus(SESSION_ID).get(5, TimeUnit.SECONDS);
+                fail("MidInternalErrorException expected");
+            } catch (ExecutionException expected) {
+                assertThat(expected.getCause(), is(instanceOf(MidInternalErrorException.class)));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    private MidClient createClientWithRegistry(MidPendingSessionRegistry registry) {
+        return MidClient.newBuilder()
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withHostUrl(LOCALHOST_URL)
+            .withMobileIdConnector(connector)
+            .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+            .withPendingSessionRegistry(registry)
+            .build();
+    }
+
+    private MidClient createClient(Executor executor) {
+        return MidClient.newBuilder()
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withHostUrl(LOCALHOST_URL)
+            .withMobileIdConnector(connector)
+            .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+            .withLongPollingTimeoutSeconds(1)
+            .withExecutor(executor)
+            .build();
+    }
+
+    private static MidSessionStatus createSignedSessionStatus() {
+        MidSessionSignature sessionSignature = new MidSessionSignature();
+        sessionSignature.setValue("c2lnbmF0dXJl");
+        sessionSignature.setAlgorithm("SHA256WithECEncryption");
+        MidSessionStatus sessionStatus = new MidSessionStatus();
+        sessionStatus.setState("COMPLETE");
+        sessionStatus.setResult("OK");
+        sessionStatus.setSignature(sessionSignature);
+        sessionStatus.setCert(AUTH_CERTIFICATE_EE);
+        return sessionStatus;
+    }
+}
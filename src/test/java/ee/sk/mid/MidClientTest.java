@@ -4,7 +4,10 @@ import static ee.sk.mid.mock.TestData.DEMO_HOST_URL;
 import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_UUID;
 import static ee.sk.mid.mock.TestData.UNKNOWN_RELYING_PARTY_NAME;
 
+import java.time.Duration;
+
 import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.MidConnectionPoolConfig;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -51,4 +54,20 @@ public class MidClientTest {
                 .withPollingSleepTimeoutSeconds(-100)
                 .build();
     }
+
+    @Test
+    public void buildClient_longPollingTimeoutNotShorterThanReadTimeout_shouldThrowException() {
+        expectedEx.expect( MidMissingOrInvalidParameterException.class);
+        expectedEx.expectMessage("longPollingTimeout must be shorter than the session status read timeout");
+
+        MidClient.newBuilder()
+                .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+                .withRelyingPartyName(UNKNOWN_RELYING_PARTY_NAME)
+                .withHostUrl(DEMO_HOST_URL)
+                .withConnectionPoolConfig(MidConnectionPoolConfig.newBuilder()
+                    .withSessionStatusReadTimeout(Duration.ofSeconds(30))
+                    .build())
+                .withLongPollingTimeout(Duration.ofSeconds(30))
+                .build();
+    }
 }
@@ -0,0 +1,173 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.AuthenticationRequestBuilderTest.SERVER_SSL_CERTIFICATE;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidSignatureRequest;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_NAME;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_UUID;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static ee.sk.mid.mock.TestData.VALID_NAT_IDENTITY;
+import static ee.sk.mid.mock.TestData.VALID_PHONE;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.MidConnector;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidNotMidClientCacheTest {
+
+    private MidConnector connector;
+    private MidClient client;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidConnector.class);
+        client = MidClient.newBuilder()
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withHostUrl(LOCALHOST_URL)
+            .withMobileIdConnector(connector)
+            .withTrustedCertificates(SERVER_SSL_CERTIFICATE)
+            .withNotMidClientCache(MidNotMidClientCache.newBuilder().build())
+            .build();
+    }
+
+    @Test
+    public void isNotMidClient_afterTimeToLive_shouldReturnFalse() throws InterruptedException {
+        MidNotMidClientCache cache = MidNotMidClientCache.newBuilder()
+            .withTimeToLive(Duration.ofMillis(50))
+            .build();
+        cache.put(VALID_PHONE, VALID_NAT_IDENTITY);
+        assertThat(cache.isNotMidClient(VALID_PHONE, VALID_NAT_IDENTITY), is(true));
+
+        Thread.sleep(100);
+
+        assertThat(cache.isNotMidClient(VALID_PHONE, VALID_NAT_IDENTITY), is(false));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void put_whenFull_shouldEvictOldest() {
+        MidNotMidClientCache cache = MidNotMidClientCache.newBuilder()
+            .withMaxSize(2)
+            .build();
+        cache.put(VALID_PHONE, "1");
+        cache.put(VALID_PHONE, "2");
+        cache.put(VALID_PHONE, "3");
+
+        assertThat(cache.size(), is(2));
+        assertThat(cache.isNotMidClient(VALID_PHONE, "1"), is(false));
+        assertThat(cache.isNotMidClient(VALID_PHONE, "3"), is(true));
+    }
+
+    @Test
+    public void authenticate_afterCertificateNotFound_shouldFailWithoutCallingService() {
+        MidCertificateChoiceResponse certificateResponse = new MidCertificateChoiceResponse();
+        certificateResponse.setResult("NOT_FOUND");
+        when(connector.getCertificate(any(MidCertificateRequest.class))).thenReturn(certificateResponse);
+
+        client.getMobileIdConnector().getCertificate(MidCertificateRequest.newBuilder()
+            .withPhoneNumber(VALID_PHONE)
+            .withNationalIdentityNumber(VALID_NAT_IDENTITY)
+            .build());
+
+        try {
+            client.getMobileIdConnector().authenticate(createValidAuthenticationRequest());
+            fail("MidNotMidClientException expected");
+        }
+        catch (MidNotMidClientException expected) {
+        }
+        verify(connector, never()).authenticate(any(MidAuthenticationRequest.class));
+        assertThat(client.getNotMidClientCache().getHits(), is(1L));
+    }
+
+    @Test
+    public void sign_afterAuthenticationSessionEndedWithNotMidClient_shouldFailWithoutCallingService() {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenReturn(new MidAuthenticationResponse("sessionId"));
+        MidSessionStatus sessionStatus = new MidSessionStatus();
+        sessionStatus.setState("COMPLETE");
+        sessionStatus.setResult("NOT_MID_CLIENT");
+        when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenReturn(sessionStatus);
+
+        String sessionId = client.getMobileIdConnector().authenticate(createValidAuthenticationRequest()).getSessionID();
+        try {
+            client.getSessionStatusPoller().fetchFinalAuthenticationSessionStatus(sessionId);
+            fail("MidNotMidClientException expected");
+        }
+        catch (MidNotMidClientException expected) {
+        }
+
+        try {
+            client.getMobileIdConnector().sign(createValidSignatureRequest());
+            fail("MidNotMidClientException expected");
+        }
+        catch (MidNotMidClientException expected) {
+        }
+        verify(connector, times(1)).authenticate(any(MidAuthenticationRequest.class));
+        verify(connector, never()).sign(any(MidSignatureRequest.class));
+    }
+
+    @Test
+    public void authenticate_afterInvalidate_shouldCallService() {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenReturn(new MidAuthenticationResponse("sessionId"));
+        client.getNotMidClientCache().put(VALID_PHONE, VALID_NAT_IDENTITY);
+
+        client.getNotMidClientCache().invalidate(VALID_PHONE, VALID_NAT_IDENTITY);
+
+        assertThat(client.getMobileIdConnector().authenticate(createValidAuthenticationRequest()).getSessionID(), is("sessionId"));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withZeroTimeToLive_shouldThrowException() {
+        MidNotMidClientCache.newBuilder()
+            .withTimeToLive(Duration.ZERO)
+            .build();
+    }
+}
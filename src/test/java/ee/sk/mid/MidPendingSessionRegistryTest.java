@@ -0,0 +1,239 @@
+package ee.sk.mid;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_NAME;
+import static ee.sk.mid.mock.TestData.DEMO_RELYING_PARTY_UUID;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
+import ee.sk.mid.mock.MobileIdConnectorStub;
+import ee.sk.mid.rest.MidAsyncSessionStatusPoller;
+import ee.sk.mid.rest.MidSessionStatusPoller;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MidPendingSessionRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path journalFile;
+    private MidPendingSessionRegistry registry;
+
+    @Before
+    public void setUp() {
+        journalFile = folder.getRoot().toPath().resolve("pending-sessions.journal");
+    }
+
+    @After
+    public void tearDown() {
+        if (registry != null) {
+            registry.close();
+        }
+    }
+
+    @Test
+    public void register_shouldRestoreSessionAfterRestart() throws Exception {
+        registry = createRegistry(1000);
+        MidAuthenticationHashToSign authenticationHash = MidAuthenticationHashToSign.generateRandomHashOfDefaultType();
+        Instant deadline = Instant.now().plusSeconds(60);
+        registry.register(MidPendingSession.newBuilder()
+            .withSessionId(SESSION_ID)
+            .withPath(MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH)
+            .withHashToSign(authenticationHash)
+            .withRelyingPartyUUID(DEMO_RELYING_PARTY_UUID)
+            .withRelyingPartyName(DEMO_RELYING_PARTY_NAME)
+            .withDeadline(deadline)
+            .build()).get(5, TimeUnit.SECONDS);
+
+        MidPendingSession restored = restart().getPendingSessions().get(0);
+
+        assertThat(restored.getSessionId(), is(SESSION_ID));
+        assertThat(restored.getPath(), is(MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH));
+        assertThat(restored.getHashToSign(), is(instanceOf(MidAuthenticationHashToSign.class)));
+        assertThat(restored.getHashToSign().getHashInBase64(), is(authenticationHash.getHashInBase64()));
+        assertThat(restored.getHashToSign().getHashType(), is(authenticationHash.getHashType()));
+        assertThat(restored.getRelyingPartyUUID(), is(DEMO_RELYING_PARTY_UUID));
+        assertThat(restored.getRelyingPartyName(), is(DEMO_RELYING_PARTY_NAME));
+        assertThat(restored.getDeadline(), is(Instant.ofEpochMilli(deadline.toEpochMilli())));
+    }
+
+    @Test
+    public void complete_shouldRemoveSessionAndCompactJournal() throws Exception {
+        registry = createRegistry(10);
+        for (int i = 0; i < 20; i++) {
+            registry.register(createSession("session-" + i, Instant.now().plusSeconds(60))).get(5, TimeUnit.SECONDS);
+            if (i != 7) {
+                registry.complete("session-" + i);
+            }
+        }
+        registry.register(createSession("session-last", Instant.now().plusSeconds(60))).get(5, TimeUnit.SECONDS);
+
+        assertThat(registry.getCompactions() > 0, is(true));
+        assertThat(Files.readAllLines(journalFile, UTF_8).size(), lessThan(20));
+        List<MidPendingSession> restored = restart().getPendingSessions();
+        assertThat(restored.size(), is(2));
+        assertThat(restored.get(0).getSessionId(), is("session-7"));
+        assertThat(restored.get(1).getSessionId(), is("session-last"));
+    }
+
+    @Test
+    public void build_withIncompleteLastRecord_shouldSkipIt() throws Exception {
+        registry = createRegistry(1000);
+        registry.register(createSession(SESSION_ID, Instant.now().plusSeconds(60))).get(5, TimeUnit.SECONDS);
+        registry.close();
+        Files.write(journalFile, "{\"op\":\"add\",\"sessionId\":\"broken".getBytes(UTF_8), StandardOpenOption.APPEND);
+
+        List<MidPendingSession> restored = restart().getPendingSessions();
+
+        assertThat(restored.size(), is(1));
+        assertThat(restored.get(0).getSessionId(), is(SESSION_ID));
+    }
+
+    @Test
+    public void register_withManyConcurrentSessions_shouldCommitThemInGroups() throws Exception {
+        registry = createRegistry(1000000);
+        int sessions = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < sessions / 4; i++) {
+                    CompletableFuture<Void> future = registry.register(createSession(thread + "-" + i, Instant.now().plusSeconds(60)));
+                    synchronized (written) {
+                        written.add(future);
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        CompletableFuture.allOf(written.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(registry.size(), is(sessions));
+        assertThat(registry.getCommits(), lessThan((long) sessions));
+        assertThat(restart().size(), is(sessions));
+    }
+
+    @Test
+    public void resume_shouldPollUnexpiredSessionsAndDropExpiredOnes() throws Exception {
+        registry = createRegistry(1000);
+        registry.register(createSession(SESSION_ID, Instant.now().plusSeconds(60))).get(5, TimeUnit.SECONDS);
+        registry.register(createSession("expired", Instant.now().minusSeconds(1))).get(5, TimeUnit.SECONDS);
+        restart();
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        Map<String, MidSessionStatus> statuses = new ConcurrentHashMap<>();
+        Map<String, Throwable> errors = new ConcurrentHashMap<>();
+        CountDownLatch finished = new CountDownLatch(2);
+
+        try (MidAsyncSessionStatusPoller poller = MidAsyncSessionStatusPoller.newBuilder()
+                .withConnector(connector)
+                .withLongPollingTimeoutSeconds(1)
+                .build()) {
+            int resumed = registry.resume(poller, (session, sessionStatus, error) -> {
+                if (sessionStatus != null) {
+                    statuses.put(session.getSessionId(), sessionStatus);
+                }
+                if (error != null) {
+                    errors.put(session.getSessionId(), error);
+                }
+                finished.countDown();
+            });
+
+            assertThat(resumed, is(1));
+            assertThat(finished.await(5, TimeUnit.SECONDS), is(true));
+        }
+
+        assertThat(statuses.get(SESSION_ID).getState(), is("COMPLETE"));
+        assertThat(errors.get(SESSION_ID), is(nullValue()));
+        assertThat(errors.get("expired"), is(instanceOf(MidPollingDeadlineExceededException.class)));
+        assertThat(connector.getSessionIdUsed(), is(SESSION_ID));
+        assertThat(restart().size(), is(0));
+    }
+
+    private MidPendingSessionRegistry createRegistry(int compactionThreshold) {
+        return MidPendingSessionRegistry.newBuilder()
+            .withJournalFile(journalFile)
+            .withCompactionThreshold(compactionThreshold)
+            .build();
+    }
+
+    private MidPendingSessionRegistry restart() {
+        registry.close();
+        registry = createRegistry(1000);
+        return registry;
+    }
+
+    private static MidPendingSession createSession(String sessionId, Instant deadline) {
+        return MidPendingSession.newBuilder()
+            .withSessionId(sessionId)
+            .withPath(MidSessionStatusPoller.SIGNATURE_SESSION_PATH)
+            .withHashToSign(MidHashToSign.newBuilder()
+                .withHashInBase64("AE7S1QxYjqtVv+Tgukv2bMMi9gDCbc9ca2vy/iIG6ug=")
+                .withHashType(MidHashType.SHA256)
+                .build())
+            .withDeadline(deadline)
+            .build();
+    }
+}
@@ -0,0 +1,160 @@
+package ee.sk.mid;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidTrustUtilTest {
+
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private KeyStore serverKeyStore;
+    private SSLServerSocket serverSocket;
+    private Thread serverThread;
+
+    @Before
+    public void setUp() throws Exception {
+        serverKeyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream is = MidTrustUtilTest.class.getResourceAsStream("/localhost_tls_server.p12")) {
+            serverKeyStore.load(is, PASSWORD);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
+        keyManagerFactory.init(serverKeyStore, PASSWORD);
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        serverSocket = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0);
+        serverThread = new Thread(this::acceptConnections);
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        serverThread.join(5000);
+    }
+
+    @Test
+    public void createSslContext_shouldPreferTls13() throws Exception {
+        SSLContext sslContext = MidTrustUtil.createSslContext(createTrustStore());
+
+        try (SSLSocket socket = connect(sslContext.getSocketFactory())) {
+            assertThat(socket.getSession().getProtocol(), is("TLSv1.3"));
+        }
+    }
+
+    @Test
+    public void createSslContext_withSessionCacheSettings_shouldApplyToClientSessionContext() throws Exception {
+        SSLContext sslContext = MidTrustUtil.createSslContext(createTrustStore(), 10, 600);
+
+        assertThat(sslContext.getClientSessionContext().getSessionCacheSize(), is(10));
+        assertThat(sslContext.getClientSessionContext().getSessionTimeout(), is(600));
+    }
+
+    @Test
+    public void instrumentedSslContext_shouldCountFullAndResumedHandshakes() throws Exception {
+        MidTlsHandshakeStatistics statistics = new MidTlsHandshakeStatistics();
+        SSLContext sslContext = statistics.instrument(MidTrustUtil.createSslContext(createTrustStore()));
+
+        for (int i = 0; i < 3; i++) {
+            connect(sslContext.getSocketFactory()).close();
+        }
+        waitForHandshakeCount(statistics, 3);
+
+        assertThat(statistics.getFullHandshakes(), is(1L));
+        assertThat(statistics.getResumedHandshakes(), is(2L));
+    }
+
+    @Test
+    public void midClient_withTrustSslContext_shouldUseGivenContextAsItIs() throws Exception {
+        SSLContext sslContext = MidTrustUtil.createSslContext(createTrustStore(), 7, 100);
+
+        MidClient client = MidClient.newBuilder()
+            .withHostUrl("https://localhost:" + serverSocket.getLocalPort())
+            .withTrustSslContext(sslContext)
+            .build();
+
+        assertThat(client.getTrustSslContext() == sslContext, is(true));
+        assertThat(sslContext.getClientSessionContext().getSessionCacheSize(), is(7));
+        assertThat(sslContext.getClientSessionContext().getSessionTimeout(), is(100));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void midClient_withTrustSslContextAndTlsSessionSettings_shouldThrowException() throws Exception {
+        MidClient.newBuilder()
+            .withHostUrl("https://localhost:" + serverSocket.getLocalPort())
+            .withTrustSslContext(MidTrustUtil.createSslContext(createTrustStore()))
+            .withTlsSessionCacheSize(5)
+            .build();
+    }
+
+    @Test
+    public void midClient_shouldCreateTrustSslContextOnce() throws Exception {
+        MidClient client = MidClient.newBuilder()
+            .withHostUrl("https://localhost:" + serverSocket.getLocalPort())
+            .withTrustStore(createTrustStore())
+            .withTlsSessionCacheSize(5)
+            .withTlsSessionTimeoutSeconds(60)
+            .build();
+
+        assertThat(client.getTrustSslContext() == client.getTrustSslContext(), is(true));
+        assertThat(client.getTrustSslContext().getClientSessionContext().getSessionCacheSize(), is(5));
+
+        connect(client.getTrustSslContext().getSocketFactory()).close();
+        connect(client.getTrustSslContext().getSocketFactory()).close();
+        waitForHandshakeCount(client.getTlsHandshakeStatistics(), 2);
+
+        assertThat(client.getTlsHandshakeStatistics().getResumedHandshakes(), is(1L));
+    }
+
+    private KeyStore createTrustStore() throws Exception {
+        KeyStore trustStore = KeyStore.getInstance("JKS");
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("localhost", serverKeyStore.getCertificate("localhost"));
+        return trustStore;
+    }
+
+    private SSLSocket connect(SSLSocketFactory socketFactory) throws IOException {
+        SSLSocket socket = (SSLSocket) socketFactory.createSocket("localhost", serverSocket.getLocalPort());
+        socket.startHandshake();
+        // reading lets the client process the session ticket sent after the handshake
+        socket.getInputStream().read();
+        return socket;
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try (SSLSocket socket = (SSLSocket) serverSocket.accept()) {
+                socket.startHandshake();
+                socket.getOutputStream().write(1);
+                socket.getOutputStream().flush();
+            }
+            catch (IOException e) {
+                // socket closed or client went away
+            }
+        }
+    }
+
+    private static void waitForHandshakeCount(MidTlsHandshakeStatistics statistics, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (statistics.getFullHandshakes() + statistics.getResumedHandshakes() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+}
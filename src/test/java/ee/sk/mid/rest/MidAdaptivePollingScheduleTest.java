@@ -0,0 +1,165 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.assertCompleteSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.mock.MobileIdConnectorStub;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.Test;
+
+public class MidAdaptivePollingScheduleTest {
+
+    private static final String SIGNATURE_PATH = MidSessionStatusPoller.SIGNATURE_SESSION_PATH;
+    private static final String AUTHENTICATION_PATH = MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH;
+
+    @Test
+    public void withoutEnoughSamples_shouldUseFixedInterval() {
+        MidAdaptivePollingSchedule schedule = MidAdaptivePollingSchedule.newBuilder().build();
+
+        assertThat(schedule.getFirstPollDelayMillis(SIGNATURE_PATH), is(0L));
+        assertThat(schedule.getNextPollDelayMillis(SIGNATURE_PATH, 1000), is(3000L));
+    }
+
+    @Test
+    public void afterSamples_shouldDelayFirstPollAndPollDenselyInCompletionWindow() {
+        MidAdaptivePollingSchedule schedule = MidAdaptivePollingSchedule.newBuilder()
+            .withMinSamples(10)
+            .build();
+        for (int i = 0; i < 10; i++) {
+            schedule.recordCompletion(SIGNATURE_PATH, 7000 + i * 1000, 7000 + i * 1000, 1);
+        }
+
+        assertThat(schedule.getFirstPollDelayMillis(SIGNATURE_PATH), is(7000L));
+        assertThat(schedule.getNextPollDelayMillis(SIGNATURE_PATH, 8000), is(500L));
+        assertThat(schedule.getNextPollDelayMillis(SIGNATURE_PATH, 16000), is(3000L));
+        assertThat(schedule.getFirstPollDelayMillis(AUTHENTICATION_PATH), is(0L));
+    }
+
+    @Test
+    public void recordCompletion_shouldEstimateSavingsAgainstFixedInterval() {
+        MidAdaptivePollingSchedule schedule = MidAdaptivePollingSchedule.newBuilder().build();
+
+        schedule.recordCompletion(SIGNATURE_PATH, 8000, 8200, 2);
+
+        assertThat(schedule.getCompletedSessions(), is(1L));
+        assertThat(schedule.getPolls(), is(2L));
+        assertThat(schedule.getPollsSaved(), is(2L));
+        assertThat(schedule.getLatencySavedMillis(), is(800L));
+    }
+
+    @Test
+    public void poller_withAdaptiveSchedule_shouldWaitBeforeFirstPoll() {
+        MidAdaptivePollingSchedule schedule = MidAdaptivePollingSchedule.newBuilder()
+            .withMinSamples(1)
+            .withDenseInterval(Duration.ofMillis(100))
+            .build();
+        schedule.recordCompletion(SIGNATURE_PATH, 500, 500, 1);
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        MidSessionStatusPoller poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withAdaptivePollingSchedule(schedule)
+            .build();
+
+        long startTime = System.currentTimeMillis();
+        MidSessionStatus sessionStatus = poller.fetchFinalSessionStatus(SESSION_ID, SIGNATURE_PATH);
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertCompleteSessionStatus(sessionStatus);
+        assertThat(connector.getResponseNumber(), is(2));
+        assertThat(duration, is(greaterThanOrEqualTo(500L)));
+        assertThat(duration, is(lessThan(3000L)));
+        assertThat(schedule.getCompletedSessions(), is(2L));
+    }
+
+    @Test
+    public void poller_withLongPolling_shouldRecordCompletionWhenLongPollReturned() {
+        MidAdaptivePollingSchedule schedule = MidAdaptivePollingSchedule.newBuilder()
+            .withMinSamples(1)
+            .build();
+        MidConnector connector = mock(MidConnector.class);
+        when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(1100);
+            return createSuccessfulSessionStatus();
+        });
+        MidSessionStatusPoller poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeoutSeconds(5)
+            .withAdaptivePollingSchedule(schedule)
+            .build();
+
+        poller.fetchFinalSessionStatus(SESSION_ID, SIGNATURE_PATH);
+
+        assertThat(schedule.getCompletedSessions(), is(1L));
+        assertThat(schedule.getFirstPollDelayMillis(SIGNATURE_PATH), is(1000L));
+    }
+
+    @Test
+    public void poller_withoutRunningResponse_shouldTakeFirstPollAsLowerBound() {
+        MidAdaptivePollingSchedule schedule = MidAdaptivePollingSchedule.newBuilder()
+            .withMinSamples(1)
+            .build();
+        schedule.recordCompletion(SIGNATURE_PATH, 1000, 1000, 1);
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        MidSessionStatusPoller poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withAdaptivePollingSchedule(schedule)
+            .build();
+
+        poller.fetchFinalSessionStatus(SESSION_ID, SIGNATURE_PATH);
+
+        assertThat(schedule.getCompletedSessions(), is(2L));
+        assertThat(schedule.getFirstPollDelayMillis(SIGNATURE_PATH), is(1000L));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withFirstPollPercentileAboveDensePollingPercentile_shouldThrowException() {
+        MidAdaptivePollingSchedule.newBuilder()
+            .withFirstPollPercentile(95)
+            .withDensePollingPercentile(90)
+            .build();
+    }
+}
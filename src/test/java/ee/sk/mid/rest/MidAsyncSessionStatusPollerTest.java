@@ -0,0 +1,235 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.assertCompleteSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createNotMIDClientStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static ee.sk.mid.mock.TestData.AUTHENTICATION_SESSION_PATH;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
+import ee.sk.mid.mock.MobileIdConnectorStub;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.After;
+import org.junit.Test;
+
+public class MidAsyncSessionStatusPollerTest {
+
+    private MidAsyncSessionStatusPoller poller;
+
+    @After
+    public void tearDown() {
+        if (poller != null) {
+            poller.close();
+        }
+    }
+
+    @Test
+    public void fetchFinalSessionStatus_withBlockingConnector_shouldPollUntilComplete() throws Exception {
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        poller = createPoller(connector);
+
+        MidSessionStatus sessionStatus = poller.fetchFinalSessionStatus(SESSION_ID, AUTHENTICATION_SESSION_PATH).get(5, TimeUnit.SECONDS);
+
+        assertThat(connector.getSessionIdUsed(), is(SESSION_ID));
+        assertThat(connector.getResponseNumber(), is(3));
+        assertCompleteSessionStatus(sessionStatus);
+    }
+
+    @Test
+    public void fetchFinalSessionStatus_whenNotMidClient_shouldCompleteExceptionally() throws Exception {
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createNotMIDClientStatus());
+        poller = createPoller(connector);
+
+        try {
+            poller.fetchFinalAuthenticationSessionStatus(SESSION_ID).get(5, TimeUnit.SECONDS);
+            fail("MidNotMidClientException expected");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(MidNotMidClientException.class)));
+        }
+        assertThat(poller.getPendingSessions(), is(0));
+    }
+
+    @Test
+    public void fetchFinalSessionStatus_withAsyncConnector_shouldPollThousandsOfSessionsWithTwoThreads() throws Exception {
+        MidRestConnector connector = mock(MidRestConnector.class);
+        ConcurrentMap<String, AtomicInteger> pollCounts = new ConcurrentHashMap<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            MidSessionStatusRequest request = invocation.getArgument(0);
+            int polls = pollCounts.computeIfAbsent(request.getSessionID(), sessionId -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.completedFuture(polls < 3 ? createRunningSessionStatus() : createSuccessfulSessionStatus());
+        });
+        poller = createPoller(connector);
+
+        List<CompletableFuture<MidSessionStatus>> results = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            results.add(poller.fetchFinalAuthenticationSessionStatus("session-" + i));
+        }
+
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        assertThat(pollCounts.size(), is(10000));
+        assertThat(poller.getPendingSessions(), is(0));
+    }
+
+    @Test
+    public void cancel_shouldStopPolling() throws Exception {
+        MidRestConnector connector = mock(MidRestConnector.class);
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(createRunningSessionStatus()));
+        poller = MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeoutSeconds(1)
+            .build();
+
+        CompletableFuture<MidSessionStatus> result = poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+        Thread.sleep(200);
+        result.cancel(false);
+        Thread.sleep(1500);
+
+        verify(connector, times(1)).getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString());
+        assertThat(poller.getPendingSessions(), is(0));
+        assertThat(poller.getCancelledSessions(), is(1L));
+    }
+
+    @Test
+    public void cancel_shouldCancelRequestInFlight() throws Exception {
+        MidRestConnector connector = mock(MidRestConnector.class);
+        CompletableFuture<MidSessionStatus> response = new CompletableFuture<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenReturn(response);
+        poller = createPoller(connector);
+
+        CompletableFuture<MidSessionStatus> result = poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+        Thread.sleep(200);
+        result.cancel(false);
+
+        assertThat(response.isCancelled(), is(true));
+        assertThat(poller.getPendingSessions(), is(0));
+    }
+
+    @Test
+    public void deadline_shouldCompleteExceptionally() throws Exception {
+        MidRestConnector connector = mock(MidRestConnector.class);
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString()))
+            .thenAnswer(invocation -> CompletableFuture.completedFuture(createRunningSessionStatus()));
+        poller = MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeoutSeconds(5)
+            .build();
+
+        long startTime = System.currentTimeMillis();
+        try {
+            poller.fetchFinalSignatureSessionStatus(SESSION_ID, Instant.now().plusMillis(500)).get(5, TimeUnit.SECONDS);
+            fail("MidPollingDeadlineExceededException expected");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(MidPollingDeadlineExceededException.class)));
+        }
+
+        assertThat(System.currentTimeMillis() - startTime < 2000L, is(true));
+        verify(connector, times(1)).getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString());
+        assertThat(poller.getExpiredSessions(), is(1L));
+        assertThat(poller.getPendingSessions(), is(0));
+    }
+
+    @Test
+    public void sessionStatusListener_shouldReceiveEveryStatusAndFinalResult() throws Exception {
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createNotMIDClientStatus());
+        List<MidSessionStatusEvent> events = new CopyOnWriteArrayList<>();
+        poller = MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeoutSeconds(1)
+            .withSessionStatusListener(events::add)
+            .build();
+
+        try {
+            poller.fetchFinalAuthenticationSessionStatus(SESSION_ID).get(5, TimeUnit.SECONDS);
+            fail("MidNotMidClientException expected");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(MidNotMidClientException.class)));
+        }
+
+        assertThat(events.size(), is(2));
+        assertThat(events.get(0).getSessionStatus().getState(), is("RUNNING"));
+        assertThat(events.get(0).isFinal(), is(false));
+        assertThat(events.get(1).getSessionStatus().getResult(), is("NOT_MID_CLIENT"));
+        assertThat(events.get(1).getPolls(), is(2));
+        assertThat(events.get(1).isFinal(), is(true));
+        assertThat(events.get(1).getError(), is(instanceOf(MidNotMidClientException.class)));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withLongPollingTimeoutUnderOneSecond_shouldThrowException() {
+        MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(new MobileIdConnectorStub())
+            .withLongPollingTimeout(Duration.ofNanos(1))
+            .build();
+    }
+
+    private static MidAsyncSessionStatusPoller createPoller(MidConnector connector) {
+        return MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeoutSeconds(1)
+            .withThreadCount(2)
+            .build();
+    }
+}
@@ -0,0 +1,289 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidSignatureRequest;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.MidCircuitBreakerConnector.State;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.request.MidSignatureRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidCircuitBreakerConnectorTest {
+
+    private MidConnector connector;
+    private List<String> stateChanges;
+    private MidCircuitBreakerConnector circuitBreaker;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidConnector.class);
+        stateChanges = new ArrayList<>();
+        circuitBreaker = MidCircuitBreakerConnector.newBuilder()
+            .withConnector(connector)
+            .withSlidingWindowSize(4)
+            .withMinimumNumberOfCalls(4)
+            .withFailureRateThreshold(50)
+            .withWaitDurationInOpenState(Duration.ofMillis(200))
+            .withPermittedCallsInHalfOpenState(2)
+            .withStateChangeListener((from, to) -> stateChanges.add(from + "->" + to))
+            .build();
+    }
+
+    @Test
+    public void whenFailureRateReached_shouldOpenAndFailFast() {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidInternalErrorException("MID internal error"));
+
+        for (int i = 0; i < 4; i++) {
+            authenticateIgnoringErrors();
+        }
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+
+        try {
+            circuitBreaker.authenticate(createValidAuthenticationRequest());
+            fail("Expected MidServiceUnavailableException");
+        }
+        catch (MidServiceUnavailableException expected) {
+            verify(connector, times(4)).authenticate(any(MidAuthenticationRequest.class));
+            assertThat(circuitBreaker.getRejectedCalls(), is(1L));
+            assertThat(stateChanges, contains("CLOSED->OPEN"));
+        }
+    }
+
+    @Test
+    public void belowMinimumNumberOfCalls_shouldStayClosed() {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidInternalErrorException("MID internal error"));
+
+        for (int i = 0; i < 3; i++) {
+            authenticateIgnoringErrors();
+        }
+
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+    }
+
+    @Test
+    public void clientErrors_shouldNotOpen() {
+        when(connector.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenThrow(new MidSessionNotFoundException());
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidMissingOrInvalidParameterException("invalid phone number"));
+
+        for (int i = 0; i < 4; i++) {
+            authenticateIgnoringErrors();
+            try {
+                circuitBreaker.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId"));
+            }
+            catch (MidSessionNotFoundException ignored) {
+            }
+        }
+
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        assertThat(circuitBreaker.getFailureRate(), is(0f));
+    }
+
+    @Test
+    public void afterWaitDuration_successfulTrialCalls_shouldClose() throws InterruptedException {
+        when(connector.authenticate(any(MidAuthenticationRequest.class)))
+            .thenThrow(new MidInternalErrorException("MID internal error"))
+            .thenThrow(new MidInternalErrorException("MID internal error"))
+            .thenThrow(new MidInternalErrorException("MID internal error"))
+            .thenThrow(new MidInternalErrorException("MID internal error"))
+            .thenReturn(new MidAuthenticationResponse("sessionId"));
+        for (int i = 0; i < 4; i++) {
+            authenticateIgnoringErrors();
+        }
+
+        Thread.sleep(250);
+        circuitBreaker.authenticate(createValidAuthenticationRequest());
+        assertThat(circuitBreaker.getState(), is(State.HALF_OPEN));
+        circuitBreaker.authenticate(createValidAuthenticationRequest());
+
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        assertThat(stateChanges, contains("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"));
+    }
+
+    @Test
+    public void afterWaitDuration_failedTrialCalls_shouldOpenAgain() throws InterruptedException {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidInternalErrorException("MID internal error"));
+        for (int i = 0; i < 4; i++) {
+            authenticateIgnoringErrors();
+        }
+
+        Thread.sleep(250);
+        authenticateIgnoringErrors();
+        authenticateIgnoringErrors();
+
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+        assertThat(stateChanges, contains("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN"));
+    }
+
+    @Test
+    public void halfOpen_shouldLimitTrialCalls() {
+        MidConnector blockingConnector = mock(MidConnector.class);
+        circuitBreaker = MidCircuitBreakerConnector.newBuilder()
+            .withConnector(blockingConnector)
+            .withSlidingWindowSize(1)
+            .withWaitDurationInOpenState(Duration.ZERO)
+            .withPermittedCallsInHalfOpenState(1)
+            .build();
+        when(blockingConnector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidInternalErrorException("MID internal error"));
+        authenticateIgnoringErrors();
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+
+        when(blockingConnector.authenticate(any(MidAuthenticationRequest.class))).thenAnswer(invocation -> {
+            try {
+                circuitBreaker.authenticate(createValidAuthenticationRequest());
+                fail("Expected second trial call to be rejected");
+            }
+            catch (MidServiceUnavailableException expected) {
+            }
+            return new MidAuthenticationResponse("sessionId");
+        });
+        circuitBreaker.authenticate(createValidAuthenticationRequest());
+
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        assertThat(circuitBreaker.getRejectedCalls(), is(1L));
+    }
+
+    @Test
+    public void callAdmittedWhileClosed_shouldNotCountAsTrialCall() throws Exception {
+        circuitBreaker = MidCircuitBreakerConnector.newBuilder()
+            .withConnector(connector)
+            .withSlidingWindowSize(1)
+            .withMinimumNumberOfCalls(1)
+            .withWaitDurationInOpenState(Duration.ZERO)
+            .withPermittedCallsInHalfOpenState(1)
+            .withStateChangeListener((from, to) -> stateChanges.add(from + "->" + to))
+            .build();
+        CountDownLatch trialCallStarted = new CountDownLatch(1);
+        CountDownLatch finishTrialCall = new CountDownLatch(1);
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidInternalErrorException("MID internal error"));
+        when(connector.sign(any(MidSignatureRequest.class))).thenAnswer(invocation -> {
+            trialCallStarted.countDown();
+            finishTrialCall.await();
+            throw new MidInternalErrorException("MID internal error");
+        });
+        Thread trialCall = new Thread(() -> {
+            try {
+                circuitBreaker.sign(createValidSignatureRequest());
+            }
+            catch (RuntimeException ignored) {
+            }
+        });
+        when(connector.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenAnswer(invocation -> {
+            authenticateIgnoringErrors();
+            assertThat(circuitBreaker.getState(), is(State.OPEN));
+            trialCall.start();
+            trialCallStarted.await();
+            assertThat(circuitBreaker.getState(), is(State.HALF_OPEN));
+            return new MidSessionStatus();
+        });
+
+        circuitBreaker.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId", 1));
+        assertThat(circuitBreaker.getState(), is(State.HALF_OPEN));
+        finishTrialCall.countDown();
+        trialCall.join();
+
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+        assertThat(stateChanges, contains("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN"));
+    }
+
+    @Test
+    public void slowCalls_shouldOpen() {
+        circuitBreaker = MidCircuitBreakerConnector.newBuilder()
+            .withConnector(connector)
+            .withSlidingWindowSize(2)
+            .withMinimumNumberOfCalls(2)
+            .withSlowCallDurationThreshold(Duration.ofMillis(20))
+            .withSlowCallRateThreshold(100)
+            .build();
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return new MidAuthenticationResponse("sessionId");
+        });
+
+        circuitBreaker.authenticate(createValidAuthenticationRequest());
+        circuitBreaker.authenticate(createValidAuthenticationRequest());
+
+        assertThat(circuitBreaker.getState(), is(State.OPEN));
+    }
+
+    @Test
+    public void longPollingSessionStatus_shouldNotCountAsSlow() {
+        circuitBreaker = MidCircuitBreakerConnector.newBuilder()
+            .withConnector(connector)
+            .withSlidingWindowSize(2)
+            .withMinimumNumberOfCalls(2)
+            .withSlowCallDurationThreshold(Duration.ofMillis(20))
+            .build();
+        when(connector.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(50);
+            return new MidSessionStatus();
+        });
+
+        circuitBreaker.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId", 1));
+        circuitBreaker.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId", 1));
+
+        assertThat(circuitBreaker.getState(), is(State.CLOSED));
+        assertThat(circuitBreaker.getSlowCallRate(), is(0f));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withoutConnector_shouldThrowException() {
+        MidCircuitBreakerConnector.newBuilder().build();
+    }
+
+    private void authenticateIgnoringErrors() {
+        try {
+            circuitBreaker.authenticate(createValidAuthenticationRequest());
+        }
+        catch (RuntimeException ignored) {
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidConcurrencyLimitingConnectorTest {
+
+    private MidConnector connector;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidConnector.class);
+    }
+
+    @Test
+    public void whenLimitReached_shouldRejectWithoutCallingService() throws Exception {
+        CountDownLatch callStarted = new CountDownLatch(1);
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenAnswer(invocation -> {
+            callStarted.countDown();
+            releaseCall.await(5, TimeUnit.SECONDS);
+            return new MidAuthenticationResponse("sessionId");
+        });
+        MidConcurrencyLimitingConnector limitingConnector = MidConcurrencyLimitingConnector.newBuilder()
+            .withConnector(connector)
+            .withInitialInitiationLimit(1)
+            .build();
+
+        CompletableFuture<MidAuthenticationResponse> first =
+            CompletableFuture.supplyAsync(() -> limitingConnector.authenticate(createValidAuthenticationRequest()));
+        assertThat(callStarted.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(limitingConnector.getInitiationStatistics().getInFlight(), is(1));
+
+        try {
+            limitingConnector.authenticate(createValidAuthenticationRequest());
+            fail("call over the limit should be rejected");
+        }
+        catch (MidServiceUnavailableException expected) {
+        }
+        releaseCall.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS).getSessionID(), is("sessionId"));
+        assertThat(limitingConnector.getInitiationStatistics().getRejected(), is(1L));
+        assertThat(limitingConnector.getInitiationStatistics().getInFlight(), is(0));
+        verify(connector, times(1)).authenticate(any(MidAuthenticationRequest.class));
+    }
+
+    @Test
+    public void whenLimitReached_shouldWaitForFreeSlot() throws Exception {
+        CountDownLatch callStarted = new CountDownLatch(1);
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenAnswer(invocation -> {
+            callStarted.countDown();
+            Thread.sleep(100);
+            return new MidAuthenticationResponse("sessionId");
+        });
+        MidConcurrencyLimitingConnector limitingConnector = MidConcurrencyLimitingConnector.newBuilder()
+            .withConnector(connector)
+            .withInitialInitiationLimit(1)
+            .withMaxWait(Duration.ofSeconds(5))
+            .build();
+
+        CompletableFuture<MidAuthenticationResponse> first =
+            CompletableFuture.supplyAsync(() -> limitingConnector.authenticate(createValidAuthenticationRequest()));
+        assertThat(callStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(limitingConnector.authenticate(createValidAuthenticationRequest()).getSessionID(), is("sessionId"));
+        assertThat(first.get(5, TimeUnit.SECONDS).getSessionID(), is("sessionId"));
+        assertThat(limitingConnector.getInitiationStatistics().getRejected(), is(0L));
+    }
+
+    @Test
+    public void whenCallsFail_shouldDecreaseLimit() {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenThrow(new MidInternalErrorException("MID internal error"));
+        MidConcurrencyLimitingConnector limitingConnector = MidConcurrencyLimitingConnector.newBuilder()
+            .withConnector(connector)
+            .withInitialInitiationLimit(10)
+            .withMinLimit(2)
+            .withBackoffRatio(0.5)
+            .build();
+
+        for (int i = 0; i < 5; i++) {
+            try {
+                limitingConnector.authenticate(createValidAuthenticationRequest());
+                fail("MidInternalErrorException expected");
+            }
+            catch (MidInternalErrorException expected) {
+            }
+        }
+
+        assertThat(limitingConnector.getInitiationStatistics().getLimit(), is(2));
+        assertThat(limitingConnector.getSessionStatusStatistics().getLimit(), is(50));
+    }
+
+    @Test
+    public void whenCallsSucceedAtLimit_shouldIncreaseLimit() {
+        when(connector.authenticate(any(MidAuthenticationRequest.class))).thenReturn(new MidAuthenticationResponse("sessionId"));
+        MidConcurrencyLimitingConnector limitingConnector = MidConcurrencyLimitingConnector.newBuilder()
+            .withConnector(connector)
+            .withInitialInitiationLimit(1)
+            .build();
+
+        for (int i = 0; i < 3; i++) {
+            limitingConnector.authenticate(createValidAuthenticationRequest());
+        }
+
+        assertThat(limitingConnector.getInitiationStatistics().getLimit(), greaterThan(1));
+    }
+
+    @Test
+    public void whenSessionStatusLongPolls_shouldNotTreatLongPollAsSlow() {
+        MidSessionStatus status = new MidSessionStatus();
+        status.setState("COMPLETE");
+        when(connector.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(150);
+            return status;
+        });
+        MidConcurrencyLimitingConnector limitingConnector = MidConcurrencyLimitingConnector.newBuilder()
+            .withConnector(connector)
+            .withInitialSessionStatusLimit(4)
+            .withBackoffRatio(0.5)
+            .withLatencyThreshold(Duration.ofMillis(100))
+            .build();
+
+        limitingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId", 1));
+        assertThat(limitingConnector.getSessionStatusStatistics().getLimit(), is(4));
+
+        limitingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId", 0));
+        assertThat(limitingConnector.getSessionStatusStatistics().getLimit(), is(2));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withInitialLimitAboveMax_shouldThrowException() {
+        MidConcurrencyLimitingConnector.newBuilder()
+            .withConnector(connector)
+            .withInitialInitiationLimit(10)
+            .withMaxInitiationLimit(5)
+            .build();
+    }
+}
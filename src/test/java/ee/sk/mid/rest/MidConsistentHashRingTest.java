@@ -0,0 +1,99 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MidConsistentHashRingTest {
+
+    private static final int SESSIONS = 30000;
+
+    @Test
+    public void getOwner_shouldSpreadSessionsEvenly() {
+        MidConsistentHashRing ring = new MidConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+
+        Map<String, Integer> sessionsPerNode = new HashMap<>();
+        for (int i = 0; i < SESSIONS; i++) {
+            sessionsPerNode.merge(ring.getOwner(sessionId(i)), 1, Integer::sum);
+        }
+
+        assertThat(sessionsPerNode.size(), is(3));
+        for (int sessions : sessionsPerNode.values()) {
+            assertThat(sessions, greaterThan(SESSIONS / 4));
+            assertThat(sessions, lessThan(SESSIONS * 5 / 12));
+        }
+    }
+
+    @Test
+    public void getOwner_whenNodeJoins_shouldOnlyMoveSessionsToIt() {
+        MidConsistentHashRing before = new MidConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+        MidConsistentHashRing after = new MidConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 100);
+
+        int moved = 0;
+        for (int i = 0; i < SESSIONS; i++) {
+            String owner = after.getOwner(sessionId(i));
+            if (!owner.equals(before.getOwner(sessionId(i)))) {
+                assertThat(owner, is("d"));
+                moved++;
+            }
+        }
+
+        assertThat(moved, greaterThan(SESSIONS / 6));
+        assertThat(moved, lessThan(SESSIONS / 3));
+    }
+
+    @Test
+    public void getOwner_shouldNotDependOnOrderOfNodes() {
+        MidConsistentHashRing ring = new MidConsistentHashRing(Arrays.asList("a", "b", "c"), 100);
+        MidConsistentHashRing reordered = new MidConsistentHashRing(Arrays.asList("c", "a", "b"), 100);
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(reordered.getOwner(sessionId(i)), is(ring.getOwner(sessionId(i))));
+        }
+    }
+
+    @Test
+    public void getOwner_withoutNodes_shouldReturnNull() {
+        assertThat(new MidConsistentHashRing(Collections.emptyList(), 100).getOwner(sessionId(0)), is(nullValue()));
+    }
+
+    private static String sessionId(int i) {
+        return String.format("97f5058e-e308-4c83-ac14-%012d", i);
+    }
+}
@@ -0,0 +1,180 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidHedgingConnectorTest {
+
+    private MidRestConnector connector;
+    private MidHedgingConnector hedgingConnector;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidRestConnector.class);
+    }
+
+    @After
+    public void tearDown() {
+        if (hedgingConnector != null) {
+            hedgingConnector.close();
+        }
+    }
+
+    @Test
+    public void slowRequest_shouldBeHedgedAndFasterAnswerUsed() {
+        hedgingConnector = createHedgingConnector(100);
+        warmUpLatencySamples();
+        CompletableFuture<MidSessionStatus> slowResponse = new CompletableFuture<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString()))
+            .thenReturn(slowResponse, CompletableFuture.completedFuture(sessionStatus("COMPLETE")));
+
+        MidSessionStatus sessionStatus = hedgingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId"));
+
+        assertThat(sessionStatus.getState(), is("COMPLETE"));
+        assertThat(hedgingConnector.getHedgedRequests(), is(1L));
+        assertThat(hedgingConnector.getHedgeWins(), is(1L));
+        assertThat(slowResponse.isCancelled(), is(true));
+    }
+
+    @Test
+    public void fastRequest_shouldNotBeHedged() {
+        hedgingConnector = createHedgingConnector(100);
+        warmUpLatencySamples();
+
+        MidSessionStatus sessionStatus = hedgingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId"));
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+        assertThat(hedgingConnector.getHedgedRequests(), is(0L));
+        verify(connector, times(3)).getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString());
+    }
+
+    @Test
+    public void withoutEnoughSamples_shouldNotHedge() throws InterruptedException {
+        hedgingConnector = createHedgingConnector(100);
+        CompletableFuture<MidSessionStatus> slowResponse = new CompletableFuture<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenReturn(slowResponse);
+
+        CompletableFuture<MidSessionStatus> result = hedgingConnector
+            .getAuthenticationSessionStatusAsync(new MidSessionStatusRequest("sessionId")).toCompletableFuture();
+        Thread.sleep(100);
+        slowResponse.complete(sessionStatus("COMPLETE"));
+
+        assertThat(result.join().getState(), is("COMPLETE"));
+        assertThat(hedgingConnector.getHedgedRequests(), is(0L));
+    }
+
+    @Test
+    public void whenBudgetUsedUp_shouldNotHedge() throws InterruptedException {
+        hedgingConnector = createHedgingConnector(0);
+        warmUpLatencySamples();
+        CompletableFuture<MidSessionStatus> slowResponse = new CompletableFuture<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenReturn(slowResponse);
+
+        CompletableFuture<MidSessionStatus> result = hedgingConnector
+            .getAuthenticationSessionStatusAsync(new MidSessionStatusRequest("sessionId")).toCompletableFuture();
+        Thread.sleep(100);
+        slowResponse.complete(sessionStatus("COMPLETE"));
+
+        assertThat(result.join().getState(), is("COMPLETE"));
+        assertThat(hedgingConnector.getHedgedRequests(), is(0L));
+        assertThat(hedgingConnector.getHedgesDeniedByBudget(), is(1L));
+    }
+
+    @Test
+    public void longPolling_shouldDelayHedgeByRequestedTimeout() throws InterruptedException {
+        hedgingConnector = createHedgingConnector(100);
+        warmUpLatencySamples();
+        CompletableFuture<MidSessionStatus> longPoll = new CompletableFuture<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenReturn(longPoll);
+
+        hedgingConnector.getAuthenticationSessionStatusAsync(new MidSessionStatusRequest("sessionId", 1));
+        Thread.sleep(300);
+
+        assertThat(hedgingConnector.getHedgedRequests(), is(0L));
+        longPoll.complete(sessionStatus("RUNNING"));
+    }
+
+    @Test(expected = MidSessionNotFoundException.class)
+    public void failedRequest_shouldThrowOriginalException() {
+        hedgingConnector = createHedgingConnector(100);
+        CompletableFuture<MidSessionStatus> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new MidSessionNotFoundException());
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenReturn(failed);
+
+        hedgingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId"));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withBlockingOnlyConnector_shouldThrowException() {
+        MidHedgingConnector.newBuilder()
+            .withConnector(mock(MidConnector.class))
+            .build();
+    }
+
+    private void warmUpLatencySamples() {
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString()))
+            .thenReturn(CompletableFuture.completedFuture(sessionStatus("RUNNING")));
+        hedgingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId"));
+        hedgingConnector.getAuthenticationSessionStatus(new MidSessionStatusRequest("sessionId"));
+    }
+
+    private MidHedgingConnector createHedgingConnector(double maxHedgePercentage) {
+        return MidHedgingConnector.newBuilder()
+            .withConnector(connector)
+            .withMinSamples(2)
+            .withSampleWindowSize(10)
+            .withMinHedgeDelay(Duration.ofMillis(20))
+            .withMaxHedgePercentage(maxHedgePercentage)
+            .build();
+    }
+
+    private static MidSessionStatus sessionStatus(String state) {
+        MidSessionStatus sessionStatus = new MidSessionStatus();
+        sessionStatus.setState(state);
+        return sessionStatus;
+    }
+}
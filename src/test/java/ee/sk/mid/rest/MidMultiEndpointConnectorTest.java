@@ -0,0 +1,208 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.ConnectException;
+import java.time.Duration;
+
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.rest.MidMultiEndpointConnector.EndpointStatistics;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import jakarta.ws.rs.ProcessingException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidMultiEndpointConnectorTest {
+
+    private MidConnector primary;
+    private MidConnector secondary;
+
+    @Before
+    public void setUp() {
+        primary = mock(MidConnector.class);
+        secondary = mock(MidConnector.class);
+        when(primary.authenticate(any(MidAuthenticationRequest.class))).thenReturn(new MidAuthenticationResponse("primarySession"));
+        when(secondary.authenticate(any(MidAuthenticationRequest.class))).thenReturn(new MidAuthenticationResponse("secondarySession"));
+        when(primary.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenReturn(new MidSessionStatus());
+        when(secondary.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenReturn(new MidSessionStatus());
+    }
+
+    @Test
+    public void sessionStatus_shouldGoToEndpointThatCreatedSession() {
+        MidMultiEndpointConnector connector = createConnector(3, Duration.ofSeconds(10));
+
+        for (int i = 0; i < 10; i++) {
+            String sessionId = connector.authenticate(createValidAuthenticationRequest()).getSessionID();
+            connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(sessionId));
+        }
+
+        verify(primary, never()).getAuthenticationSessionStatus(argThat(request -> "secondarySession".equals(request.getSessionID())));
+        verify(secondary, never()).getAuthenticationSessionStatus(argThat(request -> "primarySession".equals(request.getSessionID())));
+    }
+
+    @Test
+    public void shouldPreferFasterEndpoint() {
+        when(primary.authenticate(any(MidAuthenticationRequest.class))).thenAnswer(invocation -> {
+            Thread.sleep(30);
+            return new MidAuthenticationResponse("primarySession");
+        });
+        MidMultiEndpointConnector connector = createConnector(3, Duration.ofSeconds(10));
+
+        for (int i = 0; i < 10; i++) {
+            connector.authenticate(createValidAuthenticationRequest());
+        }
+
+        assertThat(connector.getEndpointStatistics().get(1).getSelected(), is(greaterThanOrEqualTo(8L)));
+        assertThat(connector.getEndpointStatistics().get(0).getAverageLatencyMillis(), is(greaterThan(0d)));
+    }
+
+    @Test
+    public void connectFailure_shouldFailOverAndEject() {
+        when(primary.authenticate(any(MidAuthenticationRequest.class))).thenThrow(connectFailure());
+        MidMultiEndpointConnector connector = createConnector(1, Duration.ofSeconds(10));
+
+        // the endpoint is picked at random, so call until the primary has been tried
+        int calls = 0;
+        while (connector.getEndpointStatistics().get(0).getFailures() == 0 && calls < 100) {
+            assertThat(connector.authenticate(createValidAuthenticationRequest()).getSessionID(), is("secondarySession"));
+            calls++;
+        }
+        for (int i = 0; i < 5; i++) {
+            assertThat(connector.authenticate(createValidAuthenticationRequest()).getSessionID(), is("secondarySession"));
+        }
+
+        EndpointStatistics primaryStatistics = connector.getEndpointStatistics().get(0);
+        assertThat(primaryStatistics.isEjected(), is(true));
+        assertThat(primaryStatistics.getFailures(), is(1L));
+        verify(secondary, times(calls + 5)).authenticate(any(MidAuthenticationRequest.class));
+    }
+
+    @Test
+    public void ejectedEndpoint_shouldBeProbedAndReturned() throws InterruptedException {
+        when(primary.authenticate(any(MidAuthenticationRequest.class)))
+            .thenThrow(connectFailure())
+            .thenReturn(new MidAuthenticationResponse("primarySession"));
+        MidMultiEndpointConnector connector = createConnector(1, Duration.ofMillis(50));
+        while (connector.getEndpointStatistics().get(0).getFailures() == 0) {
+            connector.authenticate(createValidAuthenticationRequest());
+        }
+        assertThat(connector.getEndpointStatistics().get(0).isEjected(), is(true));
+
+        Thread.sleep(100);
+        for (int i = 0; i < 30; i++) {
+            connector.authenticate(createValidAuthenticationRequest());
+        }
+
+        assertThat(connector.getEndpointStatistics().get(0).isEjected(), is(false));
+        verify(primary, times((int) connector.getEndpointStatistics().get(0).getSelected())).authenticate(any(MidAuthenticationRequest.class));
+    }
+
+    @Test(expected = MidInternalErrorException.class)
+    public void errorAfterRequestWasSent_shouldNotFailOver() {
+        MidInternalErrorException internalError = new MidInternalErrorException("MID internal error");
+        when(primary.authenticate(any(MidAuthenticationRequest.class))).thenThrow(internalError);
+        when(secondary.authenticate(any(MidAuthenticationRequest.class))).thenThrow(internalError);
+        MidMultiEndpointConnector connector = createConnector(3, Duration.ofSeconds(10));
+
+        try {
+            connector.authenticate(createValidAuthenticationRequest());
+        }
+        finally {
+            long calls = connector.getEndpointStatistics().get(0).getSelected() + connector.getEndpointStatistics().get(1).getSelected();
+            assertThat(calls, is(1L));
+        }
+    }
+
+    @Test
+    public void sessionStatus_ofUnknownSession_shouldTryOtherEndpointsAfterNotFound() {
+        when(primary.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenThrow(new MidSessionNotFoundException());
+        when(secondary.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenThrow(new MidSessionNotFoundException());
+        MidSessionStatus running = new MidSessionStatus();
+        running.setState("RUNNING");
+        MidConnector third = mock(MidConnector.class);
+        when(third.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenReturn(running);
+        MidMultiEndpointConnector connector = MidMultiEndpointConnector.newBuilder()
+            .withEndpoint("https://primary", primary)
+            .withEndpoint("https://secondary", secondary)
+            .withEndpoint("https://third", third)
+            .build();
+
+        assertThat(connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("restoredSession")).getState(), is("RUNNING"));
+        assertThat(connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("restoredSession")).getState(), is("RUNNING"));
+
+        verify(third, times(2)).getAuthenticationSessionStatus(any(MidSessionStatusRequest.class));
+        verify(primary, atMost(1)).getAuthenticationSessionStatus(any(MidSessionStatusRequest.class));
+        verify(secondary, atMost(1)).getAuthenticationSessionStatus(any(MidSessionStatusRequest.class));
+    }
+
+    @Test(expected = MidSessionNotFoundException.class)
+    public void sessionStatus_ofSessionUnknownToAllEndpoints_shouldThrowNotFound() {
+        when(primary.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenThrow(new MidSessionNotFoundException());
+        when(secondary.getAuthenticationSessionStatus(any(MidSessionStatusRequest.class))).thenThrow(new MidSessionNotFoundException());
+
+        createConnector(3, Duration.ofSeconds(10)).getAuthenticationSessionStatus(new MidSessionStatusRequest("unknownSession"));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withoutEndpoints_shouldThrowException() {
+        MidMultiEndpointConnector.newBuilder().build();
+    }
+
+    private MidMultiEndpointConnector createConnector(int failuresBeforeEjection, Duration ejectionDuration) {
+        return MidMultiEndpointConnector.newBuilder()
+            .withEndpoint("https://primary", primary)
+            .withEndpoint("https://secondary", secondary)
+            .withFailuresBeforeEjection(failuresBeforeEjection)
+            .withEjectionDuration(ejectionDuration)
+            .build();
+    }
+
+    private static MidInternalErrorException connectFailure() {
+        return new MidInternalErrorException("Unknown error when connecting to Host",
+            new ProcessingException(new ConnectException("Connection refused")));
+    }
+}
@@ -0,0 +1,222 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.mock.MobileIdConnectorStub;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.After;
+import org.junit.Test;
+
+public class MidPollRateGovernorTest {
+
+    private MidPollRateGovernor governor;
+
+    @After
+    public void tearDown() {
+        governor.close();
+    }
+
+    @Test
+    public void acquire_shouldLetBurstThroughAndThenKeepRate() throws Exception {
+        governor = createGovernor(20, 5);
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            assertThat(governor.acquire(null).isDone(), is(true));
+        }
+        List<CompletableFuture<Void>> permits = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            permits.add(governor.acquire(null));
+        }
+        CompletableFuture.allOf(permits.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        assertThat(durationMillis >= 450L && durationMillis < 1000L, is(true));
+        assertThat(governor.getGranted(), is(15L));
+        assertThat(governor.getDelayed(), is(10L));
+        assertThat(governor.getWaiting(), is(0));
+    }
+
+    @Test
+    public void acquire_whenTokensAreScarce_shouldPreferNearestDeadline() throws Exception {
+        governor = createGovernor(10, 1);
+        governor.acquire(null);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> withoutDeadline = governor.acquire(null).thenRun(() -> order.add("none"));
+        CompletableFuture<Void> laterDeadline = governor.acquire(Instant.now().plusSeconds(60)).thenRun(() -> order.add("later"));
+        CompletableFuture<Void> nearDeadline = governor.acquire(Instant.now().plusSeconds(5)).thenRun(() -> order.add("near"));
+        CompletableFuture.allOf(withoutDeadline, laterDeadline, nearDeadline).get(5, TimeUnit.SECONDS);
+
+        assertThat(order.get(0), is("near"));
+        assertThat(order.get(1), is("later"));
+        assertThat(order.get(2), is("none"));
+    }
+
+    @Test
+    public void cancelledWaiter_shouldNotUseToken() throws Exception {
+        governor = createGovernor(10, 1);
+        governor.acquire(null);
+
+        CompletableFuture<Void> cancelled = governor.acquire(null);
+        CompletableFuture<Void> waiting = governor.acquire(null);
+        cancelled.cancel(false);
+        long startTime = System.nanoTime();
+        waiting.get(5, TimeUnit.SECONDS);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) < 150L, is(true));
+        assertThat(governor.getGranted(), is(2L));
+    }
+
+    @Test
+    public void acquire_withSteadyStreamOfDeadlines_shouldNotStarvePollsWithoutDeadline() throws Exception {
+        governor = createGovernor(20, 1);
+        governor.acquire(null);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        List<CompletableFuture<Void>> permits = new ArrayList<>();
+        permits.add(governor.acquire(null).thenRun(() -> order.add("none")));
+        for (int i = 0; i < 6; i++) {
+            permits.add(governor.acquire(Instant.now().plusSeconds(5)).thenRun(() -> order.add("deadline")));
+        }
+        CompletableFuture.allOf(permits.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertThat(order.indexOf("none"), is(3));
+    }
+
+    @Test
+    public void cancelledWaiter_shouldBeRemovedFromQueue() throws Exception {
+        governor = createGovernor(10, 1);
+        governor.acquire(null);
+
+        CompletableFuture<Void> cancelled = governor.acquire(Instant.now().plusSeconds(5));
+        cancelled.cancel(false);
+        assertThat(governor.getWaiting(), is(0));
+
+        Thread.sleep(150);
+        assertThat(governor.acquire(null).isDone(), is(true));
+    }
+
+    @Test
+    public void nextPhaseOffsetMillis_shouldStayWithinMaximum() {
+        governor = MidPollRateGovernor.newBuilder()
+            .withMaxPhaseOffset(Duration.ofMillis(200))
+            .build();
+
+        boolean offsetUsed = false;
+        for (int i = 0; i < 1000; i++) {
+            long offset = governor.nextPhaseOffsetMillis();
+            assertThat(offset >= 0 && offset <= 200, is(true));
+            offsetUsed |= offset > 0;
+        }
+        assertThat(offsetUsed, is(true));
+    }
+
+    @Test
+    public void sessionStatusPoller_shouldWaitForPermits() {
+        governor = createGovernor(10, 1);
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        for (int i = 0; i < 5; i++) {
+            connector.getResponses().add(createRunningSessionStatus());
+        }
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        MidSessionStatusPoller poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeout(Duration.ofSeconds(1))
+            .withPollRateGovernor(governor)
+            .build();
+
+        long startTime = System.currentTimeMillis();
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+
+        assertThat(System.currentTimeMillis() - startTime >= 450L, is(true));
+        assertThat(governor.getGranted(), is(6L));
+    }
+
+    @Test
+    public void asyncSessionStatusPoller_shouldSpreadPollsOfManySessions() throws Exception {
+        governor = createGovernor(500, 20);
+        MidRestConnector connector = mock(MidRestConnector.class);
+        List<Long> requestTimes = new CopyOnWriteArrayList<>();
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            requestTimes.add(System.nanoTime());
+            return CompletableFuture.completedFuture(createSuccessfulSessionStatus());
+        });
+        MidAsyncSessionStatusPoller poller = MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeoutSeconds(1)
+            .withPollRateGovernor(governor)
+            .build();
+
+        long startTime = System.nanoTime();
+        List<CompletableFuture<MidSessionStatus>> results = new ArrayList<>();
+        for (int i = 0; i < 270; i++) {
+            results.add(poller.fetchFinalAuthenticationSessionStatus("session-" + i));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        poller.close();
+
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        assertThat(requestTimes.size(), is(270));
+        assertThat(durationMillis >= 450L && durationMillis < 3000L, is(true));
+        long firstRequest = requestTimes.get(0);
+        long requestsInFirst100Millis = requestTimes.stream()
+            .filter(time -> time - firstRequest < TimeUnit.MILLISECONDS.toNanos(100))
+            .count();
+        // burst and 100 ms worth of tokens
+        assertThat(requestsInFirst100Millis <= 20 + 50 + 5, is(true));
+    }
+
+    private static MidPollRateGovernor createGovernor(double permitsPerSecond, int burst) {
+        return MidPollRateGovernor.newBuilder()
+            .withPermitsPerSecond(permitsPerSecond)
+            .withBurst(burst)
+            .withMaxPhaseOffset(Duration.ZERO)
+            .build();
+    }
+}
@@ -0,0 +1,181 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.createNotMIDClientStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.After;
+import org.junit.Test;
+
+public class MidSessionStatusHubTest {
+
+    private final AtomicInteger polls = new AtomicInteger();
+    private MidAsyncSessionStatusPoller poller;
+    private MidSessionStatusHub hub;
+
+    @After
+    public void tearDown() {
+        poller.close();
+    }
+
+    @Test
+    public void concurrentWaiters_shouldShareOnePoll() throws Exception {
+        createHub(3, createSuccessfulSessionStatus());
+
+        List<CompletableFuture<MidSessionStatus>> waiters = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            waiters.add(hub.fetchFinalAuthenticationSessionStatusAsync(SESSION_ID));
+        }
+        CompletableFuture.allOf(waiters.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        assertThat(polls.get(), is(3));
+        assertThat(waiters.get(0).get().getResult(), is("OK"));
+        assertThat(waiters.get(9).get() == waiters.get(0).get(), is(true));
+        assertThat(hub.getPollsStarted(), is(1L));
+        assertThat(hub.getCoalescedCalls(), is(9L));
+        assertThat(hub.getActivePolls(), is(0));
+    }
+
+    @Test
+    public void blockingWaiters_shouldGetSameException() throws Exception {
+        createHub(2, createNotMIDClientStatus());
+        int callers = 5;
+        CountDownLatch done = new CountDownLatch(callers);
+        List<Throwable> errors = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            new Thread(() -> {
+                try {
+                    hub.fetchFinalSignatureSessionStatus(SESSION_ID);
+                }
+                catch (RuntimeException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+
+        assertThat(done.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(errors.size(), is(callers));
+        assertThat(errors.get(0), is(instanceOf(MidNotMidClientException.class)));
+        for (Throwable error : errors) {
+            assertThat(error == errors.get(0), is(true));
+        }
+        assertThat(hub.getPollsStarted() < callers, is(true));
+        assertThat(hub.getActivePolls(), is(0));
+    }
+
+    @Test
+    public void lastWaiterLeaving_shouldStopPolling() throws Exception {
+        createHub(Integer.MAX_VALUE, createSuccessfulSessionStatus());
+
+        CompletableFuture<MidSessionStatus> first = hub.fetchFinalAuthenticationSessionStatusAsync(SESSION_ID);
+        CompletableFuture<MidSessionStatus> second = hub.fetchFinalAuthenticationSessionStatusAsync(SESSION_ID);
+        Thread.sleep(300);
+        first.cancel(false);
+
+        assertThat(hub.getActivePolls(), is(1));
+        assertThat(hub.getWaiters(), is(1));
+        assertThat(second.isDone(), is(false));
+
+        second.cancel(false);
+        int pollsAtCancel = polls.get();
+        Thread.sleep(300);
+
+        assertThat(hub.getActivePolls(), is(0));
+        assertThat(poller.getPendingSessions(), is(0));
+        assertThat(polls.get() <= pollsAtCancel + 1, is(true));
+    }
+
+    @Test
+    public void waiterAfterCompletion_shouldStartNewPoll() throws Exception {
+        createHub(1, createSuccessfulSessionStatus());
+
+        hub.fetchFinalAuthenticationSessionStatusAsync(SESSION_ID).get(5, TimeUnit.SECONDS);
+        hub.fetchFinalAuthenticationSessionStatusAsync(SESSION_ID).get(5, TimeUnit.SECONDS);
+
+        assertThat(hub.getPollsStarted(), is(2L));
+        assertThat(polls.get(), is(2));
+    }
+
+    @Test
+    public void sessionsOnDifferentPaths_shouldNotBeShared() throws Exception {
+        createHub(1, createSuccessfulSessionStatus());
+
+        CompletableFuture<MidSessionStatus> authentication = hub.fetchFinalAuthenticationSessionStatusAsync(SESSION_ID);
+        CompletableFuture<MidSessionStatus> signature = hub.fetchFinalSignatureSessionStatusAsync(SESSION_ID);
+        try {
+            CompletableFuture.allOf(authentication, signature).get(5, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            fail("Unexpected failure " + e.getCause());
+        }
+
+        assertThat(hub.getPollsStarted(), is(2L));
+    }
+
+    /**
+     * Poller whose connector answers RUNNING until the given poll, then the final status.
+     */
+    private void createHub(int finalPoll, MidSessionStatus finalStatus) {
+        MidRestConnector connector = mock(MidRestConnector.class);
+        when(connector.getSessionStatusAsync(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation ->
+            CompletableFuture.completedFuture(polls.incrementAndGet() < finalPoll ? createRunningSessionStatus() : finalStatus));
+        poller = MidAsyncSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeout(Duration.ofMillis(100))
+            .build();
+        hub = MidSessionStatusHub.newBuilder()
+            .withPoller(poller)
+            .build();
+    }
+}
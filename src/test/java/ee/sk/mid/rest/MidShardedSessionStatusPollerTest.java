@@ -0,0 +1,215 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.createNotMIDClientStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.After;
+import org.junit.Test;
+
+public class MidShardedSessionStatusPollerTest {
+
+    private final MidInMemoryClusterMembership membership = new MidInMemoryClusterMembership();
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    /**
+     * Final status the MID service answers with, RUNNING while null.
+     */
+    private final AtomicReference<MidSessionStatus> finalStatus = new AtomicReference<>();
+
+    @After
+    public void tearDown() {
+        for (Node node : nodes.values()) {
+            node.sharded.close();
+            node.poller.close();
+        }
+    }
+
+    @Test
+    public void callsOnAllNodes_shouldBePolledOnceByOwner() throws Exception {
+        startNodes("a", "b", "c");
+        String sessionId = findSession(Arrays.asList("a", "b", "c"), "b", null, null);
+
+        List<CompletableFuture<MidSessionStatus>> calls = new ArrayList<>();
+        for (Node node : nodes.values()) {
+            calls.add(node.sharded.fetchFinalAuthenticationSessionStatusAsync(sessionId));
+        }
+        awaitCondition(() -> nodes.get("b").hub.getWaiters() == 3);
+        finalStatus.set(createSuccessfulSessionStatus());
+        CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        for (CompletableFuture<MidSessionStatus> call : calls) {
+            assertThat(call.get().getResult(), is("OK"));
+        }
+        assertThat(nodes.get("a").polls.get(), is(0));
+        assertThat(nodes.get("c").polls.get(), is(0));
+        assertThat(nodes.get("b").hub.getPollsStarted(), is(1L));
+        assertThat(nodes.get("a").sharded.getForwardedCalls(), is(1L));
+        assertThat(nodes.get("b").sharded.getLocalPolls(), is(3L));
+    }
+
+    @Test
+    public void ownerFailure_shouldReachCallerOnOtherNode() throws Exception {
+        startNodes("a", "b");
+        String sessionId = findSession(Arrays.asList("a", "b"), "b", null, null);
+        finalStatus.set(createNotMIDClientStatus());
+
+        try {
+            nodes.get("a").sharded.fetchFinalAuthenticationSessionStatusAsync(sessionId).get(5, TimeUnit.SECONDS);
+            fail("MidNotMidClientException expected");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(MidNotMidClientException.class)));
+        }
+        assertThat(nodes.get("a").polls.get(), is(0));
+    }
+
+    @Test
+    public void nodeJoining_shouldTakeOverRunningSession() throws Exception {
+        startNodes("a", "b", "c");
+        String sessionId = findSession(Arrays.asList("a", "b", "c"), "b", Arrays.asList("a", "b", "c", "d"), "d");
+        CompletableFuture<MidSessionStatus> call = nodes.get("a").sharded.fetchFinalAuthenticationSessionStatusAsync(sessionId);
+        awaitCondition(() -> nodes.get("b").polls.get() > 0);
+
+        startNodes("d");
+        awaitCondition(() -> nodes.get("d").polls.get() > 0);
+        awaitCondition(() -> nodes.get("b").hub.getActivePolls() == 0);
+        finalStatus.set(createSuccessfulSessionStatus());
+
+        assertThat(call.get(5, TimeUnit.SECONDS).getResult(), is("OK"));
+        assertThat(nodes.get("b").hub.getActivePolls(), is(0));
+        assertThat(nodes.get("a").sharded.getReroutedCalls(), is(1L));
+    }
+
+    @Test
+    public void nodeLeaving_shouldHandOverItsSessions() throws Exception {
+        startNodes("a", "b", "c");
+        String sessionId = findSession(Arrays.asList("a", "b", "c"), "b", null, null);
+        CompletableFuture<MidSessionStatus> remoteCall = nodes.get("a").sharded.fetchFinalAuthenticationSessionStatusAsync(sessionId);
+        CompletableFuture<MidSessionStatus> localCall = nodes.get("b").sharded.fetchFinalAuthenticationSessionStatusAsync(sessionId);
+        awaitCondition(() -> nodes.get("b").hub.getWaiters() == 2);
+
+        membership.leave("b");
+        String newOwner = nodes.get("a").sharded.getOwner(sessionId);
+        awaitCondition(() -> nodes.get(newOwner).hub.getWaiters() == 2);
+        finalStatus.set(createSuccessfulSessionStatus());
+
+        assertThat(newOwner, is(not("b")));
+        assertThat(remoteCall.get(5, TimeUnit.SECONDS).getResult(), is("OK"));
+        assertThat(localCall.get(5, TimeUnit.SECONDS).getResult(), is("OK"));
+        assertThat(nodes.get("b").hub.getActivePolls(), is(0));
+    }
+
+    private void startNodes(String... nodeIds) {
+        for (String nodeId : nodeIds) {
+            Node node = new Node(nodeId);
+            nodes.put(nodeId, node);
+            membership.join(nodeId, node.sharded);
+        }
+    }
+
+    /**
+     * @return session id owned by the given node in the first cluster and, if set, by the other node in the second cluster
+     */
+    private static String findSession(List<String> cluster, String owner, List<String> laterCluster, String laterOwner) {
+        MidConsistentHashRing ring = new MidConsistentHashRing(cluster, 100);
+        MidConsistentHashRing laterRing = laterCluster == null ? null : new MidConsistentHashRing(laterCluster, 100);
+        for (int i = 0; ; i++) {
+            String sessionId = String.format("97f5058e-e308-4c83-ac14-%012d", i);
+            if (owner.equals(ring.getOwner(sessionId)) && (laterRing == null || laterOwner.equals(laterRing.getOwner(sessionId)))) {
+                return sessionId;
+            }
+        }
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean(), is(true));
+    }
+
+    /**
+     * Application node with its own connection to the MID service.
+     */
+    private class Node {
+        private final AtomicInteger polls = new AtomicInteger();
+        private final MidAsyncSessionStatusPoller poller;
+        private final MidSessionStatusHub hub;
+        private final MidShardedSessionStatusPoller sharded;
+
+        Node(String nodeId) {
+            MidConnector connector = mock(MidConnector.class);
+            when(connector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+                polls.incrementAndGet();
+                MidSessionStatus sessionStatus = finalStatus.get();
+                return sessionStatus != null ? sessionStatus : createRunningSessionStatus();
+            });
+            poller = MidAsyncSessionStatusPoller.newBuilder()
+                .withConnector(connector)
+                .withPollingSleepTimeout(Duration.ofMillis(10))
+                .build();
+            hub = MidSessionStatusHub.newBuilder()
+                .withPoller(poller)
+                .build();
+            sharded = MidShardedSessionStatusPoller.newBuilder()
+                .withNodeId(nodeId)
+                .withSessionStatusHub(hub)
+                .withMembership(membership)
+                .withTransport(membership)
+                .build();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.exception.MidNotMidClientException;
+import ee.sk.mid.rest.dao.request.MidCertificateRequest;
+import ee.sk.mid.rest.dao.response.MidCertificateChoiceResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MidSingleFlightCertificateConnectorTest {
+
+    private static final int CALLERS = 5;
+
+    private MidConnector connector;
+    private MidSingleFlightCertificateConnector singleFlightConnector;
+
+    @Before
+    public void setUp() {
+        connector = mock(MidConnector.class);
+        singleFlightConnector = MidSingleFlightCertificateConnector.newBuilder()
+            .withConnector(connector)
+            .build();
+    }
+
+    @Test
+    public void concurrentIdenticalRequests_shouldShareOneCall() throws Exception {
+        MidCertificateChoiceResponse response = new MidCertificateChoiceResponse();
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        when(connector.getCertificate(any(MidCertificateRequest.class))).thenAnswer(invocation -> {
+            releaseCall.await(5, TimeUnit.SECONDS);
+            return response;
+        });
+
+        List<CompletableFuture<MidCertificateChoiceResponse>> callers = startCallers(createRequest("60001019906"));
+        awaitCoalescedCalls(CALLERS - 1);
+        releaseCall.countDown();
+
+        for (CompletableFuture<MidCertificateChoiceResponse> caller : callers) {
+            assertThat(caller.get(5, TimeUnit.SECONDS), is(sameInstance(response)));
+        }
+        verify(connector, times(1)).getCertificate(any(MidCertificateRequest.class));
+        assertThat(singleFlightConnector.getCertificateCalls(), is(1L));
+        assertThat(singleFlightConnector.getCoalescedCalls(), is((long) CALLERS - 1));
+    }
+
+    @Test
+    public void concurrentIdenticalRequests_whenCallFails_shouldGiveAllCallersSameException() throws Exception {
+        MidNotMidClientException exception = new MidNotMidClientException();
+        CountDownLatch releaseCall = new CountDownLatch(1);
+        when(connector.getCertificate(any(MidCertificateRequest.class))).thenAnswer(invocation -> {
+            releaseCall.await(5, TimeUnit.SECONDS);
+            throw exception;
+        });
+
+        List<CompletableFuture<MidCertificateChoiceResponse>> callers = startCallers(createRequest("60001019906"));
+        awaitCoalescedCalls(CALLERS - 1);
+        releaseCall.countDown();
+
+        for (CompletableFuture<MidCertificateChoiceResponse> caller : callers) {
+            try {
+                caller.get(5, TimeUnit.SECONDS);
+                fail("MidNotMidClientException expected");
+            }
+            catch (ExecutionException e) {
+                assertThat(e.getCause(), is(sameInstance(exception)));
+            }
+        }
+        verify(connector, times(1)).getCertificate(any(MidCertificateRequest.class));
+    }
+
+    @Test
+    public void differentPersons_shouldNotBeCoalesced() {
+        when(connector.getCertificate(any(MidCertificateRequest.class))).thenReturn(new MidCertificateChoiceResponse());
+
+        singleFlightConnector.getCertificate(createRequest("60001019906"));
+        singleFlightConnector.getCertificate(createRequest("60001019939"));
+
+        verify(connector, times(2)).getCertificate(any(MidCertificateRequest.class));
+        assertThat(singleFlightConnector.getCoalescedCalls(), is(0L));
+    }
+
+    @Test
+    public void sequentialRequests_shouldNotReuseFinishedCall() {
+        when(connector.getCertificate(any(MidCertificateRequest.class))).thenReturn(new MidCertificateChoiceResponse());
+
+        singleFlightConnector.getCertificate(createRequest("60001019906"));
+        singleFlightConnector.getCertificate(createRequest("60001019906"));
+
+        verify(connector, times(2)).getCertificate(any(MidCertificateRequest.class));
+    }
+
+    private List<CompletableFuture<MidCertificateChoiceResponse>> startCallers(MidCertificateRequest request) {
+        List<CompletableFuture<MidCertificateChoiceResponse>> callers = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            callers.add(CompletableFuture.supplyAsync(() -> singleFlightConnector.getCertificate(request),
+                command -> new Thread(command).start()));
+        }
+        return callers;
+    }
+
+    private void awaitCoalescedCalls(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlightConnector.getCoalescedCalls() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static MidCertificateRequest createRequest(String nationalIdentityNumber) {
+        return MidCertificateRequest.newBuilder()
+            .withRelyingPartyUUID("00000000-0000-0000-0000-000000000000")
+            .withRelyingPartyName("DEMO")
+            .withPhoneNumber("+37200000766")
+            .withNationalIdentityNumber(nationalIdentityNumber)
+            .build();
+    }
+}
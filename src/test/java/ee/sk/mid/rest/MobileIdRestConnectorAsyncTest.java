@@ -0,0 +1,161 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubBadRequestResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubNotFoundResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubRequestWithResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubServiceUnavailableErrorResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubUnauthorizedResponse;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.exception.MidUnauthorizedException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MobileIdRestConnectorAsyncTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(18089);
+
+    private MidRestConnector connector;
+
+    @Before
+    public void setUp() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+    }
+
+    @After
+    public void tearDown() {
+        connector.close();
+    }
+
+    @Test
+    public void authenticateAsync() throws Exception {
+        stubRequestWithResponse("/authentication", "requests/authenticationRequest.json", "responses/authenticationResponse.json");
+        MidAuthenticationRequest request = createValidAuthenticationRequest();
+
+        MidAuthenticationResponse response = await(connector.authenticateAsync(request));
+
+        assertThat(response, is(notNullValue()));
+        assertThat(response.getSessionID(), is("1dcc1600-29a6-4e95-a95c-d69b31febcfb"));
+    }
+
+    @Test
+    public void authenticateAsync_whenHttpStatusCode503_shouldCompleteExceptionally() {
+        stubServiceUnavailableErrorResponse("/authentication", "requests/authenticationRequest.json");
+
+        Throwable failure = awaitFailure(connector.authenticateAsync(createValidAuthenticationRequest()));
+
+        assertThat(failure, instanceOf(MidServiceUnavailableException.class));
+    }
+
+    @Test
+    public void authenticateAsync_withWrongRequestParams_shouldCompleteExceptionallyWithErrorFromBody() {
+        stubBadRequestResponse("/authentication", "requests/authenticationRequest.json");
+
+        Throwable failure = awaitFailure(connector.authenticateAsync(createValidAuthenticationRequest()));
+
+        assertThat(failure, instanceOf(MidMissingOrInvalidParameterException.class));
+        assertThat(failure.getMessage(), is("Invalid phoneNumber or nationalIdentityNumber"));
+    }
+
+    @Test
+    public void authenticateAsync_withWrongAuthenticationParams_shouldCompleteExceptionally() {
+        stubUnauthorizedResponse("/authentication", "requests/authenticationRequest.json");
+
+        Throwable failure = awaitFailure(connector.authenticateAsync(createValidAuthenticationRequest()));
+
+        assertThat(failure, instanceOf(MidUnauthorizedException.class));
+    }
+
+    @Test
+    public void authenticateAsync_withoutRelyingParty_shouldCompleteExceptionally() {
+        MidAuthenticationRequest request = createValidAuthenticationRequest();
+        request.setRelyingPartyUUID("");
+
+        Throwable failure = awaitFailure(connector.authenticateAsync(request));
+
+        assertThat(failure, instanceOf(MidMissingOrInvalidParameterException.class));
+    }
+
+    @Test
+    public void getSessionStatusAsync() throws Exception {
+        stubRequestWithResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+
+        MidSessionStatus sessionStatus = await(connector.getAuthenticationSessionStatusAsync(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016")));
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+    }
+
+    @Test
+    public void getSessionStatusAsync_whenSessionNotFound_shouldCompleteExceptionally() {
+        stubNotFoundResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016");
+
+        Throwable failure = awaitFailure(connector.getAuthenticationSessionStatusAsync(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016")));
+
+        assertThat(failure, instanceOf(MidSessionNotFoundException.class));
+    }
+
+    private static <T> T await(CompletionStage<T> stage) throws Exception {
+        return stage.toCompletableFuture().get(10, TimeUnit.SECONDS);
+    }
+
+    private static Throwable awaitFailure(CompletionStage<?> stage) {
+        try {
+            stage.toCompletableFuture().get(10, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e) {
+            return e.getCause();
+        }
+        catch (Exception e) {
+            throw new AssertionError("Unexpected failure while waiting for result", e);
+        }
+        throw new AssertionError("Expected stage to complete exceptionally");
+    }
+}
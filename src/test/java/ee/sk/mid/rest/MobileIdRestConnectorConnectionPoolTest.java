@@ -0,0 +1,174 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubRequestWithResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubSessionStatusWithState;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.time.Duration;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MobileIdRestConnectorConnectionPoolTest {
+
+    private static final String SESSION_STATUS_URL = "/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(18089);
+
+    private MidRestConnector connector;
+
+    @After
+    public void tearDown() {
+        if (connector != null) {
+            connector.close();
+        }
+    }
+
+    @Test
+    public void authenticateAndPoll_withPooledConnections() {
+        connector = createConnector(MidConnectionPoolConfig.newBuilder()
+            .withMaxTotalConnections(10)
+            .withMaxConnectionsPerRoute(10)
+            .withKeepAliveDuration(Duration.ofSeconds(30))
+            .withIdleConnectionEvictionTime(Duration.ofSeconds(10))
+            .withValidateAfterInactivity(Duration.ofMillis(500))
+            .build());
+        stubRequestWithResponse("/authentication", "requests/authenticationRequest.json", "responses/authenticationResponse.json");
+        stubRequestWithResponse(SESSION_STATUS_URL, "responses/sessionStatusRunning.json");
+
+        MidAuthenticationResponse response = connector.authenticate(createValidAuthenticationRequest());
+        assertThat(response.getSessionID(), is("1dcc1600-29a6-4e95-a95c-d69b31febcfb"));
+
+        for (int i = 0; i < 5; i++) {
+            MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+            assertThat(sessionStatus.getState(), is("RUNNING"));
+        }
+    }
+
+    @Test(expected = MidInternalErrorException.class)
+    public void authenticate_whenReadTimeoutExceeded_shouldThrowException() {
+        connector = createConnector(MidConnectionPoolConfig.newBuilder()
+            .withReadTimeout(Duration.ofMillis(200))
+            .build());
+        stubFor(post(urlEqualTo("/authentication"))
+            .willReturn(aResponse()
+                .withStatus(200)
+                .withFixedDelay(1000)
+                .withHeader("Content-Type", "application/json")
+                .withBody("{}")));
+
+        connector.authenticate(createValidAuthenticationRequest());
+    }
+
+    @Test
+    public void getSessionStatus_usesSessionStatusReadTimeout() {
+        connector = createConnector(MidConnectionPoolConfig.newBuilder()
+            .withReadTimeout(Duration.ofMillis(200))
+            .withSessionStatusReadTimeout(Duration.ofSeconds(5))
+            .build());
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", Scenario.STARTED, Scenario.STARTED, 1000);
+
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+    }
+
+    @Test
+    public void getLongPollingTimeout_shouldLeaveMarginBeforeSessionStatusReadTimeout() {
+        assertThat(MidConnectionPoolConfig.newBuilder().withSessionStatusReadTimeout(Duration.ofSeconds(30)).build()
+            .getLongPollingTimeout(), is(Duration.ofSeconds(27)));
+        assertThat(MidConnectionPoolConfig.newBuilder().withReadTimeout(Duration.ofMillis(5500)).build()
+            .getLongPollingTimeout(), is(Duration.ofMillis(4500)));
+        assertThat(MidConnectionPoolConfig.newBuilder().withSessionStatusReadTimeout(Duration.ofSeconds(300)).build()
+            .getLongPollingTimeout(), is(Duration.ofSeconds(120)));
+        assertThat(MidConnectionPoolConfig.newBuilder().withSessionStatusReadTimeout(Duration.ofMillis(1500)).build()
+            .getLongPollingTimeout(), is(Duration.ZERO));
+        assertThat(MidConnectionPoolConfig.newBuilder().build().getLongPollingTimeout(), is(nullValue()));
+    }
+
+    @Test(expected = ProcessingException.class)
+    public void getSessionStatus_whenSessionStatusReadTimeoutExceeded_shouldThrowException() {
+        connector = createConnector(MidConnectionPoolConfig.newBuilder()
+            .withReadTimeout(Duration.ofSeconds(5))
+            .withSessionStatusReadTimeout(Duration.ofMillis(200))
+            .build());
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", Scenario.STARTED, Scenario.STARTED, 1000);
+
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withConfiguredClient_shouldThrowException() {
+        MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConfiguredClient(ClientBuilder.newClient())
+            .withConnectionPoolConfig(MidConnectionPoolConfig.newBuilder().build())
+            .build();
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void buildConfig_withNonPositiveMaxConnectionsPerRoute_shouldThrowException() {
+        MidConnectionPoolConfig.newBuilder()
+            .withMaxConnectionsPerRoute(0)
+            .build();
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void buildConfig_withNegativeReadTimeout_shouldThrowException() {
+        MidConnectionPoolConfig.newBuilder()
+            .withReadTimeout(Duration.ofSeconds(-1))
+            .build();
+    }
+
+    private static MidRestConnector createConnector(MidConnectionPoolConfig connectionPoolConfig) {
+        return MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConnectionPoolConfig(connectionPoolConfig)
+            .build();
+    }
+}
@@ -0,0 +1,374 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubServiceUnavailableErrorResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubSessionStatusWithState;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidPollingCancelledException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.ServiceUnavailableException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MobileIdRestConnectorRetryTest {
+
+    private static final String SESSION_ID = "de305d54-75b4-431b-adb2-eb6b9e546016";
+    private static final String SESSION_STATUS_URL = "/authentication/session/" + SESSION_ID;
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(18089);
+
+    private MidRestConnector connector;
+
+    @After
+    public void tearDown() {
+        if (connector != null) {
+            connector.close();
+        }
+    }
+
+    @Test
+    public void getSessionStatus_afterServiceUnavailable_shouldRetry() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(1)));
+        stubSessionStatusUnavailable(null, "recovered");
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", "recovered", "recovered", 0);
+
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+        assertThat(connector.getRetryMetrics().getSessionStatusRetries(), is(1L));
+        assertThat(connector.getRetryMetrics().getRecoveredCalls(), is(1L));
+        verify(2, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+    }
+
+    @Test
+    public void getSessionStatus_afterReadTimeout_shouldRetry() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConnectionPoolConfig(MidConnectionPoolConfig.newBuilder()
+                .withSessionStatusReadTimeout(Duration.ofMillis(200))
+                .build())
+            .withRetryPolicy(retryPolicy(3, Duration.ofSeconds(1)))
+            .build();
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", Scenario.STARTED, "recovered", 1000);
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", "recovered", "recovered", 0);
+
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+        assertThat(connector.getRetryMetrics().getSessionStatusRetries(), is(1L));
+    }
+
+    @Test
+    public void getSessionStatus_whenAlwaysUnavailable_shouldGiveUpAfterMaxAttempts() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(1)));
+        stubSessionStatusUnavailable(null, Scenario.STARTED);
+
+        try {
+            connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+            fail("Expected ServiceUnavailableException");
+        }
+        catch (ServiceUnavailableException expected) {
+            verify(3, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+            assertThat(connector.getRetryMetrics().getSessionStatusRetries(), is(2L));
+            assertThat(connector.getRetryMetrics().getExhaustedCalls(), is(1L));
+        }
+    }
+
+    @Test
+    public void getSessionStatus_shouldWaitForRetryAfter() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(2, Duration.ofSeconds(2)));
+        stubSessionStatusUnavailable("1", "recovered");
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", "recovered", "recovered", 0);
+
+        long start = System.currentTimeMillis();
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+
+        assertThat(System.currentTimeMillis() - start, is(greaterThanOrEqualTo(1000L)));
+    }
+
+    @Test(expected = ServiceUnavailableException.class)
+    public void getSessionStatus_whenRetryAfterExceedsMaxBackoff_shouldNotRetry() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(1)));
+        stubSessionStatusUnavailable("120", Scenario.STARTED);
+
+        try {
+            connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+        }
+        finally {
+            verify(1, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+        }
+    }
+
+    @Test(expected = MidServiceUnavailableException.class)
+    public void authenticate_afterServiceUnavailable_shouldNotRetry() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(1)));
+        stubServiceUnavailableErrorResponse("/authentication", "requests/authenticationRequest.json");
+
+        try {
+            connector.authenticate(createValidAuthenticationRequest());
+        }
+        finally {
+            verify(1, postRequestedFor(urlEqualTo("/authentication")));
+            assertThat(connector.getRetryMetrics().getInitiationRetries(), is(0L));
+        }
+    }
+
+    @Test(expected = MidInternalErrorException.class)
+    public void authenticate_whenConnectionRefused_shouldRetry() {
+        connector = createConnector("http://localhost:18090", retryPolicy(3, Duration.ofMillis(50)));
+
+        try {
+            connector.authenticate(createValidAuthenticationRequest());
+        }
+        finally {
+            assertThat(connector.getRetryMetrics().getInitiationRetries(), is(2L));
+            assertThat(connector.getRetryMetrics().getExhaustedCalls(), is(1L));
+        }
+    }
+
+    @Test
+    public void getSessionStatus_whenBackoffPassesDeadline_shouldStopAtDeadline() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(10)));
+        stubSessionStatusUnavailable("5", Scenario.STARTED);
+        MidSessionStatusRequest request = new MidPollingSessionStatusRequest(SESSION_ID, Duration.ZERO, Instant.now().plusMillis(300), null);
+
+        long start = System.currentTimeMillis();
+        try {
+            connector.getAuthenticationSessionStatus(request);
+            fail("Expected MidPollingDeadlineExceededException");
+        }
+        catch (MidPollingDeadlineExceededException expected) {
+            assertThat(System.currentTimeMillis() - start, is(lessThan(3000L)));
+            verify(1, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+        }
+    }
+
+    @Test
+    public void getSessionStatus_whenCancelledDuringBackoff_shouldStopWaiting() {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(10)));
+        stubSessionStatusUnavailable("5", Scenario.STARTED);
+        MidCancellationToken cancellationToken = new MidCancellationToken();
+        MidSessionStatusRequest request = new MidPollingSessionStatusRequest(SESSION_ID, Duration.ZERO, null, cancellationToken);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.schedule(cancellationToken::cancel, 300, TimeUnit.MILLISECONDS);
+
+        long start = System.currentTimeMillis();
+        try {
+            connector.getAuthenticationSessionStatus(request);
+            fail("Expected MidPollingCancelledException");
+        }
+        catch (MidPollingCancelledException expected) {
+            assertThat(System.currentTimeMillis() - start, is(lessThan(3000L)));
+            verify(1, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void getSessionStatusAsync_afterServiceUnavailable_shouldRetry() throws Exception {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(1)));
+        stubSessionStatusUnavailable(null, "recovered");
+        stubSessionStatusWithState(SESSION_STATUS_URL, "responses/sessionStatusRunning.json", "recovered", "recovered", 0);
+
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatusAsync(new MidSessionStatusRequest(SESSION_ID))
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+        assertThat(connector.getRetryMetrics().getSessionStatusRetries(), is(1L));
+        assertThat(connector.getRetryMetrics().getRecoveredCalls(), is(1L));
+        verify(2, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+    }
+
+    @Test
+    public void getSessionStatusAsync_whenBackoffPassesDeadline_shouldStopAtDeadline() throws Exception {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(10)));
+        stubSessionStatusUnavailable("5", Scenario.STARTED);
+        MidSessionStatusRequest request = new MidPollingSessionStatusRequest(SESSION_ID, Duration.ZERO, Instant.now().plusMillis(300), null);
+
+        long start = System.currentTimeMillis();
+        try {
+            connector.getAuthenticationSessionStatusAsync(request).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expected MidPollingDeadlineExceededException");
+        }
+        catch (ExecutionException expected) {
+            assertThat(expected.getCause() instanceof MidPollingDeadlineExceededException, is(true));
+            assertThat(System.currentTimeMillis() - start, is(lessThan(3000L)));
+            verify(1, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+        }
+    }
+
+    @Test
+    public void getSessionStatusAsync_whenCancelledDuringBackoff_shouldStopWaiting() throws Exception {
+        connector = createConnector(LOCALHOST_URL, retryPolicy(3, Duration.ofSeconds(10)));
+        stubSessionStatusUnavailable("5", Scenario.STARTED);
+        MidCancellationToken cancellationToken = new MidCancellationToken();
+        MidSessionStatusRequest request = new MidPollingSessionStatusRequest(SESSION_ID, Duration.ZERO, null, cancellationToken);
+
+        CompletableFuture<MidSessionStatus> sessionStatus = connector.getAuthenticationSessionStatusAsync(request).toCompletableFuture();
+        Thread.sleep(300);
+        cancellationToken.cancel();
+
+        try {
+            sessionStatus.get(1, TimeUnit.SECONDS);
+            fail("Expected MidPollingCancelledException");
+        }
+        catch (ExecutionException expected) {
+            assertThat(expected.getCause() instanceof MidPollingCancelledException, is(true));
+            verify(1, getRequestedFor(urlEqualTo(SESSION_STATUS_URL)));
+        }
+    }
+
+    @Test
+    public void authenticateAsync_whenConnectionRefused_shouldRetry() throws Exception {
+        connector = createConnector("http://localhost:18090", retryPolicy(3, Duration.ofMillis(50)));
+
+        try {
+            connector.authenticateAsync(createValidAuthenticationRequest()).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail("Expected MidInternalErrorException");
+        }
+        catch (ExecutionException expected) {
+            assertThat(expected.getCause() instanceof MidInternalErrorException, is(true));
+            assertThat(connector.getRetryMetrics().getInitiationRetries(), is(2L));
+            assertThat(connector.getRetryMetrics().getExhaustedCalls(), is(1L));
+        }
+    }
+
+    @Test
+    public void isRetryableInitiationFailure_withConnectTimeout_shouldRetry() {
+        MidRetryPolicy policy = MidRetryPolicy.newBuilder().build();
+
+        assertThat(policy.isRetryableInitiationFailure(
+            new ProcessingException(new SocketTimeoutException("connect timed out"))), is(true));
+        assertThat(policy.isRetryableInitiationFailure(
+            new ProcessingException(new SocketTimeoutException("Read timed out"))), is(false));
+    }
+
+    @Test
+    public void backoff_shouldStayWithinExponentialCap() {
+        MidRetryPolicy policy = MidRetryPolicy.newBuilder()
+            .withMaxAttempts(10)
+            .withBaseBackoff(Duration.ofMillis(100))
+            .withMaxBackoff(Duration.ofMillis(500))
+            .build();
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.backoff(1, null).toMillis(), is(lessThanOrEqualTo(100L)));
+            assertThat(policy.backoff(2, null).toMillis(), is(lessThanOrEqualTo(200L)));
+            assertThat(policy.backoff(9, null).toMillis(), is(lessThanOrEqualTo(500L)));
+        }
+        assertThat(policy.backoff(10, null), is(nullValue()));
+    }
+
+    @Test
+    public void backoff_shouldNotBeShorterThanRetryAfter() {
+        MidRetryPolicy policy = MidRetryPolicy.newBuilder()
+            .withBaseBackoff(Duration.ofMillis(10))
+            .withMaxBackoff(Duration.ofSeconds(5))
+            .build();
+
+        assertThat(policy.backoff(1, Duration.ofSeconds(3)), is(Duration.ofSeconds(3)));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withZeroMaxAttempts_shouldThrowException() {
+        MidRetryPolicy.newBuilder().withMaxAttempts(0).build();
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withMaxBackoffShorterThanBase_shouldThrowException() {
+        MidRetryPolicy.newBuilder()
+            .withBaseBackoff(Duration.ofSeconds(2))
+            .withMaxBackoff(Duration.ofSeconds(1))
+            .build();
+    }
+
+    private static void stubSessionStatusUnavailable(String retryAfter, String nextState) {
+        stubFor(get(urlEqualTo(SESSION_STATUS_URL))
+            .inScenario("Session status")
+            .whenScenarioStateIs(Scenario.STARTED)
+            .willReturn(retryAfter == null
+                ? aResponse().withStatus(503)
+                : aResponse().withStatus(503).withHeader("Retry-After", retryAfter))
+            .willSetStateTo(nextState));
+    }
+
+    private static MidRetryPolicy retryPolicy(int maxAttempts, Duration maxBackoff) {
+        return MidRetryPolicy.newBuilder()
+            .withMaxAttempts(maxAttempts)
+            .withBaseBackoff(Duration.ofMillis(10))
+            .withMaxBackoff(maxBackoff)
+            .build();
+    }
+
+    private static MidRestConnector createConnector(String endpointUrl, MidRetryPolicy retryPolicy) {
+        return MidRestConnector.newBuilder()
+            .withEndpointUrl(endpointUrl)
+            .withRelyingPartyUUID("00000000-0000-0000-0000-000000000000")
+            .withRelyingPartyName("DEMO")
+            .withRetryPolicy(retryPolicy)
+            .build();
+    }
+}
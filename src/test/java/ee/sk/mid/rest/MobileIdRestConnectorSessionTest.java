@@ -26,20 +26,32 @@ package ee.sk.mid.rest;
  * #L%
  */
 
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
 import static ee.sk.mid.mock.MobileIdRestServiceStub.stubNotFoundResponse;
 import static ee.sk.mid.mock.MobileIdRestServiceStub.stubRequestWithResponse;
 import static ee.sk.mid.mock.SessionStatusDummy.assertErrorSessionStatus;
 import static ee.sk.mid.mock.SessionStatusDummy.assertSuccessfulSessionStatus;
 import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.core.StringStartsWith.startsWith;
 
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.core.Response;
 import ee.sk.mid.exception.MidSessionNotFoundException;
 import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
 import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -145,9 +157,147 @@ public class MobileIdRestConnectorSessionTest {
         assertErrorSessionStatus(sessionStatus, "SIGNATURE_HASH_MISMATCH");
     }
 
+    @Test
+    public void getSessionStatus_withConfiguredClient_registersLoggingFilterOnce() {
+        Client client = ClientBuilder.newClient();
+        MidRestConnector connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConfiguredClient(client)
+            .build();
+        stubRequestWithResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+
+        for (int i = 0; i < 3; i++) {
+            connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+        }
+
+        long loggingFilters = client.getConfiguration().getInstances().stream()
+            .filter(instance -> instance instanceof MidLoggingFilter)
+            .count();
+        assertThat(loggingFilters, is(1L));
+    }
+
+    @Test
+    public void close_withConfiguredClient_leavesClientOpen() {
+        Client client = ClientBuilder.newClient();
+        MidRestConnector connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConfiguredClient(client)
+            .build();
+        stubRequestWithResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+
+        connector.close();
+
+        Response response = client.target(LOCALHOST_URL).path("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016").request("application/json").get();
+        assertThat(response.getStatus(), is(200));
+        response.close();
+        client.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getSessionStatus_afterClose_shouldThrowException() {
+        MidRestConnector connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        stubRequestWithResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+
+        connector.close();
+
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"));
+    }
+
+    @Test
+    public void getSessionStatusAsync_afterClose_shouldCompleteExceptionally() {
+        MidRestConnector connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        connector.close();
+
+        CompletableFuture<MidSessionStatus> status = connector
+            .getAuthenticationSessionStatusAsync(new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016"))
+            .toCompletableFuture();
+
+        assertFailedWithIllegalState(status);
+    }
+
+    @Test
+    public void authenticateAsync_afterClose_shouldCompleteExceptionally() {
+        MidRestConnector connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        connector.close();
+
+        CompletableFuture<MidAuthenticationResponse> response = connector
+            .authenticateAsync(createValidAuthenticationRequest())
+            .toCompletableFuture();
+
+        assertFailedWithIllegalState(response);
+    }
+
+    @Test
+    public void getSessionStatus_withSameRequestAfterSslTrustContextChange_doesNotUseTargetOfClosedClient() {
+        MidRestConnector connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        stubRequestWithResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016", "responses/sessionStatusRunning.json");
+        MidSessionStatusRequest request = new MidPollingSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016", Duration.ofSeconds(1), null, null);
+        connector.getAuthenticationSessionStatus(request);
+        connector.getAuthenticationSessionStatus(request);
+
+        connector.setSslTrustContext(null);
+
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(request);
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+        connector.close();
+    }
+
+    @Test
+    public void sessionStatusTarget_ofPollingRequest_shouldNotAllocateAfterFirstPoll() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationCounter.isThreadAllocatedMemorySupported() && allocationCounter.isThreadAllocatedMemoryEnabled());
+        MidRestConnector restConnector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        MidSessionStatusRequest pollingRequest = new MidPollingSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016", Duration.ofSeconds(1), null, null);
+        MidSessionStatusRequest plainRequest = new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016", Duration.ofSeconds(1));
+        int polls = 20000;
+        // warm up the code
+        long pollingBytes = allocatedBytes(allocationCounter, restConnector, pollingRequest, polls);
+        long plainBytes = allocatedBytes(allocationCounter, restConnector, plainRequest, polls);
+        pollingBytes = allocatedBytes(allocationCounter, restConnector, pollingRequest, polls);
+        plainBytes = allocatedBytes(allocationCounter, restConnector, plainRequest, polls);
+        restConnector.close();
+
+        assertThat("allocated " + pollingBytes + " bytes", pollingBytes / polls < 8, is(true));
+        assertThat("allocated " + plainBytes + " bytes", plainBytes / polls > 100, is(true));
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean allocationCounter, MidRestConnector restConnector,
+                                       MidSessionStatusRequest request, int polls) {
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationCounter.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < polls; i++) {
+            restConnector.sessionStatusTarget(request, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH);
+        }
+        return allocationCounter.getThreadAllocatedBytes(threadId) - allocatedBefore;
+    }
+
     private MidSessionStatus getStubbedSessionStatusWithResponse(String responseFile) {
         stubRequestWithResponse("/authentication/session/de305d54-75b4-431b-adb2-eb6b9e546016", responseFile);
         MidSessionStatusRequest request = new MidSessionStatusRequest("de305d54-75b4-431b-adb2-eb6b9e546016");
         return connector.getAuthenticationSessionStatus(request);
     }
+
+    private static void assertFailedWithIllegalState(CompletableFuture<?> future) {
+        assertThat(future.isCompletedExceptionally(), is(true));
+        try {
+            future.join();
+        }
+        catch (CompletionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
 }
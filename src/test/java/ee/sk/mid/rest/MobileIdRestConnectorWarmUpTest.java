@@ -0,0 +1,198 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.anyUrl;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.request;
+import static com.github.tomakehurst.wiremock.client.WireMock.stubFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.github.tomakehurst.wiremock.matching.RequestPatternBuilder.newRequestPattern;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.http.RequestMethod;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.mock.MobileIdConnectorStub;
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import jakarta.ws.rs.ext.ContextResolver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MobileIdRestConnectorWarmUpTest {
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(18089);
+
+    private MidRestConnector connector;
+
+    @After
+    public void tearDown() {
+        if (connector != null) {
+            connector.close();
+        }
+    }
+
+    @Test
+    public void warmUp_shouldOpenConnectionsWithoutStartingTransactions() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConnectionPoolConfig(MidConnectionPoolConfig.newBuilder().build())
+            .build();
+        stubFor(request("HEAD", anyUrl()).willReturn(aResponse().withStatus(404)));
+
+        MidWarmUpResult result = connector.warmUp(3);
+
+        assertThat(result.getConnectionsOpened(), is(3));
+        assertThat(result.getConnectionsFailed(), is(0));
+        assertThat(result.getClientBootstrap(), is(notNullValue()));
+        assertThat(result.getConnections(), is(notNullValue()));
+        assertThat(result.getJsonSerialization(), is(notNullValue()));
+        verify(3, newRequestPattern(RequestMethod.HEAD, anyUrl()));
+        verify(0, postRequestedFor(anyUrl()));
+    }
+
+    @Test
+    public void warmUp_withUnreachableHost_shouldCountFailedConnections() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl("http://localhost:18090")
+            .build();
+
+        MidWarmUpResult result = connector.warmUp(2);
+
+        assertThat(result.getConnectionsOpened(), is(0));
+        assertThat(result.getConnectionsFailed(), is(2));
+    }
+
+    @Test
+    public void warmUp_withZeroConnections_shouldOnlyBootstrapClient() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+
+        MidWarmUpResult result = connector.warmUp(0);
+
+        assertThat(result.getConnectionsOpened(), is(0));
+        verify(0, newRequestPattern(RequestMethod.HEAD, anyUrl()));
+    }
+
+    @Test
+    public void warmUp_throughDecorators_shouldReachRestConnector() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        stubFor(request("HEAD", anyUrl()).willReturn(aResponse().withStatus(404)));
+        MidConnector decorated = MidMultiEndpointConnector.newBuilder()
+            .withEndpoint("primary", MidConcurrencyLimitingConnector.newBuilder().withConnector(connector).build())
+            .withEndpoint("stub", new MobileIdConnectorStub())
+            .build();
+
+        MidWarmUpResult result = MidWarmUpConnector.warmUpIfSupported(decorated, 2);
+
+        assertThat(result.isSkipped(), is(false));
+        assertThat(result.getConnectionsOpened(), is(2));
+        verify(2, newRequestPattern(RequestMethod.HEAD, anyUrl()));
+    }
+
+    @Test
+    public void warmUp_withConnectorWithoutWarmUp_shouldBeSkipped() {
+        MidWarmUpResult result = MidWarmUpConnector.warmUpIfSupported(new MobileIdConnectorStub(), 2);
+
+        assertThat(result.isSkipped(), is(true));
+        assertThat(result.getTotal(), is(Duration.ZERO));
+    }
+
+    @Test
+    public void warmUp_whenConnectionsHang_shouldStopWaitingAtTimeout() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+        stubFor(request("HEAD", anyUrl()).willReturn(aResponse().withStatus(404).withFixedDelay(3000)));
+
+        long start = System.currentTimeMillis();
+        MidWarmUpResult result = connector.warmUp(2, Duration.ofMillis(200));
+
+        assertThat(result.getConnectionsOpened(), is(0));
+        assertThat(result.getConnectionsFailed(), is(2));
+        assertThat(System.currentTimeMillis() - start, is(lessThan(2500L)));
+    }
+
+    @Test
+    public void warmUp_shouldMapJsonWithRegisteredObjectMapper() {
+        CountingObjectMapperResolver objectMapperResolver = new CountingObjectMapperResolver();
+        Client client = ClientBuilder.newBuilder()
+            .register(objectMapperResolver)
+            .build();
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConfiguredClient(client)
+            .build();
+
+        try {
+            connector.warmUp(0);
+
+            assertThat(objectMapperResolver.lookups.get(), is(greaterThan(0)));
+            verify(0, postRequestedFor(anyUrl()));
+        }
+        finally {
+            client.close();
+        }
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void warmUp_withNegativeConnections_shouldThrowException() {
+        connector = MidRestConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .build();
+
+        connector.warmUp(-1);
+    }
+
+    private static class CountingObjectMapperResolver implements ContextResolver<ObjectMapper> {
+        private final ObjectMapper objectMapper = new ObjectMapper();
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public ObjectMapper getContext(Class<?> type) {
+            lookups.incrementAndGet();
+            return objectMapper;
+        }
+    }
+}
@@ -42,17 +42,42 @@ import static ee.sk.mid.mock.SessionStatusDummy.createUserCancellationStatus;
 import static ee.sk.mid.mock.TestData.AUTHENTICATION_SESSION_PATH;
 import static ee.sk.mid.mock.TestData.SESSION_ID;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ee.sk.mid.exception.MidDeliveryException;
 import ee.sk.mid.exception.MidInternalErrorException;
 import ee.sk.mid.exception.MidInvalidUserConfigurationException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
 import ee.sk.mid.exception.MidNotMidClientException;
 import ee.sk.mid.exception.MidPhoneNotAvailableException;
+import ee.sk.mid.exception.MidPollingCancelledException;
+import ee.sk.mid.exception.MidPollingDeadlineExceededException;
 import ee.sk.mid.exception.MidSessionTimeoutException;
 import ee.sk.mid.exception.MidUserCancellationException;
 import ee.sk.mid.mock.MobileIdConnectorStub;
 import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -110,6 +135,274 @@ public class SessionStatusPollerTest {
         assertThat(duration <= 10100L, is(true));
     }
 
+    @Test
+    public void setPollingSleepTimeInMilliseconds() {
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeout(Duration.ofMillis(200))
+            .build();
+
+        addMultipleRunningSessionResponses();
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        long duration = measurePollingDuration();
+
+        assertThat(duration >= 1000L, is(true));
+        assertThat(duration < 2000L, is(true));
+    }
+
+    @Test
+    public void longPollRunningToFullTimeout_shouldNotSleepBeforeNextPoll() {
+        MidConnector longPollingConnector = mock(MidConnector.class);
+        AtomicInteger polls = new AtomicInteger();
+        when(longPollingConnector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            MidSessionStatusRequest request = invocation.getArgument(0);
+            assertThat(request.getTimeoutMs(), is(1000));
+            if (polls.incrementAndGet() < 3) {
+                Thread.sleep(request.getTimeoutMs());
+                return createRunningSessionStatus();
+            }
+            return createSuccessfulSessionStatus();
+        });
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(longPollingConnector)
+            .withPollingSleepTimeout(Duration.ofSeconds(5))
+            .withLongPollingTimeout(Duration.ofSeconds(1))
+            .build();
+
+        long startTime = System.currentTimeMillis();
+        assertCompleteSessionStatus(poller.fetchFinalSessionStatus(SESSION_ID, AUTHENTICATION_SESSION_PATH));
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertThat(polls.get(), is(3));
+        assertThat(duration < 4000L, is(true));
+    }
+
+    @Test
+    public void deadline_shouldShortenLongPollAndStopPolling() {
+        MidConnector longPollingConnector = mock(MidConnector.class);
+        List<Integer> requestTimeouts = new CopyOnWriteArrayList<>();
+        when(longPollingConnector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            MidSessionStatusRequest request = invocation.getArgument(0);
+            requestTimeouts.add(request.getTimeoutMs());
+            Thread.sleep(Math.min(request.getTimeoutMs(), 1800));
+            return createRunningSessionStatus();
+        });
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(longPollingConnector)
+            .withLongPollingTimeout(Duration.ofSeconds(5))
+            .build();
+
+        long startTime = System.currentTimeMillis();
+        try {
+            poller.fetchFinalSessionStatus(SESSION_ID, AUTHENTICATION_SESSION_PATH, Instant.now().plusMillis(2500), null);
+            fail("MidPollingDeadlineExceededException expected");
+        } catch (MidPollingDeadlineExceededException expected) {
+        }
+        long duration = System.currentTimeMillis() - startTime;
+
+        assertThat(requestTimeouts.get(0) > 2000 && requestTimeouts.get(0) <= 2500, is(true));
+        assertThat(requestTimeouts.get(1), is(0));
+        assertThat(requestTimeouts.size(), is(2));
+        assertThat(duration >= 2500L && duration < 3500L, is(true));
+        assertThat(poller.getExpiredSessions(), is(1L));
+    }
+
+    @Test
+    public void cancel_shouldWakeUpFromSleep() {
+        MidCancellationToken cancellationToken = new MidCancellationToken();
+        addMultipleRunningSessionResponses();
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeoutSeconds(5)
+            .build();
+        cancelLater(cancellationToken);
+
+        long startTime = System.currentTimeMillis();
+        try {
+            poller.fetchFinalAuthenticationSessionStatus(SESSION_ID, null, cancellationToken);
+            fail("MidPollingCancelledException expected");
+        } catch (MidPollingCancelledException expected) {
+        }
+
+        assertThat(System.currentTimeMillis() - startTime < 2000L, is(true));
+        assertThat(connector.getResponseNumber(), is(1));
+        assertThat(poller.getCancelledSessions(), is(1L));
+    }
+
+    @Test
+    public void cancel_duringRequestInFlight_shouldStopWhenRequestReturns() {
+        MidCancellationToken cancellationToken = new MidCancellationToken();
+        MidConnector asyncConnector = mock(MidConnector.class, withSettings().extraInterfaces(MidAsyncConnector.class));
+        when(asyncConnector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(1000);
+            return createRunningSessionStatus();
+        });
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(asyncConnector)
+            .withLongPollingTimeoutSeconds(60)
+            .build();
+        cancelLater(cancellationToken);
+
+        try {
+            poller.fetchFinalSignatureSessionStatus(SESSION_ID, null, cancellationToken);
+            fail("MidPollingCancelledException expected");
+        } catch (MidPollingCancelledException expected) {
+        }
+
+        verify(asyncConnector).getSessionStatus(any(MidSessionStatusRequest.class), anyString());
+        verifyNoMoreInteractions(asyncConnector);
+        assertThat(poller.getCancelledSessions(), is(1L));
+    }
+
+    @Test
+    public void sessionStatusListener_shouldReceiveEveryStatusAndFinalResult() {
+        List<MidSessionStatusEvent> events = new CopyOnWriteArrayList<>();
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeout(Duration.ofMillis(100))
+            .withSessionStatusListener(events::add)
+            .build();
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createSuccessfulSessionStatus());
+
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+
+        assertThat(events.size(), is(3));
+        assertThat(events.get(0).getSessionStatus().getState(), is("RUNNING"));
+        assertThat(events.get(0).getPolls(), is(1));
+        assertThat(events.get(0).isFinal(), is(false));
+        assertThat(events.get(1).getPolls(), is(2));
+        assertThat(events.get(1).getElapsed().toMillis() >= 100L, is(true));
+        MidSessionStatusEvent finalEvent = events.get(2);
+        assertThat(finalEvent.getSessionId(), is(SESSION_ID));
+        assertThat(finalEvent.getPath(), is(AUTHENTICATION_SESSION_PATH));
+        assertThat(finalEvent.getSessionStatus().getResult(), is("OK"));
+        assertThat(finalEvent.getPolls(), is(3));
+        assertThat(finalEvent.isFinal(), is(true));
+        assertThat(finalEvent.isSuccessful(), is(true));
+    }
+
+    @Test
+    public void sessionStatusListener_shouldReceiveFailure() {
+        List<MidSessionStatusEvent> events = new CopyOnWriteArrayList<>();
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withSessionStatusListener(events::add)
+            .build();
+        connector.getResponses().add(createUserCancellationStatus());
+
+        try {
+            poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+            fail("MidUserCancellationException expected");
+        } catch (MidUserCancellationException expected) {
+        }
+
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).isFinal(), is(true));
+        assertThat(events.get(0).isSuccessful(), is(false));
+        assertThat(events.get(0).getSessionStatus().getResult(), is("USER_CANCELLED"));
+        assertThat(events.get(0).getError(), is(instanceOf(MidUserCancellationException.class)));
+    }
+
+    @Test
+    public void sessionStatusListener_shouldReceiveCancellation() {
+        List<MidSessionStatusEvent> events = new CopyOnWriteArrayList<>();
+        MidCancellationToken cancellationToken = new MidCancellationToken();
+        cancellationToken.cancel();
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withSessionStatusListener(event -> {
+                events.add(event);
+                throw new IllegalStateException("listener failures must not break polling");
+            })
+            .build();
+
+        try {
+            poller.fetchFinalAuthenticationSessionStatus(SESSION_ID, null, cancellationToken);
+            fail("MidPollingCancelledException expected");
+        } catch (MidPollingCancelledException expected) {
+        }
+
+        assertThat(events.size(), is(1));
+        assertThat(events.get(0).getSessionStatus(), is(nullValue()));
+        assertThat(events.get(0).getPolls(), is(0));
+        assertThat(events.get(0).getError(), is(instanceOf(MidPollingCancelledException.class)));
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withLongPollingTimeoutUnderOneSecond_shouldThrowException() {
+        MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeout(Duration.ofMillis(500))
+            .build();
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void build_withLongPollingTimeoutOverMidLimit_shouldThrowException() {
+        MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeout(Duration.ofSeconds(121))
+            .build();
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void sessionStatusRequest_withTimeoutThatOverflowsInt_shouldThrowException() {
+        new MidSessionStatusRequest(SESSION_ID, Duration.ofDays(30));
+    }
+
+    @Test
+    public void poll_shouldReuseRequestOfSession() {
+        List<MidSessionStatusRequest> requests = new CopyOnWriteArrayList<>();
+        MidConnector recordingConnector = mock(MidConnector.class);
+        when(recordingConnector.getSessionStatus(any(MidSessionStatusRequest.class), anyString())).thenAnswer(invocation -> {
+            requests.add(invocation.getArgument(0));
+            return requests.size() < 3 ? createRunningSessionStatus() : createSuccessfulSessionStatus();
+        });
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(recordingConnector)
+            .withLongPollingTimeout(Duration.ofSeconds(1))
+            .build();
+
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+
+        assertThat(requests.size(), is(3));
+        assertThat(requests.get(1) == requests.get(0), is(true));
+        assertThat(requests.get(2) == requests.get(0), is(true));
+    }
+
+    @Test
+    public void runningPoll_shouldNotAllocate() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationCounter = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationCounter.isThreadAllocatedMemorySupported() && allocationCounter.isThreadAllocatedMemoryEnabled());
+        poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withLongPollingTimeout(Duration.ofSeconds(1))
+            .build();
+        int polls = 20000;
+        MidSessionStatus runningStatus = createRunningSessionStatus();
+        MidSessionStatus successfulStatus = createSuccessfulSessionStatus();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < polls; i++) {
+                connector.getResponses().add(runningStatus);
+            }
+            connector.getResponses().add(successfulStatus);
+        }
+        // first two rounds warm up the code
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = allocationCounter.getThreadAllocatedBytes(threadId);
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+        long allocated = allocationCounter.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        assertThat(connector.getResponseNumber(), is(3 * (polls + 1)));
+        assertThat("allocated " + allocated + " bytes", allocated / polls < 8, is(true));
+    }
+
     @Test(expected = MidSessionTimeoutException.class)
     public void getUserTimeoutResponse_shouldThrowException() {
         connector.getResponses().add(createTimeoutSessionStatus());
@@ -194,6 +487,12 @@ public class SessionStatusPollerTest {
         return endTime - startTime;
     }
 
+    private static void cancelLater(MidCancellationToken cancellationToken) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.schedule(cancellationToken::cancel, 200, TimeUnit.MILLISECONDS);
+        scheduler.shutdown();
+    }
+
     private void addMultipleRunningSessionResponses() {
         for (int i = 0; i < 5; i++)
             connector.getResponses().add(createRunningSessionStatus());
@@ -0,0 +1,189 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static ee.sk.mid.mock.MobileIdRestServiceRequestDummy.createValidAuthenticationRequest;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubBadRequestResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubInternalServerErrorResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubNotFoundResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubRequestWithResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubServiceUnavailableErrorResponse;
+import static ee.sk.mid.mock.MobileIdRestServiceStub.stubUnauthorizedResponse;
+import static ee.sk.mid.mock.TestData.LOCALHOST_URL;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import ee.sk.mid.exception.MidInternalErrorException;
+import ee.sk.mid.exception.MidMissingOrInvalidParameterException;
+import ee.sk.mid.exception.MidServiceUnavailableException;
+import ee.sk.mid.exception.MidSessionNotFoundException;
+import ee.sk.mid.exception.MidUnauthorizedException;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import ee.sk.mid.rest.dao.request.MidAuthenticationRequest;
+import ee.sk.mid.rest.dao.request.MidSessionStatusRequest;
+import ee.sk.mid.rest.dao.response.MidAuthenticationResponse;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MidHttpClientConnectorTest {
+
+    private static final String SESSION_ID = "de305d54-75b4-431b-adb2-eb6b9e546016";
+
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(18089);
+
+    private MidHttpClientConnector connector;
+
+    @Before
+    public void setUp() {
+        connector = MidHttpClientConnector.newBuilder()
+            .withEndpointUrl(LOCALHOST_URL)
+            .withConnectTimeout(Duration.ofSeconds(5))
+            .withRequestTimeout(Duration.ofSeconds(10))
+            .build();
+    }
+
+    @Test
+    public void authenticate() {
+        stubRequestWithResponse("/authentication", "requests/authenticationRequest.json", "responses/authenticationResponse.json");
+        MidAuthenticationResponse response = connector.authenticate(createValidAuthenticationRequest());
+
+        assertThat(response, is(notNullValue()));
+        assertThat(response.getSessionID(), is("1dcc1600-29a6-4e95-a95c-d69b31febcfb"));
+    }
+
+    @Test
+    public void authenticateAsync() throws Exception {
+        stubRequestWithResponse("/authentication", "requests/authenticationRequest.json", "responses/authenticationResponse.json");
+        MidAuthenticationResponse response = connector.authenticateAsync(createValidAuthenticationRequest())
+            .toCompletableFuture()
+            .get(10, TimeUnit.SECONDS);
+
+        assertThat(response.getSessionID(), is("1dcc1600-29a6-4e95-a95c-d69b31febcfb"));
+    }
+
+    @Test(expected = MidInternalErrorException.class)
+    public void authenticate_whenGettingResponseFailed_shouldThrowException() {
+        stubInternalServerErrorResponse("/authentication", "requests/authenticationRequest.json");
+        connector.authenticate(createValidAuthenticationRequest());
+    }
+
+    @Test(expected = MidServiceUnavailableException.class)
+    public void authenticate_whenHttpStatusCode503_shouldThrowException() {
+        stubServiceUnavailableErrorResponse("/authentication", "requests/authenticationRequest.json");
+        connector.authenticate(createValidAuthenticationRequest());
+    }
+
+    @Test(expected = MidInternalErrorException.class)
+    public void authenticate_whenResponseNotFound_shouldThrowException() {
+        stubNotFoundResponse("/authentication", "requests/authenticationRequest.json");
+        connector.authenticate(createValidAuthenticationRequest());
+    }
+
+    @Test
+    public void authenticate_withWrongRequestParams_shouldThrowExceptionWithErrorFromBody() {
+        stubBadRequestResponse("/authentication", "requests/authenticationRequest.json");
+        try {
+            connector.authenticate(createValidAuthenticationRequest());
+            throw new AssertionError("Expected MidMissingOrInvalidParameterException");
+        }
+        catch (MidMissingOrInvalidParameterException e) {
+            assertThat(e.getMessage(), is("Invalid phoneNumber or nationalIdentityNumber"));
+        }
+    }
+
+    @Test(expected = MidUnauthorizedException.class)
+    public void authenticate_withWrongAuthenticationParams_shouldThrowException() {
+        stubUnauthorizedResponse("/authentication", "requests/authenticationRequest.json");
+        connector.authenticate(createValidAuthenticationRequest());
+    }
+
+    @Test(expected = MidMissingOrInvalidParameterException.class)
+    public void authenticate_withoutRelyingPartyName_shouldThrowException() {
+        MidAuthenticationRequest request = createValidAuthenticationRequest();
+        request.setRelyingPartyName("");
+        connector.authenticate(request);
+    }
+
+    @Test(expected = MidInternalErrorException.class)
+    public void authenticate_whenHostUnreachable_shouldThrowException() {
+        MidHttpClientConnector connector = MidHttpClientConnector.newBuilder()
+            .withEndpointUrl("http://localhost:18090")
+            .build();
+        connector.authenticate(createValidAuthenticationRequest());
+    }
+
+    @Test
+    public void getSessionStatus() {
+        stubRequestWithResponse("/authentication/session/" + SESSION_ID, "responses/sessionStatusForSuccessfulAuthenticationRequest.json");
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+
+        assertThat(sessionStatus.getState(), is("COMPLETE"));
+        assertThat(sessionStatus.getResult(), is("OK"));
+        assertThat(sessionStatus.getSignature().getAlgorithm(), is("sha256WithRSAEncryption"));
+    }
+
+    @Test
+    public void getSessionStatus_withLongPolling_shouldSendTimeout() {
+        stubRequestWithResponse("/authentication/session/" + SESSION_ID, "responses/sessionStatusRunning.json");
+        MidSessionStatus sessionStatus = connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID, 2));
+
+        assertThat(sessionStatus.getState(), is("RUNNING"));
+        verify(getRequestedFor(urlEqualTo("/authentication/session/" + SESSION_ID + "?timeoutMs=2000")));
+    }
+
+    @Test(expected = MidSessionNotFoundException.class)
+    public void getSessionStatus_whenSessionNotFound_shouldThrowException() {
+        stubNotFoundResponse("/authentication/session/" + SESSION_ID);
+        connector.getAuthenticationSessionStatus(new MidSessionStatusRequest(SESSION_ID));
+    }
+
+    @Test
+    public void getSessionStatusAsync_whenSessionNotFound_shouldCompleteExceptionally() throws Exception {
+        stubNotFoundResponse("/authentication/session/" + SESSION_ID);
+        try {
+            connector.getAuthenticationSessionStatusAsync(new MidSessionStatusRequest(SESSION_ID))
+                .toCompletableFuture()
+                .get(10, TimeUnit.SECONDS);
+            throw new AssertionError("Expected MidSessionNotFoundException");
+        }
+        catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(MidSessionNotFoundException.class));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ee.sk.mid.rest;
+
+/*-
+ * #%L
+ * Mobile ID sample Java client
+ * %%
+ * Copyright (C) 2018 - 2019 SK ID Solutions AS
+ * %%
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * #L%
+ */
+
+
+import static ee.sk.mid.mock.SessionStatusDummy.createRunningSessionStatus;
+import static ee.sk.mid.mock.SessionStatusDummy.createSuccessfulSessionStatus;
+import static ee.sk.mid.mock.TestData.SESSION_ID;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import ee.sk.mid.mock.MobileIdConnectorStub;
+import ee.sk.mid.rest.dao.MidSessionStatus;
+import org.junit.Test;
+
+public class MidSessionStatusPublisherTest {
+
+    @Test
+    public void publisher_shouldFanOutEventsToAllSubscribers() throws Exception {
+        MobileIdConnectorStub connector = new MobileIdConnectorStub();
+        connector.getResponses().add(createRunningSessionStatus());
+        connector.getResponses().add(createSuccessfulSessionStatus());
+        MidSessionStatusPublisher publisher = new MidSessionStatusPublisher();
+        MidSessionStatusPoller poller = MidSessionStatusPoller.newBuilder()
+            .withConnector(connector)
+            .withPollingSleepTimeoutSeconds(0)
+            .withLongPollingTimeoutSeconds(1)
+            .withSessionStatusListener(publisher)
+            .build();
+
+        List<MidSessionStatusEvent> firstSubscriberEvents = new CopyOnWriteArrayList<>();
+        List<MidSessionStatusEvent> secondSubscriberEvents = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> firstSubscriber = publisher.consume(firstSubscriberEvents::add);
+        CompletableFuture<Void> secondSubscriber = publisher.consume(secondSubscriberEvents::add);
+
+        poller.fetchFinalAuthenticationSessionStatus(SESSION_ID);
+        publisher.close();
+        CompletableFuture.allOf(firstSubscriber, secondSubscriber).get(5, TimeUnit.SECONDS);
+
+        assertThat(firstSubscriberEvents.size(), is(2));
+        assertThat(secondSubscriberEvents.size(), is(2));
+        assertThat(firstSubscriberEvents.get(1).isSuccessful(), is(true));
+        assertThat(secondSubscriberEvents.get(1).getSessionId(), is(SESSION_ID));
+        assertThat(publisher.getDroppedEvents(), is(0L));
+    }
+
+    @Test
+    public void publisher_withSlowSubscriber_shouldDropProgressButDeliverFinalEvent() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        MidSessionStatusPublisher publisher = new MidSessionStatusPublisher(executor, 1, Duration.ofSeconds(2));
+        List<MidSessionStatusEvent> events = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> subscriber = publisher.consume(event -> {
+            try {
+                Thread.sleep(200);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            events.add(event);
+        });
+
+        for (int i = 1; i <= 5; i++) {
+            publisher.onSessionStatus(createEvent(createRunningSessionStatus(), i, false));
+        }
+        publisher.onSessionStatus(createEvent(createSuccessfulSessionStatus(), 6, true));
+        publisher.close();
+        subscriber.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertThat(events.get(events.size() - 1).isFinal(), is(true));
+        assertThat(publisher.getDroppedEvents(), is(greaterThan(0L)));
+        assertThat(publisher.getDroppedFinalEvents(), is(0L));
+    }
+
+    private static MidSessionStatusEvent createEvent(MidSessionStatus sessionStatus, int polls, boolean finalEvent) {
+        return new MidSessionStatusEvent(SESSION_ID, MidSessionStatusPoller.AUTHENTICATION_SESSION_PATH, sessionStatus, null,
+            polls, Duration.ofSeconds(polls), Duration.ZERO, finalEvent);
+    }
+}